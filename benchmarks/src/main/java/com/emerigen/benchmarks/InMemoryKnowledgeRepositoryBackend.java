@@ -0,0 +1,175 @@
+package com.emerigen.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.couchbase.client.java.json.JsonObject;
+import com.emerigen.infrastructure.repository.KnowledgeRepositoryBackend;
+import com.emerigen.infrastructure.repository.KnowledgeRepositoryBackend.WriteListener;
+import com.emerigen.infrastructure.repository.RepositoryException;
+
+/**
+ * A heap-only KnowledgeRepositoryBackend used as the stand-in repository for
+ * the benchmarks, so they measure the learning code rather than Couchbase or
+ * disk I/O. Documents are held as-is; transitions are indexed by
+ * firstSensorEventKey and documents are counted per type, sensor type and
+ * sensor location, mirroring the lookups of the real backends.
+ *
+ * @author Larry
+ *
+ */
+public class InMemoryKnowledgeRepositoryBackend implements KnowledgeRepositoryBackend {
+
+	private final ConcurrentHashMap<String, JsonObject> documents = new ConcurrentHashMap<String, JsonObject>();
+	private final ConcurrentHashMap<String, Set<String>> transitionIdsPerFirstSensorEventKey = new ConcurrentHashMap<String, Set<String>>();
+	private final ConcurrentHashMap<String, AtomicInteger> documentCounts = new ConcurrentHashMap<String, AtomicInteger>();
+
+	@Override
+	public void log(String key, JsonObject jsonObject, boolean synchronous) {
+		if (documents.containsKey(key))
+			throw new RepositoryException("document already exists: " + key);
+		replace(key, jsonObject, synchronous);
+	}
+
+	@Override
+	public void replace(String key, JsonObject jsonObject, boolean synchronous) {
+		put(key, jsonObject);
+	}
+
+	@Override
+	public void replace(String key, JsonObject jsonObject, boolean synchronous,
+			WriteListener listener) {
+		if (listener == null)
+			throw new IllegalArgumentException("listener must not be null");
+		listener.written(key, put(key, jsonObject) == null);
+	}
+
+	/**
+	 * Add the deltas under the document's lock, creating the document from
+	 * initialDocument if there is none
+	 */
+	@Override
+	public void increment(String key, JsonObject initialDocument,
+			Map<String, Long> deltas) {
+		if (key == null || key.isEmpty())
+			throw new IllegalArgumentException("key must not be null or empty");
+		if (initialDocument == null || deltas == null)
+			throw new IllegalArgumentException(
+					"initialDocument and deltas must not be null");
+
+		documents.compute(key, (k, existing) -> {
+			JsonObject document = existing != null ? existing
+					: JsonObject.from(initialDocument.toMap());
+			for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+				Object value = document.get(delta.getKey());
+				long current = value instanceof Number ? ((Number) value).longValue() : 0;
+				document.put(delta.getKey(), current + delta.getValue());
+			}
+			return document;
+		});
+	}
+
+	/**
+	 * @return the document replaced, or null if the document was created
+	 */
+	private JsonObject put(String key, JsonObject jsonObject) {
+		if (key == null || key.isEmpty())
+			throw new IllegalArgumentException("key must not be null or empty");
+		if (jsonObject == null)
+			throw new IllegalArgumentException("jsonObject must not be null");
+
+		JsonObject previous = documents.put(key, jsonObject);
+		unindex(key, previous);
+		String type = jsonObject.getString("type");
+		documentCounts.computeIfAbsent(countKey(jsonObject), k -> new AtomicInteger())
+				.incrementAndGet();
+		if ("transition".equals(type))
+			transitionIdsPerFirstSensorEventKey
+					.computeIfAbsent(jsonObject.getString("firstSensorEventKey"),
+							k -> ConcurrentHashMap.newKeySet())
+					.add(key);
+		return previous;
+	}
+
+	@Override
+	public JsonObject get(String key) {
+		return documents.get(key);
+	}
+
+	@Override
+	public void remove(String key) {
+		unindex(key, documents.remove(key));
+	}
+
+	@Override
+	public void removeAllDocuments() {
+		documents.clear();
+		transitionIdsPerFirstSensorEventKey.clear();
+		documentCounts.clear();
+	}
+
+	@Override
+	public Map<String, JsonObject> getTransitionsForFirstSensorEventKey(
+			String firstSensorEventKey) {
+		Map<String, JsonObject> transitions = new HashMap<String, JsonObject>();
+		Set<String> transitionIds = transitionIdsPerFirstSensorEventKey
+				.get(firstSensorEventKey);
+		if (transitionIds != null) {
+			for (String transitionId : transitionIds) {
+				JsonObject transition = documents.get(transitionId);
+				if (transition != null)
+					transitions.put(transitionId, transition);
+			}
+		}
+		return transitions;
+	}
+
+	@Override
+	public int getDocumentCount(String type, int sensorType, int sensorLocation) {
+		AtomicInteger count = documentCounts
+				.get(type + ":" + sensorType + ":" + sensorLocation);
+		return count == null ? 0 : count.get();
+	}
+
+	@Override
+	public boolean flush(long timeoutMillis) {
+		return true;
+	}
+
+	@Override
+	public void disconnect() {
+		removeAllDocuments();
+	}
+
+	/**
+	 * @return the number of documents held
+	 */
+	public int size() {
+		return documents.size();
+	}
+
+	private void unindex(String key, JsonObject previous) {
+		if (previous == null)
+			return;
+		documentCounts.get(countKey(previous)).decrementAndGet();
+		if ("transition".equals(previous.getString("type"))) {
+			Set<String> transitionIds = transitionIdsPerFirstSensorEventKey
+					.get(previous.getString("firstSensorEventKey"));
+			if (transitionIds != null)
+				transitionIds.remove(key);
+		}
+	}
+
+	private static String countKey(JsonObject jsonObject) {
+		return jsonObject.getString("type") + ":" + intValue(jsonObject, "sensorType")
+				+ ":" + intValue(jsonObject, "sensorLocation");
+	}
+
+	private static int intValue(JsonObject jsonObject, String name) {
+		Object value = jsonObject.get(name);
+		return value instanceof Number ? ((Number) value).intValue() : 0;
+	}
+}
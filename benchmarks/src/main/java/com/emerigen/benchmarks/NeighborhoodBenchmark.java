@@ -0,0 +1,76 @@
+package com.emerigen.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.emerigen.infrastructure.environment.Agent;
+import com.emerigen.infrastructure.environment.Location;
+import com.emerigen.infrastructure.environment.NeighborhoodImpl;
+
+/**
+ * Measures NeighborhoodImpl.getNeighborsOfAgent() for neighborhoods of
+ * increasing size and agent density. Agents are placed with a fixed seed so
+ * every run sees the same layout.
+ *
+ * @author Larry
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NeighborhoodBenchmark {
+
+	/**
+	 * The length of each edge of the square neighborhood
+	 */
+	@Param({ "16", "128" })
+	public int size;
+
+	/**
+	 * The number of agents placed in the neighborhood
+	 */
+	@Param({ "100", "1000" })
+	public int agentCount;
+
+	private NeighborhoodImpl neighborhood;
+	private Agent[] agents;
+	private int next = 0;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		neighborhood = new NeighborhoodImpl(size);
+		List<Agent> placedAgents = new ArrayList<Agent>(agentCount);
+		for (int i = 0; i < agentCount; i++) {
+			Location location = new Location(random.nextInt(size), random.nextInt(size));
+			Agent agent = new Agent(location);
+			neighborhood.moveAgentToLocation(agent, location);
+			placedAgents.add(agent);
+		}
+		agents = placedAgents.toArray(new Agent[0]);
+	}
+
+	@Benchmark
+	public List<Agent> getNeighborsOfAgent() {
+		Agent agent = agents[next];
+		next = (next + 1) % agents.length;
+		return neighborhood.getNeighborsOfAgent(agent);
+	}
+}
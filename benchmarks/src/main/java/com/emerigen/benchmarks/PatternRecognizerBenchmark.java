@@ -0,0 +1,133 @@
+package com.emerigen.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.emerigen.infrastructure.learning.Prediction;
+import com.emerigen.infrastructure.learning.PredictionService;
+import com.emerigen.infrastructure.learning.TransitionPatternRecognizer;
+import com.emerigen.infrastructure.learning.cycle.CyclePatternRecognizer;
+import com.emerigen.infrastructure.learning.cycle.Cycle;
+import com.emerigen.infrastructure.learning.cycle.DailyCycle;
+import com.emerigen.infrastructure.learning.cycle.MonthlyCycle;
+import com.emerigen.infrastructure.learning.cycle.MultiCyclePatternRecognizer;
+import com.emerigen.infrastructure.learning.cycle.WeeklyCycle;
+import com.emerigen.infrastructure.learning.cycle.YearlyCycle;
+import com.emerigen.infrastructure.repository.KnowledgeCounters;
+import com.emerigen.infrastructure.repository.KnowledgeRepositoryBackendFactory;
+import com.emerigen.infrastructure.sensor.DispatchMode;
+import com.emerigen.infrastructure.sensor.EmerigenSensorEventListener;
+import com.emerigen.infrastructure.sensor.Sensor;
+import com.emerigen.infrastructure.sensor.SensorManager;
+
+/**
+ * Measures the sensor-to-prediction path: a single CyclePatternRecognizer, a
+ * MultiCyclePatternRecognizer over all four cycle types, a single
+ * TransitionPatternRecognizer, and the EmerigenSensorEventListener
+ * dispatching each event to every recognizer registered for the sensor.
+ *
+ * The repository is replaced by an InMemoryKnowledgeRepositoryBackend and both
+ * it and the transition index are emptied before each iteration, so every
+ * iteration starts learning from scratch over the same event stream.
+ *
+ * @author Larry
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatternRecognizerBenchmark {
+
+	private static final long DISPATCH_DEADLINE_MILLIS = 1000;
+
+	/**
+	 * The number of distinct readings before the event stream repeats
+	 */
+	@Param({ "16", "256" })
+	public int distinctReadings;
+
+	/**
+	 * How the EmerigenSensorEventListener invokes the recognizers
+	 */
+	@Param({ "SEQUENTIAL", "PARALLEL" })
+	public String dispatchMode;
+
+	private InMemoryKnowledgeRepositoryBackend backend;
+	private SensorEventFeed feed;
+	private CyclePatternRecognizer cyclePatternRecognizer;
+	private MultiCyclePatternRecognizer multiCyclePatternRecognizer;
+	private TransitionPatternRecognizer transitionPatternRecognizer;
+	private EmerigenSensorEventListener sensorEventListener;
+
+	@Setup(Level.Trial)
+	public void setUpTrial() {
+		backend = new InMemoryKnowledgeRepositoryBackend();
+		KnowledgeRepositoryBackendFactory.setBackend(backend);
+
+		// Registers the default cycle and transition recognizers for the sensor
+		Sensor sensor = SensorManager.getInstance()
+				.getDefaultSensorForLocation(Sensor.TYPE_HEART_RATE, Sensor.LOCATION_WATCH);
+		feed = new SensorEventFeed(sensor, distinctReadings);
+	}
+
+	@Setup(Level.Iteration)
+	public void setUpIteration() {
+		backend.removeAllDocuments();
+		PredictionService.getTransitionIndex().clear();
+		PredictionService.getValueIndex().clear();
+		KnowledgeCounters.getInstance().clear();
+
+		Sensor sensor = feed.getSensor();
+		cyclePatternRecognizer = new CyclePatternRecognizer(
+				new DailyCycle(sensor.getSensorType(), sensor.getSensorLocation()), sensor,
+				new PredictionService(sensor));
+		List<Cycle> cycles = Arrays.asList(
+				new DailyCycle(sensor.getSensorType(), sensor.getSensorLocation()),
+				new WeeklyCycle(sensor.getSensorType(), sensor.getSensorLocation()),
+				new MonthlyCycle(sensor.getSensorType(), sensor.getSensorLocation()),
+				new YearlyCycle(sensor.getSensorType(), sensor.getSensorLocation()));
+		multiCyclePatternRecognizer = new MultiCyclePatternRecognizer(cycles, sensor,
+				new PredictionService(sensor));
+		transitionPatternRecognizer = new TransitionPatternRecognizer(sensor,
+				new PredictionService(sensor));
+		sensorEventListener = new EmerigenSensorEventListener(
+				DispatchMode.fromString(dispatchMode), DISPATCH_DEADLINE_MILLIS);
+	}
+
+	@Benchmark
+	public List<Prediction> cyclePatternRecognizerOnSensorChanged() {
+		return cyclePatternRecognizer.onSensorChanged(feed.nextSensorEvent());
+	}
+
+	@Benchmark
+	public List<Prediction> multiCyclePatternRecognizerOnSensorChanged() {
+		return multiCyclePatternRecognizer.onSensorChanged(feed.nextSensorEvent());
+	}
+
+	@Benchmark
+	public List<Prediction> transitionPatternRecognizerOnSensorChanged() {
+		return transitionPatternRecognizer.onSensorChanged(feed.nextSensorEvent());
+	}
+
+	@Benchmark
+	public List<Prediction> sensorEventListenerOnSensorChanged() {
+		return sensorEventListener.onSensorChanged(feed.nextSensorEvent());
+	}
+}
@@ -0,0 +1,82 @@
+package com.emerigen.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.emerigen.infrastructure.sensor.GpsSensor;
+import com.emerigen.infrastructure.sensor.HeartRateSensor;
+import com.emerigen.infrastructure.sensor.Sensor;
+import com.emerigen.infrastructure.sensor.SensorEvent;
+import com.emerigen.infrastructure.sensor.SensorEventKey;
+import com.emerigen.infrastructure.sensor.SensorManager;
+
+/**
+ * Measures SensorEvent.getKey(), getSensorEventKey() and hashCode(), which are
+ * computed for every event on every lookup of the transition index and every
+ * equality check in the pattern recognizers.
+ *
+ * @author Larry
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SensorEventBenchmark {
+
+	private SensorEvent heartRateEvent;
+	private SensorEvent gpsEvent;
+
+	@Setup
+	public void setUp() {
+		heartRateEvent = new SensorEvent(new HeartRateSensor(Sensor.LOCATION_WATCH,
+				Sensor.REPORTING_MODE_ON_CHANGE, false), new float[] { 72.0f });
+		heartRateEvent.setTimestamp(System.currentTimeMillis() * 1000000);
+		gpsEvent = new SensorEvent(new GpsSensor(Sensor.REPORTING_MODE_ON_CHANGE,
+				SensorManager.SENSOR_DELAY_NORMAL, false),
+				new float[] { 32.7767f, -96.7970f, 139.0f });
+		gpsEvent.setTimestamp(System.currentTimeMillis() * 1000000);
+	}
+
+	@Benchmark
+	public String getKeySingleValue() {
+		return heartRateEvent.getKey();
+	}
+
+	@Benchmark
+	public String getKeyMultipleValues() {
+		return gpsEvent.getKey();
+	}
+
+	@Benchmark
+	public long getSensorEventKeyMultipleValues() {
+		return gpsEvent.getSensorEventKey();
+	}
+
+	@Benchmark
+	public long packSensorEventKeyMultipleValues() {
+		return SensorEventKey.of(gpsEvent);
+	}
+
+	@Benchmark
+	public int hashCodeSingleValue() {
+		return heartRateEvent.hashCode();
+	}
+
+	@Benchmark
+	public int hashCodeMultipleValues() {
+		return gpsEvent.hashCode();
+	}
+}
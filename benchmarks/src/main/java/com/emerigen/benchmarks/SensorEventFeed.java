@@ -0,0 +1,61 @@
+package com.emerigen.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.emerigen.infrastructure.sensor.Sensor;
+import com.emerigen.infrastructure.sensor.SensorEvent;
+
+/**
+ * Produces a repeating stream of heart rate sensor events, one new event per
+ * call, a minute apart. Cycling through a fixed number of distinct readings
+ * lets the learning algorithms find recurring transitions instead of learning
+ * a new one on every event.
+ *
+ * @author Larry
+ *
+ */
+public class SensorEventFeed {
+
+	private static final long INTERVAL_NANO = TimeUnit.MINUTES.toNanos(1);
+
+	private final Sensor sensor;
+	private final float[][] readings;
+	private long timestamp;
+	private int next = 0;
+
+	/**
+	 * @param sensor           the sensor producing the events
+	 * @param distinctReadings the number of distinct readings before the stream
+	 *                         repeats
+	 */
+	public SensorEventFeed(Sensor sensor, int distinctReadings) {
+		if (sensor == null)
+			throw new IllegalArgumentException("sensor must not be null");
+		if (distinctReadings < 2)
+			throw new IllegalArgumentException("distinctReadings must be at least 2");
+
+		this.sensor = sensor;
+		this.readings = new float[distinctReadings][];
+		for (int i = 0; i < distinctReadings; i++)
+			readings[i] = new float[] { 60.0f + i };
+		this.timestamp = System.currentTimeMillis() * 1000000;
+	}
+
+	/**
+	 * @return the next sensor event in the stream
+	 */
+	public SensorEvent nextSensorEvent() {
+		SensorEvent sensorEvent = new SensorEvent(sensor, readings[next].clone());
+		timestamp += INTERVAL_NANO;
+		sensorEvent.setTimestamp(timestamp);
+		next = (next + 1) % readings.length;
+		return sensorEvent;
+	}
+
+	/**
+	 * @return the sensor producing the events
+	 */
+	public Sensor getSensor() {
+		return sensor;
+	}
+}
@@ -0,0 +1,153 @@
+package com.emerigen.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.couchbase.client.core.deps.com.fasterxml.jackson.databind.ObjectMapper;
+import com.couchbase.client.core.deps.com.fasterxml.jackson.databind.module.SimpleModule;
+import com.couchbase.client.java.json.JsonObject;
+import com.emerigen.infrastructure.learning.Transition;
+import com.emerigen.infrastructure.learning.cycle.Cycle;
+import com.emerigen.infrastructure.learning.cycle.DailyCycle;
+import com.emerigen.infrastructure.repository.CompactDocumentCodec;
+import com.emerigen.infrastructure.repository.KnowledgeRepositoryBackendFactory;
+import com.emerigen.infrastructure.sensor.CustomCycleDeserializer;
+import com.emerigen.infrastructure.sensor.CustomCycleSerializer;
+import com.emerigen.infrastructure.sensor.CustomSensorEventDeserializer;
+import com.emerigen.infrastructure.sensor.CustomSensorEventSerializer;
+import com.emerigen.infrastructure.sensor.CustomTransitionDeserializer;
+import com.emerigen.infrastructure.sensor.CustomTransitionSerializer;
+import com.emerigen.infrastructure.sensor.HeartRateSensor;
+import com.emerigen.infrastructure.sensor.Sensor;
+import com.emerigen.infrastructure.sensor.SensorEvent;
+
+/**
+ * Measures the Custom*Serializer and Custom*Deserializer classes by writing
+ * and reading SensorEvents, Transitions and Cycles through an ObjectMapper
+ * with the custom (de)serializers registered. The deserializers look up the
+ * default sensor, which loads its cycles, so the in-memory repository is
+ * installed first.
+ *
+ * The transition document is also written and read as JSON text and in the
+ * compact binary format, which is how the embedded repository stores it.
+ *
+ * @author Larry
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+	private ObjectMapper mapper;
+
+	private SensorEvent sensorEvent;
+	private Transition transition;
+	private Cycle cycle;
+
+	private String sensorEventJson;
+	private String transitionJson;
+	private String cycleJson;
+
+	private CompactDocumentCodec codec;
+	private JsonObject transitionDocument;
+	private byte[] compactTransition;
+
+	@Setup
+	public void setUp() throws IOException {
+		KnowledgeRepositoryBackendFactory.setBackend(new InMemoryKnowledgeRepositoryBackend());
+
+		SimpleModule module = new SimpleModule();
+		module.addSerializer(SensorEvent.class, new CustomSensorEventSerializer());
+		module.addDeserializer(SensorEvent.class, new CustomSensorEventDeserializer());
+		module.addSerializer(Transition.class, new CustomTransitionSerializer());
+		module.addDeserializer(Transition.class, new CustomTransitionDeserializer());
+		module.addSerializer(Cycle.class, new CustomCycleSerializer());
+		module.addDeserializer(Cycle.class, new CustomCycleDeserializer());
+		mapper = new ObjectMapper();
+		mapper.registerModule(module);
+
+		Sensor sensor = new HeartRateSensor(Sensor.LOCATION_WATCH,
+				Sensor.REPORTING_MODE_ON_CHANGE, false);
+		long timestamp = System.currentTimeMillis() * 1000000;
+		sensorEvent = new SensorEvent(sensor, new float[] { 72.0f });
+		sensorEvent.setTimestamp(timestamp);
+		SensorEvent predictedSensorEvent = new SensorEvent(sensor, new float[] { 80.0f });
+		predictedSensorEvent.setTimestamp(timestamp + 1000000000L);
+		transition = new Transition(sensorEvent, predictedSensorEvent);
+
+		cycle = new DailyCycle(sensor.getSensorType(), sensor.getSensorLocation());
+
+		sensorEventJson = mapper.writeValueAsString(sensorEvent);
+		transitionJson = mapper.writeValueAsString(transition);
+		cycleJson = mapper.writeValueAsString(cycle);
+
+		codec = new CompactDocumentCodec();
+		transitionDocument = JsonObject.fromJson(transitionJson);
+		compactTransition = codec.encode(transitionDocument);
+	}
+
+	@Benchmark
+	public String serializeSensorEvent() throws IOException {
+		return mapper.writeValueAsString(sensorEvent);
+	}
+
+	@Benchmark
+	public SensorEvent deserializeSensorEvent() throws IOException {
+		return mapper.readValue(sensorEventJson, SensorEvent.class);
+	}
+
+	@Benchmark
+	public String serializeTransition() throws IOException {
+		return mapper.writeValueAsString(transition);
+	}
+
+	@Benchmark
+	public Transition deserializeTransition() throws IOException {
+		return mapper.readValue(transitionJson, Transition.class);
+	}
+
+	@Benchmark
+	public String serializeCycle() throws IOException {
+		return mapper.writeValueAsString(cycle);
+	}
+
+	@Benchmark
+	public Cycle deserializeCycle() throws IOException {
+		return mapper.readValue(cycleJson, Cycle.class);
+	}
+
+	@Benchmark
+	public String transitionDocumentToJson() {
+		return transitionDocument.toString();
+	}
+
+	@Benchmark
+	public JsonObject transitionDocumentFromJson() {
+		return JsonObject.fromJson(transitionJson);
+	}
+
+	@Benchmark
+	public byte[] encodeCompactTransition() {
+		return codec.encode(transitionDocument);
+	}
+
+	@Benchmark
+	public JsonObject decodeCompactTransition() {
+		return codec.decode(compactTransition);
+	}
+}
@@ -1,21 +1,51 @@
 package com.emerigen.infrastructure.environment;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
 import org.apache.log4j.Logger;
 
+import com.emerigen.infrastructure.utils.EmerigenProperties;
+
 //import com.emerigen.infrastructure.environment.MessageToSpread;
 
 public class Agent implements Comparable<Agent> {
 	// public class Agent implements Comparator<Agent>, Comparable<Agent> {
 
-	private Object content = "";
+	private static final int MAX_SEEN_MESSAGES = Integer.parseInt(EmerigenProperties
+			.getInstance().getValue("spreading.seen.messages.max"));
+
+	private volatile Object content = "";
 
-	private List<MessageToSpread> priorContent = new ArrayList();
+	/**
+	 * The messages applied to my content, oldest first. A deque, so forgetting
+	 * the oldest message does not shift the others. Guarded by this agent, with
+	 * seenMessages.
+	 */
+	private ArrayDeque<MessageToSpread> priorContent = new ArrayDeque<MessageToSpread>();
+
+	/**
+	 * The text of the messages this agent has received, oldest first, so that a
+	 * repeated message is recognized in constant time. The oldest are forgotten
+	 * once there are more than spreading.seen.messages.max of them.
+	 */
+	private final Set<String> seenMessages = new LinkedHashSet<String>();
 	private Location location;
 
 	private static Logger logger = Logger.getLogger(Agent.class);
 
+	/**
+	 * The neighborhood holding this agent and its slot there, maintained by the
+	 * NeighborhoodImpl so that moving an agent needs no lookup
+	 */
+	NeighborhoodImpl neighborhood;
+	int neighborhoodSlot = -1;
+
 	public Agent(Location location) {
 		this.location = location;
 	}
@@ -24,53 +54,65 @@ public class Agent implements Comparable<Agent> {
 		this(new Location(0, 0));
 	}
 
-	public void broadcastMessage(MessageToSpread message, List<Agent> recipients) {
+	/**
+	 * Deliver the message to the recipients, which spread it on to their
+	 * neighbors, on the MessageSpreadingEngine's threads.
+	 *
+	 * @return completes when the message has stopped spreading
+	 */
+	public CompletableFuture<SpreadingReport> broadcastMessage(MessageToSpread message,
+			List<Agent> recipients) {
 
 		if (message == null)
 			throw new IllegalArgumentException("Message must not be null");
 		if (recipients == null || recipients.size() == 0)
 			throw new IllegalArgumentException("Recipients must not be null or empty");
 
-		// Broadcast the message asynchronously in a new thread
-		new Thread(() -> {
-			for (Agent agent : recipients) {
-				logger.info(" sending message to recipient: " + agent);
-				agent.spreadMessage(message);
-			}
-		}).start();
-
+		return MessageSpreadingEngine.getInstance().broadcast(message, recipients);
 	}
 
-	public void spreadMessage(MessageToSpread message) {
+	/**
+	 * Apply the message to my content and spread it to my neighbors. My content
+	 * is updated before this method returns; my neighbors are updated in waves on
+	 * the MessageSpreadingEngine's threads.
+	 *
+	 * @return completes when the message has stopped spreading
+	 */
+	public CompletableFuture<SpreadingReport> spreadMessage(MessageToSpread message) {
 		if (message == null)
 			throw new IllegalArgumentException("Message must not be null");
 
-		// Return if content has been broadcast by me in the past
-		if (priorContent.contains(message))
-			return;
-		logger.info(" Message was not contained in prior messages, continuing");
+		return MessageSpreadingEngine.getInstance().spread(this, message);
+	}
+
+	/**
+	 * Apply the message to my content unless I have seen it before or its hops
+	 * are exceeded. The check and the update are atomic, so an agent reached by
+	 * several neighbors at once applies the message exactly once.
+	 *
+	 * @return true if my content was updated and the message should spread on
+	 */
+	synchronized boolean receiveMessage(MessageToSpread message) {
 
+		// Return if content has been broadcast by me in the past
+		if (!seenMessages.add(message.getMessage()))
+			return false;
 		priorContent.add(message);
-		logger.info(" updating priorContent with new content");
+		if (seenMessages.size() > MAX_SEEN_MESSAGES) {
+			Iterator<String> oldest = seenMessages.iterator();
+			oldest.next();
+			oldest.remove();
+			priorContent.pollFirst();
+		}
 
 		// Return if maxHops exceeded
 		if (message.hopsExceeded())
-			return;
-		logger.info(" Max hops not exceeded");
+			return false;
 
 		// Apply the content update function to my content
 		setContent(message.getContentUpdateFunction().apply(getContent(),
 				message.getMessage()));
-		logger.info(" content updated: " + content);
-
-		// Increment to number of hops
-		MessageToSpread newMessage = message.incrementHops();
-		logger.info(" hops incremented: " + message.getMessageHops());
-
-		// Broadcast the message to my neighbors
-		List<Agent> neighbors = Environment.getInstance().getNeighbors(this);
-		if (neighbors.size() > 0)
-			broadcastMessage(newMessage, neighbors);
+		return true;
 	}
 
 	public Object getContent() {
@@ -84,22 +126,41 @@ public class Agent implements Comparable<Agent> {
 
 	@Override
 	public String toString() {
-		return "Agent [content=" + content + ", priorContent=" + priorContent
+		return "Agent [content=" + content + ", priorContent=" + getPriorContent()
 				+ ", location=" + location + "]";
 	}
 
 	/**
-	 * @return the priorContent
+	 * @return a copy of the priorContent, oldest first
 	 */
-	public List<MessageToSpread> getPriorContent() {
-		return priorContent;
+	public synchronized List<MessageToSpread> getPriorContent() {
+		return new ArrayList<MessageToSpread>(priorContent);
 	}
 
 	/**
-	 * @param priorContent the priorContent to set
+	 * Replace the priorContent, and the messages seen with it, so a message in it
+	 * is not applied again. As when they are received, a repeated message is kept
+	 * once and only the newest spreading.seen.messages.max are kept.
+	 *
+	 * @param priorContent the priorContent to set, oldest first
 	 */
-	public void setPriorContent(List<MessageToSpread> priorContent) {
-		this.priorContent = priorContent;
+	public synchronized void setPriorContent(List<MessageToSpread> priorContent) {
+		if (priorContent == null)
+			throw new IllegalArgumentException("priorContent must not be null");
+
+		this.priorContent = new ArrayDeque<MessageToSpread>();
+		seenMessages.clear();
+		for (MessageToSpread message : priorContent) {
+			if (!seenMessages.add(message.getMessage()))
+				continue;
+			this.priorContent.add(message);
+			if (seenMessages.size() > MAX_SEEN_MESSAGES) {
+				Iterator<String> oldest = seenMessages.iterator();
+				oldest.next();
+				oldest.remove();
+				this.priorContent.pollFirst();
+			}
+		}
 	}
 
 	/**
@@ -122,7 +183,7 @@ public class Agent implements Comparable<Agent> {
 		int result = 1;
 		result = prime * result + ((content == null) ? 0 : content.hashCode());
 		result = prime * result + ((location == null) ? 0 : location.hashCode());
-		result = prime * result + ((priorContent == null) ? 0 : priorContent.hashCode());
+		result = prime * result + getPriorContent().hashCode();
 		return result;
 	}
 
@@ -145,12 +206,9 @@ public class Agent implements Comparable<Agent> {
 				return false;
 		} else if (!location.equals(other.location))
 			return false;
-		if (priorContent == null) {
-			if (other.priorContent != null)
-				return false;
-		} else if (!priorContent.equals(other.priorContent))
-			return false;
-		return true;
+
+		// Compare copies, each taken under its own agent's lock
+		return getPriorContent().equals(other.getPriorContent());
 	}
 
 	@Override
@@ -17,6 +17,12 @@ public class Environment implements InformationWithRelevanceHolder {
 	private static Logger logger = Logger.getLogger(Environment.class);
 	private final int SIZE = Integer.parseInt(
 			EmerigenProperties.getInstance().getValue("environment.gridspace.size"));
+	private final boolean TOROIDAL = Boolean.parseBoolean(
+			EmerigenProperties.getInstance().getValue("environment.gridspace.toroidal"));
+	private final int NEIGHBORHOOD_RADIUS = Integer.parseInt(
+			EmerigenProperties.getInstance().getValue("environment.neighborhood.radius"));
+	private final NeighborhoodType NEIGHBORHOOD_TYPE = NeighborhoodType.fromString(
+			EmerigenProperties.getInstance().getValue("environment.neighborhood.type"));
 
 	public static Environment getInstance() {
 
@@ -40,7 +46,8 @@ public class Environment implements InformationWithRelevanceHolder {
 	public void initializeData() {
 
 		// Initialize AgentSpace
-		this.neighborhood = new NeighborhoodImpl(SIZE);
+		this.neighborhood = new NeighborhoodImpl(SIZE, NEIGHBORHOOD_RADIUS,
+				NEIGHBORHOOD_TYPE, TOROIDAL);
 	}
 
 	/**
@@ -129,6 +136,13 @@ public class Environment implements InformationWithRelevanceHolder {
 		return neighborhood.getAllAgents();
 	}
 
+	/**
+	 * @return the neighborhood holding the agents, replaced by initializeData()
+	 */
+	public Neighborhood getNeighborhood() {
+		return neighborhood;
+	}
+
 	public void moveTo(Agent agent, Location newLocation) {
 		neighborhood.moveAgentToLocation(agent, newLocation);
 	}
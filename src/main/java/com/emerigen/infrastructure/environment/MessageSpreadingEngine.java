@@ -0,0 +1,228 @@
+package com.emerigen.infrastructure.environment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+import com.emerigen.infrastructure.utils.EmerigenProperties;
+
+/**
+ * Spreads messages from agent to agent through the neighborhood on a fixed pool
+ * of threads.
+ *
+ * A message spreads in hop-synchronous waves. The first wave delivers it to the
+ * origin; each later wave delivers it, with its hops incremented, to the
+ * neighbors of every agent the previous wave updated. A wave is split into
+ * chunks of the frontier that the threads of a work-stealing pool process in
+ * parallel, and the next wave starts once the whole wave is done, so every
+ * agent receives the message over the fewest hops. Spreading stops when a wave
+ * updates no agent, either because its agents have all seen the message or
+ * because its hops are exceeded.
+ *
+ * Each agent decides atomically whether to accept a delivery, so an agent
+ * reached by several neighbors in the same wave is updated once. Agents are
+ * not moved while a wave runs, so all of its threads query the same
+ * neighborhood; moves wait for the wave and take effect from the next one.
+ *
+ * @author Larry
+ *
+ */
+public class MessageSpreadingEngine {
+
+	private static final Logger logger = Logger.getLogger(MessageSpreadingEngine.class);
+
+	private final Supplier<Neighborhood> neighborhoodSupplier;
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+
+	// Singleton infrastructure
+	private static volatile MessageSpreadingEngine instance;
+
+	public static MessageSpreadingEngine getInstance() {
+		if (instance == null) {
+			synchronized (MessageSpreadingEngine.class) {
+				if (instance == null) {
+					EmerigenProperties properties = EmerigenProperties.getInstance();
+					instance = new MessageSpreadingEngine(
+							() -> Environment.getInstance().getNeighborhood(),
+							Integer.parseInt(properties.getValue("spreading.thread.count")),
+							Integer.parseInt(
+									properties.getValue("spreading.wave.chunk.size")));
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * @param neighborhoodSupplier supplies the neighborhood to spread through when
+	 *                             each message starts spreading
+	 * @param threadCount          the number of threads spreading messages
+	 * @param chunkSize            the number of frontier agents a thread takes
+	 *                             from a wave at a time
+	 */
+	public MessageSpreadingEngine(Supplier<Neighborhood> neighborhoodSupplier,
+			int threadCount, int chunkSize) {
+		if (neighborhoodSupplier == null)
+			throw new IllegalArgumentException("neighborhoodSupplier must not be null");
+		if (threadCount <= 0)
+			throw new IllegalArgumentException("threadCount must be positive");
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("chunkSize must be positive");
+
+		this.neighborhoodSupplier = neighborhoodSupplier;
+		this.chunkSize = chunkSize;
+		this.pool = new ForkJoinPool(threadCount, pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+					.newThread(pool);
+			thread.setName("message-spreading-" + thread.getPoolIndex());
+			return thread;
+		}, null, false);
+	}
+
+	/**
+	 * Deliver the message to the origin and spread it through the neighborhood.
+	 * The origin is updated on the calling thread before this method returns;
+	 * the later waves run on the engine's threads.
+	 *
+	 * @return completes with the metrics of each wave when spreading stops
+	 */
+	public CompletableFuture<SpreadingReport> spread(Agent origin,
+			MessageToSpread message) {
+		if (origin == null)
+			throw new IllegalArgumentException("origin must not be null");
+		if (message == null)
+			throw new IllegalArgumentException("message must not be null");
+
+		long start = System.nanoTime();
+		boolean updated = origin.receiveMessage(message);
+		List<SpreadingWave> waves = new ArrayList<SpreadingWave>();
+		waves.add(new SpreadingWave(0, message.getMessageHops(), 1, updated ? 1 : 0,
+				System.nanoTime() - start));
+		if (!updated)
+			return CompletableFuture.completedFuture(
+					new SpreadingReport(message, waves, System.nanoTime() - start));
+
+		List<Agent> frontier = Collections.singletonList(origin);
+		return CompletableFuture.supplyAsync(
+				() -> spreadInWaves(message, frontier, waves, start), pool);
+	}
+
+	/**
+	 * Deliver the message to each recipient and spread it on from those it
+	 * updates, entirely on the engine's threads.
+	 *
+	 * @return completes with the metrics of each wave when spreading stops
+	 */
+	public CompletableFuture<SpreadingReport> broadcast(MessageToSpread message,
+			List<Agent> recipients) {
+		if (message == null)
+			throw new IllegalArgumentException("message must not be null");
+		if (recipients == null)
+			throw new IllegalArgumentException("recipients must not be null");
+
+		long start = System.nanoTime();
+		List<Agent> receivers = new ArrayList<Agent>(recipients);
+		return CompletableFuture.supplyAsync(() -> {
+			List<Agent> frontier = new ArrayList<Agent>();
+			for (Agent receiver : receivers) {
+				if (receiver.receiveMessage(message))
+					frontier.add(receiver);
+			}
+			List<SpreadingWave> waves = new ArrayList<SpreadingWave>();
+			waves.add(new SpreadingWave(0, message.getMessageHops(), receivers.size(),
+					frontier.size(), System.nanoTime() - start));
+			return spreadInWaves(message, frontier, waves, start);
+		}, pool);
+	}
+
+	/**
+	 * Stop the engine's threads. Messages still spreading are abandoned.
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	private SpreadingReport spreadInWaves(MessageToSpread delivered,
+			List<Agent> frontier, List<SpreadingWave> waves, long start) {
+		Neighborhood neighborhood = neighborhoodSupplier.get();
+		MessageToSpread message = delivered;
+
+		while (!frontier.isEmpty()) {
+			message = message.incrementHops();
+			long waveStart = System.nanoTime();
+			LongAdder deliveries = new LongAdder();
+			WaveTask waveTask = new WaveTask(neighborhood, frontier, 0, frontier.size(),
+					message, deliveries);
+			List<Agent> updated = neighborhood.holdingMovesOff(waveTask::invoke);
+			SpreadingWave wave = new SpreadingWave(waves.size(), message.getMessageHops(),
+					deliveries.sum(), updated.size(), System.nanoTime() - waveStart);
+			waves.add(wave);
+			logger.debug(wave);
+			frontier = updated;
+		}
+		return new SpreadingReport(delivered, waves, System.nanoTime() - start);
+	}
+
+	/**
+	 * Delivers the message to the neighbors of a range of the frontier, splitting
+	 * the range until it is no larger than the chunk size.
+	 *
+	 * @return the agents the message updated
+	 */
+	private class WaveTask extends RecursiveTask<List<Agent>> {
+		private static final long serialVersionUID = 1L;
+
+		private final Neighborhood neighborhood;
+		private final List<Agent> frontier;
+		private final int from;
+		private final int to;
+		private final MessageToSpread message;
+		private final LongAdder deliveries;
+
+		WaveTask(Neighborhood neighborhood, List<Agent> frontier, int from, int to,
+				MessageToSpread message, LongAdder deliveries) {
+			this.neighborhood = neighborhood;
+			this.frontier = frontier;
+			this.from = from;
+			this.to = to;
+			this.message = message;
+			this.deliveries = deliveries;
+		}
+
+		@Override
+		protected List<Agent> compute() {
+			if (to - from > chunkSize) {
+				int middle = (from + to) >>> 1;
+				WaveTask left = new WaveTask(neighborhood, frontier, from, middle,
+						message, deliveries);
+				left.fork();
+				List<Agent> updated = new WaveTask(neighborhood, frontier, middle, to,
+						message, deliveries).compute();
+				updated.addAll(left.join());
+				return updated;
+			}
+
+			List<Agent> updated = new ArrayList<Agent>();
+			Consumer<Agent> deliver = neighbor -> {
+				if (neighbor.receiveMessage(message))
+					updated.add(neighbor);
+			};
+			long count = 0;
+			for (int i = from; i < to; i++)
+				count += neighborhood.forEachNeighborOfAgent(frontier.get(i), deliver);
+			deliveries.add(count);
+			return updated;
+		}
+	}
+
+}
@@ -1,6 +1,8 @@
 package com.emerigen.infrastructure.environment;
 
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public interface Neighborhood {
 
@@ -24,6 +26,66 @@ public interface Neighborhood {
 	 */
 	public List<Agent> getNeighborsOfAgent(Agent agent, int maxCount);
 
+	/**
+	 * Returns the agent's neighbors within the radius, in the given neighborhood
+	 * shape. Agents sharing the agent's cell are included, the agent itself is
+	 * not.
+	 * 
+	 * @param agent            The agent whose neighbors we are locating
+	 * @param radius           The distance in cells to search, zero or more
+	 * @param neighborhoodType The shape of the cells searched
+	 * @return The list of neighbors
+	 */
+	public List<Agent> getNeighborsOfAgent(Agent agent, int radius,
+			NeighborhoodType neighborhoodType);
+
+	/**
+	 * Passes each of the agent's neighbors within the radius to the consumer
+	 * without building a list.
+	 * 
+	 * @param agent            The agent whose neighbors we are visiting
+	 * @param radius           The distance in cells to search, zero or more
+	 * @param neighborhoodType The shape of the cells searched
+	 * @param consumer         Receives each neighbor
+	 * @return The number of neighbors visited
+	 */
+	public int forEachNeighborOfAgent(Agent agent, int radius,
+			NeighborhoodType neighborhoodType, Consumer<Agent> consumer);
+
+	/**
+	 * Passes each of the agent's nearest neighbors, as returned by
+	 * getNeighborsOfAgent(agent), to the consumer without building a list.
+	 * 
+	 * @param agent    The agent whose neighbors we are visiting
+	 * @param consumer Receives each neighbor
+	 * @return The number of neighbors visited
+	 */
+	public int forEachNeighborOfAgent(Agent agent, Consumer<Agent> consumer);
+
+	/**
+	 * Finds the agent's nearest neighbors by straight line distance, searching no
+	 * further than maxRadius cells. The caller supplies the result arrays so that
+	 * repeated queries allocate nothing.
+	 * 
+	 * @param agent            The agent whose neighbors we are locating
+	 * @param maxRadius        The furthest distance in cells to search
+	 * @param nearest          Receives the nearest neighbors, closest first. Its
+	 *                         length is the number of neighbors wanted.
+	 * @param squaredDistances Receives the squared distance of each neighbor. It
+	 *                         must be at least as long as nearest.
+	 * @return The number of neighbors found
+	 */
+	public int getNearestNeighborsOfAgent(Agent agent, int maxRadius, Agent[] nearest,
+			long[] squaredDistances);
+
+	/**
+	 * Removes an Agent from the neighborhood.
+	 * 
+	 * @param agent The Agent being removed
+	 * @return true if the agent was in the neighborhood
+	 */
+	public boolean removeAgent(Agent agent);
+
 	/**
 	 * Moves an Agent to the specified Location.
 	 * 
@@ -50,6 +112,18 @@ public interface Neighborhood {
 
 	public boolean locationIsOccupied(Location location);
 
+	/**
+	 * Runs the action while no agent can be moved into, within or out of the
+	 * neighborhood, so that every query the action makes, on any thread, sees
+	 * the same agent locations. The action must not move agents itself.
+	 * 
+	 * @param action The queries to run
+	 * @return The result of the action
+	 */
+	default public <T> T holdingMovesOff(Supplier<T> action) {
+		return action.get();
+	}
+
 	public List<Agent> getAllAgents();
 
 	/**
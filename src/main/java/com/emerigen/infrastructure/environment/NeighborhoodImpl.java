@@ -1,59 +1,119 @@
 /**
- * 
+ *
  */
 package com.emerigen.infrastructure.environment;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
 import org.apache.log4j.Logger;
 
 /**
+ * A square grid of cells holding agents, indexed for neighbor queries.
+ *
+ * Each cell is an entry in a flat int array holding the slot of the first agent
+ * in the cell, or -1 if the cell is empty. The agents in a cell are linked
+ * through next and previous slot arrays, and each agent remembers its own slot,
+ * so moving or removing an agent is constant time and a neighbor query only
+ * reads the arrays of the cells within its radius. Queries create no Location
+ * or intermediate collection; an agent is found at most once because each cell
+ * within the radius is visited once, even when the radius wraps around the
+ * whole grid.
+ *
+ * When the neighborhood is toroidal the edges wrap around, so an agent on the
+ * top edge neighbors the agents on the bottom edge. Otherwise the search stops
+ * at the edges.
+ *
+ * Queries may run concurrently with each other but not with moves. Moves and
+ * removals are serialized by the write lock of a read/write lock, and
+ * holdingMovesOff holds its read lock, so queries run within it, on any number
+ * of threads, never see an agent move.
+ *
  * @author Larry
- * @param <T>
  *
  */
 public class NeighborhoodImpl implements Neighborhood {
 
 	private static Logger logger = Logger.getLogger(Neighborhood.class);
 
-	final private int size;
+	private static final int EMPTY = -1;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int MAX_SIZE = 46340;
 
-	// Holds all locations that have 1 or more agents occupying it.
-	// If null there are no agents at that location
-	private HashMap<Location, List<Agent>> occupiedLocations;
+	final private int size;
+	private final int defaultRadius;
+	private final NeighborhoodType defaultNeighborhoodType;
+	private final boolean toroidal;
+	private final Random randomGenerator = new Random();
+
+	// The slot of the first agent in each cell, indexed by y * size + x
+	private final int[] cellHeads;
+
+	// The agents and their intrusive cell lists, indexed by slot
+	private Agent[] agents = new Agent[INITIAL_CAPACITY];
+	private int[] nextInCell = new int[INITIAL_CAPACITY];
+	private int[] previousInCell = new int[INITIAL_CAPACITY];
+	private int[] cellOfSlot = new int[INITIAL_CAPACITY];
+	private int slotCount = 0;
+	private int freeSlot = EMPTY;
+	private int agentCount = 0;
+
+	// Write locked by moves and removals, read locked by holdingMovesOff
+	private final ReentrantReadWriteLock movesLock = new ReentrantReadWriteLock();
 
 	/**
-	 * Build a new Neighborhood of specified size.
-	 * 
+	 * Build a new toroidal Neighborhood of specified size whose neighbors are the
+	 * eight surrounding cells.
+	 *
 	 * @param size The size of each edge of the square neighborhood
 	 * @return The created Neighborhood.
 	 */
 	public NeighborhoodImpl(int size) {
+		this(size, 1, NeighborhoodType.MOORE, true);
+	}
+
+	/**
+	 * Build a new Neighborhood of specified size.
+	 *
+	 * @param size                    The size of each edge of the square
+	 *                                neighborhood
+	 * @param defaultRadius           The radius searched by getNeighborsOfAgent
+	 * @param defaultNeighborhoodType The shape searched by getNeighborsOfAgent
+	 * @param toroidal                true if the edges wrap around
+	 */
+	public NeighborhoodImpl(int size, int defaultRadius,
+			NeighborhoodType defaultNeighborhoodType, boolean toroidal) {
 
 		if (size <= 4) // TODO define a property for gridspace.default.size
 			throw new IllegalArgumentException("Neighborhood size must be at least 4.");
-		this.size = size;
+		if (size > MAX_SIZE)
+			throw new IllegalArgumentException(
+					"Neighborhood size must not exceed " + MAX_SIZE + ", but was " + size);
+		if (defaultRadius < 0)
+			throw new IllegalArgumentException("defaultRadius must not be negative");
+		if (defaultNeighborhoodType == null)
+			throw new IllegalArgumentException(
+					"defaultNeighborhoodType must not be null");
 
-		/**
-		 * Initialize the occupiedLocations.
-		 */
-		occupiedLocations = new HashMap<Location, List<Agent>>();
+		this.size = size;
+		this.defaultRadius = defaultRadius;
+		this.defaultNeighborhoodType = defaultNeighborhoodType;
+		this.toroidal = toroidal;
+		this.cellHeads = new int[size * size];
+		Arrays.fill(cellHeads, EMPTY);
 	}
 
 	public List<Agent> getAllAgents() {
-		List<Agent> allAgents = new ArrayList<>();
-		List<Agent> agentsAtLocation;
-
-		for (Location location : occupiedLocations.keySet()) {
+		List<Agent> allAgents = new ArrayList<>(agentCount);
 
-			if (locationIsOccupied(location)) {
-				agentsAtLocation = occupiedLocations.get(location);
-				allAgents.addAll(agentsAtLocation);
-			}
+		for (int slot = 0; slot < slotCount; slot++) {
+			if (agents[slot] != null)
+				allAgents.add(agents[slot]);
 		}
 		return allAgents;
 	}
@@ -63,24 +123,12 @@ public class NeighborhoodImpl implements Neighborhood {
 		if (agent == null)
 			throw new IllegalArgumentException("agent must not be null");
 
-		List<Agent> neighbors = new ArrayList<>();
-		int neighborRadius = 1;
-		List<Agent> leftX = getLeftSideNeighbors(agent, neighborRadius);
-		List<Agent> rightX = getRightSideNeighbors(agent, neighborRadius);
-		List<Agent> aboveY = getTopSideNeighbors(agent, neighborRadius);
-		List<Agent> belowY = getBottomSideNeighbors(agent, neighborRadius);
-
-		// Get rid of duplicates
-		Set<Agent> neighbors2 = new TreeSet<>();
-		neighbors2.addAll(leftX);
-		neighbors2.addAll(rightX);
-		neighbors2.addAll(aboveY);
-		neighbors2.addAll(belowY);
-		neighbors.addAll(neighbors2);
-
-		return neighbors;
+		return getNeighborsOfAgent(agent, defaultRadius, defaultNeighborhoodType);
 	}
 
+	/**
+	 * Returns the nearest of the agent's neighbors, closest first.
+	 */
 	@Override
 	public List<Agent> getNeighborsOfAgent(Agent agent, int maxNeighborCount) {
 		if (agent == null)
@@ -88,26 +136,176 @@ public class NeighborhoodImpl implements Neighborhood {
 		if (maxNeighborCount <= 0)
 			throw new IllegalArgumentException("maxCount must be positive");
 
-		// Get the Moore Neighbors
-		List<Agent> neighbors = this.getNeighborsOfAgent(agent);
+		List<Agent> neighbors = getNeighborsOfAgent(agent);
+		if (neighbors.size() <= maxNeighborCount)
+			return neighbors;
+
+		Location location = agent.getLocation();
+		neighbors.sort((first, second) -> Long.compare(
+				squaredDistance(location, first.getLocation()),
+				squaredDistance(location, second.getLocation())));
+		return new ArrayList<>(neighbors.subList(0, maxNeighborCount));
+	}
+
+	@Override
+	public List<Agent> getNeighborsOfAgent(Agent agent, int radius,
+			NeighborhoodType neighborhoodType) {
+		List<Agent> neighbors = new ArrayList<>();
+		forEachNeighborOfAgent(agent, radius, neighborhoodType, neighbors::add);
+		return neighbors;
+	}
+
+	@Override
+	public int forEachNeighborOfAgent(Agent agent, Consumer<Agent> consumer) {
+		return forEachNeighborOfAgent(agent, defaultRadius, defaultNeighborhoodType,
+				consumer);
+	}
+
+	@Override
+	public int forEachNeighborOfAgent(Agent agent, int radius,
+			NeighborhoodType neighborhoodType, Consumer<Agent> consumer) {
+		if (agent == null)
+			throw new IllegalArgumentException("agent must not be null");
+		if (radius < 0)
+			throw new IllegalArgumentException("radius must not be negative");
+		if (neighborhoodType == null)
+			throw new IllegalArgumentException("neighborhoodType must not be null");
+		if (consumer == null)
+			throw new IllegalArgumentException("consumer must not be null");
+
+		Location location = agent.getLocation();
+		checkBounds(location);
+		int x = location.getxCoordinate();
+		int y = location.getyCoordinate();
+		boolean vonNeumann = neighborhoodType == NeighborhoodType.VON_NEUMANN;
+
+		int count = 0;
+		int lastDy = highestOffset(y, radius);
+		for (int dy = lowestOffset(y, radius); dy <= lastDy; dy++) {
+
+			// Von Neumann rows narrow as they move away from the agent
+			int rowRadius = vonNeumann ? radius - Math.abs(dy) : radius;
+			int lastDx = highestOffset(x, rowRadius);
+			int rowStart = coordinate(y, dy) * size;
+			for (int dx = lowestOffset(x, rowRadius); dx <= lastDx; dx++) {
+				int slot = cellHeads[rowStart + coordinate(x, dx)];
+				for (; slot != EMPTY; slot = nextInCell[slot]) {
+					if (agents[slot] != agent) {
+						consumer.accept(agents[slot]);
+						count++;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public int getNearestNeighborsOfAgent(Agent agent, int maxRadius, Agent[] nearest,
+			long[] squaredDistances) {
+		if (agent == null)
+			throw new IllegalArgumentException("agent must not be null");
+		if (maxRadius < 0)
+			throw new IllegalArgumentException("maxRadius must not be negative");
+		if (nearest == null || squaredDistances == null)
+			throw new IllegalArgumentException(
+					"nearest and squaredDistances must not be null");
+		if (squaredDistances.length < nearest.length)
+			throw new IllegalArgumentException(
+					"squaredDistances must be at least as long as nearest");
+
+		Location location = agent.getLocation();
+		checkBounds(location);
+		int x = location.getxCoordinate();
+		int y = location.getyCoordinate();
+		int wanted = nearest.length;
+		if (wanted == 0)
+			return 0;
+		int lastRadius = Math.min(maxRadius, toroidal ? size / 2 : size - 1);
+
+		// Search outward one square ring of cells at a time. Every cell in ring r
+		// is at least r away, so once the furthest neighbor found so far is no
+		// further than r the remaining rings cannot improve on it.
+		int found = 0;
+		for (int r = 0; r <= lastRadius; r++) {
+			if (found == wanted && squaredDistances[found - 1] <= (long) r * r)
+				break;
+
+			int firstDx = lowestOffset(x, r);
+			int lastDx = highestOffset(x, r);
+			int lastDy = highestOffset(y, r);
+			for (int dy = lowestOffset(y, r); dy <= lastDy; dy++) {
+				int rowStart = coordinate(y, dy) * size;
+				if (Math.abs(dy) == r) {
+
+					// The top and bottom edges of the ring span the whole row
+					for (int dx = firstDx; dx <= lastDx; dx++)
+						found = offerCell(agent, rowStart + coordinate(x, dx), dx, dy,
+								nearest, squaredDistances, found);
+				} else {
+
+					// Other rows meet the ring only at its left and right edges
+					if (firstDx == -r)
+						found = offerCell(agent, rowStart + coordinate(x, -r), -r, dy,
+								nearest, squaredDistances, found);
+					if (lastDx == r)
+						found = offerCell(agent, rowStart + coordinate(x, r), r, dy,
+								nearest, squaredDistances, found);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Offer each agent in the cell, other than the searching agent, to the nearest
+	 * neighbors.
+	 *
+	 * @return the number of nearest neighbors held afterwards
+	 */
+	private int offerCell(Agent agent, int cell, int dx, int dy, Agent[] nearest,
+			long[] squaredDistances, int found) {
+		long squaredDistance = (long) dx * dx + (long) dy * dy;
+		for (int slot = cellHeads[cell]; slot != EMPTY; slot = nextInCell[slot]) {
+			if (agents[slot] != agent)
+				found = offerNearest(agents[slot], squaredDistance, nearest,
+						squaredDistances, found);
+		}
+		return found;
+	}
 
-		List<Agent> maxCountNeighbors = new ArrayList<>();
-		for (int i = 0; (i < maxNeighborCount && i < neighbors.size()); i++) {
-			maxCountNeighbors.add(neighbors.get(i));
+	/**
+	 * Insert the agent into the sorted nearest neighbors if it is closer than the
+	 * furthest of them.
+	 *
+	 * @return the number of nearest neighbors held afterwards
+	 */
+	private static int offerNearest(Agent agent, long squaredDistance, Agent[] nearest,
+			long[] squaredDistances, int found) {
+		int wanted = nearest.length;
+		if (found == wanted && squaredDistance >= squaredDistances[found - 1])
+			return found;
+
+		int i = found == wanted ? wanted - 1 : found;
+		while (i > 0 && squaredDistances[i - 1] > squaredDistance) {
+			nearest[i] = nearest[i - 1];
+			squaredDistances[i] = squaredDistances[i - 1];
+			i--;
 		}
-		return maxCountNeighbors;
+		nearest[i] = agent;
+		squaredDistances[i] = squaredDistance;
+		return found == wanted ? found : found + 1;
 	}
 
 	/**
 	 * Move an agent to a random location in the neighborhood.
-	 * 
+	 *
 	 * @param agent
 	 */
 	@Override
 	public Location moveAgentToRandomLocation(Agent agent) {
 
 		// get random x and y coordinates
-		Random randomGenerator = new Random();
 		int xCoordinate = randomGenerator.nextInt(size);
 		int yCoordinate = randomGenerator.nextInt(size);
 
@@ -118,8 +316,10 @@ public class NeighborhoodImpl implements Neighborhood {
 	}
 
 	/**
-	 * Move an agent to a specified location in the neighborhood.
-	 * 
+	 * Move an agent to a specified location in the neighborhood. An agent is in at
+	 * most one neighborhood, so an agent moved here from another neighborhood is
+	 * removed from it.
+	 *
 	 * @param agent
 	 */
 
@@ -129,31 +329,81 @@ public class NeighborhoodImpl implements Neighborhood {
 			throw new IllegalArgumentException("Agent must not be null");
 		if (newLocation == null)
 			throw new IllegalArgumentException("newLocation must not be null");
-		if ((newLocation.getxCoordinate() > size - 1)
-				|| (newLocation.getyCoordinate() > size - 1))
+		if (!isInBounds(newLocation))
 			throw new IllegalArgumentException("newLocation out of bounds: size=" + size
 					+ ", location: " + newLocation);
 
-		// If there are agents at the new location then add to that list
-		if (locationIsOccupied(newLocation)) {
-			occupiedLocations.get(newLocation).add(agent);
-		} else {
-			// No agents at location. initialize location list & add agent
-			List<Agent> agentList = new ArrayList<>();
-			agentList.add(agent);
-			occupiedLocations.put(newLocation, agentList);
+		int cell = cellOf(newLocation);
+		movesLock.writeLock().lock();
+		try {
+			if (agent.neighborhood == this) {
+
+				// Relink the agent only if it changes cell
+				int slot = agent.neighborhoodSlot;
+				if (cellOfSlot[slot] != cell) {
+					unlink(slot);
+					link(slot, cell);
+				}
+			} else {
+				if (agent.neighborhood != null)
+					agent.neighborhood.removeAgent(agent);
+				int slot = allocateSlot(agent);
+				link(slot, cell);
+				agent.neighborhood = this;
+				agent.neighborhoodSlot = slot;
+			}
+			agent.setLocation(newLocation);
+		} finally {
+			movesLock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean removeAgent(Agent agent) {
+		if (agent == null)
+			throw new IllegalArgumentException("Agent must not be null");
+		movesLock.writeLock().lock();
+		try {
+			if (agent.neighborhood != this)
+				return false;
+
+			int slot = agent.neighborhoodSlot;
+			unlink(slot);
+			agents[slot] = null;
+			nextInCell[slot] = freeSlot;
+			freeSlot = slot;
+			agentCount--;
+			agent.neighborhood = null;
+			agent.neighborhoodSlot = EMPTY;
+			return true;
+		} finally {
+			movesLock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public <T> T holdingMovesOff(Supplier<T> action) {
+		if (action == null)
+			throw new IllegalArgumentException("action must not be null");
+
+		movesLock.readLock().lock();
+		try {
+			return action.get();
+		} finally {
+			movesLock.readLock().unlock();
 		}
-		agent.setLocation(newLocation);
 	}
 
 	@Override
 	public boolean locationIsOccupied(Location location) {
-		return (occupiedLocations.get(location) != null);
+		if (!isInBounds(location))
+			return false;
+		return cellHeads[cellOf(location)] != EMPTY;
 	}
 
 	/**
 	 * Move an agent to a location where the concentration of agents is high.
-	 * 
+	 *
 	 * @param agent
 	 */
 	@Override
@@ -165,160 +415,129 @@ public class NeighborhoodImpl implements Neighborhood {
 	}
 
 	/**
-	 * Calculate and return the left hand side neighbors
-	 * 
-	 * @param agent
-	 * @param neighborRadius
-	 * @return
+	 * The distance between two locations, taking the shorter way around the edges
+	 * of a toroidal neighborhood
 	 */
-	private List<Agent> getLeftSideNeighbors(Agent agent, int neighborRadius) {
-		List<Agent> agents = new ArrayList<>();
-		Location loc = agent.getLocation();
-		logger.info(" - Supplied agent location: " + loc);
-
-		// Calculate loop start and end variables
-		int loopStart = loc.getyCoordinate() - neighborRadius; // TODO fix error if minus
-		loopStart = loopStart < 0 ? 0 : loopStart; // Ensure within range
-		int loopEnd = (loc.getyCoordinate() + neighborRadius + 1) % size;
-		logger.info(" - loopStart: " + loopStart + ", loopEnd: " + loopEnd);
-
-		int xCoordinate = (loc.getxCoordinate() - neighborRadius + size) % size;
-		xCoordinate = xCoordinate < 0 ? 0 : xCoordinate;
-		Location location;
-		for (int y = loopStart; y < loopEnd; y++) {
-			logger.info(" - looping, y: " + y);
-
-			// If there are agents at this location
-			location = new Location(xCoordinate, y);
-			if (locationIsOccupied(location)) {
-				logger.info("- Agents are at location: x - " + xCoordinate + "y - " + y);
-
-				// Add them to the list to be returned
-				agents.addAll(occupiedLocations.get(location));
-				logger.info(" - Agents added to return list: " + agents);
+	@Override
+	public int getDistance(Location loc1, Location loc2) {
+		return (int) Math.sqrt(squaredDistance(loc1, loc2));
+	}
 
-			}
-		}
-		logger.info(" - returning agents " + agents);
-		return agents;
+	/**
+	 * @return the number of agents in the neighborhood
+	 */
+	public int getAgentCount() {
+		return agentCount;
 	}
 
 	/**
-	 * Calculate and return the right hand side neighbors
-	 * 
-	 * @param agent
-	 * @param neighborRadius
-	 * @return
+	 * @return the size of each edge of the neighborhood
 	 */
-	private List<Agent> getRightSideNeighbors(Agent agent, int neighborRadius) {
-		List<Agent> agents = new ArrayList<>();
-		Location loc = agent.getLocation();
-		logger.info(" - Supplied agent location: " + loc);
-
-		// Calculate loop start and end variables
-		int loopStart = loc.getyCoordinate() - neighborRadius;
-		loopStart = loopStart < 0 ? 0 : loopStart;
-		int loopEnd = (loc.getyCoordinate() + neighborRadius + 1) % size;
-		logger.info(" - loopStart: " + loopStart + ", loopend: " + loopEnd);
-
-		int xCoordinate = (loc.getxCoordinate() + neighborRadius) % size;
-		Location location;
-		for (int y = loopStart; y < loopEnd; y++) {
-			logger.info(" - looping, y: " + y);
-
-			// If there are agents at this location
-			location = new Location(xCoordinate, y);
-			if (locationIsOccupied(location)) {
-				logger.info(
-						" - Agents are at location: x - " + xCoordinate + ", y - " + y);
-
-				// Add them to the list to be returned
-				agents.addAll(occupiedLocations.get(location));
-				logger.info(" - Agents added to return list: " + agents);
+	public int getSize() {
+		return size;
+	}
 
-			}
-		}
-		logger.info(" - returning agents " + agents);
-		return agents;
+	/**
+	 * @return true if the edges of the neighborhood wrap around
+	 */
+	public boolean isToroidal() {
+		return toroidal;
+	}
+
+	private long squaredDistance(Location loc1, Location loc2) {
+		long dx = axisDistance(loc1.getxCoordinate(), loc2.getxCoordinate());
+		long dy = axisDistance(loc1.getyCoordinate(), loc2.getyCoordinate());
+		return dx * dx + dy * dy;
+	}
+
+	private int axisDistance(int first, int second) {
+		int distance = Math.abs(first - second);
+		return toroidal ? Math.min(distance, size - distance) : distance;
 	}
 
 	/**
-	 * Calculate and return the top side neighbors
-	 * 
-	 * @param agent
-	 * @param neighborRadius
-	 * @return
+	 * The smallest offset from the coordinate to search. A toroidal search covers
+	 * each row or column at most once, so offsets never span more than the size.
 	 */
-	private List<Agent> getTopSideNeighbors(Agent agent, int neighborRadius) {
-		List<Agent> agents = new ArrayList<>();
-		Location loc = agent.getLocation();
-		logger.info(" - Supplied agent location: " + loc);
-
-		// Calculate loop start and end variables
-		int loopStart = loc.getxCoordinate() - neighborRadius;
-		loopStart = loopStart < 0 ? 0 : loopStart;
-		int loopEnd = (loc.getxCoordinate() + neighborRadius + 1) % size;
-		logger.info(" - loopStart: " + loopStart + ", loopEnd: " + loopEnd);
-
-		int yCoordinate = (loc.getyCoordinate() + neighborRadius + size) % size;
-		Location location;
-		for (int x = loopStart; x < loopEnd; x++) {
-			logger.info(" - looping, x: " + x);
-
-			// If there are agents at this location
-			location = new Location(x, yCoordinate);
-			if (locationIsOccupied(location)) {
-				logger.info(
-						" - Agents are at location: x - " + x + ", y - " + yCoordinate);
-
-				// Add them to the list to be returned
-				agents.addAll(occupiedLocations.get(location));
-				logger.info(" - Agents added to return list: " + agents);
+	private int lowestOffset(int coordinate, int radius) {
+		return toroidal ? -Math.min(radius, (size - 1) / 2)
+				: -Math.min(radius, coordinate);
+	}
 
-			}
-		}
-		logger.info("getTopSideNeighbors() - returning agents " + agents);
-		return agents;
+	private int highestOffset(int coordinate, int radius) {
+		return toroidal ? Math.min(radius, size / 2)
+				: Math.min(radius, size - 1 - coordinate);
 	}
 
 	/**
-	 * Calculate and return the bottom side neighbors
-	 * 
-	 * @param agent
-	 * @param neighborRadius
-	 * @return
+	 * @return the coordinate at the offset, wrapped around the edges
 	 */
-	private List<Agent> getBottomSideNeighbors(Agent agent, int neighborRadius) {
-		List<Agent> agents = new ArrayList<>();
-		Location loc = agent.getLocation();
-		logger.info(" - Supplied agent location: " + loc);
-
-		// Calculate loop start and end variables
-		int loopStart = loc.getxCoordinate() - neighborRadius;
-		loopStart = loopStart < 0 ? 0 : loopStart;
-		int loopEnd = (loc.getxCoordinate() + neighborRadius + 1) % size;
-		logger.info(" - loopStart: " + loopStart + ", loopEnd: " + loopEnd);
-
-		int yCoordinate = loc.getyCoordinate() >= size - 1 ? 0
-				: (loc.getyCoordinate() - neighborRadius + size) % size;
-		Location location;
-		for (int x = loopStart; x < loopEnd; x++) {
-			logger.info(" - looping, x: " + x);
-
-			// If there are agents at this location
-			location = new Location(x, yCoordinate);
-			if (locationIsOccupied(location)) {
-				logger.info(
-						" - Agents are at location: x - " + x + ", y - " + yCoordinate);
-
-				// Add them to the list to be returned
-				agents.addAll(occupiedLocations.get(location));
-				logger.info(" - Agents added to return list: " + agents);
+	private int coordinate(int coordinate, int offset) {
+		int result = coordinate + offset;
+		if (result < 0)
+			return result + size;
+		return result >= size ? result - size : result;
+	}
 
+	private int cellOf(Location location) {
+		return location.getyCoordinate() * size + location.getxCoordinate();
+	}
+
+	/**
+	 * @return true if both coordinates are within 0 and size - 1, so the location
+	 *         has a cell
+	 */
+	private boolean isInBounds(Location location) {
+		return location.getxCoordinate() >= 0 && location.getxCoordinate() < size
+				&& location.getyCoordinate() >= 0 && location.getyCoordinate() < size;
+	}
+
+	private void checkBounds(Location location) {
+		if (!isInBounds(location))
+			throw new IllegalArgumentException("agent location out of bounds: size="
+					+ size + ", location: " + location);
+	}
+
+	private int allocateSlot(Agent agent) {
+		int slot;
+		if (freeSlot != EMPTY) {
+			slot = freeSlot;
+			freeSlot = nextInCell[slot];
+		} else {
+			if (slotCount == agents.length) {
+				int capacity = agents.length * 2;
+				agents = Arrays.copyOf(agents, capacity);
+				nextInCell = Arrays.copyOf(nextInCell, capacity);
+				previousInCell = Arrays.copyOf(previousInCell, capacity);
+				cellOfSlot = Arrays.copyOf(cellOfSlot, capacity);
+				logger.debug("Neighborhood capacity increased to " + capacity);
 			}
+			slot = slotCount++;
 		}
-		logger.info(" - returning agents " + agents);
-		return agents;
+		agents[slot] = agent;
+		agentCount++;
+		return slot;
+	}
+
+	private void link(int slot, int cell) {
+		int head = cellHeads[cell];
+		nextInCell[slot] = head;
+		previousInCell[slot] = EMPTY;
+		if (head != EMPTY)
+			previousInCell[head] = slot;
+		cellHeads[cell] = slot;
+		cellOfSlot[slot] = cell;
+	}
+
+	private void unlink(int slot) {
+		int previous = previousInCell[slot];
+		int next = nextInCell[slot];
+		if (previous != EMPTY)
+			nextInCell[previous] = next;
+		else
+			cellHeads[cellOfSlot[slot]] = next;
+		if (next != EMPTY)
+			previousInCell[next] = previous;
 	}
 
 }
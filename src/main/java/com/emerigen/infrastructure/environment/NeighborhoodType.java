@@ -0,0 +1,39 @@
+package com.emerigen.infrastructure.environment;
+
+/**
+ * The shape of the cells around an agent that are searched for its neighbors.
+ *
+ * @author Larry
+ *
+ */
+public enum NeighborhoodType {
+
+	/**
+	 * Every cell within the radius along both axes, ie the eight surrounding cells
+	 * for a radius of one
+	 */
+	MOORE,
+
+	/**
+	 * The cells whose horizontal plus vertical distance is within the radius, ie
+	 * the four adjacent cells for a radius of one
+	 */
+	VON_NEUMANN;
+
+	/**
+	 * @param name the case-insensitive name of the neighborhood type
+	 * @return the matching neighborhood type
+	 */
+	public static NeighborhoodType fromString(String name) {
+		if (name == null || name.isEmpty())
+			throw new IllegalArgumentException(
+					"neighborhood type must not be null or empty");
+		try {
+			return NeighborhoodType.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(
+					"neighborhood type must be moore or von_neumann, but was (" + name
+							+ ")");
+		}
+	}
+}
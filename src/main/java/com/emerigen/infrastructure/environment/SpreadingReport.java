@@ -0,0 +1,73 @@
+package com.emerigen.infrastructure.environment;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of spreading one message through the neighborhood
+ *
+ * @author Larry
+ *
+ */
+public class SpreadingReport {
+
+	private final MessageToSpread message;
+	private final List<SpreadingWave> waves;
+	private final long elapsedNanos;
+
+	public SpreadingReport(MessageToSpread message, List<SpreadingWave> waves,
+			long elapsedNanos) {
+		this.message = message;
+		this.waves = Collections.unmodifiableList(waves);
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * @return the message as it was first delivered
+	 */
+	public MessageToSpread getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return the metrics of each wave, in order
+	 */
+	public List<SpreadingWave> getWaves() {
+		return waves;
+	}
+
+	/**
+	 * @return the number of agents whose content the message updated
+	 */
+	public long getUpdatedAgents() {
+		long updatedAgents = 0;
+		for (SpreadingWave wave : waves)
+			updatedAgents += wave.getUpdatedAgents();
+		return updatedAgents;
+	}
+
+	/**
+	 * @return the number of times the message was delivered to an agent
+	 */
+	public long getDeliveries() {
+		long deliveries = 0;
+		for (SpreadingWave wave : waves)
+			deliveries += wave.getDeliveries();
+		return deliveries;
+	}
+
+	/**
+	 * @return the wall clock time from the first delivery until spreading stopped
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "SpreadingReport [message=" + message + ", waves=" + waves.size()
+				+ ", deliveries=" + getDeliveries() + ", updatedAgents="
+				+ getUpdatedAgents() + ", elapsedNanos=" + elapsedNanos + "]";
+	}
+
+}
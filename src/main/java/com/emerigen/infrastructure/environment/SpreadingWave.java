@@ -0,0 +1,77 @@
+package com.emerigen.infrastructure.environment;
+
+/**
+ * The metrics of one hop of a spreading message: every delivery to the
+ * neighbors of the agents updated in the previous wave.
+ *
+ * @author Larry
+ *
+ */
+public class SpreadingWave {
+
+	private final int wave;
+	private final int messageHops;
+	private final long deliveries;
+	private final long updatedAgents;
+	private final long elapsedNanos;
+
+	public SpreadingWave(int wave, int messageHops, long deliveries, long updatedAgents,
+			long elapsedNanos) {
+		this.wave = wave;
+		this.messageHops = messageHops;
+		this.deliveries = deliveries;
+		this.updatedAgents = updatedAgents;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * @return the number of the wave, the origin being wave 0
+	 */
+	public int getWave() {
+		return wave;
+	}
+
+	/**
+	 * @return the hops of the message delivered in this wave
+	 */
+	public int getMessageHops() {
+		return messageHops;
+	}
+
+	/**
+	 * @return the number of times the message was delivered to an agent
+	 */
+	public long getDeliveries() {
+		return deliveries;
+	}
+
+	/**
+	 * @return the number of agents whose content the message updated
+	 */
+	public long getUpdatedAgents() {
+		return updatedAgents;
+	}
+
+	/**
+	 * @return the deliveries to agents that had already seen the message, or whose
+	 *         hops were exceeded
+	 */
+	public long getRejectedDeliveries() {
+		return deliveries - updatedAgents;
+	}
+
+	/**
+	 * @return the wall clock time the wave took
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "SpreadingWave [wave=" + wave + ", messageHops=" + messageHops
+				+ ", deliveries=" + deliveries + ", updatedAgents=" + updatedAgents
+				+ ", elapsedNanos=" + elapsedNanos + "]";
+	}
+
+}
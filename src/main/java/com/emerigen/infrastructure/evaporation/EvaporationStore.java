@@ -0,0 +1,263 @@
+package com.emerigen.infrastructure.evaporation;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Holds information whose relevance evaporates over time and grows each time
+ * the information is retrieved.
+ *
+ * Relevance is never decremented by a sweep. Each entry records its relevance
+ * and the time it was last set or retrieved, and its current relevance is
+ * derived from them and the evaporation rate whenever the entry is read, so
+ * holding information costs no CPU between accesses. Entries are immutable; a
+ * retrieval replaces the entry with a new one, relevance increased, using the
+ * map's per-bin compare-and-replace, so concurrent updates of different keys
+ * never contend and concurrent updates of one key never lose an increase.
+ *
+ * Since relevance falls linearly, the time at which each entry falls below the
+ * lower relevance threshold is known when it is written. The entries are also
+ * kept in a queue ordered on that time, and every update evicts up to
+ * evictionsPerUpdate entries from the head of the queue whose time has passed.
+ * Eviction keeps pace with the rate entries are added, so memory stays
+ * proportional to the information still relevant.
+ *
+ * @author Larry
+ *
+ */
+public class EvaporationStore {
+
+	private static final Logger logger = Logger.getLogger(EvaporationStore.class);
+
+	private static final double NANOS_PER_MINUTE = 60.0 * 1000 * 1000 * 1000;
+
+	private final double evaporationPerNano;
+	private final double maximumRelevance;
+	private final double lowerThreshold;
+	private final double accessIncrease;
+	private final int evictionsPerUpdate;
+
+	// Times are nanos since the store was created, so they order without overflow
+	private final long origin = System.nanoTime();
+	private final AtomicLong sequence = new AtomicLong();
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final ConcurrentSkipListMap<Entry, Boolean> expiryQueue = new ConcurrentSkipListMap<Entry, Boolean>(
+			Comparator.comparingLong((Entry entry) -> entry.expiresAt)
+					.thenComparingLong(entry -> entry.sequence));
+
+	/**
+	 * The information held under a key and its relevance when it was last
+	 * touched
+	 */
+	private static final class Entry {
+		private final String key;
+		private final Object information;
+		private final double relevance;
+		private final long touchedAt;
+		private final long expiresAt;
+		private final long sequence;
+
+		Entry(String key, Object information, double relevance, long touchedAt,
+				long expiresAt, long sequence) {
+			this.key = key;
+			this.information = information;
+			this.relevance = relevance;
+			this.touchedAt = touchedAt;
+			this.expiresAt = expiresAt;
+			this.sequence = sequence;
+		}
+	}
+
+	/**
+	 * @param evaporationPerMinute the relevance lost every minute
+	 * @param maximumRelevance     the relevance of newly set information
+	 * @param lowerThreshold       the relevance below which information is
+	 *                             evicted
+	 * @param accessIncrease       the relevance gained each time the information
+	 *                             is retrieved
+	 * @param evictionsPerUpdate   the most entries evicted by one update
+	 */
+	public EvaporationStore(double evaporationPerMinute, double maximumRelevance,
+			double lowerThreshold, double accessIncrease, int evictionsPerUpdate) {
+		if (evaporationPerMinute < 0)
+			throw new IllegalArgumentException("evaporationPerMinute must not be negative");
+		if (maximumRelevance < lowerThreshold)
+			throw new IllegalArgumentException(
+					"maximumRelevance must not be less than lowerThreshold");
+		if (accessIncrease < 0)
+			throw new IllegalArgumentException("accessIncrease must not be negative");
+		if (evictionsPerUpdate <= 0)
+			throw new IllegalArgumentException("evictionsPerUpdate must be positive");
+
+		this.evaporationPerNano = evaporationPerMinute / NANOS_PER_MINUTE;
+		this.maximumRelevance = maximumRelevance;
+		this.lowerThreshold = lowerThreshold;
+		this.accessIncrease = accessIncrease;
+		this.evictionsPerUpdate = evictionsPerUpdate;
+	}
+
+	/**
+	 * Store the information under the key with the maximum relevance, replacing
+	 * any information already held under it
+	 */
+	public void setInformationWithRelevance(String key, Object information) {
+		if (key == null || key.isEmpty())
+			throw new IllegalArgumentException("Key may not be null or empty");
+
+		long now = now();
+		Entry entry = newEntry(key, information, maximumRelevance, now);
+		Entry replaced = entries.put(key, entry);
+		if (replaced != null)
+			expiryQueue.remove(replaced);
+		expiryQueue.put(entry, Boolean.TRUE);
+		evictExpired(now, evictionsPerUpdate);
+	}
+
+	/**
+	 * Retrieve the information, increasing its relevance
+	 *
+	 * @return the information if its relevance is at least the lower threshold,
+	 *         otherwise null
+	 */
+	public Object getInformationWithRelevance(String key) {
+		if (key == null || key.isEmpty())
+			throw new IllegalArgumentException("Key may not be null or empty");
+
+		long now = now();
+		while (true) {
+			Entry entry = entries.get(key);
+			if (entry == null)
+				return null;
+
+			double relevance = relevanceOf(entry, now);
+			if (relevance < lowerThreshold) {
+				evict(entry);
+				return null;
+			}
+			Entry touched = newEntry(key, entry.information, relevance + accessIncrease,
+					now);
+			if (entries.replace(key, entry, touched)) {
+				expiryQueue.remove(entry);
+				expiryQueue.put(touched, Boolean.TRUE);
+				evictExpired(now, evictionsPerUpdate);
+				return entry.information;
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the information without changing its relevance
+	 *
+	 * @return the information if its relevance is at least minimumRelevance and
+	 *         the lower threshold, otherwise null
+	 */
+	public Object getInformationWithMinimumRelevance(String key, double minimumRelevance) {
+		RelevantInformation relevantInformation = getRelevantInformation(key);
+		if (relevantInformation == null
+				|| relevantInformation.getRelevance() < minimumRelevance)
+			return null;
+		return relevantInformation.getInformation();
+	}
+
+	/**
+	 * @return the information held under the key with its current relevance, or
+	 *         null if none is held or it has evaporated below the lower threshold
+	 */
+	public RelevantInformation getRelevantInformation(String key) {
+		if (key == null || key.isEmpty())
+			throw new IllegalArgumentException("Key may not be null or empty");
+
+		Entry entry = entries.get(key);
+		if (entry == null)
+			return null;
+		double relevance = relevanceOf(entry, now());
+		if (relevance < lowerThreshold) {
+			evict(entry);
+			return null;
+		}
+		return new RelevantInformation(entry.information, relevance);
+	}
+
+	/**
+	 * Evict every entry whose relevance has fallen below the lower threshold.
+	 * Updates already evict expired entries a few at a time; this catches up
+	 * after a period without updates.
+	 *
+	 * @return the number of entries evicted
+	 */
+	public int evictExpired() {
+		return evictExpired(now(), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return the number of entries held, including any that have expired and
+	 *         not yet been evicted
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Forget all information
+	 */
+	public void clear() {
+		entries.clear();
+		expiryQueue.clear();
+	}
+
+	private int evictExpired(long now, int maximumEvictions) {
+		int evicted = 0;
+		while (evicted < maximumEvictions) {
+			Map.Entry<Entry, Boolean> head = expiryQueue.firstEntry();
+			if (head == null || head.getKey().expiresAt >= now)
+				break;
+			if (evict(head.getKey()))
+				evicted++;
+		}
+		if (evicted > 0 && logger.isDebugEnabled())
+			logger.debug("Evicted " + evicted + " evaporated entries");
+		return evicted;
+	}
+
+	/**
+	 * Remove the entry from the queue, and from the map unless it has already
+	 * been replaced
+	 *
+	 * @return true if this call removed the entry from the map
+	 */
+	private boolean evict(Entry entry) {
+		expiryQueue.remove(entry);
+		return entries.remove(entry.key, entry);
+	}
+
+	private Entry newEntry(String key, Object information, double relevance, long now) {
+		return new Entry(key, information, relevance, now,
+				expiresAt(relevance, now), sequence.getAndIncrement());
+	}
+
+	private double relevanceOf(Entry entry, long now) {
+		return entry.relevance - evaporationPerNano * (now - entry.touchedAt);
+	}
+
+	/**
+	 * @return when the relevance will fall below the lower threshold
+	 */
+	private long expiresAt(double relevance, long now) {
+		if (evaporationPerNano == 0)
+			return Long.MAX_VALUE;
+		double remainingNanos = (relevance - lowerThreshold) / evaporationPerNano;
+		if (remainingNanos >= Long.MAX_VALUE - now)
+			return Long.MAX_VALUE;
+		return now + (long) Math.ceil(remainingNanos);
+	}
+
+	private long now() {
+		return System.nanoTime() - origin;
+	}
+
+}
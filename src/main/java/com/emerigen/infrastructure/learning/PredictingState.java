@@ -21,7 +21,9 @@ public class PredictingState implements PatternRecognizerState {
 				.getPredictionsForSensorEvent(sensorEvent);
 
 		// Current event matches one of my predictions
-		if (predictionService.getCurrentPredictions().contains(sensorEvent)) {
+		boolean predicted = predictionService.isPredicted(sensorEvent);
+		predictionService.recordPredictionOutcome(sensorEvent, predicted);
+		if (predicted) {
 			currentPredictions = predictionService
 					.getPredictionsForSensorEvent(sensorEvent);
 
@@ -1,21 +1,28 @@
 package com.emerigen.infrastructure.learning;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
 import org.apache.log4j.Logger;
 
-import com.couchbase.client.core.deps.com.fasterxml.jackson.databind.ObjectMapper;
 import com.couchbase.client.java.json.JsonArray;
 import com.couchbase.client.java.json.JsonObject;
-import com.couchbase.client.java.query.QueryResult;
 import com.emerigen.infrastructure.learning.creditassignment.PredictionConsumer;
+import com.emerigen.infrastructure.repository.DocumentDecoder;
+import com.emerigen.infrastructure.repository.KnowledgeCounters;
+import com.emerigen.infrastructure.repository.KnowledgeCounters.Counter;
+import com.emerigen.infrastructure.repository.KnowledgeRepositoryBackendFactory;
 import com.emerigen.infrastructure.repository.RepositoryException;
-import com.emerigen.infrastructure.repository.couchbase.CouchbaseRepository;
 import com.emerigen.infrastructure.sensor.Sensor;
 import com.emerigen.infrastructure.sensor.SensorEvent;
+import com.emerigen.infrastructure.sensor.SensorEventKey;
 import com.emerigen.infrastructure.sensor.SensorManager;
 import com.emerigen.infrastructure.utils.EmerigenProperties;
 
@@ -36,6 +43,29 @@ public class PredictionService {
 	private Sensor sensor;
 	private static final Logger logger = Logger.getLogger(PredictionService.class);
 
+	/**
+	 * Write-through index of predicted sensor events shared by all prediction
+	 * services. Couchbase is only queried on cold start or a cache miss.
+	 */
+	private static final TransitionIndex transitionIndex = new TransitionIndex(
+			PredictionService::loadPredictedSensorEvents);
+
+	/**
+	 * Maps near-identical sensor events onto one canonical SensorEventKey so that
+	 * transitions and prediction lookups match within the configured tolerance.
+	 *
+	 * The index is held in memory only and starts empty, and the values of a
+	 * canonical event can not be recovered from its key. An event with no match
+	 * in the index re-registers its own key if transitions are persisted under
+	 * it, so an event identical to a canonical event of a previous run finds its
+	 * transitions again; one that is merely near it becomes canonical itself.
+	 * The index holds at most prediction.value.index.max.entries events, and an
+	 * evicted event is treated the same way.
+	 */
+	private static final SensorValueIndex valueIndex = new SensorValueIndex(
+			Double.parseDouble(EmerigenProperties.getInstance()
+					.getValue("prediction.value.match.tolerance")));
+
 	public PredictionService(Sensor sensor) {
 		if (sensor == null)
 			throw new IllegalArgumentException("sensor must not be null");
@@ -63,6 +93,21 @@ public class PredictionService {
 				firstSensorEvent.getSensor().getSensorType(),
 				firstSensorEvent.getSensor().getSensorLocation());
 
+		// Reuse an existing transition between matching sensor events
+		long firstSensorEventKey = getCanonicalKey(firstSensorEvent);
+		String existingTransitionId = transitionIndex.findTransitionId(
+				firstSensorEventKey,
+				event -> event.getSensorType() == predictedSensorEvent.getSensorType()
+						&& event.getSensorLocation() == predictedSensorEvent
+								.getSensorLocation()
+						&& valueIndex.matches(event.getValues(),
+								predictedSensorEvent.getValues()));
+		if (existingTransitionId != null) {
+			logger.debug("Transition " + existingTransitionId
+					+ " already predicts sensor event " + predictedSensorEvent);
+			return existingTransitionId;
+		}
+
 		// Create timestamp and id
 		long timestamp = System.currentTimeMillis() * 1000000;
 		String uuid = UUID.randomUUID().toString();
@@ -91,39 +136,61 @@ public class PredictionService {
 		JsonObject transitionJsonObject = JsonObject.create()
 				.put("cashOnHand", Transition.defaultCashOnHand)
 				.put("probability", defaultProbability).put("timestamp", timestamp)
-				.put("type", "transition")
+				.put("type", "transition").put("sensorType", sensor.getSensorType())
+				.put("sensorLocation", sensor.getSensorLocation())
 				.put("dataPointDurationNano", Transition.defaultDataPointDurationNano)
 				.put("lastSuccessfulPredictionTimestamp",
 						System.currentTimeMillis() * 1000000)
 				.put("numberOfPredictionAttempts", 0)
 				.put("numberOfSuccessfulPredictions", 0)
-				.put("firstSensorEventKey", firstSensorEvent.getKey())
+				.put("firstSensorEventKey",
+						SensorEventKey.toString(firstSensorEventKey))
 				.put("predictedSensorEvent", predictedEventJsonDoc);
 
-		// Log the transition object
-		CouchbaseRepository.getInstance().log(uuid, transitionJsonObject, true);
+		// Count, queue the transition for logging and write it through to the
+		// index. The count is taken back if the queued write fails.
+		KnowledgeRepositoryBackendFactory.getBackend().log(uuid, transitionJsonObject,
+				false, KnowledgeCounters.getInstance().uncountFailed(Counter.TRANSITIONS,
+						sensor.getSensorType(), sensor.getSensorLocation()));
+		SensorEvent indexedSensorEvent = new SensorEvent(sensor,
+				predictedSensorEvent.getValues().clone());
+		indexedSensorEvent.setTimestamp(predictedSensorEvent.getTimestamp());
+		transitionIndex.addTransition(uuid, firstSensorEventKey, indexedSensorEvent);
 		return uuid;
 	}
 
 	public PredictionService() {
 	}
 
+	/**
+	 * @return the number of transitions learned for the sensor type and location,
+	 *         read from the maintained counters
+	 */
 	public int getPredictionCountForSensorTypeAndLocation(int sensorType,
 			int sensorLocation) {
 
-		String queryString = "SELECT COUNT(*) FROM `knowledge` WHERE sensorType = "
-				+ sensorType + " AND sensorLocation = " + sensorLocation
-				+ " AND type = \"transition\"";
-		QueryResult result = CouchbaseRepository.getInstance().query(queryString);
-		logger.info(" query result: " + result);
+		return (int) KnowledgeCounters.getInstance().get(Counter.TRANSITIONS,
+				sensorType, sensorLocation);
+	}
+
+	/**
+	 * Count an attempt to predict the given sensor event
+	 * 
+	 * @param sensorEvent the sensor event that was predicted
+	 * @param successful  true if one of the current predictions matched it
+	 */
+	public void recordPredictionOutcome(SensorEvent sensorEvent, boolean successful) {
+		if (sensorEvent == null)
+			throw new IllegalArgumentException("sensorEvent must not be null");
 
-		List<JsonObject> jsonObjects = result.rowsAsObject();
-		int count = jsonObjects.get(0).getInt("$1");
-		return count;
+		KnowledgeCounters.getInstance().recordPrediction(sensorEvent.getSensorType(),
+				sensorEvent.getSensorLocation(), successful);
 	}
 
 	/**
-	 * Retrieve all predictions for the given SensorEvent
+	 * Retrieve all predictions for the given SensorEvent, including those of
+	 * transitions from sensor events whose values are within the configured
+	 * tolerance of it
 	 * 
 	 * @param sensorEvent
 	 * @return
@@ -132,17 +199,99 @@ public class PredictionService {
 		if (sensorEvent == null)
 			throw new IllegalArgumentException("sensorEvent must not be null or empty");
 		List<Prediction> predictions = new ArrayList<Prediction>();
-		ObjectMapper mapper = new ObjectMapper();
 
-//		registerCustomDeserializer(mapper);
-		QueryResult result = retrievePredictedEventsFromTransitionRecords(sensorEvent);
-		List<SensorEvent> predictedSensorEvents = convertFromJsonToSensorEvents(mapper,
-				result);
+		// Transitions persisted under this exact key become matchable once loaded
+		long sensorEventKey = sensorEvent.getSensorEventKey();
+		List<SensorEvent> predictedSensorEvents = new ArrayList<SensorEvent>(
+				transitionIndex.getPredictedSensorEvents(sensorEventKey));
+		if (!predictedSensorEvents.isEmpty())
+			valueIndex.register(sensorEventKey, sensorEvent.getValues());
+
+		for (long matchingKey : valueIndex.getMatchingKeys(sensorEvent)) {
+			if (matchingKey == sensorEventKey)
+				continue;
+			for (SensorEvent predictedSensorEvent : transitionIndex
+					.getPredictedSensorEvents(matchingKey)) {
+				if (!containsSameInstance(predictedSensorEvents, predictedSensorEvent))
+					predictedSensorEvents.add(predictedSensorEvent);
+			}
+		}
 		predictions = convertToPredictions(predictedSensorEvents);
 		setProbabilitiesForEachPrediction(predictions);
 		return predictions;
 	}
 
+	/**
+	 * Retrieve the predictions for several sensor events at once, looking up each
+	 * distinct SensorEventKey in the transition index only once
+	 * 
+	 * @param sensorEvents the sensor events to predict from
+	 * @return the distinct predictions of all the sensor events
+	 */
+	public List<Prediction> getPredictionsForSensorEvents(List<SensorEvent> sensorEvents) {
+		if (sensorEvents == null)
+			throw new IllegalArgumentException("sensorEvents must not be null");
+
+		Set<Long> sensorEventKeys = new HashSet<Long>();
+		Set<Prediction> predictions = new LinkedHashSet<Prediction>();
+		for (SensorEvent sensorEvent : sensorEvents) {
+			if (sensorEvent == null)
+				throw new IllegalArgumentException("sensorEvent must not be null");
+			if (sensorEventKeys.add(sensorEvent.getSensorEventKey()))
+				predictions.addAll(getPredictionsForSensorEvent(sensorEvent));
+		}
+		return new ArrayList<Prediction>(predictions);
+	}
+
+	/**
+	 * @return the canonical key transitions from the sensor event are stored
+	 *         under. An event not yet matched by the value index first registers
+	 *         its own key if transitions are persisted under it.
+	 */
+	private static long getCanonicalKey(SensorEvent sensorEvent) {
+		if (valueIndex.getMatchingKeys(sensorEvent).isEmpty()) {
+			long sensorEventKey = sensorEvent.getSensorEventKey();
+			if (!transitionIndex.getPredictedSensorEvents(sensorEventKey).isEmpty())
+				valueIndex.register(sensorEventKey, sensorEvent.getValues());
+		}
+		return valueIndex.getCanonicalKey(sensorEvent);
+	}
+
+	/**
+	 * @return the transition index shared by all prediction services
+	 */
+	public static TransitionIndex getTransitionIndex() {
+		return transitionIndex;
+	}
+
+	/**
+	 * @return the sensor value index shared by all prediction services
+	 */
+	public static SensorValueIndex getValueIndex() {
+		return valueIndex;
+	}
+
+	private static boolean containsSameInstance(List<SensorEvent> sensorEvents,
+			SensorEvent sensorEvent) {
+		for (SensorEvent existing : sensorEvents) {
+			if (existing == sensorEvent)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Load the predicted sensor events, keyed by transition id, for the given
+	 * first SensorEventKey. Used by the transition index on a cache miss.
+	 */
+	private static Map<String, SensorEvent> loadPredictedSensorEvents(
+			long firstSensorEventKey) {
+		Map<String, JsonObject> transitions = KnowledgeRepositoryBackendFactory
+				.getBackend().getTransitionsForFirstSensorEventKey(
+						SensorEventKey.toString(firstSensorEventKey));
+		return convertFromJsonToSensorEvents(transitions);
+	}
+
 	/**
 	 * By default set probabilities for TransitionPatternRecognizer
 	 * 
@@ -165,26 +314,6 @@ public class PredictionService {
 		return newPredictions;
 	}
 
-	private QueryResult retrievePredictedEventsFromTransitionRecordsBeforeTimestamp(
-			SensorEvent sensorEvent, long timestamp) {
-		CouchbaseRepository repo = CouchbaseRepository.getInstance();
-		String statement = "SELECT predictedSensorEvent FROM `knowledge` WHERE "
-				+ "firstSensorEventKey = \"" + sensorEvent.getKey() + "\""
-				+ "AND timestamp < " + timestamp + " AND type = \"transition\"";
-		QueryResult result = CouchbaseRepository.getInstance().query(statement);
-		return result;
-	}
-
-	private QueryResult retrievePredictedEventsFromTransitionRecords(
-			SensorEvent sensorEvent) {
-		CouchbaseRepository repo = CouchbaseRepository.getInstance();
-		String statement = "SELECT predictedSensorEvent FROM `knowledge` WHERE "
-				+ "firstSensorEventKey = \"" + sensorEvent.getKey() + "\""
-				+ " AND type = \"transition\"";
-		QueryResult result = CouchbaseRepository.getInstance().query(statement);
-		return result;
-	}
-
 //	private void registerCustomDeserializer(ObjectMapper mapper) {
 //		SimpleModule module = new SimpleModule("CustomSensorEventDeserializer",
 //				new Version(1, 0, 0, null, null, null));
@@ -201,31 +330,26 @@ public class PredictionService {
 //		mapper.registerModule(module);
 //	}
 
-	private List<SensorEvent> convertFromJsonToSensorEvents(ObjectMapper mapper,
-			QueryResult result) {
-		SensorEvent sensorEvent;
-		Sensor sensor;
-		List<SensorEvent> predictedSensorEvents = new ArrayList<SensorEvent>();
+	/**
+	 * Decode the predicted sensor event of each transition row directly from its
+	 * JsonObject, keyed by transition id
+	 */
+	private static Map<String, SensorEvent> convertFromJsonToSensorEvents(
+			Map<String, JsonObject> transitions) {
+		Map<String, SensorEvent> predictedSensorEvents = new HashMap<String, SensorEvent>(
+				transitions.size() * 2);
 		try {
-
-			List<JsonObject> jsonObjects = result.rowsAsObject();
-			JsonObject sensorEventJsonObject, sensorJsonObject;
-			for (JsonObject jsonObject : jsonObjects) {
-
-				sensorEventJsonObject = jsonObject.getObject("predictedSensorEvent");
-				sensorJsonObject = sensorEventJsonObject.getObject("sensor");
-				logger.info("sensorJson: " + sensorJsonObject.toString());
-				logger.info("sensorEventJson: " + sensorEventJsonObject.toString());
-
-				sensor = mapper.readValue(sensorJsonObject.toString(), Sensor.class);
-				sensorEvent = mapper.readValue(sensorEventJsonObject.toString(),
-						SensorEvent.class);
-
-				sensorEvent.setSensor(sensor);
-				logger.debug("Adding sensorEvent to predicted sensorEvents: "
-						+ sensorEvent.toString());
-				predictedSensorEvents.add(sensorEvent);
+			for (Map.Entry<String, JsonObject> transition : transitions.entrySet()) {
+				JsonObject sensorEventJsonObject = transition.getValue()
+						.getObject("predictedSensorEvent");
+				if (sensorEventJsonObject == null)
+					throw new RepositoryException("transition " + transition.getKey()
+							+ " has no predictedSensorEvent");
+				predictedSensorEvents.put(transition.getKey(),
+						DocumentDecoder.decodeSensorEvent(sensorEventJsonObject));
 			}
+		} catch (RepositoryException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new RepositoryException(e);
 		}
@@ -271,17 +395,28 @@ public class PredictionService {
 	}
 
 	public void setCurrentPredictions(List<Prediction> currentPredictions) {
-		currentPredictions = currentPredictions;
+		this.currentPredictions = currentPredictions;
 	}
 
-	public List<SensorEvent> getPriorEventsThatPredictSensorEvent(
-			SensorEvent currentSensorEvent) {
-		CouchbaseRepository repo = CouchbaseRepository.getInstance();
-		String statement = "SELECT predictedSensorEvent FROM `knowledge` WHERE "
-				+ "firstSensorEventKey = \"" + currentSensorEvent.getKey() + "\""
-				+ " AND type = \"transition\"";
-		QueryResult result = CouchbaseRepository.getInstance().query(statement);
-		return null;
+	/**
+	 * @return true if the sensor event matches, within the configured tolerance,
+	 *         the predicted sensor event of one of the current predictions
+	 */
+	public boolean isPredicted(SensorEvent sensorEvent) {
+		if (sensorEvent == null)
+			throw new IllegalArgumentException("sensorEvent must not be null");
+
+		for (Prediction prediction : getCurrentPredictions()) {
+			SensorEvent predictedSensorEvent = prediction.getSensorEvent();
+			if (predictedSensorEvent != null
+					&& predictedSensorEvent.getSensorType() == sensorEvent.getSensorType()
+					&& predictedSensorEvent.getSensorLocation() == sensorEvent
+							.getSensorLocation()
+					&& valueIndex.matches(predictedSensorEvent.getValues(),
+							sensorEvent.getValues()))
+				return true;
+		}
+		return false;
 	}
 
 	/**
@@ -296,42 +431,25 @@ public class PredictionService {
 		if (sensorEvent == null)
 			throw new IllegalArgumentException("sensorEvent must not be null or empty");
 
-		List<PredictionConsumer> predictors = new ArrayList<PredictionConsumer>();
-		ObjectMapper mapper = new ObjectMapper();
-
-//		registerCustomTransitionDeserializer(mapper);
-		QueryResult result = retrievePredictionConsumersForSensorEvent(sensorEvent);
+		Map<String, JsonObject> transitions = KnowledgeRepositoryBackendFactory
+				.getBackend().getTransitionsForFirstSensorEventKey(
+						SensorEventKey.toString(getCanonicalKey(sensorEvent)));
 		List<PredictionConsumer> predictionConsumers = convertFromJsonToPredictionConsumer(
-				mapper, result);
+				transitions);
 		return predictionConsumers;
 	}
 
-	private QueryResult retrievePredictionConsumersForSensorEvent(
-			SensorEvent sensorEvent) {
-		CouchbaseRepository repo = CouchbaseRepository.getInstance();
-		String statement = "SELECT * FROM `knowledge` WHERE firstSensorEventKey=\""
-				+ sensorEvent.getKey() + "\"" + " AND type = \"transition\"";
-		QueryResult result = CouchbaseRepository.getInstance().query(statement);
-		return result;
-	}
-
 	private List<PredictionConsumer> convertFromJsonToPredictionConsumer(
-			ObjectMapper mapper, QueryResult result) {
-		Transition transition;
-		PredictionConsumer predictionConsumer;
-		List<PredictionConsumer> predictionConsumers = new ArrayList<PredictionConsumer>();
+			Map<String, JsonObject> transitions) {
+		List<PredictionConsumer> predictionConsumers = new ArrayList<PredictionConsumer>(
+				transitions.size());
 
 		try {
-
-			List<JsonObject> jsonObjects = result.rowsAsObject();
-			JsonObject transitionJsonObject, sensorEventJsonObject, sensorJsonObject;
-			for (JsonObject jsonObject : jsonObjects) {
-
-				transitionJsonObject = jsonObject.getObject("knowledge");
-				transition = mapper.readValue(transitionJsonObject.toString(),
-						Transition.class);
-				predictionConsumers.add(transition);
-			}
+			for (JsonObject transitionJsonObject : transitions.values())
+				predictionConsumers
+						.add(DocumentDecoder.decodeTransition(transitionJsonObject));
+		} catch (RepositoryException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new RepositoryException(e);
 		}
@@ -0,0 +1,352 @@
+package com.emerigen.infrastructure.learning;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+import com.emerigen.infrastructure.sensor.SensorEvent;
+import com.emerigen.infrastructure.sensor.SensorEventKey;
+import com.emerigen.infrastructure.utils.EmerigenProperties;
+
+/**
+ * Finds the sensor events whose values are within a relative tolerance of a
+ * given event, without comparing against every known event.
+ *
+ * Each value is quantized into a bucket on a logarithmic scale whose width is
+ * chosen so that two values within the tolerance of each other are never more
+ * than one bucket apart. The buckets of all values, together with the sensor
+ * type and location, identify a grid cell. A lookup only visits the event's own
+ * cell and its immediate neighbours, then checks the tolerance exactly, so its
+ * cost depends on the number of dimensions and not on the number of events.
+ *
+ * The index maps near-identical readings onto one canonical SensorEventKey, the
+ * key of the first such reading registered. Transitions created from any of
+ * them share that key, so prediction lookups find them all and the number of
+ * distinct first sensor events stays bounded.
+ *
+ * At most maximumEntries events are registered. Beyond that, events are evicted
+ * using a clock (second chance) approximation of least recently used, as in the
+ * TransitionIndex. An evicted event is no longer canonical, so the next reading
+ * near it becomes canonical under its own key.
+ *
+ * @author Larry
+ *
+ */
+public class SensorValueIndex {
+
+	/**
+	 * Magnitudes below this are treated as zero
+	 */
+	static final double MIN_MAGNITUDE = 1.0e-6;
+
+	/**
+	 * Events with more values than this only probe their own cell, since the
+	 * number of neighbouring cells grows as 3 to the power of the dimensions
+	 */
+	static final int MAX_NEIGHBOR_DIMENSIONS = 4;
+
+	/**
+	 * A registered sensor event: its key and a copy of its values
+	 */
+	private static final class Entry {
+		private final long sensorEventKey;
+		private final float[] values;
+		private final long cell;
+		private volatile boolean referenced = true;
+
+		Entry(long sensorEventKey, float[] values, long cell) {
+			this.sensorEventKey = sensorEventKey;
+			this.values = values;
+			this.cell = cell;
+		}
+	}
+
+	private final double tolerance;
+	private final double bucketWidth;
+	private final int maximumEntries;
+	private final ConcurrentHashMap<Long, List<Entry>> entriesPerCell = new ConcurrentHashMap<Long, List<Entry>>();
+
+	// Every registered entry by key, which the clock sweeps when evicting
+	private final ConcurrentHashMap<Long, Entry> entriesPerKey = new ConcurrentHashMap<Long, Entry>();
+
+	private static final Logger logger = Logger.getLogger(SensorValueIndex.class);
+
+	/**
+	 * Create an index bounded by the prediction.value.index.max.entries property
+	 *
+	 * @param tolerance the maximum relative difference, between 0 and 1, for two
+	 *                  values to match
+	 */
+	public SensorValueIndex(double tolerance) {
+		this(tolerance, Integer.parseInt(EmerigenProperties.getInstance()
+				.getValue("prediction.value.index.max.entries")));
+	}
+
+	/**
+	 * @param tolerance      the maximum relative difference, between 0 and 1, for
+	 *                       two values to match
+	 * @param maximumEntries the most events registered at once
+	 */
+	public SensorValueIndex(double tolerance, int maximumEntries) {
+		if (!(tolerance > 0.0 && tolerance < 1.0))
+			throw new IllegalArgumentException(
+					"tolerance must be between 0 and 1, but was (" + tolerance + ")");
+		if (maximumEntries <= 0)
+			throw new IllegalArgumentException("maximumEntries must be positive");
+		this.tolerance = tolerance;
+		this.maximumEntries = maximumEntries;
+
+		// Values within tolerance have a magnitude ratio of at most 1 / (1 - tolerance)
+		this.bucketWidth = -Math.log(1.0 - tolerance);
+	}
+
+	/**
+	 * @return the canonical key of a registered event matching the given event,
+	 *         registering the event as canonical if there is none
+	 */
+	public synchronized long getCanonicalKey(SensorEvent sensorEvent) {
+		validate(sensorEvent);
+		Entry closest = findClosestEntry(sensorEvent);
+		if (closest != null) {
+			closest.referenced = true;
+			return closest.sensorEventKey;
+		}
+
+		long sensorEventKey = sensorEvent.getSensorEventKey();
+		register(sensorEventKey, sensorEvent.getValues());
+		return sensorEventKey;
+	}
+
+	/**
+	 * @return the keys of all registered events whose values are within the
+	 *         tolerance of the given event
+	 */
+	public List<Long> getMatchingKeys(SensorEvent sensorEvent) {
+		validate(sensorEvent);
+		List<Long> matchingKeys = new ArrayList<Long>();
+		float[] values = sensorEvent.getValues();
+		for (long cell : getNeighborCells(sensorEvent)) {
+			List<Entry> entries = entriesPerCell.get(cell);
+			if (entries == null)
+				continue;
+			for (Entry entry : entries) {
+				if (sameSensor(entry.sensorEventKey, sensorEvent)
+						&& matches(entry.values, values)
+						&& !matchingKeys.contains(entry.sensorEventKey)) {
+					entry.referenced = true;
+					matchingKeys.add(entry.sensorEventKey);
+				}
+			}
+		}
+		return matchingKeys;
+	}
+
+	/**
+	 * Register an event's key and values, if not already registered, evicting
+	 * the least recently used events beyond maximumEntries
+	 */
+	public void register(long sensorEventKey, float[] values) {
+		if (values == null)
+			throw new IllegalArgumentException("values must not be null");
+
+		long cell = getCellKey(SensorEventKey.getSensorType(sensorEventKey),
+				SensorEventKey.getSensorLocation(sensorEventKey), getBuckets(values));
+		Entry registered = new Entry(sensorEventKey, values.clone(), cell);
+		if (entriesPerKey.putIfAbsent(sensorEventKey, registered) != null)
+			return;
+
+		// Cells are only created and emptied atomically, so no entry is added to a
+		// cell that is being removed
+		entriesPerCell.compute(cell, (k, entries) -> {
+			if (entries == null)
+				entries = new CopyOnWriteArrayList<Entry>();
+			entries.add(registered);
+			return entries;
+		});
+		if (entriesPerKey.size() > maximumEntries)
+			evictIfFull(sensorEventKey);
+	}
+
+	/**
+	 * Evict events until no more than maximumEntries are registered. An event
+	 * referenced since the clock last passed it is given a second chance, so two
+	 * passes always find one to evict; the event just registered is never
+	 * evicted.
+	 */
+	private void evictIfFull(long addedKey) {
+		for (int pass = 0; pass < 2 && entriesPerKey.size() > maximumEntries; pass++) {
+			for (Map.Entry<Long, Entry> candidate : entriesPerKey.entrySet()) {
+				if (entriesPerKey.size() <= maximumEntries)
+					return;
+				if (candidate.getKey() == addedKey)
+					continue;
+				Entry entry = candidate.getValue();
+				if (entry.referenced)
+					entry.referenced = false;
+				else if (entriesPerKey.remove(candidate.getKey(), entry))
+					unregister(entry);
+			}
+		}
+	}
+
+	private void unregister(Entry entry) {
+		entriesPerCell.computeIfPresent(entry.cell, (k, entries) -> {
+			entries.remove(entry);
+			return entries.isEmpty() ? null : entries;
+		});
+		if (logger.isDebugEnabled())
+			logger.debug("Evicted canonical sensor event "
+					+ SensorEventKey.toString(entry.sensorEventKey));
+	}
+
+	/**
+	 * @return true if every value of first is within the tolerance of the
+	 *         corresponding value of second
+	 */
+	public boolean matches(float[] first, float[] second) {
+		if (first.length != second.length)
+			return false;
+		for (int i = 0; i < first.length; i++) {
+			double a = first[i];
+			double b = second[i];
+			double magnitude = Math.max(Math.abs(a), Math.abs(b));
+			if (magnitude < MIN_MAGNITUDE)
+				continue;
+			if (!(Math.abs(a - b) <= tolerance * magnitude))
+				return false;
+		}
+		return true;
+	}
+
+	private Entry findClosestEntry(SensorEvent sensorEvent) {
+		Entry closest = null;
+		double closestDifference = Double.MAX_VALUE;
+		float[] values = sensorEvent.getValues();
+		for (long cell : getNeighborCells(sensorEvent)) {
+			List<Entry> entries = entriesPerCell.get(cell);
+			if (entries == null)
+				continue;
+			for (Entry entry : entries) {
+				if (!sameSensor(entry.sensorEventKey, sensorEvent)
+						|| !matches(entry.values, values))
+					continue;
+				double difference = getDistance(entry.values, values);
+				if (difference < closestDifference) {
+					closest = entry;
+					closestDifference = difference;
+				}
+			}
+		}
+		return closest;
+	}
+
+	private static double getDistance(float[] first, float[] second) {
+		double sum = 0.0;
+		for (int i = 0; i < first.length; i++) {
+			double difference = first[i] - second[i];
+			sum += difference * difference;
+		}
+		return sum;
+	}
+
+	private static boolean sameSensor(long sensorEventKey, SensorEvent sensorEvent) {
+		return SensorEventKey.getSensorType(sensorEventKey) == sensorEvent
+				.getSensorType()
+				&& SensorEventKey.getSensorLocation(sensorEventKey) == sensorEvent
+						.getSensorLocation();
+	}
+
+	/**
+	 * @return the signed logarithmic bucket of a value, zero for values near zero
+	 */
+	int getBucket(float value) {
+		double magnitude = Math.abs((double) value);
+		if (!(magnitude >= MIN_MAGNITUDE))
+			return 0;
+		int bucket = 1 + (int) Math.floor(Math.log(magnitude / MIN_MAGNITUDE) / bucketWidth);
+		return value < 0 ? -bucket : bucket;
+	}
+
+	private int[] getBuckets(float[] values) {
+		int[] buckets = new int[values.length];
+		for (int i = 0; i < values.length; i++)
+			buckets[i] = getBucket(values[i]);
+		return buckets;
+	}
+
+	private static long getCellKey(int sensorType, int sensorLocation, int[] buckets) {
+		long cell = ((long) sensorType << 16) | (sensorLocation & 0xFFFF);
+		for (int bucket : buckets)
+			cell = cell * 0x9E3779B97F4A7C15L + bucket;
+		return cell;
+	}
+
+	/**
+	 * @return the keys of the event's own cell and, for events with at most
+	 *         MAX_NEIGHBOR_DIMENSIONS values, every cell one bucket away in any
+	 *         dimension
+	 */
+	private long[] getNeighborCells(SensorEvent sensorEvent) {
+		int[] buckets = getBuckets(sensorEvent.getValues());
+		int sensorType = sensorEvent.getSensorType();
+		int sensorLocation = sensorEvent.getSensorLocation();
+		if (buckets.length > MAX_NEIGHBOR_DIMENSIONS)
+			return new long[] { getCellKey(sensorType, sensorLocation, buckets) };
+
+		int cellCount = 1;
+		for (int i = 0; i < buckets.length; i++)
+			cellCount *= 3;
+		long[] cells = new long[cellCount];
+		int[] neighbor = new int[buckets.length];
+		for (int n = 0; n < cellCount; n++) {
+			int offsets = n;
+			for (int i = 0; i < buckets.length; i++) {
+				neighbor[i] = buckets[i] + (offsets % 3) - 1;
+				offsets /= 3;
+			}
+			cells[n] = getCellKey(sensorType, sensorLocation, neighbor);
+		}
+		return cells;
+	}
+
+	private static void validate(SensorEvent sensorEvent) {
+		if (sensorEvent == null)
+			throw new IllegalArgumentException("sensorEvent must not be null");
+		if (sensorEvent.getValues() == null)
+			throw new IllegalArgumentException("sensorEvent values must not be null");
+	}
+
+	/**
+	 * @return the tolerance
+	 */
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * @return the most events registered at once
+	 */
+	public int getMaximumEntries() {
+		return maximumEntries;
+	}
+
+	/**
+	 * @return the number of registered events
+	 */
+	public int size() {
+		return entriesPerKey.size();
+	}
+
+	/**
+	 * Remove all registered events
+	 */
+	public synchronized void clear() {
+		entriesPerKey.clear();
+		entriesPerCell.clear();
+	}
+
+}
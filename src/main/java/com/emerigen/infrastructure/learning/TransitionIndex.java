@@ -0,0 +1,247 @@
+package com.emerigen.infrastructure.learning;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+
+import org.apache.log4j.Logger;
+
+import com.emerigen.infrastructure.sensor.SensorEvent;
+import com.emerigen.infrastructure.sensor.SensorEventKey;
+import com.emerigen.infrastructure.utils.EmerigenProperties;
+
+/**
+ * An in-process, write-through index of the predicted sensor events for each
+ * firstSensorEventKey. Every transition created through the PredictionService
+ * is added to the index as it is logged, so prediction lookups are answered
+ * from memory. The repository is only queried the first time a key is read
+ * (cold start or cache miss), after which the key stays resident.
+ *
+ * The repository is never queried while holding a lock of the underlying map,
+ * and never on the write path: a transition written through for a key that is
+ * not resident is held in a partial entry, and the persisted transitions are
+ * merged into it the first time the key is read.
+ *
+ * At most maximumKeys keys are resident. Beyond that, keys are evicted using a
+ * clock (second chance) approximation of least recently used, and an evicted key
+ * is reloaded from the repository on its next read.
+ *
+ * The index is keyed by the packed SensorEventKey of the first sensor event,
+ * so lookups do not build a String key. Entries are keyed by the transition
+ * document id so that a transition that is both written through and returned
+ * by a subsequent load is only indexed once.
+ *
+ * @author Larry
+ *
+ */
+public class TransitionIndex {
+
+	/**
+	 * Loads all predicted sensor events for a first SensorEventKey from the
+	 * repository, keyed by transition document id
+	 */
+	private final LongFunction<Map<String, SensorEvent>> loader;
+
+	private final int maximumKeys;
+
+	private final ConcurrentHashMap<Long, Entry> predictedEventsPerKey = new ConcurrentHashMap<Long, Entry>();
+
+	private static final Logger logger = Logger.getLogger(TransitionIndex.class);
+
+	/**
+	 * The predicted sensor events of one key. An entry created by a write-through
+	 * is not loaded until the persisted transitions have been merged into it.
+	 */
+	private static final class Entry {
+		private final Map<String, SensorEvent> predictedEvents = new ConcurrentHashMap<String, SensorEvent>();
+		private volatile boolean loaded;
+		private volatile boolean referenced = true;
+	}
+
+	/**
+	 * Create an index bounded by the prediction.transition.index.max.keys property
+	 */
+	public TransitionIndex(LongFunction<Map<String, SensorEvent>> loader) {
+		this(loader, Integer.parseInt(EmerigenProperties.getInstance()
+				.getValue("prediction.transition.index.max.keys")));
+	}
+
+	/**
+	 * @param loader      loads the persisted transitions of a key
+	 * @param maximumKeys the most keys resident at once
+	 */
+	public TransitionIndex(LongFunction<Map<String, SensorEvent>> loader,
+			int maximumKeys) {
+		if (loader == null)
+			throw new IllegalArgumentException("loader must not be null");
+		if (maximumKeys <= 0)
+			throw new IllegalArgumentException("maximumKeys must be positive");
+		this.loader = loader;
+		this.maximumKeys = maximumKeys;
+	}
+
+	/**
+	 * Retrieve the predicted sensor events for the given first SensorEventKey,
+	 * loading them from the repository if the key is not yet resident.
+	 *
+	 * @param firstSensorEventKey the SensorEventKey of the first sensor event
+	 * @return an immutable snapshot of the predicted sensor events
+	 */
+	public List<SensorEvent> getPredictedSensorEvents(long firstSensorEventKey) {
+		Map<String, SensorEvent> predictedEvents = resident(firstSensorEventKey);
+		return Collections
+				.unmodifiableList(new ArrayList<SensorEvent>(predictedEvents.values()));
+	}
+
+	/**
+	 * Write-through a newly logged transition. The repository is not queried; if
+	 * the key is not resident the previously persisted transitions are merged in
+	 * when the key is next read, so they are not masked.
+	 *
+	 * @param transitionId         the document id of the transition
+	 * @param firstSensorEventKey  the SensorEventKey of the first sensor event
+	 * @param predictedSensorEvent the predicted sensor event
+	 */
+	public void addTransition(String transitionId, long firstSensorEventKey,
+			SensorEvent predictedSensorEvent) {
+		if (transitionId == null || transitionId.isEmpty())
+			throw new IllegalArgumentException("transitionId must not be null or empty");
+		if (predictedSensorEvent == null)
+			throw new IllegalArgumentException("predictedSensorEvent must not be null");
+
+		Entry entry = predictedEventsPerKey.get(firstSensorEventKey);
+		if (entry == null) {
+			Entry created = new Entry();
+			entry = predictedEventsPerKey.putIfAbsent(firstSensorEventKey, created);
+			if (entry == null) {
+				entry = created;
+				evictIfFull(firstSensorEventKey);
+			}
+		}
+		entry.predictedEvents.put(transitionId, predictedSensorEvent);
+		entry.referenced = true;
+	}
+
+	/**
+	 * Find a transition from the given first SensorEventKey whose predicted sensor
+	 * event satisfies the given condition, loading the key if it is not resident.
+	 *
+	 * @param firstSensorEventKey the SensorEventKey of the first sensor event
+	 * @param condition           the condition the predicted sensor event must meet
+	 * @return the document id of a matching transition, or null if there is none
+	 */
+	public String findTransitionId(long firstSensorEventKey,
+			Predicate<SensorEvent> condition) {
+		if (condition == null)
+			throw new IllegalArgumentException("condition must not be null");
+
+		for (Map.Entry<String, SensorEvent> entry : resident(firstSensorEventKey)
+				.entrySet()) {
+			if (condition.test(entry.getValue()))
+				return entry.getKey();
+		}
+		return null;
+	}
+
+	/**
+	 * @param firstSensorEventKey the SensorEventKey of the first sensor event
+	 * @return true if the key has been loaded into the index
+	 */
+	public boolean isResident(long firstSensorEventKey) {
+		Entry entry = predictedEventsPerKey.get(firstSensorEventKey);
+		return entry != null && entry.loaded;
+	}
+
+	/**
+	 * Remove a single key, forcing it to be reloaded on next access
+	 *
+	 * @param firstSensorEventKey the SensorEventKey of the first sensor event
+	 */
+	public void invalidate(long firstSensorEventKey) {
+		predictedEventsPerKey.remove(firstSensorEventKey);
+	}
+
+	/**
+	 * Remove all resident keys
+	 */
+	public void clear() {
+		predictedEventsPerKey.clear();
+	}
+
+	/**
+	 * @return the number of resident keys
+	 */
+	public int size() {
+		return predictedEventsPerKey.size();
+	}
+
+	/**
+	 * @return the most keys resident at once
+	 */
+	public int getMaximumKeys() {
+		return maximumKeys;
+	}
+
+	/**
+	 * Get the loaded predicted sensor events of a key. The repository is queried
+	 * outside of the map's locks; if two threads load the same key at once both
+	 * results are merged into the one entry, which is idempotent since entries
+	 * are keyed by transition id.
+	 */
+	private Map<String, SensorEvent> resident(long firstSensorEventKey) {
+		Entry entry = predictedEventsPerKey.get(firstSensorEventKey);
+		if (entry == null) {
+			Entry created = new Entry();
+			created.predictedEvents.putAll(load(firstSensorEventKey));
+			created.loaded = true;
+			entry = predictedEventsPerKey.putIfAbsent(firstSensorEventKey, created);
+			if (entry == null) {
+				evictIfFull(firstSensorEventKey);
+				return created.predictedEvents;
+			}
+		}
+		if (!entry.loaded) {
+			for (Map.Entry<String, SensorEvent> persisted : load(firstSensorEventKey)
+					.entrySet())
+				entry.predictedEvents.putIfAbsent(persisted.getKey(), persisted.getValue());
+			entry.loaded = true;
+		}
+		entry.referenced = true;
+		return entry.predictedEvents;
+	}
+
+	/**
+	 * Evict keys until no more than maximumKeys are resident. A key referenced
+	 * since the clock last passed it is given a second chance, so two passes over
+	 * the keys always find one to evict; the key just added is never evicted.
+	 */
+	private void evictIfFull(long addedKey) {
+		for (int pass = 0; pass < 2 && predictedEventsPerKey.size() > maximumKeys; pass++) {
+			for (Map.Entry<Long, Entry> candidate : predictedEventsPerKey.entrySet()) {
+				if (predictedEventsPerKey.size() <= maximumKeys)
+					return;
+				if (candidate.getKey() == addedKey)
+					continue;
+				if (candidate.getValue().referenced)
+					candidate.getValue().referenced = false;
+				else if (predictedEventsPerKey.remove(candidate.getKey(),
+						candidate.getValue()) && logger.isDebugEnabled())
+					logger.debug("Evicted firstSensorEventKey "
+							+ SensorEventKey.toString(candidate.getKey()));
+			}
+		}
+	}
+
+	private Map<String, SensorEvent> load(long firstSensorEventKey) {
+		Map<String, SensorEvent> loaded = loader.apply(firstSensorEventKey);
+		if (logger.isDebugEnabled())
+			logger.debug("Loaded " + (loaded == null ? 0 : loaded.size())
+					+ " transitions for firstSensorEventKey "
+					+ SensorEventKey.toString(firstSensorEventKey));
+		return loaded == null ? Collections.<String, SensorEvent>emptyMap() : loaded;
+	}
+}
@@ -3,12 +3,6 @@
  */
 package com.emerigen.infrastructure.learning.cycle;
 
-import java.time.DayOfWeek;
-import java.time.LocalDate;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.time.temporal.TemporalAdjusters;
-
 import org.apache.log4j.Logger;
 
 import com.couchbase.client.core.deps.com.fasterxml.jackson.annotation.JsonIgnore;
@@ -56,13 +50,14 @@ public class Cycle {
 	 * hours for a daily cycle, etc.; all converted to nanoseconds.
 	 */
 	private long cycleDurationTimeNano;
-	final private long secondsPerYear = 31556952L;
-	final private int daysPerWeek = 7;
-	final private long hoursPerDay = 24;
-	final private long minutesPerHour = 60;
-	final private long secondsPerMinute = 60;
-	final private long milliSecondsPerSecond = 1000;
-	final private long nanoSecondsPerMillisecond = 1000000;
+
+	/**
+	 * The calendar period of this cycle, or null if the cycle type is not a
+	 * calendar cycle. Calendar cycles take their start time and duration from the
+	 * CycleCalendar.
+	 */
+	private CycleCalendar.Period calendarPeriod;
+	protected static final long NANOS_PER_MILLISECOND = 1000000L;
 
 	private double allowablePercentDifferenceForEquality = Double
 			.parseDouble(EmerigenProperties.getInstance()
@@ -238,123 +233,60 @@ public class Cycle {
 	}
 
 	/**
-	 * Once we have the cycle type, figure out the values for cycleStartTimeNano and
-	 * cycleDurationNano
+	 * Once we have the cycle type, look up the cycleStartTimeNano and
+	 * cycleDurationNano of the current calendar period
 	 * 
 	 * @param cycleType the cycleType to set
 	 */
 	public void setCycleType(String cycleType) {
 		this.cycleType = cycleType;
-
-		// Daily cycle?
-		if ("Daily".equals(cycleType))
-			setDailyCycleNumbers();
-
-		// Weekly cycle?
-		else if ("Weekly".equals(cycleType))
-			setWeeklyCycleNumbers();
-
-		// Monthly cycle?
-		else if ("Monthly".equals(cycleType))
-			setMonthlyCycleNumbers();
-
-		// Yearly cycle?
-		else if ("Yearly".equals(cycleType))
-			setYearlyCycleNumbers();
-	}
-
-	private void setYearlyCycleNumbers() {
-		/**
-		 * Start time in nano seconds
-		 */
-		ZoneId zoneId = ZoneId.systemDefault();
-
-		// Get the first day of this year
-		LocalDate today = LocalDate.now();
-		LocalDate firstDayOfCurrentYear = today.with(TemporalAdjusters.firstDayOfYear());
-
-		// Get the start of that day
-		ZonedDateTime firtDayStartTime = firstDayOfCurrentYear.atStartOfDay(zoneId);
-		setCycleStartTimeNano(firtDayStartTime.toEpochSecond() * milliSecondsPerSecond
-				* nanoSecondsPerMillisecond);
-
-		/**
-		 * Duration in nano seconds
-		 */
-		setCycleDurationTimeNano(
-				secondsPerYear * milliSecondsPerSecond * nanoSecondsPerMillisecond);
-
-	}
-
-	private void setMonthlyCycleNumbers() {
-		/**
-		 * Start time in nano seconds
-		 */
-		ZoneId zoneId = ZoneId.systemDefault();
-
-		// Get the first day of this month
-		LocalDate today = LocalDate.now();
-		LocalDate firstDayOfCurrentMonth = today
-				.with(TemporalAdjusters.firstDayOfMonth());
-
-		// Get the start of that day
-		ZonedDateTime firtDayStartTime = firstDayOfCurrentMonth.atStartOfDay(zoneId);
-		setCycleStartTimeNano(firtDayStartTime.toEpochSecond() * milliSecondsPerSecond
-				* nanoSecondsPerMillisecond);
-		/**
-		 * Duration in nano seconds
-		 */
-		long secondsPerMonth = secondsPerYear / 12;
-		setCycleDurationTimeNano(
-				secondsPerMonth * milliSecondsPerSecond * nanoSecondsPerMillisecond);
+		this.calendarPeriod = CycleCalendar.Period.fromCycleType(cycleType);
+
+		if (calendarPeriod != null) {
+			long now = System.currentTimeMillis() * NANOS_PER_MILLISECOND;
+			CycleCalendar calendar = CycleCalendar.getInstance();
+			setCycleStartTimeNano(calendar.getCycleStartNano(calendarPeriod, now));
+			setCycleDurationTimeNano(calendar.getCycleDurationNano(calendarPeriod, now));
+		}
 	}
 
 	/**
-	 * Calculate the weekly start time and duration
+	 * Move this cycle forward to the cycle enclosing the given timestamp, if the
+	 * timestamp is past the end of the current cycle. Calendar cycles take the
+	 * exact start and duration of the enclosing period; others skip whole
+	 * durations.
+	 * 
+	 * @return true if the cycle was moved
 	 */
-	private void setWeeklyCycleNumbers() {
-		/**
-		 * Start time in nano seconds
-		 */
-		ZoneId zoneId = ZoneId.systemDefault();
-
-		// Get the first day of this week
-		LocalDate today = LocalDate.now();
-		LocalDate firstDayOfCurrentWeek = today
-				.with(TemporalAdjusters.previous(DayOfWeek.SUNDAY));
-
-		// Get the start of that day
-		ZonedDateTime firtDayStartTime = firstDayOfCurrentWeek.atStartOfDay(zoneId);
-		setCycleStartTimeNano(firtDayStartTime.toEpochSecond() * milliSecondsPerSecond
-				* nanoSecondsPerMillisecond);
-
-		/**
-		 * Duration in nano seconds
-		 */
-		setCycleDurationTimeNano(daysPerWeek * hoursPerDay * minutesPerHour
-				* secondsPerMinute * milliSecondsPerSecond * nanoSecondsPerMillisecond);
+	boolean rollOverTo(long timestampNano) {
+		if (cycleDurationTimeNano <= 0
+				|| timestampNano - cycleStartTimeNano < cycleDurationTimeNano)
+			return false;
+
+		if (calendarPeriod != null) {
+			CycleCalendar calendar = CycleCalendar.getInstance();
+			cycleStartTimeNano = calendar.getCycleStartNano(calendarPeriod, timestampNano);
+			cycleDurationTimeNano = calendar.getCycleDurationNano(calendarPeriod,
+					timestampNano);
+		} else {
+			long cyclesToSkip = (timestampNano - cycleStartTimeNano)
+					/ cycleDurationTimeNano;
+			cycleStartTimeNano += cyclesToSkip * cycleDurationTimeNano;
+		}
+		return true;
 	}
 
 	/**
-	 * Calculate the daily start time and duration
+	 * @return the time elapsed between the start of the cycle enclosing the
+	 *         timestamp and the timestamp
 	 */
-	private void setDailyCycleNumbers() {
-		/**
-		 * Start time in nano seconds
-		 */
-		ZoneId zoneId = ZoneId.systemDefault();
-		ZonedDateTime now = ZonedDateTime.now(zoneId);
-		ZonedDateTime todayStart = now.toLocalDate().atStartOfDay(zoneId);
-		long startTime = todayStart.toEpochSecond() * milliSecondsPerSecond
-				* nanoSecondsPerMillisecond;
-		logger.info("cycleStartTimeNano = " + startTime);
-		setCycleStartTimeNano(todayStart.toEpochSecond() * milliSecondsPerSecond
-				* nanoSecondsPerMillisecond);
-		/**
-		 * Duration in nano seconds
-		 */
-		setCycleDurationTimeNano(hoursPerDay * minutesPerHour * secondsPerMinute
-				* milliSecondsPerSecond * nanoSecondsPerMillisecond);
+	public long getCycleOffsetNano(long timestampNano) {
+		if (calendarPeriod != null)
+			return CycleCalendar.getInstance().getCycleOffsetNano(calendarPeriod,
+					timestampNano);
+		if (cycleDurationTimeNano <= 0)
+			return timestampNano - cycleStartTimeNano;
+		return Math.floorMod(timestampNano - cycleStartTimeNano, cycleDurationTimeNano);
 	}
 
 	/**
@@ -0,0 +1,272 @@
+package com.emerigen.infrastructure.learning.cycle;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.emerigen.infrastructure.utils.EmerigenProperties;
+
+/**
+ * Precomputed cycle boundaries for one time zone.
+ *
+ * The start of every day, week, calendar month and calendar year within a
+ * window of years around the current year is computed once, as nanoseconds
+ * since the epoch, when the calendar is created. Resolving the start, duration
+ * or offset of a cycle is then a binary search over a primitive array, with no
+ * java.time arithmetic or allocation. Daylight savings transitions and the
+ * varying lengths of months and years are reflected exactly in the boundaries.
+ * Timestamps outside the window fall back to computing the boundaries with
+ * java.time.
+ *
+ * @author Larry
+ *
+ */
+public class CycleCalendar {
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	private static final Logger logger = Logger.getLogger(CycleCalendar.class);
+
+	/**
+	 * The calendar periods a cycle can span
+	 */
+	public enum Period {
+		DAY, WEEK, MONTH, YEAR;
+
+		/**
+		 * @return the period of the given cycle type, or null if the cycle type is
+		 *         not a calendar cycle
+		 */
+		public static Period fromCycleType(String cycleType) {
+			if ("Daily".equals(cycleType))
+				return DAY;
+			else if ("Weekly".equals(cycleType))
+				return WEEK;
+			else if ("Monthly".equals(cycleType))
+				return MONTH;
+			else if ("Yearly".equals(cycleType))
+				return YEAR;
+			return null;
+		}
+	}
+
+	private static final ConcurrentHashMap<ZoneId, CycleCalendar> calendarsPerZone = new ConcurrentHashMap<ZoneId, CycleCalendar>();
+
+	private final ZoneId zoneId;
+	private final DayOfWeek firstDayOfWeek;
+	private final int firstYear;
+	private final int lastYear;
+	private final long[][] boundariesPerPeriod = new long[Period.values().length][];
+
+	/**
+	 * @return the calendar of the system default time zone
+	 */
+	public static CycleCalendar getInstance() {
+		return forZone(ZoneId.systemDefault());
+	}
+
+	/**
+	 * @return the calendar of the given time zone, created on first use with the
+	 *         window and first day of week from the cycle.calendar properties
+	 */
+	public static CycleCalendar forZone(ZoneId zoneId) {
+		if (zoneId == null)
+			throw new IllegalArgumentException("zoneId must not be null");
+
+		CycleCalendar calendar = calendarsPerZone.get(zoneId);
+		if (calendar == null) {
+			calendar = calendarsPerZone.computeIfAbsent(zoneId, zone -> {
+				EmerigenProperties properties = EmerigenProperties.getInstance();
+				int windowYears = Integer.parseInt(
+						properties.getValue("cycle.calendar.window.years"));
+				DayOfWeek firstDayOfWeek = DayOfWeek.valueOf(properties
+						.getValue("cycle.calendar.first.day.of.week").trim().toUpperCase());
+				int currentYear = LocalDate.now(zone).getYear();
+				return new CycleCalendar(zone, currentYear - windowYears,
+						currentYear + windowYears, firstDayOfWeek);
+			});
+		}
+		return calendar;
+	}
+
+	/**
+	 * @param zoneId         the time zone the boundaries are computed in
+	 * @param firstYear      the first year covered by the boundary tables
+	 * @param lastYear       the last year covered by the boundary tables
+	 * @param firstDayOfWeek the day weekly cycles start on
+	 */
+	public CycleCalendar(ZoneId zoneId, int firstYear, int lastYear,
+			DayOfWeek firstDayOfWeek) {
+		if (zoneId == null)
+			throw new IllegalArgumentException("zoneId must not be null");
+		if (firstYear > lastYear)
+			throw new IllegalArgumentException("firstYear (" + firstYear
+					+ ") must not be after lastYear (" + lastYear + ")");
+		if (firstDayOfWeek == null)
+			throw new IllegalArgumentException("firstDayOfWeek must not be null");
+
+		this.zoneId = zoneId;
+		this.firstYear = firstYear;
+		this.lastYear = lastYear;
+		this.firstDayOfWeek = firstDayOfWeek;
+
+		LocalDate windowStart = LocalDate.of(firstYear, 1, 1);
+		LocalDate windowEnd = LocalDate.of(lastYear + 1, 1, 1);
+		for (Period period : Period.values())
+			boundariesPerPeriod[period.ordinal()] = computeBoundaries(period, windowStart,
+					windowEnd);
+		logger.info("Computed cycle boundaries for zone " + zoneId + " from " + firstYear
+				+ " through " + lastYear);
+	}
+
+	/**
+	 * @return the starts of every period from the one enclosing windowStart
+	 *         through the first one at or after windowEnd
+	 */
+	private long[] computeBoundaries(Period period, LocalDate windowStart,
+			LocalDate windowEnd) {
+		long[] boundaries = new long[16];
+		int count = 0;
+		LocalDate date = getPeriodStartDate(period, windowStart);
+		while (true) {
+			if (count == boundaries.length)
+				boundaries = Arrays.copyOf(boundaries, count * 2);
+			boundaries[count++] = startOfDayNano(date);
+			if (!date.isBefore(windowEnd))
+				break;
+			date = getNextPeriodStartDate(period, date);
+		}
+		return Arrays.copyOf(boundaries, count);
+	}
+
+	private LocalDate getPeriodStartDate(Period period, LocalDate date) {
+		switch (period) {
+		case DAY:
+			return date;
+		case WEEK:
+			return date.with(TemporalAdjusters.previousOrSame(firstDayOfWeek));
+		case MONTH:
+			return date.with(TemporalAdjusters.firstDayOfMonth());
+		default:
+			return date.with(TemporalAdjusters.firstDayOfYear());
+		}
+	}
+
+	private static LocalDate getNextPeriodStartDate(Period period, LocalDate date) {
+		switch (period) {
+		case DAY:
+			return date.plusDays(1);
+		case WEEK:
+			return date.plusWeeks(1);
+		case MONTH:
+			return date.plusMonths(1);
+		default:
+			return date.plusYears(1);
+		}
+	}
+
+	private long startOfDayNano(LocalDate date) {
+		return date.atStartOfDay(zoneId).toEpochSecond() * NANOS_PER_SECOND;
+	}
+
+	/**
+	 * @return the index of the boundary enclosing the timestamp, or -1 if the
+	 *         timestamp is outside the window
+	 */
+	private static int enclosingBoundaryIndex(long[] boundaries, long timestampNano) {
+		int index = Arrays.binarySearch(boundaries, timestampNano);
+		if (index < 0)
+			index = -index - 2;
+		if (index < 0 || index >= boundaries.length - 1)
+			return -1;
+		return index;
+	}
+
+	/**
+	 * @return the start of the period enclosing the timestamp, in nanoseconds since
+	 *         the epoch
+	 */
+	public long getCycleStartNano(Period period, long timestampNano) {
+		if (period == null)
+			throw new IllegalArgumentException("period must not be null");
+
+		long[] boundaries = boundariesPerPeriod[period.ordinal()];
+		int index = enclosingBoundaryIndex(boundaries, timestampNano);
+		if (index >= 0)
+			return boundaries[index];
+		return startOfDayNano(getPeriodStartDate(period, toLocalDate(timestampNano)));
+	}
+
+	/**
+	 * @return the exact length of the period enclosing the timestamp, in
+	 *         nanoseconds
+	 */
+	public long getCycleDurationNano(Period period, long timestampNano) {
+		if (period == null)
+			throw new IllegalArgumentException("period must not be null");
+
+		long[] boundaries = boundariesPerPeriod[period.ordinal()];
+		int index = enclosingBoundaryIndex(boundaries, timestampNano);
+		if (index >= 0)
+			return boundaries[index + 1] - boundaries[index];
+		LocalDate start = getPeriodStartDate(period, toLocalDate(timestampNano));
+		return startOfDayNano(getNextPeriodStartDate(period, start))
+				- startOfDayNano(start);
+	}
+
+	/**
+	 * @return the time elapsed between the start of the enclosing period and the
+	 *         timestamp, in nanoseconds
+	 */
+	public long getCycleOffsetNano(Period period, long timestampNano) {
+		return timestampNano - getCycleStartNano(period, timestampNano);
+	}
+
+	private LocalDate toLocalDate(long timestampNano) {
+		logger.debug("Timestamp " + timestampNano + " is outside the precomputed window");
+		return Instant.ofEpochSecond(Math.floorDiv(timestampNano, NANOS_PER_SECOND))
+				.atZone(zoneId).toLocalDate();
+	}
+
+	/**
+	 * @return true if the timestamp falls within the precomputed window
+	 */
+	public boolean covers(long timestampNano) {
+		long[] years = boundariesPerPeriod[Period.YEAR.ordinal()];
+		return timestampNano >= years[0] && timestampNano < years[years.length - 1];
+	}
+
+	/**
+	 * @return the zoneId
+	 */
+	public ZoneId getZoneId() {
+		return zoneId;
+	}
+
+	/**
+	 * @return the firstDayOfWeek
+	 */
+	public DayOfWeek getFirstDayOfWeek() {
+		return firstDayOfWeek;
+	}
+
+	/**
+	 * @return the firstYear
+	 */
+	public int getFirstYear() {
+		return firstYear;
+	}
+
+	/**
+	 * @return the lastYear
+	 */
+	public int getLastYear() {
+		return lastYear;
+	}
+
+}
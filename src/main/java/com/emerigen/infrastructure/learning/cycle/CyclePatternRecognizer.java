@@ -65,15 +65,7 @@ public class CyclePatternRecognizer extends PatternRecognizer {
 	}
 
 	private void adjustCycleStartTimeToClosestEnclosingCycle(SensorEvent sensorEvent) {
-		if ((sensorEvent.getTimestamp() - cycle.getCycleStartTimeNano()) > cycle
-				.getCycleDurationTimeNano()) {
-
-			// Calculate closest enclosing cycle
-			long cyclesToSkip = (sensorEvent.getTimestamp()
-					- cycle.getCycleStartTimeNano()) / cycle.getCycleDurationTimeNano();
-
-			cycle.setCycleStartTimeNano(cycle.getCycleStartTimeNano()
-					+ (cyclesToSkip * cycle.getCycleDurationTimeNano()));
+		if (cycle.rollOverTo(sensorEvent.getTimestamp())) {
 			logger.info(
 					"Incoming event was past our current cycle duration so the new cycleStartTime ("
 							+ cycle.getCycleStartTimeNano()
@@ -201,18 +193,18 @@ public class CyclePatternRecognizer extends PatternRecognizer {
 
 	private boolean currentEventIsGreaterThanPreviousEvent(
 			SensorEvent currentSensorEvent) {
-		long currentEventTimestampOffset = currentSensorEvent.getTimestamp()
-				% cycle.getCycleDurationTimeNano();
-		long previousEvcentTimestampOffset = previousSensorEvent.getTimestamp()
-				% cycle.getCycleDurationTimeNano();
+		long currentEventTimestampOffset = cycle
+				.getCycleOffsetNano(currentSensorEvent.getTimestamp());
+		long previousEvcentTimestampOffset = cycle
+				.getCycleOffsetNano(previousSensorEvent.getTimestamp());
 		return currentEventTimestampOffset > previousEvcentTimestampOffset;
 	}
 
 	private boolean currentEventIsLessThanPreviousEvent(SensorEvent currentSensorEvent) {
-		long currentEventTimestampOffset = currentSensorEvent.getTimestamp()
-				% cycle.getCycleDurationTimeNano();
-		long previousEvcentTimestampOffset = previousSensorEvent.getTimestamp()
-				% cycle.getCycleDurationTimeNano();
+		long currentEventTimestampOffset = cycle
+				.getCycleOffsetNano(currentSensorEvent.getTimestamp());
+		long previousEvcentTimestampOffset = cycle
+				.getCycleOffsetNano(previousSensorEvent.getTimestamp());
 		return currentEventTimestampOffset < previousEvcentTimestampOffset;
 	}
 
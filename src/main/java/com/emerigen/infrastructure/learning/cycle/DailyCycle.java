@@ -3,11 +3,6 @@
  */
 package com.emerigen.infrastructure.learning.cycle;
 
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
-
-import org.apache.log4j.Logger;
-
 import com.couchbase.client.core.deps.com.fasterxml.jackson.annotation.JsonIgnore;
 
 /**
@@ -17,13 +12,6 @@ import com.couchbase.client.core.deps.com.fasterxml.jackson.annotation.JsonIgnor
  */
 public class DailyCycle extends Cycle {
 
-	final private long hoursPerDay = 24;
-	final private long minutesPerHour = 60;
-	final private long secondsPerMinute = 60;
-	final private long milliSecondsPerSecond = 1000;
-	final private long nanoSecondsPerMillisecond = 1000000;
-	private static final Logger logger = Logger.getLogger(DailyCycle.class);
-
 	public DailyCycle() {
 		super("Daily");
 	}
@@ -37,23 +25,19 @@ public class DailyCycle extends Cycle {
 	 */
 	@Override
 	public long calculateCycleStartTimeNano() {
-		ZoneId zoneId = ZoneId.systemDefault();
-		ZonedDateTime now = ZonedDateTime.now(zoneId);
-		ZonedDateTime todayStart = now.toLocalDate().atStartOfDay(zoneId);
-		long startTime = todayStart.toEpochSecond() * milliSecondsPerSecond
-				* nanoSecondsPerMillisecond;
-		logger.info("cycleStartTimeNano = " + startTime);
-		return todayStart.toEpochSecond() * milliSecondsPerSecond
-				* nanoSecondsPerMillisecond;
+		return CycleCalendar.getInstance().getCycleStartNano(CycleCalendar.Period.DAY,
+				System.currentTimeMillis() * NANOS_PER_MILLISECOND);
 	}
 
 	/**
-	 * Caculate duration of 24 hours expressed as milliseconds
+	 * Caculate duration of 24 hours expressed as nanoseconds, or 23 or 25 hours on
+	 * daylight savings transition days
 	 */
 	@Override
 	public long calculateCycleDurationNano() {
-		return hoursPerDay * minutesPerHour * secondsPerMinute * milliSecondsPerSecond
-				* nanoSecondsPerMillisecond;
+		return CycleCalendar.getInstance().getCycleDurationNano(
+				CycleCalendar.Period.DAY,
+				System.currentTimeMillis() * NANOS_PER_MILLISECOND);
 	}
 
 	@Override
@@ -3,11 +3,6 @@
  */
 package com.emerigen.infrastructure.learning.cycle;
 
-import java.time.LocalDate;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.time.temporal.TemporalAdjusters;
-
 /**
  * @author Larry
  * @param <T>
@@ -15,10 +10,6 @@ import java.time.temporal.TemporalAdjusters;
  */
 public class MonthlyCycle extends Cycle {
 
-	final private long secondsPerYear = 31556952L;
-	final private long nanosecondsPerMillisecond = 1000000;
-	final private long milliSecondsPerSecond = 1000;
-
 	public MonthlyCycle(int sensorType, int sensorLocation) {
 		super(sensorType, sensorLocation, "Monthly");
 	}
@@ -32,27 +23,18 @@ public class MonthlyCycle extends Cycle {
 	 */
 	@Override
 	public long calculateCycleStartTimeNano() {
-		ZoneId zoneId = ZoneId.systemDefault();
-
-		// Get the first day of this month
-		LocalDate today = LocalDate.now();
-		LocalDate firstDayOfCurrentMonth = today
-				.with(TemporalAdjusters.firstDayOfMonth());
-
-		// Get the start of that day
-		ZonedDateTime firtDayStartTime = firstDayOfCurrentMonth.atStartOfDay(zoneId);
-		return firtDayStartTime.toEpochSecond() * milliSecondsPerSecond
-				* nanosecondsPerMillisecond;
+		return CycleCalendar.getInstance().getCycleStartNano(CycleCalendar.Period.MONTH,
+				System.currentTimeMillis() * NANOS_PER_MILLISECOND);
 	}
 
 	/**
-	 * Caculate duration of 1 month expressed as nanoseconds
+	 * Caculate duration of the current month expressed as nanoseconds
 	 */
 	@Override
 	public long calculateCycleDurationNano() {
-
-		long secondsPerMonth = secondsPerYear / 12;
-		return secondsPerMonth * milliSecondsPerSecond * nanosecondsPerMillisecond;
+		return CycleCalendar.getInstance().getCycleDurationNano(
+				CycleCalendar.Period.MONTH,
+				System.currentTimeMillis() * NANOS_PER_MILLISECOND);
 	}
 
 	@Override
@@ -0,0 +1,274 @@
+/**
+ *
+ */
+package com.emerigen.infrastructure.learning.cycle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.emerigen.infrastructure.learning.PatternRecognizer;
+import com.emerigen.infrastructure.learning.Prediction;
+import com.emerigen.infrastructure.learning.PredictionService;
+import com.emerigen.infrastructure.sensor.Sensor;
+import com.emerigen.infrastructure.sensor.SensorEvent;
+import com.emerigen.infrastructure.utils.Utils;
+
+/**
+ * Recognizes the patterns of several cycles of one sensor (typically the Daily,
+ * Weekly, Monthly and Yearly cycles) in a single pass over each sensor event.
+ *
+ * Each cycle learns exactly as it would in its own CyclePatternRecognizer, but
+ * the work they have in common is done once per event: the sensor checks, the
+ * minimum delay and significant change tests, and the event hash. Identical
+ * transitions learned by several cycles are created once, and the predictions
+ * of all cycles are retrieved with a single batched lookup.
+ *
+ * The minimum delay and significant change tests compare the event to the last
+ * event that passed them, rather than to the previous event of each cycle.
+ *
+ * @author Larry
+ *
+ */
+public class MultiCyclePatternRecognizer extends PatternRecognizer {
+
+	/**
+	 * The learning state of one cycle
+	 */
+	private static class CycleState {
+		private final Cycle cycle;
+		private SensorEvent previousSensorEvent = null;
+		private int previousSensorEventHashCode;
+		private long previousSensorEventOffsetNano;
+
+		CycleState(Cycle cycle) {
+			this.cycle = cycle;
+		}
+
+		void setPreviousSensorEvent(SensorEvent sensorEvent, int hashCode,
+				long offsetNano) {
+			this.previousSensorEvent = sensorEvent;
+			this.previousSensorEventHashCode = hashCode;
+			this.previousSensorEventOffsetNano = offsetNano;
+		}
+	}
+
+	private final List<CycleState> cycleStates;
+	private final List<Cycle> cycles;
+	private final Sensor sensor;
+	private SensorEvent previousSensorEvent = null;
+	private PredictionService predictionService;
+
+	private static final Logger logger = Logger
+			.getLogger(MultiCyclePatternRecognizer.class);
+
+	public MultiCyclePatternRecognizer(List<Cycle> cycles, Sensor sensor,
+			PredictionService predictionService) {
+		super(predictionService);
+		if (cycles == null || cycles.isEmpty())
+			throw new IllegalArgumentException("cycles must not be null or empty");
+		if (sensor == null)
+			throw new IllegalArgumentException("sensor must not be null");
+
+		List<CycleState> states = new ArrayList<CycleState>(cycles.size());
+		for (Cycle cycle : cycles) {
+			if (cycle == null)
+				throw new IllegalArgumentException("cycle must not be null");
+			states.add(new CycleState(cycle));
+		}
+		this.cycleStates = states;
+		this.cycles = Collections.unmodifiableList(new ArrayList<Cycle>(cycles));
+		this.sensor = sensor;
+		this.predictionService = predictionService;
+	}
+
+	/**
+	 * Learn the event in every cycle and return the predictions of all of them
+	 */
+	@Override
+	public List<Prediction> onSensorChanged(SensorEvent currentSensorEvent) {
+
+		// Validate parms
+		if (currentSensorEvent == null)
+			throw new IllegalArgumentException("currentSensorEvent must not be null");
+		if (!(sensor.getSensorType() == currentSensorEvent.getSensorType()))
+			throw new IllegalArgumentException(
+					"given sensor type (" + currentSensorEvent.getSensorType()
+							+ "), does not match my sensor type ("
+							+ sensor.getSensorType() + ")");
+		if (!(sensor.getSensorLocation() == currentSensorEvent.getSensorLocation()))
+			throw new IllegalArgumentException(
+					"given sensor location (" + currentSensorEvent.getSensorLocation()
+							+ "), does not match cycle sensor location ("
+							+ sensor.getSensorLocation() + ")");
+		List<Prediction> predictions = new ArrayList<Prediction>();
+
+		// The shared preamble: minimum delay and significant change
+		if (!currentSensorEvent.getSensor().minimumDelayBetweenReadingsIsSatisfied(
+				previousSensorEvent, currentSensorEvent)
+				|| !currentSensorEvent.getSensor()
+						.significantChangeHasOccurred(previousSensorEvent,
+								currentSensorEvent)) {
+			predictionService.setCurrentPredictions(predictions);
+			return predictions;
+		}
+		previousSensorEvent = currentSensorEvent;
+
+		long timestamp = currentSensorEvent.getTimestamp();
+		int currentHashCode = currentSensorEvent.hashCode();
+		List<SensorEvent> predictingSensorEvents = new ArrayList<SensorEvent>(
+				cycleStates.size());
+		Set<SensorEvent> mergedSensorEvents = Collections
+				.newSetFromMap(new IdentityHashMap<SensorEvent, Boolean>());
+		Map<SensorEvent, List<SensorEvent>> newTransitions = new IdentityHashMap<SensorEvent, List<SensorEvent>>();
+
+		// Evaluate every cycle against its own previous event in one pass
+		for (CycleState state : cycleStates) {
+
+			// Roll over n cycles if the event timestamp is past the current end time
+			if (state.cycle.rollOverTo(timestamp))
+				logger.info("Rolled " + state.cycle.getCycleType()
+						+ " cycle over to cycleStartTime ("
+						+ state.cycle.getCycleStartTimeNano() + ")");
+			long currentOffset = state.cycle.getCycleOffsetNano(timestamp);
+
+			if (state.previousSensorEvent == null) {
+				state.setPreviousSensorEvent(currentSensorEvent, currentHashCode,
+						currentOffset);
+				predictingSensorEvents.add(currentSensorEvent);
+			} else if (Utils.equals(currentHashCode, state.previousSensorEventHashCode)) {
+
+				// Sensor events equal? Merge into previous once, discard current
+				if (mergedSensorEvents.add(state.previousSensorEvent))
+					mergeIntoPreviousEvent(state.previousSensorEvent, currentSensorEvent);
+				predictingSensorEvents.add(state.previousSensorEvent);
+			} else if (currentOffset > state.previousSensorEventOffsetNano) {
+
+				// Previous event occurs before current event? create new Transition
+				addTransition(newTransitions, state.previousSensorEvent,
+						currentSensorEvent);
+				predictingSensorEvents.add(currentSensorEvent);
+				state.setPreviousSensorEvent(currentSensorEvent, currentHashCode,
+						currentOffset);
+			} else if (currentOffset < state.previousSensorEventOffsetNano) {
+
+				// Current event prior to previous event? create backward Transition
+				addTransition(newTransitions, currentSensorEvent,
+						state.previousSensorEvent);
+				predictingSensorEvents.add(currentSensorEvent);
+			}
+		}
+
+		// Create each distinct transition once
+		for (Map.Entry<SensorEvent, List<SensorEvent>> entry : newTransitions
+				.entrySet()) {
+			for (SensorEvent predictedSensorEvent : entry.getValue())
+				predictionService.createPredictionFromSensorEvents(entry.getKey(),
+						predictedSensorEvent);
+		}
+
+		// One batched lookup for the predictions of all cycles
+		predictions = predictionService
+				.getPredictionsForSensorEvents(predictingSensorEvents);
+		predictionService.setCurrentPredictions(predictions);
+		return predictions;
+	}
+
+	private static void addTransition(Map<SensorEvent, List<SensorEvent>> transitions,
+			SensorEvent firstSensorEvent, SensorEvent predictedSensorEvent) {
+		List<SensorEvent> predictedSensorEvents = transitions
+				.computeIfAbsent(firstSensorEvent, k -> new ArrayList<SensorEvent>(1));
+		for (SensorEvent existing : predictedSensorEvents) {
+			if (existing == predictedSensorEvent)
+				return;
+		}
+		predictedSensorEvents.add(predictedSensorEvent);
+	}
+
+	/**
+	 * The previous and current events are statistically equal, accumulate the
+	 * duration of the data point into the previous event
+	 */
+	private static void mergeIntoPreviousEvent(SensorEvent previousSensorEvent,
+			SensorEvent newSensorEvent) {
+		previousSensorEvent.setDataPointDurationNano(
+				previousSensorEvent.getDataPointDurationNano()
+						+ newSensorEvent.getDataPointDurationNano());
+		logger.info("New sensor event merged with previous event, merged event: "
+				+ previousSensorEvent);
+	}
+
+	@Override
+	public String toString() {
+		return "MultiCyclePatternRecognizer [cycles=" + cycles + ", sensor=" + sensor
+				+ ", previousSensorEvent=" + previousSensorEvent + "]";
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + cycles.hashCode();
+		result = prime * result + sensor.hashCode();
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		MultiCyclePatternRecognizer other = (MultiCyclePatternRecognizer) obj;
+		return cycles.equals(other.cycles) && sensor.equals(other.sensor);
+	}
+
+	/**
+	 * @return the cycles, in evaluation order
+	 */
+	public List<Cycle> getCycles() {
+		return cycles;
+	}
+
+	/**
+	 * @return the previous sensor event of the given cycle
+	 */
+	public SensorEvent getPreviousSensorEvent(Cycle cycle) {
+		for (CycleState state : cycleStates) {
+			if (state.cycle == cycle)
+				return state.previousSensorEvent;
+		}
+		throw new IllegalArgumentException("cycle is not one of my cycles");
+	}
+
+	/**
+	 * @return the sensor
+	 */
+	public Sensor getSensor() {
+		return sensor;
+	}
+
+	/**
+	 * @return the predictionService
+	 */
+	@Override
+	public PredictionService getPredictionService() {
+		return predictionService;
+	}
+
+	/**
+	 * @param predictionService the predictionService to set
+	 */
+	@Override
+	public void setPredictionService(PredictionService predictionService) {
+		this.predictionService = predictionService;
+	}
+
+}
@@ -3,12 +3,6 @@
  */
 package com.emerigen.infrastructure.learning.cycle;
 
-import java.time.DayOfWeek;
-import java.time.LocalDate;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.time.temporal.TemporalAdjusters;
-
 /**
  * @author Larry
  * @param <T>
@@ -16,13 +10,6 @@ import java.time.temporal.TemporalAdjusters;
  */
 public class WeeklyCycle extends Cycle {
 
-	final private int daysPerWeek = 7;
-	final private int hoursPerDay = 24;
-	final private long minutesPerHour = 60;
-	final private long secondsPerMinute = 60;
-	final private long nanosecondsPerMilliSecond = 1000000;
-	final private long milliSecondsPerSecond = 1000;
-
 	public WeeklyCycle(int sensorType, int sensorLocation) {
 		super(sensorType, sensorLocation, "Weekly");
 	}
@@ -32,21 +19,12 @@ public class WeeklyCycle extends Cycle {
 	}
 
 	/**
-	 * Calculate the start time of my cycle as Sunday 12am of this week
+	 * Calculate the start time of my cycle as 12am on the first day of this week
 	 */
 	@Override
 	public long calculateCycleStartTimeNano() {
-		ZoneId zoneId = ZoneId.systemDefault();
-
-		// Get the first day of this week
-		LocalDate today = LocalDate.now();
-		LocalDate firstDayOfCurrentWeek = today
-				.with(TemporalAdjusters.previous(DayOfWeek.SUNDAY));
-
-		// Get the start of that day
-		ZonedDateTime firtDayStartTime = firstDayOfCurrentWeek.atStartOfDay(zoneId);
-		return firtDayStartTime.toEpochSecond() * milliSecondsPerSecond
-				* nanosecondsPerMilliSecond;
+		return CycleCalendar.getInstance().getCycleStartNano(CycleCalendar.Period.WEEK,
+				System.currentTimeMillis() * NANOS_PER_MILLISECOND);
 	}
 
 	/**
@@ -54,8 +32,9 @@ public class WeeklyCycle extends Cycle {
 	 */
 	@Override
 	public long calculateCycleDurationNano() {
-		return daysPerWeek * hoursPerDay * minutesPerHour * secondsPerMinute
-				* milliSecondsPerSecond * nanosecondsPerMilliSecond;
+		return CycleCalendar.getInstance().getCycleDurationNano(
+				CycleCalendar.Period.WEEK,
+				System.currentTimeMillis() * NANOS_PER_MILLISECOND);
 	}
 
 	@Override
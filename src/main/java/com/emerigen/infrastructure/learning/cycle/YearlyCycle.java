@@ -3,11 +3,6 @@
  */
 package com.emerigen.infrastructure.learning.cycle;
 
-import java.time.LocalDate;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.time.temporal.TemporalAdjusters;
-
 /**
  * @author Larry
  * @param <T>
@@ -15,10 +10,6 @@ import java.time.temporal.TemporalAdjusters;
  */
 public class YearlyCycle extends Cycle {
 
-	final private long secondsPerYear = 31556952L;
-	final private long milliSecondsPerSecond = 1000;
-	final private long nanosecondsPerMillisecond = 1000000;
-
 	public YearlyCycle(int sensorType, int sensorLocation) {
 		super(sensorType, sensorLocation, "Yearly");
 	}
@@ -32,25 +23,18 @@ public class YearlyCycle extends Cycle {
 	 */
 	@Override
 	public long calculateCycleStartTimeNano() {
-
-		ZoneId zoneId = ZoneId.systemDefault();
-
-		// Get the first day of this year
-		LocalDate today = LocalDate.now();
-		LocalDate firstDayOfCurrentYear = today.with(TemporalAdjusters.firstDayOfYear());
-
-		// Get the start of that day
-		ZonedDateTime firtDayStartTime = firstDayOfCurrentYear.atStartOfDay(zoneId);
-		return firtDayStartTime.toEpochSecond() * milliSecondsPerSecond
-				* nanosecondsPerMillisecond;
+		return CycleCalendar.getInstance().getCycleStartNano(CycleCalendar.Period.YEAR,
+				System.currentTimeMillis() * NANOS_PER_MILLISECOND);
 	}
 
 	/**
-	 * Caculate duration of 1 year expressed as nanoseconds
+	 * Caculate duration of the current year expressed as nanoseconds
 	 */
 	@Override
 	public long calculateCycleDurationNano() {
-		return secondsPerYear * milliSecondsPerSecond * nanosecondsPerMillisecond;
+		return CycleCalendar.getInstance().getCycleDurationNano(
+				CycleCalendar.Period.YEAR,
+				System.currentTimeMillis() * NANOS_PER_MILLISECOND);
 	}
 
 	@Override
@@ -3,6 +3,9 @@
  */
 package com.emerigen.infrastructure.repository;
 
+import java.util.Collection;
+import java.util.Map;
+
 import com.emerigen.infrastructure.learning.Transition;
 import com.emerigen.infrastructure.learning.cycle.Cycle;
 import com.emerigen.infrastructure.sensor.SensorEvent;
@@ -91,6 +94,24 @@ import com.emerigen.infrastructure.sensor.SensorEvent;
  */
 public abstract class AbstractKnowledgeRepository {
 
+	/**
+	 * The storage backend holding the knowledge documents
+	 */
+	private final KnowledgeRepositoryBackend backend;
+
+	protected AbstractKnowledgeRepository(KnowledgeRepositoryBackend backend) {
+		if (backend == null)
+			throw new IllegalArgumentException("backend must not be null");
+		this.backend = backend;
+	}
+
+	/**
+	 * @return the storage backend holding the knowledge documents
+	 */
+	public KnowledgeRepositoryBackend getBackend() {
+		return backend;
+	}
+
 	public abstract String logTransition(String key, Transition transition,
 			boolean synchronous);
 
@@ -110,22 +131,15 @@ public abstract class AbstractKnowledgeRepository {
 	public abstract int getSensorEventCountForSensorTypeAndLocation(int sensorType,
 			int sensorLocation);
 
-	// Get the prediction accuracy fro a specific entity on the channel
+	/**
+	 * @return the fraction of prediction attempts that succeeded for the sensor
+	 *         type and location, read from the maintained counters
+	 */
 	public double getPredictionAccuracyForSensorTypeAndLocation(int sensorType,
 			int sensorLocation) {
 
-		int sensorEventCount = getSensorEventCountForSensorTypeAndLocation(sensorType,
+		return KnowledgeCounters.getInstance().getPredictionAccuracy(sensorType,
 				sensorLocation);
-		/**
-		 * TODO Add code to search for all SensorEvents that are the "predicted Events"
-		 * in all transitions where the firstEventKey = sensorType+sensorLocation+values
-		 */
-		// TODO How does KnowledgeRepository get access to PredictionService?
-//		int predictionCount = getPredictionCountForSensorTypeAndLocation(sensorType,
-//				sensorLocation);
-
-//		}
-		return 0.0;
 	}
 
 	public abstract SensorEvent getSensorEvent(String sensorEventKey);
@@ -134,4 +148,24 @@ public abstract class AbstractKnowledgeRepository {
 
 	public abstract Transition getTransition(String transitionKey);
 
+	/**
+	 * @param sensorEventKeys the keys of the sensor events
+	 * @return the sensor events that exist, keyed by sensor event key
+	 */
+	public abstract Map<String, SensorEvent> getSensorEvents(
+			Collection<String> sensorEventKeys);
+
+	/**
+	 * @param cycleKeys the keys of the cycles
+	 * @return the cycles that exist, keyed by cycle key
+	 */
+	public abstract Map<String, Cycle> getCycles(Collection<String> cycleKeys);
+
+	/**
+	 * @param transitionKeys the keys of the transitions
+	 * @return the transitions that exist, keyed by transition key
+	 */
+	public abstract Map<String, Transition> getTransitions(
+			Collection<String> transitionKeys);
+
 }
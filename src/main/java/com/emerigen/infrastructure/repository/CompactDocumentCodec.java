@@ -0,0 +1,521 @@
+package com.emerigen.infrastructure.repository;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.couchbase.client.java.json.JsonArray;
+import com.couchbase.client.java.json.JsonObject;
+import com.emerigen.infrastructure.sensor.Sensor;
+
+/**
+ * Encodes transition and sensor event documents in a compact binary format, and
+ * decodes them back into the JsonObject they were encoded from.
+ *
+ * A compact document starts with a document kind byte, which never collides
+ * with the '{' that starts a JSON document, so both formats can be mixed in one
+ * store. Each object is written as a bitmask of the fields it contains followed
+ * by the field values, in a fixed field order:
+ * <ul>
+ * <li>whole numbers, ie timestamps, as zigzag varints</li>
+ * <li>doubles and sensor values as raw little-endian IEEE 754 bits</li>
+ * <li>strings as a varint length followed by UTF-8 bytes</li>
+ * <li>an embedded sensor as a varint sensor id once the sensor description has
+ * been defined by an earlier document</li>
+ * </ul>
+ *
+ * Only documents whose fields all belong to the transition or sensor event
+ * layout, with values of the expected types, are encoded. encode returns null
+ * for any other document so that it is stored as JSON, which keeps decode the
+ * exact inverse of encode: the decoded JsonObject equals the original document
+ * after a JSON round trip.
+ *
+ * Sensor definitions are remembered by the codec, so a store must decode its
+ * documents in the order they were written (ie when replaying a log) before it
+ * decodes documents at random.
+ *
+ * @author Larry
+ *
+ */
+public class CompactDocumentCodec {
+
+	/**
+	 * The first byte of a compact transition document
+	 */
+	public static final byte TRANSITION_DOCUMENT = 1;
+
+	/**
+	 * The first byte of a compact sensor event document
+	 */
+	public static final byte SENSOR_EVENT_DOCUMENT = 2;
+
+	private static final byte SENSOR_INLINE = 0;
+	private static final byte SENSOR_DEFINITION = 1;
+	private static final byte SENSOR_REFERENCE = 2;
+
+	private enum Kind {
+		WHOLE_NUMBER, DOUBLE, BOOLEAN, STRING, FLOATS, SENSOR, SENSOR_EVENT
+	}
+
+	private static final class Field {
+		private final String name;
+		private final Kind kind;
+
+		private Field(String name, Kind kind) {
+			this.name = name;
+			this.kind = kind;
+		}
+	}
+
+	// The field order is part of the format, new fields may only be appended
+	private static final Field[] SENSOR_FIELDS = { new Field("type", Kind.STRING),
+			new Field("sensorType", Kind.WHOLE_NUMBER),
+			new Field("sensorLocation", Kind.WHOLE_NUMBER),
+			new Field("reportingMode", Kind.WHOLE_NUMBER),
+			new Field("minimumDelayBetweenReadings", Kind.WHOLE_NUMBER),
+			new Field("wakeUpSensor", Kind.BOOLEAN) };
+
+	private static final Field[] SENSOR_EVENT_FIELDS = { new Field("type", Kind.STRING),
+			new Field("sensorType", Kind.WHOLE_NUMBER),
+			new Field("sensorLocation", Kind.WHOLE_NUMBER),
+			new Field("timestamp", Kind.WHOLE_NUMBER),
+			new Field("dataPointDurationNano", Kind.WHOLE_NUMBER),
+			new Field("values", Kind.FLOATS), new Field("sensor", Kind.SENSOR),
+			new Field("reportingMode", Kind.WHOLE_NUMBER),
+			new Field("minimumDelayBetweenReadings", Kind.WHOLE_NUMBER),
+			new Field("wakeUpSensor", Kind.BOOLEAN) };
+
+	private static final Field[] TRANSITION_FIELDS = { new Field("type", Kind.STRING),
+			new Field("sensorType", Kind.WHOLE_NUMBER),
+			new Field("sensorLocation", Kind.WHOLE_NUMBER),
+			new Field("timestamp", Kind.WHOLE_NUMBER),
+			new Field("cashOnHand", Kind.DOUBLE), new Field("probability", Kind.DOUBLE),
+			new Field("dataPointDurationNano", Kind.WHOLE_NUMBER),
+			new Field("lastSuccessfulPredictionTimestamp", Kind.WHOLE_NUMBER),
+			new Field("numberOfPredictionAttempts", Kind.WHOLE_NUMBER),
+			new Field("numberOfSuccessfulPredictions", Kind.WHOLE_NUMBER),
+			new Field("firstSensorEventKey", Kind.STRING),
+			new Field("predictedSensorEvent", Kind.SENSOR_EVENT) };
+
+	/**
+	 * The sensor description defined for each sensor id. A definition is never
+	 * replaced, a different description for the same id is written inline.
+	 */
+	private final ConcurrentHashMap<Integer, JsonObject> sensorsById = new ConcurrentHashMap<Integer, JsonObject>();
+
+	/**
+	 * @param document the document to encode
+	 * @return the compact form of the document, or null if it is not a transition
+	 *         or sensor event document that can be encoded exactly
+	 */
+	public byte[] encode(JsonObject document) {
+		return encode(document, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Encode the document if its compact form fits in maximumLength bytes. Sensor
+	 * definitions are only remembered when the encoded document is returned, so a
+	 * document that is not stored never defines a sensor.
+	 *
+	 * @param document      the document to encode
+	 * @param maximumLength the maximum length of the compact form
+	 * @return the compact form of the document, or null if it cannot be encoded
+	 *         exactly or is longer than maximumLength
+	 */
+	public byte[] encode(JsonObject document, int maximumLength) {
+		if (document == null)
+			throw new IllegalArgumentException("document must not be null");
+
+		byte documentKind;
+		Field[] fields;
+		if ("transition".equals(document.get("type"))
+				|| document.containsKey("predictedSensorEvent")) {
+			documentKind = TRANSITION_DOCUMENT;
+			fields = TRANSITION_FIELDS;
+		} else if (document.containsKey("values")) {
+			documentKind = SENSOR_EVENT_DOCUMENT;
+			fields = SENSOR_EVENT_FIELDS;
+		} else {
+			return null;
+		}
+		if (!isEncodable(document, fields))
+			return null;
+
+		Map<Integer, JsonObject> newDefinitions = new HashMap<Integer, JsonObject>(2);
+		Output output = new Output(128);
+		output.writeByte(documentKind);
+		writeObject(output, document, fields, newDefinitions);
+		if (output.size > maximumLength)
+			return null;
+
+		for (Map.Entry<Integer, JsonObject> definition : newDefinitions.entrySet())
+			sensorsById.putIfAbsent(definition.getKey(), definition.getValue());
+		return output.toByteArray();
+	}
+
+	/**
+	 * @param bytes a compact document
+	 * @return the decoded document
+	 */
+	public JsonObject decode(byte[] bytes) {
+		if (bytes == null)
+			throw new IllegalArgumentException("bytes must not be null");
+		return decode(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * @param buffer a buffer positioned at the start of a compact document, read
+	 *               up to its limit
+	 * @return the decoded document
+	 */
+	public JsonObject decode(ByteBuffer buffer) {
+		if (buffer == null)
+			throw new IllegalArgumentException("buffer must not be null");
+
+		ByteBuffer input = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			byte documentKind = input.get();
+			if (documentKind == TRANSITION_DOCUMENT)
+				return readObject(input, TRANSITION_FIELDS);
+			else if (documentKind == SENSOR_EVENT_DOCUMENT)
+				return readObject(input, SENSOR_EVENT_FIELDS);
+			throw new RepositoryException(
+					"unknown compact document kind (" + documentKind + ")");
+		} catch (BufferUnderflowException e) {
+			throw new RepositoryException("truncated compact document", e);
+		}
+	}
+
+	/**
+	 * @return true if the bytes start with a compact document kind
+	 */
+	public static boolean isCompact(byte[] bytes) {
+		return bytes != null && bytes.length > 0
+				&& (bytes[0] == TRANSITION_DOCUMENT || bytes[0] == SENSOR_EVENT_DOCUMENT);
+	}
+
+	/**
+	 * Forget all sensor definitions, ie when the store they were written to is
+	 * emptied
+	 */
+	public void clear() {
+		sensorsById.clear();
+	}
+
+	/**
+	 * @return the number of sensor definitions
+	 */
+	public int getSensorDefinitionCount() {
+		return sensorsById.size();
+	}
+
+	private static boolean isEncodable(JsonObject jsonObject, Field[] fields) {
+		for (String name : jsonObject.getNames()) {
+			Field field = findField(fields, name);
+			if (field == null)
+				return false;
+			Object value = jsonObject.get(name);
+			if (value != null && !isEncodable(value, field.kind))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isEncodable(Object value, Kind kind) {
+		switch (kind) {
+		case WHOLE_NUMBER:
+			return value instanceof Integer || value instanceof Long;
+		case DOUBLE:
+			return value instanceof Double;
+		case BOOLEAN:
+			return value instanceof Boolean;
+		case STRING:
+			return value instanceof String;
+		case FLOATS:
+			if (!(value instanceof JsonArray))
+				return false;
+			for (Object element : (JsonArray) value) {
+				if (!(element instanceof Double))
+					return false;
+				double d = (Double) element;
+				if (Double.doubleToLongBits((double) (float) d) != Double.doubleToLongBits(d))
+					return false;
+			}
+			return true;
+		case SENSOR:
+			return value instanceof JsonObject
+					&& isEncodable((JsonObject) value, SENSOR_FIELDS);
+		default:
+			return value instanceof JsonObject
+					&& isEncodable((JsonObject) value, SENSOR_EVENT_FIELDS);
+		}
+	}
+
+	private static Field findField(Field[] fields, String name) {
+		for (Field field : fields) {
+			if (field.name.equals(name))
+				return field;
+		}
+		return null;
+	}
+
+	private void writeObject(Output output, JsonObject jsonObject, Field[] fields,
+			Map<Integer, JsonObject> newDefinitions) {
+		long presentFields = 0;
+		long nullFields = 0;
+		for (int i = 0; i < fields.length; i++) {
+			if (jsonObject.containsKey(fields[i].name)) {
+				presentFields |= 1L << i;
+				if (jsonObject.get(fields[i].name) == null)
+					nullFields |= 1L << i;
+			}
+		}
+		output.writeVarLong(presentFields);
+		output.writeVarLong(nullFields);
+
+		for (int i = 0; i < fields.length; i++) {
+			if ((presentFields & ~nullFields & (1L << i)) == 0)
+				continue;
+			Object value = jsonObject.get(fields[i].name);
+			switch (fields[i].kind) {
+			case WHOLE_NUMBER:
+				long number = ((Number) value).longValue();
+				output.writeVarLong((number << 1) ^ (number >> 63));
+				break;
+			case DOUBLE:
+				output.writeLong(Double.doubleToRawLongBits((Double) value));
+				break;
+			case BOOLEAN:
+				output.writeByte((Boolean) value ? (byte) 1 : (byte) 0);
+				break;
+			case STRING:
+				byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+				output.writeVarLong(bytes.length);
+				output.writeBytes(bytes);
+				break;
+			case FLOATS:
+				JsonArray values = (JsonArray) value;
+				output.writeVarLong(values.size());
+				for (int j = 0; j < values.size(); j++)
+					output.writeInt(Float.floatToRawIntBits(
+							(float) ((Double) values.get(j)).doubleValue()));
+				break;
+			case SENSOR:
+				writeSensor(output, (JsonObject) value, newDefinitions);
+				break;
+			default:
+				writeObject(output, (JsonObject) value, SENSOR_EVENT_FIELDS,
+						newDefinitions);
+			}
+		}
+	}
+
+	private void writeSensor(Output output, JsonObject sensor,
+			Map<Integer, JsonObject> newDefinitions) {
+		Object sensorType = sensor.get("sensorType");
+		Object sensorLocation = sensor.get("sensorLocation");
+		if (sensorType == null || sensorLocation == null) {
+			output.writeByte(SENSOR_INLINE);
+			writeObject(output, sensor, SENSOR_FIELDS, newDefinitions);
+			return;
+		}
+
+		int sensorId = Sensor.sensorId(((Number) sensorType).intValue(),
+				((Number) sensorLocation).intValue());
+		JsonObject definition = sensorsById.get(sensorId);
+		if (definition == null)
+			definition = newDefinitions.get(sensorId);
+
+		if (definition != null && sameSensor(definition, sensor)) {
+			output.writeByte(SENSOR_REFERENCE);
+			output.writeVarLong(sensorId & 0xFFFFFFFFL);
+		} else if (definition == null) {
+			output.writeByte(SENSOR_DEFINITION);
+			output.writeVarLong(sensorId & 0xFFFFFFFFL);
+			writeObject(output, sensor, SENSOR_FIELDS, newDefinitions);
+			newDefinitions.put(sensorId, asDecoded(sensor));
+		} else {
+			output.writeByte(SENSOR_INLINE);
+			writeObject(output, sensor, SENSOR_FIELDS, newDefinitions);
+		}
+	}
+
+	/**
+	 * @return a copy of the sensor with whole numbers typed as decode types them
+	 */
+	private static JsonObject asDecoded(JsonObject sensor) {
+		JsonObject copy = JsonObject.create();
+		for (String name : sensor.getNames()) {
+			Object value = sensor.get(name);
+			if (value == null)
+				copy.putNull(name);
+			else if (value instanceof Long && (Long) value == ((Long) value).intValue())
+				copy.put(name, ((Long) value).intValue());
+			else
+				copy.put(name, value);
+		}
+		return copy;
+	}
+
+	private static boolean sameSensor(JsonObject first, JsonObject second) {
+		if (!first.getNames().equals(second.getNames()))
+			return false;
+		for (String name : first.getNames()) {
+			Object a = first.get(name);
+			Object b = second.get(name);
+			if (a instanceof Number && b instanceof Number) {
+				if (((Number) a).longValue() != ((Number) b).longValue())
+					return false;
+			} else if (!Objects.equals(a, b)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private JsonObject readObject(ByteBuffer input, Field[] fields) {
+		long presentFields = readVarLong(input);
+		long nullFields = readVarLong(input);
+		JsonObject jsonObject = JsonObject.create();
+		for (int i = 0; i < fields.length; i++) {
+			if ((presentFields & (1L << i)) == 0)
+				continue;
+			String name = fields[i].name;
+			if ((nullFields & (1L << i)) != 0) {
+				jsonObject.putNull(name);
+				continue;
+			}
+			switch (fields[i].kind) {
+			case WHOLE_NUMBER:
+				long zigzag = readVarLong(input);
+				long number = (zigzag >>> 1) ^ -(zigzag & 1);
+				if (number == (int) number)
+					jsonObject.put(name, (int) number);
+				else
+					jsonObject.put(name, number);
+				break;
+			case DOUBLE:
+				jsonObject.put(name, Double.longBitsToDouble(input.getLong()));
+				break;
+			case BOOLEAN:
+				jsonObject.put(name, input.get() != 0);
+				break;
+			case STRING:
+				byte[] bytes = new byte[readLength(input)];
+				input.get(bytes);
+				jsonObject.put(name, new String(bytes, StandardCharsets.UTF_8));
+				break;
+			case FLOATS:
+				int count = readLength(input);
+				JsonArray values = JsonArray.create();
+				for (int j = 0; j < count; j++)
+					values.add((double) Float.intBitsToFloat(input.getInt()));
+				jsonObject.put(name, values);
+				break;
+			case SENSOR:
+				jsonObject.put(name, readSensor(input));
+				break;
+			default:
+				jsonObject.put(name, readObject(input, SENSOR_EVENT_FIELDS));
+			}
+		}
+		return jsonObject;
+	}
+
+	private JsonObject readSensor(ByteBuffer input) {
+		byte mode = input.get();
+		if (mode == SENSOR_INLINE)
+			return readObject(input, SENSOR_FIELDS);
+
+		int sensorId = (int) readVarLong(input);
+		if (mode == SENSOR_DEFINITION) {
+			JsonObject sensor = readObject(input, SENSOR_FIELDS);
+			sensorsById.putIfAbsent(sensorId, JsonObject.from(sensor.toMap()));
+			return sensor;
+		} else if (mode == SENSOR_REFERENCE) {
+			JsonObject definition = sensorsById.get(sensorId);
+			if (definition == null)
+				throw new RepositoryException(
+						"compact document references undefined sensor id " + sensorId);
+			return JsonObject.from(definition.toMap());
+		}
+		throw new RepositoryException("unknown compact sensor encoding (" + mode + ")");
+	}
+
+	private static int readLength(ByteBuffer input) {
+		long length = readVarLong(input);
+		if (length < 0 || length > input.remaining())
+			throw new RepositoryException("invalid length in compact document: " + length);
+		return (int) length;
+	}
+
+	private static long readVarLong(ByteBuffer input) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = input.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new RepositoryException("malformed varint in compact document");
+	}
+
+	/**
+	 * A growable little-endian byte buffer
+	 */
+	private static final class Output {
+		private byte[] bytes;
+		private int size = 0;
+
+		Output(int initialCapacity) {
+			bytes = new byte[initialCapacity];
+		}
+
+		private void ensureCapacity(int additional) {
+			if (size + additional > bytes.length)
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+		}
+
+		void writeByte(byte b) {
+			ensureCapacity(1);
+			bytes[size++] = b;
+		}
+
+		void writeVarLong(long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7FL) != 0) {
+				bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte) value;
+		}
+
+		void writeInt(int value) {
+			ensureCapacity(4);
+			for (int i = 0; i < 4; i++)
+				bytes[size++] = (byte) (value >>> (8 * i));
+		}
+
+		void writeLong(long value) {
+			ensureCapacity(8);
+			for (int i = 0; i < 8; i++)
+				bytes[size++] = (byte) (value >>> (8 * i));
+		}
+
+		void writeBytes(byte[] source) {
+			ensureCapacity(source.length);
+			System.arraycopy(source, 0, bytes, size, source.length);
+			size += source.length;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(bytes, size);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.emerigen.infrastructure.repository;
+
+import com.couchbase.client.java.json.JsonArray;
+import com.couchbase.client.java.json.JsonObject;
+import com.emerigen.infrastructure.learning.Transition;
+import com.emerigen.infrastructure.sensor.Sensor;
+import com.emerigen.infrastructure.sensor.SensorEvent;
+import com.emerigen.infrastructure.sensor.SensorRegistry;
+
+/**
+ * Decodes sensor, sensor-event and transition documents directly from the
+ * JsonObject rows returned by the repository.
+ *
+ * The rows have already been parsed by the client, so each field is read from
+ * the JsonObject and set on the domain object without rendering the row back
+ * to a String and parsing it again with an ObjectMapper. Fields missing from a
+ * document keep the defaults of the domain object's no-arg constructor, as they
+ * would when mapped with Jackson, and unknown fields are ignored.
+ *
+ * @author Larry
+ *
+ */
+public final class DocumentDecoder {
+
+	private static final long DEFAULT_MINIMUM_DELAY_BETWEEN_READINGS = new Sensor()
+			.getMinimumDelayBetweenReadings();
+
+	private DocumentDecoder() {
+	}
+
+	/**
+	 * Sensors are decoded to the shared, frozen sensor interned for their type,
+	 * location and configuration, so decoding many events of one sensor allocates
+	 * no Sensor per row. Missing fields take the no-arg constructor defaults.
+	 *
+	 * @param sensorJsonObject a sensor document
+	 * @return the interned sensor
+	 */
+	public static Sensor decodeSensor(JsonObject sensorJsonObject) {
+		if (sensorJsonObject == null)
+			throw new IllegalArgumentException("sensorJsonObject must not be null");
+
+		Number sensorType = getNumber(sensorJsonObject, "sensorType");
+		Number sensorLocation = getNumber(sensorJsonObject, "sensorLocation");
+		Number reportingMode = getNumber(sensorJsonObject, "reportingMode");
+		Number minimumDelayBetweenReadings = getNumber(sensorJsonObject,
+				"minimumDelayBetweenReadings");
+		Boolean wakeUpSensor = sensorJsonObject.getBoolean("wakeUpSensor");
+		return SensorRegistry.getInstance().intern(
+				sensorType == null ? 0 : sensorType.intValue(),
+				sensorLocation == null ? 0 : sensorLocation.intValue(),
+				reportingMode == null ? 0 : reportingMode.intValue(),
+				minimumDelayBetweenReadings == null ? DEFAULT_MINIMUM_DELAY_BETWEEN_READINGS
+						: minimumDelayBetweenReadings.longValue(),
+				wakeUpSensor != null && wakeUpSensor);
+	}
+
+	/**
+	 * @param sensorEventJsonObject a sensor-event document, with or without an
+	 *                              embedded sensor document
+	 * @return the decoded sensor event
+	 */
+	public static SensorEvent decodeSensorEvent(JsonObject sensorEventJsonObject) {
+		if (sensorEventJsonObject == null)
+			throw new IllegalArgumentException("sensorEventJsonObject must not be null");
+
+		SensorEvent sensorEvent = new SensorEvent();
+		JsonObject sensorJsonObject = sensorEventJsonObject.getObject("sensor");
+		if (sensorJsonObject != null)
+			sensorEvent.setSensor(decodeSensor(sensorJsonObject));
+
+		Number number;
+		if ((number = getNumber(sensorEventJsonObject, "sensorType")) != null)
+			sensorEvent.setSensorType(number.intValue());
+		if ((number = getNumber(sensorEventJsonObject, "sensorLocation")) != null)
+			sensorEvent.setSensorLocation(number.intValue());
+		if ((number = getNumber(sensorEventJsonObject, "timestamp")) != null)
+			sensorEvent.setTimestamp(number.longValue());
+		if ((number = getNumber(sensorEventJsonObject, "dataPointDurationNano")) != null)
+			sensorEvent.setDataPointDurationNano(number.longValue());
+		String type = sensorEventJsonObject.getString("type");
+		if (type != null)
+			sensorEvent.setType(type);
+
+		JsonArray valuesJsonArray = sensorEventJsonObject.getArray("values");
+		if (valuesJsonArray == null)
+			throw new RepositoryException("sensor event document has no values");
+		float[] values = new float[valuesJsonArray.size()];
+		for (int i = 0; i < values.length; i++) {
+			Object value = valuesJsonArray.get(i);
+			if (!(value instanceof Number))
+				throw new RepositoryException(
+						"sensor event value (" + value + ") is not a number");
+			values[i] = ((Number) value).floatValue();
+		}
+		sensorEvent.setValues(values);
+		return sensorEvent;
+	}
+
+	/**
+	 * @param transitionJsonObject a transition document
+	 * @return the decoded transition, including its predicted sensor event
+	 */
+	public static Transition decodeTransition(JsonObject transitionJsonObject) {
+		if (transitionJsonObject == null)
+			throw new IllegalArgumentException("transitionJsonObject must not be null");
+
+		Transition transition = new Transition();
+		Number number;
+		if ((number = getNumber(transitionJsonObject, "timestamp")) != null)
+			transition.setTimestamp(number.longValue());
+		if ((number = getNumber(transitionJsonObject, "cashOnHand")) != null)
+			transition.setCashOnHand(number.doubleValue());
+		if ((number = getNumber(transitionJsonObject, "probability")) != null)
+			transition.setProbability(number.doubleValue());
+		if ((number = getNumber(transitionJsonObject, "dataPointDurationNano")) != null)
+			transition.setDataPointDurationNano(number.longValue());
+		if ((number = getNumber(transitionJsonObject,
+				"lastSuccessfulPredictionTimestamp")) != null)
+			transition.setLastSuccessfulPredictionTimestamp(number.longValue());
+		if ((number = getNumber(transitionJsonObject,
+				"numberOfPredictionAttempts")) != null)
+			transition.setNumberOfPredictionAttempts(number.longValue());
+		if ((number = getNumber(transitionJsonObject,
+				"numberOfSuccessfulPredictions")) != null)
+			transition.setNumberOfSuccessfulPredictions(number.longValue());
+		String type = transitionJsonObject.getString("type");
+		if (type != null)
+			transition.setType(type);
+		transition.setFirstSensorEventKey(
+				transitionJsonObject.getString("firstSensorEventKey"));
+
+		JsonObject predictedSensorEventJsonObject = transitionJsonObject
+				.getObject("predictedSensorEvent");
+		if (predictedSensorEventJsonObject != null)
+			transition.setPredictedSensorEvent(
+					decodeSensorEvent(predictedSensorEventJsonObject));
+		return transition;
+	}
+
+	private static Number getNumber(JsonObject jsonObject, String name) {
+		Object value = jsonObject.get(name);
+		if (value == null)
+			return null;
+		if (!(value instanceof Number))
+			throw new RepositoryException(
+					"document field " + name + " (" + value + ") is not a number");
+		return (Number) value;
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.emerigen.infrastructure.repository;
+
+/**
+ * The format a repository backend stores knowledge documents in.
+ * 
+ * @author Larry
+ *
+ */
+public enum DocumentFormat {
+
+	/**
+	 * Every document is stored as JSON text
+	 */
+	JSON,
+
+	/**
+	 * Transitions and sensor events are stored in the binary format of the
+	 * CompactDocumentCodec; all other documents are stored as JSON text
+	 */
+	COMPACT;
+
+	/**
+	 * @param name the case-insensitive name of the format
+	 * @return the matching format
+	 */
+	public static DocumentFormat fromString(String name) {
+		if (name == null || name.isEmpty())
+			throw new IllegalArgumentException("document format must not be null or empty");
+		try {
+			return DocumentFormat.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(
+					"document format must be json or compact, but was (" + name + ")");
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package com.emerigen.infrastructure.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.log4j.Logger;
+import org.everit.json.schema.Schema;
+import org.everit.json.schema.loader.SchemaLoader;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import com.emerigen.infrastructure.utils.EmerigenProperties;
+
+/**
+ * Loads and compiles each JSON schema used by the knowledge repository once,
+ * and validates documents against them according to the configured
+ * ValidationMode.
+ * 
+ * @author Larry
+ *
+ */
+public class JsonSchemaRegistry {
+
+	public static final String TRANSITION_SCHEMA = "transition.json";
+	public static final String CYCLE_SCHEMA = "cycle.json";
+	public static final String SENSOR_EVENT_SCHEMA = "sensor-event.json";
+
+	private static JsonSchemaRegistry instance;
+
+	private final Map<String, Schema> schemas = new ConcurrentHashMap<String, Schema>();
+	private volatile ValidationMode validationMode = ValidationMode.fromString(
+			EmerigenProperties.getInstance().getValue("repository.validation.mode"));
+	private volatile double sampleRate = Double.parseDouble(
+			EmerigenProperties.getInstance().getValue("repository.validation.sample.rate"));
+
+	private static final Logger logger = Logger.getLogger(JsonSchemaRegistry.class);
+
+	public static JsonSchemaRegistry getInstance() {
+
+		if (instance == null) {
+			synchronized (JsonSchemaRegistry.class) {
+				if (instance == null)
+					instance = new JsonSchemaRegistry();
+			}
+		}
+		return instance;
+	}
+
+	private JsonSchemaRegistry() {
+		getSchema(TRANSITION_SCHEMA);
+		getSchema(CYCLE_SCHEMA);
+		getSchema(SENSOR_EVENT_SCHEMA);
+	}
+
+	/**
+	 * @param schemaName the classpath resource name of the schema
+	 * @return the compiled schema, loaded on first use
+	 */
+	public Schema getSchema(String schemaName) {
+		if (schemaName == null || schemaName.isEmpty())
+			throw new IllegalArgumentException("schemaName must not be null or empty");
+		return schemas.computeIfAbsent(schemaName, this::loadSchema);
+	}
+
+	/**
+	 * Validate the subject against the named schema if the validation mode
+	 * selects it. Throws an org.everit ValidationException if the subject is
+	 * invalid.
+	 * 
+	 * @param subject    the document to validate
+	 * @param schemaName the classpath resource name of the schema
+	 * @return true if the subject was validated, false if it was skipped
+	 */
+	public boolean validate(JSONObject subject, String schemaName) {
+		if (!shouldValidate())
+			return false;
+		getSchema(schemaName).validate(subject);
+		return true;
+	}
+
+	/**
+	 * @return true if the next document should be validated
+	 */
+	public boolean shouldValidate() {
+		switch (validationMode) {
+		case ALWAYS:
+			return true;
+		case SAMPLED:
+			return ThreadLocalRandom.current().nextDouble() < sampleRate;
+		default:
+			return false;
+		}
+	}
+
+	private Schema loadSchema(String schemaName) {
+		try (InputStream schemaJsonFileReader = getClass().getClassLoader()
+				.getResourceAsStream(schemaName)) {
+			if (schemaJsonFileReader == null)
+				throw new RepositoryException("schema not found: " + schemaName);
+			JSONObject jsonSchema = new JSONObject(new JSONTokener(schemaJsonFileReader));
+			logger.debug("Compiled schema " + schemaName);
+			return SchemaLoader.load(jsonSchema);
+		} catch (IOException e) {
+			throw new RepositoryException("IO exception loading schema " + schemaName, e);
+		}
+	}
+
+	/**
+	 * @return the validationMode
+	 */
+	public ValidationMode getValidationMode() {
+		return validationMode;
+	}
+
+	/**
+	 * @param validationMode the validationMode to set
+	 */
+	public void setValidationMode(ValidationMode validationMode) {
+		if (validationMode == null)
+			throw new IllegalArgumentException("validationMode must not be null");
+		this.validationMode = validationMode;
+	}
+
+	/**
+	 * @return the fraction of documents validated in SAMPLED mode
+	 */
+	public double getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @param sampleRate the fraction of documents validated in SAMPLED mode
+	 */
+	public void setSampleRate(double sampleRate) {
+		if (sampleRate < 0.0 || sampleRate > 1.0)
+			throw new IllegalArgumentException("sampleRate must be between 0.0 and 1.0");
+		this.sampleRate = sampleRate;
+	}
+}
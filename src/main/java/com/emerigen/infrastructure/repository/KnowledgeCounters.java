@@ -0,0 +1,372 @@
+package com.emerigen.infrastructure.repository;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+import com.couchbase.client.java.json.JsonObject;
+import com.emerigen.infrastructure.repository.KnowledgeRepositoryBackend.WriteListener;
+import com.emerigen.infrastructure.utils.EmerigenProperties;
+
+/**
+ * Counts of the knowledge logged per sensor type and location: transitions,
+ * sensor events, prediction attempts and successful predictions.
+ *
+ * The counts are maintained in memory as they are written, so reading a count
+ * or the prediction accuracy no longer scans the knowledge bucket. The first
+ * use of a sensor type and location seeds its counts from its counters
+ * document or, if there is none yet, with one COUNT query per document type.
+ * Changes to the counts are added to their counters documents periodically
+ * with the backend's atomic increment, so processes sharing a backend never
+ * overwrite each other's counts; changes made after the last persist are lost
+ * if the process stops before the next one.
+ *
+ * Documents are counted from the outcome of their writes, including
+ * asynchronous writes that complete later: see countCreated and
+ * uncountFailed.
+ *
+ * @author Larry
+ *
+ */
+public class KnowledgeCounters {
+
+	public static final String COUNTERS = "counters";
+
+	/**
+	 * The quantities counted per sensor type and location
+	 */
+	public enum Counter {
+		TRANSITIONS("transitions", "transition"),
+		SENSOR_EVENTS("sensorEvents", "sensor-event"),
+		PREDICTION_ATTEMPTS("predictionAttempts", null),
+		PREDICTION_SUCCESSES("predictionSuccesses", null);
+
+		private final String fieldName;
+		private final String documentType;
+
+		private Counter(String fieldName, String documentType) {
+			this.fieldName = fieldName;
+			this.documentType = documentType;
+		}
+
+		/**
+		 * @return the name of the field holding this count in a counters document
+		 */
+		public String getFieldName() {
+			return fieldName;
+		}
+
+		/**
+		 * @return the type of the documents this counter counts, or null if it
+		 *         does not count documents
+		 */
+		public String getDocumentType() {
+			return documentType;
+		}
+	}
+
+	/**
+	 * The counts of one sensor type and location
+	 */
+	private static class Counts {
+		private final int sensorType;
+		private final int sensorLocation;
+		private final LongAdder[] adders = new LongAdder[Counter.values().length];
+
+		// The counts when seeded or last persisted, so only changes are persisted
+		private final long[] persisted = new long[Counter.values().length];
+
+		// The counts seeded from document counts, the initial counters document
+		private final long[] seeded = new long[Counter.values().length];
+
+		Counts(int sensorType, int sensorLocation) {
+			this.sensorType = sensorType;
+			this.sensorLocation = sensorLocation;
+			for (int i = 0; i < adders.length; i++)
+				adders[i] = new LongAdder();
+		}
+	}
+
+	private static final Logger logger = Logger.getLogger(KnowledgeCounters.class);
+	private static volatile KnowledgeCounters instance;
+
+	private final ConcurrentHashMap<Long, Counts> countsPerSensor = new ConcurrentHashMap<Long, Counts>();
+	private final Supplier<KnowledgeRepositoryBackend> backendSupplier;
+	private ScheduledExecutorService persister;
+
+	/**
+	 * @return the counters of the configured backend, persisted every
+	 *         knowledge.counters.persist.period.millis
+	 */
+	public static KnowledgeCounters getInstance() {
+		if (instance == null) {
+			synchronized (KnowledgeCounters.class) {
+				if (instance == null) {
+					KnowledgeCounters counters = new KnowledgeCounters(
+							KnowledgeRepositoryBackendFactory::getBackend);
+					counters.startPersisting(Long.parseLong(EmerigenProperties.getInstance()
+							.getValue("knowledge.counters.persist.period.millis")));
+					instance = counters;
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * @param backendSupplier supplies the backend the counts are seeded from and
+	 *                        persisted to
+	 */
+	public KnowledgeCounters(Supplier<KnowledgeRepositoryBackend> backendSupplier) {
+		if (backendSupplier == null)
+			throw new IllegalArgumentException("backendSupplier must not be null");
+		this.backendSupplier = backendSupplier;
+	}
+
+	/**
+	 * @return the key of the counters document of the sensor type and location
+	 */
+	public static String getCountersKey(int sensorType, int sensorLocation) {
+		return COUNTERS + "-" + sensorType + "-" + sensorLocation;
+	}
+
+	private static long sensorKey(int sensorType, int sensorLocation) {
+		return ((long) sensorType << 32) | (sensorLocation & 0xffffffffL);
+	}
+
+	/**
+	 * Seeding reads the backend, so it is done outside the map's lock. Threads
+	 * seeding the same sensor at once all read it, and the first to publish its
+	 * counts wins.
+	 */
+	private Counts getCounts(int sensorType, int sensorLocation) {
+		long sensorKey = sensorKey(sensorType, sensorLocation);
+		Counts counts = countsPerSensor.get(sensorKey);
+		if (counts == null) {
+			Counts seeded = seed(sensorType, sensorLocation);
+			counts = countsPerSensor.putIfAbsent(sensorKey, seeded);
+			if (counts == null)
+				counts = seeded;
+		}
+		return counts;
+	}
+
+	/**
+	 * Seed the counts from the counters document, or count the documents of each
+	 * type if it does not exist yet
+	 */
+	private Counts seed(int sensorType, int sensorLocation) {
+		Counts counts = new Counts(sensorType, sensorLocation);
+		KnowledgeRepositoryBackend backend = backendSupplier.get();
+		JsonObject document = backend.get(getCountersKey(sensorType, sensorLocation));
+
+		for (Counter counter : Counter.values()) {
+			long count = 0;
+			if (document != null) {
+				Object value = document.get(counter.getFieldName());
+				if (value instanceof Number)
+					count = ((Number) value).longValue();
+			} else if (counter.getDocumentType() != null) {
+				count = backend.getDocumentCount(counter.getDocumentType(), sensorType,
+						sensorLocation);
+				counts.seeded[counter.ordinal()] = count;
+			}
+			counts.persisted[counter.ordinal()] = count;
+			counts.adders[counter.ordinal()].add(count);
+		}
+		logger.debug("Seeded counters of sensorType " + sensorType + ", sensorLocation "
+				+ sensorLocation + " from "
+				+ (document == null ? "document counts" : "counters document"));
+		return counts;
+	}
+
+	/**
+	 * Add one to the counter of the sensor type and location
+	 */
+	public void increment(Counter counter, int sensorType, int sensorLocation) {
+		add(counter, sensorType, sensorLocation, 1);
+	}
+
+	/**
+	 * Add delta, which may be negative, to the counter of the sensor type and
+	 * location
+	 */
+	public void add(Counter counter, int sensorType, int sensorLocation, long delta) {
+		if (counter == null)
+			throw new IllegalArgumentException("counter must not be null");
+		getCounts(sensorType, sensorLocation).adders[counter.ordinal()].add(delta);
+	}
+
+	/**
+	 * Count a document that is written by a replace, which may or may not create
+	 * it. The counts are seeded before the write, so seeding cannot count the
+	 * document as well.
+	 *
+	 * @return a listener adding one to the counter if the write created the
+	 *         document
+	 */
+	public WriteListener countCreated(Counter counter, int sensorType,
+			int sensorLocation) {
+		if (counter == null)
+			throw new IllegalArgumentException("counter must not be null");
+		Counts counts = getCounts(sensorType, sensorLocation);
+		return new WriteListener() {
+			@Override
+			public void written(String key, boolean created) {
+				if (created)
+					counts.adders[counter.ordinal()].increment();
+			}
+
+			@Override
+			public void failed(String key, Throwable cause) {
+				logger.warn("Ignoring Exception - unable to write " + key, cause);
+			}
+		};
+	}
+
+	/**
+	 * Count a document that is written by a log, which creates it. It is counted
+	 * now, before the write, so seeding cannot count it as well.
+	 *
+	 * @return a listener taking the count back if the write fails
+	 */
+	public WriteListener uncountFailed(Counter counter, int sensorType,
+			int sensorLocation) {
+		if (counter == null)
+			throw new IllegalArgumentException("counter must not be null");
+		Counts counts = getCounts(sensorType, sensorLocation);
+		counts.adders[counter.ordinal()].increment();
+		return new WriteListener() {
+			@Override
+			public void written(String key, boolean created) {
+			}
+
+			@Override
+			public void failed(String key, Throwable cause) {
+				counts.adders[counter.ordinal()].decrement();
+				logger.warn("Ignoring Exception - unable to write " + key, cause);
+			}
+		};
+	}
+
+	/**
+	 * Record the outcome of a prediction made for the sensor type and location
+	 *
+	 * @param successful true if the prediction matched the next sensor event
+	 */
+	public void recordPrediction(int sensorType, int sensorLocation,
+			boolean successful) {
+		Counts counts = getCounts(sensorType, sensorLocation);
+		counts.adders[Counter.PREDICTION_ATTEMPTS.ordinal()].increment();
+		if (successful)
+			counts.adders[Counter.PREDICTION_SUCCESSES.ordinal()].increment();
+	}
+
+	/**
+	 * @return the current count of the sensor type and location
+	 */
+	public long get(Counter counter, int sensorType, int sensorLocation) {
+		if (counter == null)
+			throw new IllegalArgumentException("counter must not be null");
+		return getCounts(sensorType, sensorLocation).adders[counter.ordinal()].sum();
+	}
+
+	/**
+	 * @return the fraction of prediction attempts that succeeded for the sensor
+	 *         type and location, or 0.0 if no prediction has been attempted
+	 */
+	public double getPredictionAccuracy(int sensorType, int sensorLocation) {
+		Counts counts = getCounts(sensorType, sensorLocation);
+		long attempts = counts.adders[Counter.PREDICTION_ATTEMPTS.ordinal()].sum();
+		if (attempts <= 0)
+			return 0.0;
+		long successes = counts.adders[Counter.PREDICTION_SUCCESSES.ordinal()].sum();
+		return (double) successes / attempts;
+	}
+
+	/**
+	 * Add the changes to the counts since they were last persisted to their
+	 * counters documents, creating a document from the seeded counts if it does
+	 * not exist yet
+	 *
+	 * @return the number of counters documents written
+	 */
+	public synchronized int persist() {
+		int written = 0;
+		for (Counts counts : countsPerSensor.values()) {
+			long[] current = new long[counts.adders.length];
+			Map<String, Long> deltas = new LinkedHashMap<String, Long>();
+			for (Counter counter : Counter.values()) {
+				int i = counter.ordinal();
+				current[i] = counts.adders[i].sum();
+				if (current[i] != counts.persisted[i])
+					deltas.put(counter.getFieldName(), current[i] - counts.persisted[i]);
+			}
+			if (deltas.isEmpty())
+				continue;
+
+			JsonObject initialDocument = JsonObject.create().put("type", COUNTERS)
+					.put("sensorType", counts.sensorType)
+					.put("sensorLocation", counts.sensorLocation);
+			for (Counter counter : Counter.values())
+				initialDocument.put(counter.getFieldName(), counts.seeded[counter.ordinal()]);
+			backendSupplier.get().increment(
+					getCountersKey(counts.sensorType, counts.sensorLocation),
+					initialDocument, deltas);
+			System.arraycopy(current, 0, counts.persisted, 0, current.length);
+			written++;
+		}
+		return written;
+	}
+
+	/**
+	 * Persist the changed counts every periodMillis on a daemon thread
+	 */
+	public synchronized void startPersisting(long periodMillis) {
+		if (periodMillis <= 0)
+			throw new IllegalArgumentException(
+					"periodMillis must be positive, but was " + periodMillis);
+		if (persister != null)
+			throw new IllegalStateException("counters are already being persisted");
+
+		persister = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "knowledge-counters-persister");
+			thread.setDaemon(true);
+			return thread;
+		});
+		persister.scheduleWithFixedDelay(() -> {
+			try {
+				persist();
+			} catch (RuntimeException e) {
+				logger.warn("Unable to persist knowledge counters", e);
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop persisting periodically and persist the changed counts one last time
+	 */
+	public synchronized void stopPersisting() {
+		if (persister != null) {
+			persister.shutdownNow();
+			persister = null;
+		}
+		persist();
+	}
+
+	/**
+	 * Forget all counts, ie after the backend was replaced or emptied. Counts are
+	 * seeded again on their next use.
+	 */
+	public synchronized void clear() {
+		countsPerSensor.clear();
+	}
+
+}
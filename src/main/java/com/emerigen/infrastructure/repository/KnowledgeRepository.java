@@ -1,25 +1,23 @@
 package com.emerigen.infrastructure.repository;
 
-import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
-import org.everit.json.schema.Schema;
-import org.everit.json.schema.loader.SchemaLoader;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
-import com.couchbase.client.core.deps.com.fasterxml.jackson.core.JsonProcessingException;
 import com.couchbase.client.core.deps.com.fasterxml.jackson.databind.ObjectMapper;
 import com.couchbase.client.core.deps.com.fasterxml.jackson.databind.SerializationFeature;
 import com.couchbase.client.java.json.JsonObject;
 import com.emerigen.infrastructure.learning.PredictionService;
 import com.emerigen.infrastructure.learning.Transition;
 import com.emerigen.infrastructure.learning.cycle.Cycle;
-import com.emerigen.infrastructure.learning.cycle.CyclePatternRecognizer;
-import com.emerigen.infrastructure.repository.couchbase.CouchbaseRepository;
+import com.emerigen.infrastructure.learning.cycle.MultiCyclePatternRecognizer;
+import com.emerigen.infrastructure.repository.KnowledgeCounters.Counter;
 import com.emerigen.infrastructure.sensor.Sensor;
 import com.emerigen.infrastructure.sensor.SensorEvent;
 import com.emerigen.infrastructure.sensor.SensorEventListener;
@@ -132,8 +130,19 @@ public class KnowledgeRepository extends AbstractKnowledgeRepository {
 
 	private static Logger logger = Logger.getLogger(KnowledgeRepository.class);
 
-	// Construct singleton repository
-	CouchbaseRepository repository = CouchbaseRepository.getInstance();
+	/**
+	 * The cycle types a sensor may have, in the order they are recognized
+	 */
+	private static final List<String> CYCLE_TYPES = Arrays.asList("Daily", "Weekly",
+			"Monthly", "Yearly");
+
+	/**
+	 * Shared, thread-safe mapper used for every document read and write
+	 */
+	private static final ObjectMapper mapper = new ObjectMapper()
+			.findAndRegisterModules().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+	private final JsonSchemaRegistry schemaRegistry = JsonSchemaRegistry.getInstance();
+
 	private static KnowledgeRepository instance;
 
 	public static KnowledgeRepository getInstance() {
@@ -144,44 +153,45 @@ public class KnowledgeRepository extends AbstractKnowledgeRepository {
 				}
 			}
 		}
-		// Return singleton CouchbaseRepository
+		// Return singleton KnowledgeRepository
 		return instance;
 	}
 
+	private KnowledgeRepository() {
+		this(KnowledgeRepositoryBackendFactory.getBackend());
+	}
+
+	/**
+	 * Create a repository over the given backend, ie an embedded store in tests
+	 */
+	KnowledgeRepository(KnowledgeRepositoryBackend backend) {
+		super(backend);
+	}
+
 	@Override
 	public int getSensorEventCountForSensorTypeAndLocation(int sensorType,
 			int sensorLocation) {
 
-		String queryString = "SELECT COUNT(*) FROM `knowledge` WHERE sensorType = "
-				+ sensorType + " AND sensorLocation = " + sensorLocation
-				+ " AND type = \"sensor-event\"";
-		com.couchbase.client.java.query.QueryResult result = CouchbaseRepository
-				.getInstance().query(queryString);
-
-		logger.info(" query result: " + result);
-		List<JsonObject> jsonObjects = result.rowsAsObject();
-		int count = jsonObjects.get(0).getInt("$1");
-		return count;
+		return (int) KnowledgeCounters.getInstance().get(Counter.SENSOR_EVENTS,
+				sensorType, sensorLocation);
 	}
 
 	@Override
 	public SensorEvent getSensorEvent(String sensorEventKey) {
 
-		CouchbaseRepository repo = CouchbaseRepository.getInstance();
-		ObjectMapper mapper = new ObjectMapper().findAndRegisterModules()
-				.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
-
 		SensorEvent sensorEvent;
 
-		JsonObject jsonObject = repo.get(sensorEventKey);
-		logger.info(" after objectMapping, JsonObject: " + jsonObject);
+		JsonObject jsonObject = getBackend().get(sensorEventKey);
+		logger.debug(" after objectMapping, JsonObject: " + jsonObject);
 
 		if (jsonObject == null)
 			return null;
 
 		try {
-			sensorEvent = mapper.readValue(jsonObject.toString(), SensorEvent.class);
+			sensorEvent = DocumentDecoder.decodeSensorEvent(jsonObject);
 			return sensorEvent;
+		} catch (RepositoryException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new RepositoryException(e);
 		}
@@ -191,24 +201,23 @@ public class KnowledgeRepository extends AbstractKnowledgeRepository {
 	@Override
 	public Transition getTransition(String transitionKey) {
 
-		CouchbaseRepository repo = CouchbaseRepository.getInstance();
-		ObjectMapper mapper = new ObjectMapper().findAndRegisterModules()
-				.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
-
-		JsonObject jsonObject = repo.get(transitionKey, "transition");
-		logger.info(" after objectMapping, JsonDocument: " + jsonObject);
+		JsonObject jsonObject = getBackend().get(transitionKey);
+		logger.debug(" after objectMapping, JsonDocument: " + jsonObject);
 		Transition transition;
 
 		try {
-			transition = mapper.readValue(jsonObject.toString(), Transition.class);
+			transition = DocumentDecoder.decodeTransition(jsonObject);
 			return transition;
+		} catch (RepositoryException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new RepositoryException(e);
 		}
 	}
 
 	/**
-	 * Retrieve all cycles for this sensor and create PatternRecognizers
+	 * Retrieve all cycles for this sensor and create a PatternRecognizer that
+	 * recognizes all of them in one pass
 	 * 
 	 * @param sensor
 	 * @return
@@ -217,48 +226,30 @@ public class KnowledgeRepository extends AbstractKnowledgeRepository {
 
 		// Load all cycle types for the supplied sensorType and location
 		List<Cycle> cycles = getCyclesForSensor(sensor);
-		List<SensorEventListener> PRs = cycles.stream()
-				.map(cycle -> new CyclePatternRecognizer(cycle, sensor,
-						new PredictionService(sensor)))
-				.collect(Collectors.toList());
+		List<SensorEventListener> PRs = new ArrayList<SensorEventListener>();
+		if (!cycles.isEmpty())
+			PRs.add(new MultiCyclePatternRecognizer(cycles, sensor,
+					new PredictionService(sensor)));
 		return PRs;
 	}
 
 	/**
-	 * Return a list of all cycles that apply for this sensor type
+	 * Return a list of all cycles that apply for this sensor type, retrieved
+	 * with a single bulk get
 	 * 
 	 * @param sensorType
 	 * @return
 	 */
-	private List<Cycle> getCyclesForSensor(Sensor sensor) {
+	public List<Cycle> getCyclesForSensor(Sensor sensor) {
 
 		if (sensor == null)
 			throw new IllegalArgumentException("sensor must not be null");
-		Cycle cycle;
-
-		// For now call the DB once for each type to reuse code
-		List<Cycle> cycles = new ArrayList<Cycle>();
-
-		cycle = getCycle("Daily",
-				"" + sensor.getSensorType() + sensor.getSensorLocation() + "Daily");
-		if (cycle != null)
-			cycles.add(cycle);
-
-		cycle = getCycle("Weekly",
-				"" + sensor.getSensorType() + sensor.getSensorLocation() + "Weekly");
-		if (cycle != null)
-			cycles.add(cycle);
-
-		cycle = getCycle("Monthly",
-				"" + sensor.getSensorType() + sensor.getSensorLocation() + "Monthly");
-		if (cycle != null)
-			cycles.add(cycle);
-
-		cycle = getCycle("Yearly",
-				"" + sensor.getSensorType() + sensor.getSensorLocation() + "Yearly");
-		if (cycle != null)
-			cycles.add(cycle);
-		return cycles;
+
+		String prefix = "" + sensor.getSensorType() + sensor.getSensorLocation();
+		List<String> cycleKeys = new ArrayList<String>(CYCLE_TYPES.size());
+		for (String cycleType : CYCLE_TYPES)
+			cycleKeys.add(prefix + cycleType);
+		return new ArrayList<Cycle>(getCycles(cycleKeys).values());
 	}
 
 	@Override
@@ -268,26 +259,72 @@ public class KnowledgeRepository extends AbstractKnowledgeRepository {
 			throw new IllegalArgumentException(
 					"CycleType must be valid, but was (" + cycleType + ")");
 
-		// Initialize couchbase
-		CouchbaseRepository repo = CouchbaseRepository.getInstance();
-		ObjectMapper mapper = new ObjectMapper().findAndRegisterModules()
-				.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
-
-		JsonObject jsonObject = repo.get(cycleKey);
-		logger.info(" after objectMapping, JsonDocument: " + jsonObject);
-		Cycle cycle;
+		JsonObject jsonObject = getBackend().get(cycleKey);
+		logger.debug(" after objectMapping, JsonDocument: " + jsonObject);
 
 		if (jsonObject == null)
 			return null;
+		return toCycle(jsonObject);
+	}
 
+	@Override
+	public Map<String, Cycle> getCycles(Collection<String> cycleKeys) {
+		if (cycleKeys == null)
+			throw new IllegalArgumentException("cycleKeys must not be null");
+
+		Map<String, Cycle> cycles = new LinkedHashMap<String, Cycle>();
+		for (Map.Entry<String, JsonObject> document : getBackend().getAll(cycleKeys)
+				.entrySet())
+			cycles.put(document.getKey(), toCycle(document.getValue()));
+		return cycles;
+	}
+
+	@Override
+	public Map<String, SensorEvent> getSensorEvents(Collection<String> sensorEventKeys) {
+		if (sensorEventKeys == null)
+			throw new IllegalArgumentException("sensorEventKeys must not be null");
+
+		Map<String, SensorEvent> sensorEvents = new LinkedHashMap<String, SensorEvent>();
+		try {
+			for (Map.Entry<String, JsonObject> document : getBackend()
+					.getAll(sensorEventKeys).entrySet())
+				sensorEvents.put(document.getKey(),
+						DocumentDecoder.decodeSensorEvent(document.getValue()));
+		} catch (RepositoryException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RepositoryException(e);
+		}
+		return sensorEvents;
+	}
+
+	@Override
+	public Map<String, Transition> getTransitions(Collection<String> transitionKeys) {
+		if (transitionKeys == null)
+			throw new IllegalArgumentException("transitionKeys must not be null");
+
+		Map<String, Transition> transitions = new LinkedHashMap<String, Transition>();
 		try {
-			cycle = mapper.readValue(jsonObject.toString(), Cycle.class);
+			for (Map.Entry<String, JsonObject> document : getBackend()
+					.getAll(transitionKeys).entrySet())
+				transitions.put(document.getKey(),
+						DocumentDecoder.decodeTransition(document.getValue()));
+		} catch (RepositoryException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RepositoryException(e);
+		}
+		return transitions;
+	}
+
+	private static Cycle toCycle(JsonObject jsonObject) {
+		try {
+			Cycle cycle = mapper.readValue(jsonObject.toString(), Cycle.class);
 			cycle.setCycleType(cycle.getCycleType());
 			return cycle;
 		} catch (Exception e) {
 			throw new RepositoryException(e);
 		}
-
 	}
 
 	private boolean invalidCycleType(String cycleType) {
@@ -302,69 +339,55 @@ public class KnowledgeRepository extends AbstractKnowledgeRepository {
 	@Override
 	public String logTransition(String key, Transition transition, boolean synchronous) {
 
-		try {
-			JsonObject jsonObject = validateJson(transition, "transition.json");
+		JsonObject jsonObject = validateJson(transition,
+				JsonSchemaRegistry.TRANSITION_SCHEMA);
 
-			try {
-				repository.log(key, jsonObject, synchronous);
-			} catch (Exception e) {
-				// TODO Ignoring this exception
-				logger.warn("Ignoring Exception  - " + transition, e);
-			}
-		} catch (JsonProcessingException e) {
-			throw new RepositoryException(e);
-		}
+		// Count the transition before it is written, and take it back if it fails
+		getBackend().log(key, jsonObject, synchronous,
+				KnowledgeCounters.getInstance().uncountFailed(Counter.TRANSITIONS,
+						transition.getSensorType(), transition.getSensorLocation()));
 		return key;
 	}
 
 	@Override
 	public String replaceTransition(String key, Transition transition,
 			boolean synchronous) {
-		try {
-			JsonObject jsonObject = validateJson(transition, "transition.json");
+		JsonObject jsonObject = validateJson(transition,
+				JsonSchemaRegistry.TRANSITION_SCHEMA);
 
-			try {
-				repository.replace(key, jsonObject, synchronous);
-			} catch (Exception e) {
-				// TODO Ignoring this exception
-				logger.warn("Ignoring Exception  - " + transition, e);
-			}
-		} catch (JsonProcessingException e) {
-			throw new RepositoryException(e);
+		try {
+			getBackend().replace(key, jsonObject, synchronous);
+		} catch (Exception e) {
+			// TODO Ignoring this exception
+			logger.warn("Ignoring Exception  - " + transition, e);
 		}
 		return key;
 	}
 
 	@Override
 	public String logCycle(String key, Cycle cycle, boolean synchronous) {
-		try {
-			JsonObject jsonObject = validateJson(cycle, "cycle.json");
+		JsonObject jsonObject = validateJson(cycle,
+				JsonSchemaRegistry.CYCLE_SCHEMA);
 
-			try {
-				repository.log(key, jsonObject, synchronous);
-			} catch (Exception e) {
-				// TODO Ignoring this exception
-				logger.warn("Ignoring Exception  - " + cycle, e);
-			}
-		} catch (JsonProcessingException e) {
-			throw new RepositoryException(e);
+		try {
+			getBackend().log(key, jsonObject, synchronous);
+		} catch (Exception e) {
+			// TODO Ignoring this exception
+			logger.warn("Ignoring Exception  - " + cycle, e);
 		}
 		return key;
 	}
 
 	@Override
 	public String replaceCycle(String key, Cycle cycle, boolean synchronous) {
-		try {
-			JsonObject jsonObject = validateJson(cycle, "cycle.json");
+		JsonObject jsonObject = validateJson(cycle,
+				JsonSchemaRegistry.CYCLE_SCHEMA);
 
-			try {
-				repository.replace(key, jsonObject, synchronous);
-			} catch (Exception e) {
-				// TODO Ignoring this exception
-				logger.warn("Ignoring Exception  - " + cycle, e);
-			}
-		} catch (JsonProcessingException e) {
-			throw new RepositoryException(e);
+		try {
+			getBackend().replace(key, jsonObject, synchronous);
+		} catch (Exception e) {
+			// TODO Ignoring this exception
+			logger.warn("Ignoring Exception  - " + cycle, e);
 		}
 		return key;
 	}
@@ -372,65 +395,76 @@ public class KnowledgeRepository extends AbstractKnowledgeRepository {
 	@Override
 	public String logSensorEvent(String key, SensorEvent sensorEvent,
 			boolean synchronous) {
-
-		try {
-			JsonObject jsonObject = validateJson(sensorEvent, "sensor-event.json");
-
-			try {
-				repository.replace(key, jsonObject, synchronous);
-			} catch (Exception e) {
-				// TODO Ignoring this exception
-				logger.warn("Ignoring Exception - " + sensorEvent, e);
-			}
-		} catch (JsonProcessingException e) {
-			throw new RepositoryException(e);
-		}
-		return key;
+		return upsertSensorEvent(key, sensorEvent, synchronous);
 	}
 
 	@Override
 	public String replaceSensorEvent(String key, SensorEvent sensorEvent,
 			boolean synchronous) {
+		return upsertSensorEvent(key, sensorEvent, synchronous);
+	}
 
-		try {
-			JsonObject jsonObject = validateJson(sensorEvent, "sensor-event.json");
+	/**
+	 * Insert or replace the sensor event, counting it only if the write created
+	 * its document. The backend reports that from the write itself, so an
+	 * asynchronous write is neither delayed by a read nor counted until it has
+	 * completed.
+	 */
+	private String upsertSensorEvent(String key, SensorEvent sensorEvent,
+			boolean synchronous) {
 
-			try {
-				repository.replace(key, jsonObject, synchronous);
-			} catch (Exception e) {
-				// TODO Ignoring this exception
-				logger.warn("Ignoring Exception - " + sensorEvent, e);
-			}
-		} catch (JsonProcessingException e) {
+		JsonObject jsonObject = validateJson(sensorEvent,
+				JsonSchemaRegistry.SENSOR_EVENT_SCHEMA);
+
+		getBackend().replace(key, jsonObject, synchronous,
+				KnowledgeCounters.getInstance().countCreated(Counter.SENSOR_EVENTS,
+						sensorEvent.getSensorType(), sensorEvent.getSensorLocation()));
+		return key;
+	}
+
+	/**
+	 * Serialize the object once into a document tree that is used both to build
+	 * the Couchbase JsonObject and, when the validation mode selects it, to
+	 * validate against the pre-compiled schema.
+	 */
+	@SuppressWarnings("unchecked")
+	JsonObject validateJson(Object object, String schema) {
+
+		Map<String, Object> documentTree;
+		try {
+			documentTree = mapper.convertValue(object, Map.class);
+		} catch (IllegalArgumentException e) {
 			throw new RepositoryException(e);
 		}
-		return key;
+		logger.debug(" documentTree: " + documentTree);
+
+		// Validate the document against the supplied schema
+		if (schemaRegistry.validate(new JSONObject(documentTree), schema))
+			logger.debug(" document validated successfully");
+		return JsonObject.from((Map<String, Object>) coerceFloats(documentTree));
 	}
 
-	private JsonObject validateJson(Object object, String schema)
-			throws JsonProcessingException {
-
-		// Convert to json
-		ObjectMapper mapper = new ObjectMapper();
-		JsonObject jsonObject = JsonObject.fromJson(mapper.writeValueAsString(object));
-		logger.info(" jsonObject: " + jsonObject);
-
-		// Validate the JsonDocument against the supplied schema
-		InputStream schemaJsonFileReader = getClass().getClassLoader()
-				.getResourceAsStream(schema);
-		JSONObject jsonSchema = new JSONObject(new JSONTokener(schemaJsonFileReader));
-		JSONObject jsonSubject = new JSONObject(jsonObject.toString());
-		Schema newSchema = SchemaLoader.load(jsonSchema);
-		logger.info("schema: " + newSchema + ", object: " + jsonObject);
-		newSchema.validate(jsonSubject);
-		logger.info(" JsonObject validated successfully");
-		return jsonObject;
+	/**
+	 * The document tree keeps float values (ie SensorEvent values) as Floats,
+	 * which JsonObject does not accept. Replace them with the Double of their
+	 * decimal representation, the same value parsing the serialized JSON gives.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Object coerceFloats(Object value) {
+		if (value instanceof Float) {
+			return Double.valueOf(value.toString());
+		} else if (value instanceof Map) {
+			((Map<String, Object>) value).replaceAll((name, child) -> coerceFloats(child));
+		} else if (value instanceof List) {
+			((List<Object>) value).replaceAll(child -> coerceFloats(child));
+		}
+		return value;
 	}
 
 	@Override
 	protected void finalize() {
-		logger.warn("KnowledgeRepository disconnecting from Couchbase server");
-		CouchbaseRepository.getInstance().disconnect();
+		logger.warn("KnowledgeRepository disconnecting from its backend");
+		getBackend().disconnect();
 	}
 
 }
@@ -0,0 +1,170 @@
+package com.emerigen.infrastructure.repository;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.couchbase.client.java.json.JsonObject;
+
+/**
+ * The storage SPI used by the KnowledgeRepository and PredictionService.
+ * Implementations store knowledge documents (transitions, cycles and sensor
+ * events) as JSON and provide the few lookups the learning algorithms need,
+ * so the learning loop is unaware of which storage is underneath.
+ *
+ * The backend is selected with the knowledge.repository.backend property, see
+ * KnowledgeRepositoryBackendFactory.
+ *
+ * @author Larry
+ *
+ */
+public interface KnowledgeRepositoryBackend {
+
+	/**
+	 * Told the outcome of a write once it has completed, which for an
+	 * asynchronous write is after log or replace has returned
+	 */
+	public interface WriteListener {
+
+		/**
+		 * @param key     the key of the document written
+		 * @param created true if the write created the document, false if it
+		 *                replaced one
+		 */
+		void written(String key, boolean created);
+
+		/**
+		 * @param key   the key of the document that was not written
+		 * @param cause why the write failed
+		 */
+		void failed(String key, Throwable cause);
+	}
+
+	/**
+	 * Insert a new document. Synchronous inserts are durable when the call
+	 * returns; asynchronous inserts may still be queued. An asynchronous insert
+	 * that fails after the call has returned is logged and counted by the
+	 * backend but not thrown; use log with a WriteListener to be told of it.
+	 */
+	public void log(String key, JsonObject jsonObject, boolean synchronous);
+
+	/**
+	 * Insert a new document, telling the listener whether it was written. A
+	 * failure is reported to the listener rather than thrown. Backends whose
+	 * asynchronous writes complete after the call returns must override this to
+	 * tell the listener when they do.
+	 */
+	public default void log(String key, JsonObject jsonObject, boolean synchronous,
+			WriteListener listener) {
+		if (listener == null)
+			throw new IllegalArgumentException("listener must not be null");
+		try {
+			log(key, jsonObject, synchronous);
+		} catch (RepositoryException e) {
+			listener.failed(key, e);
+			return;
+		}
+		listener.written(key, true);
+	}
+
+	/**
+	 * Insert or replace a document. As with log, an asynchronous replace that
+	 * fails after the call has returned is logged and counted but not thrown.
+	 */
+	public void replace(String key, JsonObject jsonObject, boolean synchronous);
+
+	/**
+	 * Insert or replace a document, telling the listener whether it was written
+	 * and whether the write created it. A failure is reported to the listener
+	 * rather than thrown. The backend learns whether the document was created
+	 * from the write itself, without reading it first.
+	 */
+	public void replace(String key, JsonObject jsonObject, boolean synchronous,
+			WriteListener listener);
+
+	/**
+	 * @return the document with the given key, or null if it does not exist
+	 */
+	public JsonObject get(String key);
+
+	/**
+	 * @return true if a document with the given key exists. Backends that can
+	 *         check without retrieving the document should override this.
+	 */
+	public default boolean exists(String key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Add the deltas to numeric fields of a document. A document that does not
+	 * exist yet is created from initialDocument with the deltas added to it. Each
+	 * addition is atomic, so concurrent writers never overwrite each other's
+	 * counts.
+	 *
+	 * @param key             the key of the document
+	 * @param initialDocument the document to create if there is none
+	 * @param deltas          the amount to add to each field, by field name
+	 */
+	public void increment(String key, JsonObject initialDocument,
+			Map<String, Long> deltas);
+
+	/**
+	 * Retrieve several documents at once. Backends with a network round trip per
+	 * get should override this to fetch the documents concurrently; by default
+	 * they are retrieved one at a time.
+	 *
+	 * @param keys the keys of the documents
+	 * @return the documents that exist, keyed by key in the order of the given
+	 *         keys
+	 */
+	public default Map<String, JsonObject> getAll(Collection<String> keys) {
+		if (keys == null)
+			throw new IllegalArgumentException("keys must not be null");
+
+		Map<String, JsonObject> documents = new LinkedHashMap<String, JsonObject>();
+		for (String key : keys) {
+			JsonObject document = get(key);
+			if (document != null)
+				documents.put(key, document);
+		}
+		return documents;
+	}
+
+	/**
+	 * Remove the document with the given key
+	 */
+	public void remove(String key);
+
+	/**
+	 * Remove every document
+	 */
+	public void removeAllDocuments();
+
+	/**
+	 * @param firstSensorEventKey the key of the first sensor event
+	 * @return all transition documents with the given firstSensorEventKey, keyed
+	 *         by document id
+	 */
+	public Map<String, JsonObject> getTransitionsForFirstSensorEventKey(
+			String firstSensorEventKey);
+
+	/**
+	 * @return the number of documents of the given type ("transition",
+	 *         "sensor-event", "cycle") for the sensor type and location
+	 */
+	public int getDocumentCount(String type, int sensorType, int sensorLocation);
+
+	/**
+	 * Wait until all asynchronous writes have completed
+	 *
+	 * @param timeoutMillis the maximum time to wait
+	 * @return true if all writes completed within the timeout
+	 */
+	public boolean flush(long timeoutMillis);
+
+	/**
+	 * Release all resources held by the backend
+	 */
+	public void disconnect();
+
+}
@@ -0,0 +1,88 @@
+package com.emerigen.infrastructure.repository;
+
+import java.nio.file.Paths;
+
+import org.apache.log4j.Logger;
+
+import com.emerigen.infrastructure.repository.couchbase.CouchbaseRepository;
+import com.emerigen.infrastructure.repository.embedded.EmbeddedRepository;
+import com.emerigen.infrastructure.utils.EmerigenProperties;
+
+/**
+ * Selects the KnowledgeRepositoryBackend named by the
+ * knowledge.repository.backend property:
+ * <ul>
+ * <li>couchbase - the Couchbase server (default)</li>
+ * <li>embedded - a local memory-mapped, append-only store in
+ * knowledge.repository.embedded.directory, writing documents in
+ * knowledge.repository.embedded.document.format (json or compact)</li>
+ * </ul>
+ * 
+ * @author Larry
+ *
+ */
+public class KnowledgeRepositoryBackendFactory {
+
+	public static final String COUCHBASE = "couchbase";
+	public static final String EMBEDDED = "embedded";
+
+	private static KnowledgeRepositoryBackend backend;
+
+	private static final Logger logger = Logger
+			.getLogger(KnowledgeRepositoryBackendFactory.class);
+
+	private KnowledgeRepositoryBackendFactory() {
+	}
+
+	/**
+	 * @return the configured backend, created on first use
+	 */
+	public static KnowledgeRepositoryBackend getBackend() {
+
+		if (backend == null) {
+			synchronized (KnowledgeRepositoryBackendFactory.class) {
+				if (backend == null)
+					backend = createBackend(EmerigenProperties.getInstance()
+							.getValue("knowledge.repository.backend"));
+			}
+		}
+		return backend;
+	}
+
+	/**
+	 * Replace the backend, ie to run the learning loop against an embedded store
+	 * in tests and benchmarks. The previous backend is not disconnected.
+	 * 
+	 * @param newBackend the backend to use from now on
+	 */
+	public static synchronized void setBackend(KnowledgeRepositoryBackend newBackend) {
+		if (newBackend == null)
+			throw new IllegalArgumentException("backend must not be null");
+		backend = newBackend;
+	}
+
+	/**
+	 * @param backendName the name of the backend
+	 * @return a new backend of the given name
+	 */
+	public static KnowledgeRepositoryBackend createBackend(String backendName) {
+		String name = backendName == null ? COUCHBASE : backendName.trim().toLowerCase();
+		logger.info("Using knowledge repository backend: " + name);
+
+		if (COUCHBASE.equals(name)) {
+			return CouchbaseRepository.getInstance();
+		} else if (EMBEDDED.equals(name)) {
+			EmerigenProperties properties = EmerigenProperties.getInstance();
+			return new EmbeddedRepository(
+					Paths.get(properties.getValue("knowledge.repository.embedded.directory")),
+					Integer.parseInt(properties
+							.getValue("knowledge.repository.embedded.segment.size.bytes")),
+					DocumentFormat.fromString(properties
+							.getValue("knowledge.repository.embedded.document.format")));
+		} else {
+			throw new IllegalArgumentException(
+					"knowledge repository backend must be couchbase or embedded, but was ("
+							+ backendName + ")");
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package com.emerigen.infrastructure.repository;
+
+/**
+ * Controls how often documents are validated against their JSON schema before
+ * being written to the repository.
+ * 
+ * @author Larry
+ *
+ */
+public enum ValidationMode {
+
+	/**
+	 * Validate every document
+	 */
+	ALWAYS,
+
+	/**
+	 * Validate a random sample of documents
+	 */
+	SAMPLED,
+
+	/**
+	 * Never validate, ie in production once the writers are trusted
+	 */
+	OFF;
+
+	/**
+	 * @param name the case-insensitive name of the mode
+	 * @return the matching mode
+	 */
+	public static ValidationMode fromString(String name) {
+		if (name == null || name.isEmpty())
+			throw new IllegalArgumentException("validation mode must not be null or empty");
+		try {
+			return ValidationMode.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(
+					"validation mode must be always, sampled or off, but was (" + name
+							+ ")");
+		}
+	}
+}
@@ -0,0 +1,312 @@
+package com.emerigen.infrastructure.repository.couchbase;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+import com.couchbase.client.core.endpoint.CircuitBreakerConfig;
+import com.couchbase.client.core.env.CompressionConfig;
+import com.couchbase.client.core.env.IoConfig;
+import com.couchbase.client.core.env.TimeoutConfig;
+import com.couchbase.client.java.env.ClusterEnvironment;
+import com.emerigen.infrastructure.utils.EmerigenProperties;
+
+/**
+ * The client settings of the connection to the Couchbase cluster, read from the
+ * couchbase.server properties and mapped onto the ClusterEnvironment.
+ *
+ * KV connections are opened per node, while query requests share a pool of
+ * HTTP connections per node. The query-heavy prediction path serializes behind
+ * that pool when it is small, so its size is configured here rather than fixed
+ * in the repository. The same circuit breaker settings are applied to the KV
+ * and query services.
+ *
+ * @author Larry
+ *
+ */
+public class CouchbaseConfiguration {
+
+	private final int numKvConnections;
+	private final int maxHttpConnections;
+	private final Duration idleHttpConnectionTimeout;
+	private final boolean tcpKeepAlivesEnabled;
+	private final Duration tcpKeepAliveTime;
+	private final Duration kvTimeout;
+	private final Duration queryTimeout;
+	private final Duration connectTimeout;
+	private final Duration disconnectTimeout;
+	private final boolean compressionEnabled;
+	private final int compressionMinSize;
+	private final double compressionMinRatio;
+	private final boolean circuitBreakerEnabled;
+	private final int circuitBreakerVolumeThreshold;
+	private final int circuitBreakerErrorThresholdPercentage;
+	private final Duration circuitBreakerSleepWindow;
+	private final Duration circuitBreakerRollingWindow;
+
+	/**
+	 * @return the configuration described by the emerigen properties
+	 */
+	public static CouchbaseConfiguration fromProperties() {
+		EmerigenProperties properties = EmerigenProperties.getInstance();
+		return new CouchbaseConfiguration(properties::getValue);
+	}
+
+	/**
+	 * @param properties returns the value of a couchbase.server property, given
+	 *                   its key
+	 */
+	public CouchbaseConfiguration(Function<String, String> properties) {
+		if (properties == null)
+			throw new IllegalArgumentException("properties must not be null");
+
+		numKvConnections = positiveInt(properties,
+				"couchbase.server.number.key.value.services");
+		maxHttpConnections = positiveInt(properties,
+				"couchbase.server.max.http.connections");
+		idleHttpConnectionTimeout = millis(properties,
+				"couchbase.server.idle.http.connection.timeout");
+		tcpKeepAlivesEnabled = bool(properties, "couchbase.server.tcp.keep.alive.enabled");
+		tcpKeepAliveTime = millis(properties, "couchbase.server.keep.alive.timeout");
+		kvTimeout = millis(properties, "couchbase.server.kv.timeout");
+		queryTimeout = millis(properties, "couchbase.server.query.timeout");
+		connectTimeout = millis(properties, "couchbase.server.connect.timeout");
+		disconnectTimeout = millis(properties, "couchbase.server.disconnect.timeout");
+		compressionEnabled = bool(properties, "couchbase.server.compression.enabled");
+		compressionMinSize = positiveInt(properties,
+				"couchbase.server.compression.min.size");
+		compressionMinRatio = Double.parseDouble(
+				value(properties, "couchbase.server.compression.min.ratio"));
+		if (compressionMinRatio <= 0.0 || compressionMinRatio > 1.0)
+			throw new IllegalArgumentException(
+					"couchbase.server.compression.min.ratio must be in (0, 1], but was "
+							+ compressionMinRatio);
+		circuitBreakerEnabled = bool(properties,
+				"couchbase.server.circuit.breaker.enabled");
+		circuitBreakerVolumeThreshold = positiveInt(properties,
+				"couchbase.server.circuit.breaker.volume.threshold");
+		circuitBreakerErrorThresholdPercentage = positiveInt(properties,
+				"couchbase.server.circuit.breaker.error.threshold.percentage");
+		if (circuitBreakerErrorThresholdPercentage > 100)
+			throw new IllegalArgumentException(
+					"couchbase.server.circuit.breaker.error.threshold.percentage must not exceed 100");
+		circuitBreakerSleepWindow = millis(properties,
+				"couchbase.server.circuit.breaker.sleep.window");
+		circuitBreakerRollingWindow = millis(properties,
+				"couchbase.server.circuit.breaker.rolling.window");
+	}
+
+	private static String value(Function<String, String> properties, String key) {
+		String value = properties.apply(key);
+		if (value == null || value.trim().isEmpty())
+			throw new IllegalArgumentException("property " + key + " must be set");
+		return value.trim();
+	}
+
+	private static int positiveInt(Function<String, String> properties, String key) {
+		int value = Integer.parseInt(value(properties, key));
+		if (value <= 0)
+			throw new IllegalArgumentException(
+					"property " + key + " must be positive, but was " + value);
+		return value;
+	}
+
+	private static Duration millis(Function<String, String> properties, String key) {
+		long value = Long.parseLong(value(properties, key));
+		if (value <= 0)
+			throw new IllegalArgumentException(
+					"property " + key + " must be positive, but was " + value);
+		return Duration.ofMillis(value);
+	}
+
+	private static boolean bool(Function<String, String> properties, String key) {
+		return Boolean.parseBoolean(value(properties, key));
+	}
+
+	/**
+	 * @return the I/O settings: connection pools, keep alives and circuit breakers
+	 */
+	public IoConfig.Builder ioConfig() {
+		return IoConfig.numKvConnections(numKvConnections)
+				.maxHttpConnections(maxHttpConnections)
+				.idleHttpConnectionTimeout(idleHttpConnectionTimeout)
+				.enableTcpKeepAlives(tcpKeepAlivesEnabled)
+				.tcpKeepAliveTime(tcpKeepAliveTime)
+				.kvCircuitBreakerConfig(circuitBreakerConfig())
+				.queryCircuitBreakerConfig(circuitBreakerConfig());
+	}
+
+	/**
+	 * @return the timeouts of KV operations, queries, connecting and disconnecting
+	 */
+	public TimeoutConfig.Builder timeoutConfig() {
+		return TimeoutConfig.kvTimeout(kvTimeout).queryTimeout(queryTimeout)
+				.connectTimeout(connectTimeout).disconnectTimeout(disconnectTimeout);
+	}
+
+	/**
+	 * @return the document compression settings
+	 */
+	public CompressionConfig.Builder compressionConfig() {
+		return CompressionConfig.enable(compressionEnabled).minSize(compressionMinSize)
+				.minRatio(compressionMinRatio);
+	}
+
+	/**
+	 * @return the circuit breaker settings of one service
+	 */
+	public CircuitBreakerConfig.Builder circuitBreakerConfig() {
+		return CircuitBreakerConfig.enabled(circuitBreakerEnabled)
+				.volumeThreshold(circuitBreakerVolumeThreshold)
+				.errorThresholdPercentage(circuitBreakerErrorThresholdPercentage)
+				.sleepWindow(circuitBreakerSleepWindow)
+				.rollingWindow(circuitBreakerRollingWindow);
+	}
+
+	/**
+	 * @return a new cluster environment with all of these settings
+	 */
+	public ClusterEnvironment createEnvironment() {
+		return ClusterEnvironment.builder().ioConfig(ioConfig())
+				.timeoutConfig(timeoutConfig()).compressionConfig(compressionConfig())
+				.build();
+	}
+
+	/**
+	 * @return the numKvConnections
+	 */
+	public int getNumKvConnections() {
+		return numKvConnections;
+	}
+
+	/**
+	 * @return the maxHttpConnections
+	 */
+	public int getMaxHttpConnections() {
+		return maxHttpConnections;
+	}
+
+	/**
+	 * @return the idleHttpConnectionTimeout
+	 */
+	public Duration getIdleHttpConnectionTimeout() {
+		return idleHttpConnectionTimeout;
+	}
+
+	/**
+	 * @return the tcpKeepAlivesEnabled
+	 */
+	public boolean isTcpKeepAlivesEnabled() {
+		return tcpKeepAlivesEnabled;
+	}
+
+	/**
+	 * @return the tcpKeepAliveTime
+	 */
+	public Duration getTcpKeepAliveTime() {
+		return tcpKeepAliveTime;
+	}
+
+	/**
+	 * @return the kvTimeout
+	 */
+	public Duration getKvTimeout() {
+		return kvTimeout;
+	}
+
+	/**
+	 * @return the queryTimeout
+	 */
+	public Duration getQueryTimeout() {
+		return queryTimeout;
+	}
+
+	/**
+	 * @return the connectTimeout
+	 */
+	public Duration getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * @return the disconnectTimeout
+	 */
+	public Duration getDisconnectTimeout() {
+		return disconnectTimeout;
+	}
+
+	/**
+	 * @return the compressionEnabled
+	 */
+	public boolean isCompressionEnabled() {
+		return compressionEnabled;
+	}
+
+	/**
+	 * @return the compressionMinSize
+	 */
+	public int getCompressionMinSize() {
+		return compressionMinSize;
+	}
+
+	/**
+	 * @return the compressionMinRatio
+	 */
+	public double getCompressionMinRatio() {
+		return compressionMinRatio;
+	}
+
+	/**
+	 * @return the circuitBreakerEnabled
+	 */
+	public boolean isCircuitBreakerEnabled() {
+		return circuitBreakerEnabled;
+	}
+
+	/**
+	 * @return the circuitBreakerVolumeThreshold
+	 */
+	public int getCircuitBreakerVolumeThreshold() {
+		return circuitBreakerVolumeThreshold;
+	}
+
+	/**
+	 * @return the circuitBreakerErrorThresholdPercentage
+	 */
+	public int getCircuitBreakerErrorThresholdPercentage() {
+		return circuitBreakerErrorThresholdPercentage;
+	}
+
+	/**
+	 * @return the circuitBreakerSleepWindow
+	 */
+	public Duration getCircuitBreakerSleepWindow() {
+		return circuitBreakerSleepWindow;
+	}
+
+	/**
+	 * @return the circuitBreakerRollingWindow
+	 */
+	public Duration getCircuitBreakerRollingWindow() {
+		return circuitBreakerRollingWindow;
+	}
+
+	@Override
+	public String toString() {
+		return "CouchbaseConfiguration [numKvConnections=" + numKvConnections
+				+ ", maxHttpConnections=" + maxHttpConnections
+				+ ", idleHttpConnectionTimeout=" + idleHttpConnectionTimeout
+				+ ", tcpKeepAlivesEnabled=" + tcpKeepAlivesEnabled + ", tcpKeepAliveTime="
+				+ tcpKeepAliveTime + ", kvTimeout=" + kvTimeout + ", queryTimeout="
+				+ queryTimeout + ", connectTimeout=" + connectTimeout
+				+ ", disconnectTimeout=" + disconnectTimeout + ", compressionEnabled="
+				+ compressionEnabled + ", compressionMinSize=" + compressionMinSize
+				+ ", compressionMinRatio=" + compressionMinRatio
+				+ ", circuitBreakerEnabled=" + circuitBreakerEnabled
+				+ ", circuitBreakerVolumeThreshold=" + circuitBreakerVolumeThreshold
+				+ ", circuitBreakerErrorThresholdPercentage="
+				+ circuitBreakerErrorThresholdPercentage + ", circuitBreakerSleepWindow="
+				+ circuitBreakerSleepWindow + ", circuitBreakerRollingWindow="
+				+ circuitBreakerRollingWindow + "]";
+	}
+
+}
@@ -3,27 +3,37 @@
  */
 package com.emerigen.infrastructure.repository.couchbase;
 
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.apache.log4j.Logger;
 
-import com.couchbase.client.core.env.IoConfig;
-import com.couchbase.client.core.env.TimeoutConfig;
+import com.couchbase.client.core.cnc.Context.ExportFormat;
+import com.couchbase.client.core.error.DocumentExistsException;
 import com.couchbase.client.core.error.DocumentNotFoundException;
 import com.couchbase.client.core.msg.kv.DurabilityLevel;
 import com.couchbase.client.java.Bucket;
 import com.couchbase.client.java.Cluster;
 import com.couchbase.client.java.ClusterOptions;
-import com.couchbase.client.java.Collection;
 import com.couchbase.client.java.env.ClusterEnvironment;
 import com.couchbase.client.java.json.JsonObject;
 import com.couchbase.client.java.kv.GetResult;
 import com.couchbase.client.java.kv.InsertOptions;
+import com.couchbase.client.java.kv.MutateInSpec;
 import com.couchbase.client.java.kv.MutationResult;
 import com.couchbase.client.java.kv.UpsertOptions;
 import com.couchbase.client.java.query.QueryOptions;
 import com.couchbase.client.java.query.QueryResult;
+import com.emerigen.infrastructure.repository.KnowledgeRepositoryBackend;
+import com.emerigen.infrastructure.repository.KnowledgeRepositoryBackend.WriteListener;
 import com.emerigen.infrastructure.repository.RepositoryException;
+import com.emerigen.infrastructure.repository.couchbase.WriteBehindPipeline.PendingWrite;
 import com.emerigen.infrastructure.utils.EmerigenProperties;
 
 /**
@@ -71,7 +81,7 @@ import com.emerigen.infrastructure.utils.EmerigenProperties;
  * 
  *
  */
-public class CouchbaseRepository {
+public class CouchbaseRepository implements KnowledgeRepositoryBackend {
 
 	private static final String PASSWORD = EmerigenProperties.getInstance()
 			.getValue("couchbase.server.password");
@@ -79,14 +89,33 @@ public class CouchbaseRepository {
 			.getValue("couchbase.server.localhost");
 	private static final String ADMINISTRATOR = EmerigenProperties.getInstance()
 			.getValue("couchbase.server.userid");
+	private static final int WRITE_BEHIND_QUEUE_CAPACITY = Integer
+			.parseInt(EmerigenProperties.getInstance()
+					.getValue("couchbase.write.behind.queue.capacity"));
+	private static final int WRITE_BEHIND_BATCH_SIZE = Integer.parseInt(
+			EmerigenProperties.getInstance().getValue("couchbase.write.behind.batch.size"));
+	private static final long WRITE_BEHIND_LINGER_MILLIS = Long.parseLong(EmerigenProperties
+			.getInstance().getValue("couchbase.write.behind.linger.millis"));
+	private static final long WRITE_BEHIND_SHUTDOWN_TIMEOUT_MILLIS = Long
+			.parseLong(EmerigenProperties.getInstance()
+					.getValue("couchbase.write.behind.shutdown.timeout.millis"));
+	private static final String TRANSITIONS_STATEMENT = "SELECT meta(k).id AS id, k AS transition "
+			+ "FROM `knowledge` k WHERE k.firstSensorEventKey = $firstSensorEventKey "
+			+ "AND k.type = \"transition\"";
+	private static final String DOCUMENT_COUNT_STATEMENT = "SELECT COUNT(*) FROM `knowledge` "
+			+ "WHERE sensorType = $sensorType AND sensorLocation = $sensorLocation "
+			+ "AND type = $type";
 	private static Logger logger = Logger.getLogger(CouchbaseRepository.class);
 	private static CouchbaseRepository instance;
 	private ClusterEnvironment env;
 	private Cluster cluster;
 	private Bucket bucket;
-	private final static int MAX_HTTP_CONNECTIONS = 2;
+	private CouchbaseConfiguration configuration;
 	private static final String KNOWLEDGE_DB = "knowledge";
-	private Collection knowledgeCollection = null;
+	private com.couchbase.client.java.Collection knowledgeCollection = null;
+	private final PreparedStatementCache statementCache = new PreparedStatementCache();
+	private WriteBehindPipeline writeBehindPipeline;
+	private Thread shutdownHook;
 
 	public static CouchbaseRepository getInstance() {
 
@@ -109,9 +138,10 @@ public class CouchbaseRepository {
 	private void connect() {
 
 		try {
-			env = ClusterEnvironment.builder()
-					.timeoutConfig(TimeoutConfig.kvTimeout(Duration.ofSeconds(5)))
-					.ioConfig(IoConfig.maxHttpConnections(MAX_HTTP_CONNECTIONS)).build();
+			configuration = CouchbaseConfiguration.fromProperties();
+			env = configuration.createEnvironment();
+			logger.info("Connecting with " + configuration);
+			logger.debug("Cluster environment: " + env.exportAsString(ExportFormat.JSON));
 
 			// Create a cluster using those client settings.
 			cluster = Cluster.connect(LOCALHOST, ClusterOptions
@@ -120,6 +150,14 @@ public class CouchbaseRepository {
 			// Open a Collection connected to our knowledge db
 			bucket = cluster.bucket(KNOWLEDGE_DB);
 			knowledgeCollection = bucket.defaultCollection();
+
+			// Asynchronous writes are batched and flushed on shutdown
+			writeBehindPipeline = new WriteBehindPipeline(this::writeAsync,
+					WRITE_BEHIND_QUEUE_CAPACITY, WRITE_BEHIND_BATCH_SIZE,
+					WRITE_BEHIND_LINGER_MILLIS);
+			shutdownHook = new Thread(() -> writeBehindPipeline
+					.shutdown(WRITE_BEHIND_SHUTDOWN_TIMEOUT_MILLIS));
+			Runtime.getRuntime().addShutdownHook(shutdownHook);
 		} catch (Exception e) {
 			throw new RepositoryException("exception while connecting, cause: " + e);
 
@@ -127,6 +165,45 @@ public class CouchbaseRepository {
 
 	}
 
+	private CompletableFuture<?> writeAsync(PendingWrite pendingWrite) {
+		if (pendingWrite.isInsert()) {
+			return knowledgeCollection.async().insert(pendingWrite.getKey(),
+					pendingWrite.getJsonObject());
+		} else if (pendingWrite.hasListeners()) {
+			return upsertReportingCreation(pendingWrite.getKey(),
+					pendingWrite.getJsonObject());
+		} else {
+			return knowledgeCollection.async().upsert(pendingWrite.getKey(),
+					pendingWrite.getJsonObject());
+		}
+	}
+
+	/**
+	 * Insert the document, and upsert it only if it already exists, so the
+	 * outcome tells whether the write created it without reading it first
+	 * 
+	 * @return a future completing with true if the document was created
+	 */
+	private CompletableFuture<Boolean> upsertReportingCreation(String key,
+			JsonObject jsonObject) {
+		return knowledgeCollection.async().insert(key, jsonObject)
+				.thenApply(result -> Boolean.TRUE)
+				.handle((created, throwable) -> {
+					if (throwable == null)
+						return CompletableFuture.completedFuture(created);
+					if (isDocumentExists(throwable))
+						return knowledgeCollection.async().upsert(key, jsonObject)
+								.thenApply(result -> Boolean.FALSE);
+					return CompletableFuture.<Boolean>failedFuture(throwable);
+				}).thenCompose(future -> future);
+	}
+
+	private static boolean isDocumentExists(Throwable throwable) {
+		Throwable cause = throwable instanceof CompletionException
+				&& throwable.getCause() != null ? throwable.getCause() : throwable;
+		return cause instanceof DocumentExistsException;
+	}
+
 	@Override
 	protected void finalize() {
 		try {
@@ -142,6 +219,12 @@ public class CouchbaseRepository {
 
 	}
 
+	/**
+	 * Insert the document. Synchronous inserts block until the document is
+	 * persisted to a majority of nodes; asynchronous inserts are queued on the
+	 * write-behind pipeline.
+	 */
+	@Override
 	public void log(final String key, final JsonObject jsonObject, boolean synchronous) {
 		MutationResult insertResult;
 
@@ -151,7 +234,7 @@ public class CouchbaseRepository {
 				insertResult = knowledgeCollection.insert(key, jsonObject, InsertOptions
 						.insertOptions().durability(DurabilityLevel.PERSIST_TO_MAJORITY));
 			} else {
-				insertResult = knowledgeCollection.insert(key, jsonObject);
+				writeBehindPipeline.submit(key, jsonObject, true);
 			}
 		} catch (Exception e) {
 			throw new RepositoryException("query exception, cause: " + e);
@@ -160,6 +243,27 @@ public class CouchbaseRepository {
 
 	}
 
+	/**
+	 * Insert the document, telling the listener whether it was written. An
+	 * asynchronous insert tells the listener once the write-behind pipeline has
+	 * written it.
+	 */
+	@Override
+	public void log(final String key, final JsonObject jsonObject, boolean synchronous,
+			WriteListener listener) {
+		if (synchronous) {
+			KnowledgeRepositoryBackend.super.log(key, jsonObject, true, listener);
+			return;
+		}
+		submit(key, jsonObject, true, listener);
+	}
+
+	/**
+	 * Upsert the document. Synchronous upserts block until the document is
+	 * persisted to a majority of nodes; asynchronous upserts are queued on the
+	 * write-behind pipeline, where repeated upserts of the same key coalesce.
+	 */
+	@Override
 	public void replace(final String key, final JsonObject jsonObject,
 			boolean synchronous) {
 		MutationResult upsertResult;
@@ -170,8 +274,7 @@ public class CouchbaseRepository {
 				upsertResult = knowledgeCollection.upsert(key, jsonObject, UpsertOptions
 						.upsertOptions().durability(DurabilityLevel.PERSIST_TO_MAJORITY));
 			} else {
-				// insert the jsonObject into my bucket
-				upsertResult = knowledgeCollection.upsert(key, jsonObject);
+				writeBehindPipeline.submit(key, jsonObject, false);
 			}
 		} catch (Exception e) {
 			throw new RepositoryException("query exception, cause: " + e);
@@ -180,6 +283,53 @@ public class CouchbaseRepository {
 
 	}
 
+	/**
+	 * Upsert the document, telling the listener whether it was written and
+	 * created. The document is inserted, and upserted only if it already exists.
+	 * An asynchronous upsert tells the listener once the write-behind pipeline has
+	 * written it, or the upsert it was coalesced into.
+	 */
+	@Override
+	public void replace(final String key, final JsonObject jsonObject,
+			boolean synchronous, WriteListener listener) {
+		if (!synchronous) {
+			submit(key, jsonObject, false, listener);
+			return;
+		}
+		if (listener == null)
+			throw new IllegalArgumentException("listener must not be null");
+
+		boolean created;
+		try {
+			knowledgeCollection.insert(key, jsonObject, InsertOptions.insertOptions()
+					.durability(DurabilityLevel.PERSIST_TO_MAJORITY));
+			created = true;
+		} catch (DocumentExistsException e) {
+			try {
+				replace(key, jsonObject, true);
+			} catch (RepositoryException replaceException) {
+				listener.failed(key, replaceException);
+				return;
+			}
+			created = false;
+		} catch (Exception e) {
+			listener.failed(key, new RepositoryException("query exception, cause: " + e));
+			return;
+		}
+		listener.written(key, created);
+	}
+
+	private void submit(String key, JsonObject jsonObject, boolean insert,
+			WriteListener listener) {
+		if (listener == null)
+			throw new IllegalArgumentException("listener must not be null");
+		try {
+			writeBehindPipeline.submit(key, jsonObject, insert, listener);
+		} catch (RepositoryException e) {
+			listener.failed(key, e);
+		}
+	}
+
 	/**
 	 * Query with parameters
 	 * 
@@ -198,6 +348,86 @@ public class CouchbaseRepository {
 
 	}
 
+	/**
+	 * Wait until all queued asynchronous writes have completed
+	 * 
+	 * @param timeoutMillis the maximum time to wait
+	 * @return true if all writes completed within the timeout
+	 */
+	@Override
+	public boolean flush(long timeoutMillis) {
+		return writeBehindPipeline.flush(timeoutMillis);
+	}
+
+	/**
+	 * @return the write-behind pipeline used for asynchronous writes
+	 */
+	public WriteBehindPipeline getWriteBehindPipeline() {
+		return writeBehindPipeline;
+	}
+
+	/**
+	 * Query using a prepared (adhoc=false) statement with named parameters. The
+	 * template is cached so the query service only parses and plans it once.
+	 * 
+	 * @param template        The statement containing named parameters, ie
+	 *                        $firstSensorEventKey
+	 * @param namedParameters The values of the named parameters, without the $
+	 * @return
+	 */
+	public QueryResult queryPrepared(final String template,
+			final JsonObject namedParameters) {
+		QueryOptions options = statementCache.prepare(template, namedParameters);
+
+		try {
+			return cluster.query(template, options);
+		} catch (Exception e) {
+			throw new RepositoryException("query exception, cause: " + e);
+		}
+
+	}
+
+	@Override
+	public Map<String, JsonObject> getTransitionsForFirstSensorEventKey(
+			String firstSensorEventKey) {
+		QueryResult result = queryPrepared(TRANSITIONS_STATEMENT,
+				JsonObject.create().put("firstSensorEventKey", firstSensorEventKey));
+
+		Map<String, JsonObject> transitions = new HashMap<String, JsonObject>();
+		for (JsonObject row : result.rowsAsObject())
+			transitions.put(row.getString("id"), row.getObject("transition"));
+		return transitions;
+	}
+
+	@Override
+	public int getDocumentCount(String type, int sensorType, int sensorLocation) {
+		QueryResult result = queryPrepared(DOCUMENT_COUNT_STATEMENT,
+				JsonObject.create().put("type", type).put("sensorType", sensorType)
+						.put("sensorLocation", sensorLocation));
+		return result.rowsAsObject().get(0).getInt("$1");
+	}
+
+	/**
+	 * @return the client settings the cluster environment was built from
+	 */
+	public CouchbaseConfiguration getConfiguration() {
+		return configuration;
+	}
+
+	/**
+	 * @return the cluster environment the settings were applied to
+	 */
+	public ClusterEnvironment getEnvironment() {
+		return env;
+	}
+
+	/**
+	 * @return the cache of prepared statement templates and its hit rate
+	 */
+	public PreparedStatementCache getStatementCache() {
+		return statementCache;
+	}
+
 	/**
 	 * Query using a string that may contain embedded parameters
 	 * 
@@ -216,11 +446,19 @@ public class CouchbaseRepository {
 
 	}
 
+	@Override
 	public void removeAllDocuments() {
 		cluster.buckets().flushBucket(KNOWLEDGE_DB);
 	}
 
+	@Override
 	public JsonObject get(final String docID) {
+
+		// Read our own queued writes
+		JsonObject pending = writeBehindPipeline.getPending(docID);
+		if (pending != null)
+			return pending;
+
 		try {
 			GetResult getResult = knowledgeCollection.get(docID);
 			return getResult.contentAsObject();
@@ -231,7 +469,113 @@ public class CouchbaseRepository {
 
 	}
 
+	@Override
+	public boolean exists(String key) {
+		if (writeBehindPipeline.getPending(key) != null)
+			return true;
+		try {
+			return knowledgeCollection.exists(key).exists();
+		} catch (Exception e) {
+			throw new RepositoryException("query exception, cause: " + e);
+		}
+	}
+
+	/**
+	 * Add the deltas with sub-document counter operations, which the server
+	 * applies atomically. A missing document is inserted from initialDocument;
+	 * if another writer inserts it first the counters are added to theirs.
+	 */
+	@Override
+	public void increment(String key, JsonObject initialDocument,
+			Map<String, Long> deltas) {
+		if (key == null || key.isEmpty())
+			throw new IllegalArgumentException("key must not be null or empty");
+		if (initialDocument == null || deltas == null)
+			throw new IllegalArgumentException(
+					"initialDocument and deltas must not be null");
+
+		List<MutateInSpec> increments = new ArrayList<MutateInSpec>(deltas.size());
+		for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+			if (delta.getValue() != 0)
+				increments.add(MutateInSpec.increment(delta.getKey(), delta.getValue()));
+		}
+		if (increments.isEmpty())
+			return;
+
+		try {
+			try {
+				knowledgeCollection.mutateIn(key, increments);
+			} catch (DocumentNotFoundException e) {
+				JsonObject document = JsonObject.from(initialDocument.toMap());
+				for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+					Object value = document.get(delta.getKey());
+					long initial = value instanceof Number ? ((Number) value).longValue()
+							: 0;
+					document.put(delta.getKey(), initial + delta.getValue());
+				}
+				try {
+					knowledgeCollection.insert(key, document);
+				} catch (DocumentExistsException inserted) {
+					knowledgeCollection.mutateIn(key, increments);
+				}
+			}
+		} catch (Exception e) {
+			throw new RepositoryException("query exception, cause: " + e);
+		}
+	}
+
+	/**
+	 * Retrieve the documents with parallel asynchronous gets, so that all of them
+	 * take a single round trip. Queued writes are read from the write-behind
+	 * pipeline.
+	 */
+	@Override
+	public Map<String, JsonObject> getAll(Collection<String> keys) {
+		if (keys == null)
+			throw new IllegalArgumentException("keys must not be null");
+
+		Map<String, JsonObject> pendingDocuments = new HashMap<String, JsonObject>();
+		Map<String, CompletableFuture<JsonObject>> gets = new LinkedHashMap<String, CompletableFuture<JsonObject>>();
+		for (String key : keys) {
+			if (gets.containsKey(key) || pendingDocuments.containsKey(key))
+				continue;
+			JsonObject pending = writeBehindPipeline.getPending(key);
+			if (pending != null) {
+				pendingDocuments.put(key, pending);
+				gets.put(key, null);
+				continue;
+			}
+			gets.put(key, knowledgeCollection.async().get(key)
+					.thenApply(GetResult::contentAsObject).exceptionally(e -> {
+						Throwable cause = e instanceof CompletionException ? e.getCause()
+								: e;
+						if (cause instanceof DocumentNotFoundException)
+							return null;
+						throw new RepositoryException("get exception, key: " + key, cause);
+					}));
+		}
+
+		Map<String, JsonObject> documents = new LinkedHashMap<String, JsonObject>();
+		try {
+			for (Map.Entry<String, CompletableFuture<JsonObject>> get : gets.entrySet()) {
+				JsonObject document = get.getValue() == null
+						? pendingDocuments.get(get.getKey())
+						: get.getValue().join();
+				if (document != null)
+					documents.put(get.getKey(), document);
+			}
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RepositoryException)
+				throw (RepositoryException) e.getCause();
+			throw new RepositoryException("get exception, cause: " + e.getCause());
+		}
+		return documents;
+	}
+
 	public JsonObject get(final String docID, String docType) {
+		JsonObject pending = writeBehindPipeline.getPending(docID);
+		if (pending != null)
+			return pending;
 
 		try {
 			GetResult getResult = knowledgeCollection.get(docID);
@@ -256,12 +600,15 @@ public class CouchbaseRepository {
 
 	}
 
+	@Override
 	public void disconnect() {
 		logger.warn(
 				"Disconnect() - CouchbaseRepository disconnecting from Couchbase server");
 
 		if (instance != null) {
 			logger.warn("CouchbaseRepository disconnecting from Couchbase server");
+			writeBehindPipeline.shutdown(WRITE_BEHIND_SHUTDOWN_TIMEOUT_MILLIS);
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
 			cluster.disconnect();
 			env.shutdown();
 			cluster = null;
@@ -274,10 +621,12 @@ public class CouchbaseRepository {
 	 * 
 	 * @param key the key of the document to remove
 	 */
+	@Override
 	public void remove(String key) {
 		if (key == null | key.isEmpty())
 			throw new IllegalArgumentException("key must not be null or empty");
 
+		writeBehindPipeline.discard(key);
 		try {
 			knowledgeCollection.remove(key);
 		} catch (Exception e) {
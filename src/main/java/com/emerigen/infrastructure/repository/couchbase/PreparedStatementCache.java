@@ -0,0 +1,118 @@
+package com.emerigen.infrastructure.repository.couchbase;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.query.QueryOptions;
+
+/**
+ * Tracks the N1QL statement templates that have been executed as prepared
+ * (adhoc=false) statements. The query service prepares a template the first
+ * time it is seen and reuses the plan afterwards, so the first execution of a
+ * template is recorded as a miss and all later executions as hits.
+ *
+ * Templates must use named parameters (ie $firstSensorEventKey) rather than
+ * concatenated values, otherwise every distinct value becomes a new template
+ * and the plan cache is useless.
+ *
+ * @author Larry
+ *
+ */
+public class PreparedStatementCache {
+
+	private final ConcurrentHashMap<String, AtomicLong> executionsPerTemplate = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Record an execution of the template and build the options needed to run it
+	 * as a prepared statement.
+	 *
+	 * @param template        the parameterized N1QL statement
+	 * @param namedParameters the values of the named parameters
+	 * @return the query options for this execution
+	 */
+	public QueryOptions prepare(String template, JsonObject namedParameters) {
+		if (template == null || template.isEmpty())
+			throw new IllegalArgumentException("template must not be null or empty");
+		if (namedParameters == null)
+			throw new IllegalArgumentException("namedParameters must not be null");
+
+		AtomicLong executions = executionsPerTemplate.get(template);
+		if (executions == null) {
+			AtomicLong newExecutions = new AtomicLong();
+			executions = executionsPerTemplate.putIfAbsent(template, newExecutions);
+			if (executions == null) {
+				executions = newExecutions;
+				misses.incrementAndGet();
+			} else {
+				hits.incrementAndGet();
+			}
+		} else {
+			hits.incrementAndGet();
+		}
+		executions.incrementAndGet();
+
+		return QueryOptions.queryOptions().adhoc(false).parameters(namedParameters);
+	}
+
+	/**
+	 * @return the number of executions that reused an already prepared statement
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of executions that required a new statement to be
+	 *         prepared
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the fraction of executions that reused a prepared statement, or 0.0
+	 *         if nothing has been executed yet
+	 */
+	public double getHitRate() {
+		long hitCount = hits.get();
+		long total = hitCount + misses.get();
+		return total == 0 ? 0.0 : (double) hitCount / total;
+	}
+
+	/**
+	 * @return the number of distinct templates prepared
+	 */
+	public int size() {
+		return executionsPerTemplate.size();
+	}
+
+	/**
+	 * @return a snapshot of the number of executions for each template
+	 */
+	public Map<String, Long> getExecutionsPerTemplate() {
+		Map<String, Long> snapshot = new HashMap<String, Long>();
+		executionsPerTemplate.forEach((template, count) -> snapshot.put(template, count.get()));
+		return Collections.unmodifiableMap(snapshot);
+	}
+
+	/**
+	 * Forget all templates, ie after reconnecting to a new cluster
+	 */
+	public void clear() {
+		executionsPerTemplate.clear();
+		hits.set(0);
+		misses.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "PreparedStatementCache [templates=" + size() + ", hits=" + getHits()
+				+ ", misses=" + getMisses() + ", hitRate=" + getHitRate() + "]";
+	}
+}
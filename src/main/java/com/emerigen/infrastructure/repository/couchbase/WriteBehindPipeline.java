@@ -0,0 +1,412 @@
+package com.emerigen.infrastructure.repository.couchbase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.couchbase.client.java.json.JsonObject;
+import com.emerigen.infrastructure.repository.KnowledgeRepositoryBackend.WriteListener;
+import com.emerigen.infrastructure.repository.RepositoryException;
+
+/**
+ * An asynchronous, batched write-behind pipeline for documents that do not
+ * need to be durable before the caller continues (ie sensor events and
+ * transitions created while processing sensor input).
+ *
+ * Writes are queued by key on a bounded queue. An upsert of a key whose upsert
+ * is still waiting in the queue replaces the queued document rather than adding
+ * another entry, so repeated upserts of the same SensorEvent key collapse into
+ * a single write. Inserts are never coalesced: an insert, or an upsert of a key
+ * with an insert waiting, waits until the flusher has taken the queued write,
+ * so every insert is issued and fails if its document exists. When the queue
+ * is full, submitters block until the flusher catches up (back-pressure). A
+ * single flusher thread drains up to batchSize keys, waiting at most
+ * lingerMillis for a batch to fill, issues the batch through the asynchronous
+ * writer and waits for it to complete before starting the next batch.
+ *
+ * A failed write is logged and counted. Writes submitted with a WriteListener
+ * also tell it the outcome once the write has completed; when upserts coalesce,
+ * the listeners of all of them are told the outcome of the single write, and
+ * only the first is told that it created the document.
+ *
+ * @author Larry
+ *
+ */
+public class WriteBehindPipeline {
+
+	/**
+	 * Issues a single asynchronous write against the underlying repository. The
+	 * future of an upsert completes with Boolean.TRUE if the upsert is known to
+	 * have created the document.
+	 */
+	public interface DocumentWriter {
+		CompletableFuture<?> write(PendingWrite pendingWrite);
+	}
+
+	/**
+	 * A document waiting to be written
+	 */
+	public static final class PendingWrite {
+		private final String key;
+		private final JsonObject jsonObject;
+		private final boolean insert;
+		private final List<WriteListener> listeners;
+
+		public PendingWrite(String key, JsonObject jsonObject, boolean insert) {
+			this(key, jsonObject, insert, Collections.<WriteListener>emptyList());
+		}
+
+		private PendingWrite(String key, JsonObject jsonObject, boolean insert,
+				List<WriteListener> listeners) {
+			this.key = key;
+			this.jsonObject = jsonObject;
+			this.insert = insert;
+			this.listeners = listeners;
+		}
+
+		/**
+		 * @return true if a listener will be told the outcome of the write
+		 */
+		public boolean hasListeners() {
+			return !listeners.isEmpty();
+		}
+
+		/**
+		 * @return this upsert replaced by the later one, telling the listeners of
+		 *         both the outcome
+		 */
+		private PendingWrite coalesce(PendingWrite later) {
+			List<WriteListener> combined = new ArrayList<WriteListener>(listeners);
+			combined.addAll(later.listeners);
+			return new PendingWrite(key, later.jsonObject, false, combined);
+		}
+
+		/**
+		 * @return the key
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return the jsonObject
+		 */
+		public JsonObject getJsonObject() {
+			return jsonObject;
+		}
+
+		/**
+		 * @return true if the document must be inserted, false if upserted
+		 */
+		public boolean isInsert() {
+			return insert;
+		}
+	}
+
+	private static final long IDLE_POLL_MILLIS = 100;
+
+	private final DocumentWriter writer;
+	private final int batchSize;
+	private final long lingerMillis;
+
+	private final BlockingQueue<String> queuedKeys;
+	private final ConcurrentHashMap<String, PendingWrite> pendingWrites = new ConcurrentHashMap<String, PendingWrite>();
+
+	private final AtomicLong outstanding = new AtomicLong();
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	private final Thread flusher;
+	private volatile boolean running = true;
+
+	private static final Logger logger = Logger.getLogger(WriteBehindPipeline.class);
+
+	public WriteBehindPipeline(DocumentWriter writer, int queueCapacity, int batchSize,
+			long lingerMillis) {
+		if (writer == null)
+			throw new IllegalArgumentException("writer must not be null");
+		if (queueCapacity < 1)
+			throw new IllegalArgumentException("queueCapacity must be positive");
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be positive");
+		if (lingerMillis < 0)
+			throw new IllegalArgumentException("lingerMillis must not be negative");
+
+		this.writer = writer;
+		this.batchSize = batchSize;
+		this.lingerMillis = lingerMillis;
+		this.queuedKeys = new ArrayBlockingQueue<String>(queueCapacity);
+
+		flusher = new Thread(this::flushLoop, "write-behind-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Queue a document to be written. If an upsert of the same key is already
+	 * queued it is replaced by this upsert. Blocks while the queue is full.
+	 *
+	 * @param key        the document key
+	 * @param jsonObject the document
+	 * @param insert     true to insert, false to upsert
+	 */
+	public void submit(String key, JsonObject jsonObject, boolean insert) {
+		submit(key, jsonObject, insert, null);
+	}
+
+	/**
+	 * Queue a document to be written, telling the listener its outcome once it
+	 * has completed
+	 *
+	 * @param key        the document key
+	 * @param jsonObject the document
+	 * @param insert     true to insert, false to upsert
+	 * @param listener   told the outcome of the write, or null
+	 */
+	public void submit(String key, JsonObject jsonObject, boolean insert,
+			WriteListener listener) {
+		if (key == null || key.isEmpty())
+			throw new IllegalArgumentException("key must not be null or empty");
+		if (jsonObject == null)
+			throw new IllegalArgumentException("jsonObject must not be null");
+		if (!running)
+			throw new RepositoryException("write-behind pipeline has been shut down");
+
+		submitted.incrementAndGet();
+		PendingWrite pendingWrite = new PendingWrite(key, jsonObject, insert,
+				listener == null ? Collections.<WriteListener>emptyList()
+						: Collections.singletonList(listener));
+		while (true) {
+			PendingWrite queued = pendingWrites.putIfAbsent(key, pendingWrite);
+			if (queued == null)
+				break;
+			if (!insert && !queued.isInsert()) {
+				if (pendingWrites.replace(key, queued, queued.coalesce(pendingWrite))) {
+					coalesced.incrementAndGet();
+					return;
+				}
+			} else {
+				awaitTaken(queued);
+			}
+		}
+
+		outstanding.incrementAndGet();
+		try {
+			queuedKeys.put(key);
+		} catch (InterruptedException e) {
+			pendingWrites.remove(key, pendingWrite);
+			outstanding.decrementAndGet();
+			Thread.currentThread().interrupt();
+			throw new RepositoryException("interrupted while queueing write for " + key,
+					e);
+		}
+	}
+
+	/**
+	 * Wait until the flusher has taken the queued write, so a write that may not
+	 * be coalesced with it can be queued after it
+	 */
+	private void awaitTaken(PendingWrite queued) {
+		while (pendingWrites.get(queued.getKey()) == queued) {
+			if (!flusher.isAlive())
+				throw new RepositoryException("write-behind flusher has stopped");
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RepositoryException(
+						"interrupted while queueing write for " + queued.getKey(), e);
+			}
+		}
+	}
+
+	/**
+	 * @param key the document key
+	 * @return the document still waiting to be written for the key, or null
+	 */
+	public JsonObject getPending(String key) {
+		PendingWrite pendingWrite = pendingWrites.get(key);
+		return pendingWrite == null ? null : pendingWrite.getJsonObject();
+	}
+
+	/**
+	 * Forget any queued write for the key, ie when the document is removed
+	 *
+	 * @param key the document key
+	 */
+	public void discard(String key) {
+		pendingWrites.remove(key);
+	}
+
+	/**
+	 * Wait until every write submitted so far has completed
+	 *
+	 * @param timeoutMillis the maximum time to wait
+	 * @return true if all writes completed within the timeout
+	 */
+	public boolean flush(long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (outstanding.get() > 0) {
+			if (System.currentTimeMillis() >= deadline || !flusher.isAlive())
+				return false;
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stop accepting writes, flush everything queued and stop the flusher
+	 *
+	 * @param timeoutMillis the maximum time to wait for queued writes
+	 */
+	public void shutdown(long timeoutMillis) {
+		running = false;
+		if (!flush(timeoutMillis))
+			logger.warn("write-behind pipeline shut down with " + outstanding.get()
+					+ " writes outstanding");
+		flusher.interrupt();
+	}
+
+	private void flushLoop() {
+		List<String> batch = new ArrayList<String>(batchSize);
+		while (running || !queuedKeys.isEmpty()) {
+			try {
+				String first = queuedKeys.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (first == null)
+					continue;
+				batch.add(first);
+
+				// Linger until the batch is full or the linger time expires
+				long lingerDeadline = System.nanoTime()
+						+ TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+				while (batch.size() < batchSize) {
+					long remaining = lingerDeadline - System.nanoTime();
+					String next = remaining > 0
+							? queuedKeys.poll(remaining, TimeUnit.NANOSECONDS)
+							: queuedKeys.poll();
+					if (next == null)
+						break;
+					batch.add(next);
+				}
+				writeBatch(batch);
+			} catch (InterruptedException e) {
+				if (running)
+					logger.warn("write-behind flusher interrupted", e);
+				writeBatch(batch);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private void writeBatch(List<String> batch) {
+		List<CompletableFuture<?>> futures = new ArrayList<CompletableFuture<?>>(
+				batch.size());
+		for (String key : batch) {
+			PendingWrite pendingWrite = pendingWrites.remove(key);
+			if (pendingWrite == null) {
+				outstanding.decrementAndGet();
+				continue;
+			}
+			CompletableFuture<?> future;
+			try {
+				future = writer.write(pendingWrite);
+			} catch (Exception e) {
+				CompletableFuture<Object> failedWrite = new CompletableFuture<Object>();
+				failedWrite.completeExceptionally(e);
+				future = failedWrite;
+			}
+			futures.add(future.handle((result, throwable) -> {
+				if (throwable == null) {
+					written.incrementAndGet();
+				} else {
+					failed.incrementAndGet();
+					logger.warn("write-behind failed for key " + pendingWrite.getKey()
+							+ ", cause: " + throwable);
+				}
+				notifyListeners(pendingWrite,
+						pendingWrite.isInsert() || Boolean.TRUE.equals(result), throwable);
+				outstanding.decrementAndGet();
+				return null;
+			}));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+	}
+
+	private static void notifyListeners(PendingWrite pendingWrite, boolean created,
+			Throwable throwable) {
+		Throwable cause = throwable instanceof CompletionException
+				&& throwable.getCause() != null ? throwable.getCause() : throwable;
+		for (WriteListener listener : pendingWrite.listeners) {
+			try {
+				if (cause == null) {
+					listener.written(pendingWrite.getKey(), created);
+					created = false;
+				} else
+					listener.failed(pendingWrite.getKey(), cause);
+			} catch (RuntimeException e) {
+				logger.warn("Ignoring Exception - write listener failed for key "
+						+ pendingWrite.getKey(), e);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of writes submitted
+	 */
+	public long getSubmitted() {
+		return submitted.get();
+	}
+
+	/**
+	 * @return the number of writes that replaced an already queued write
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	/**
+	 * @return the number of documents written successfully
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+
+	/**
+	 * @return the number of documents that failed to be written
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return the number of queued or in-flight writes
+	 */
+	public long getOutstanding() {
+		return outstanding.get();
+	}
+
+	@Override
+	public String toString() {
+		return "WriteBehindPipeline [batchSize=" + batchSize + ", lingerMillis="
+				+ lingerMillis + ", submitted=" + getSubmitted() + ", coalesced="
+				+ getCoalesced() + ", written=" + getWritten() + ", failed="
+				+ getFailed() + ", outstanding=" + getOutstanding() + "]";
+	}
+}
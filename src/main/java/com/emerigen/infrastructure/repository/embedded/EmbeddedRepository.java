@@ -0,0 +1,481 @@
+package com.emerigen.infrastructure.repository.embedded;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.couchbase.client.java.json.JsonObject;
+import com.emerigen.infrastructure.repository.CompactDocumentCodec;
+import com.emerigen.infrastructure.repository.DocumentFormat;
+import com.emerigen.infrastructure.repository.KnowledgeRepositoryBackend;
+import com.emerigen.infrastructure.repository.KnowledgeRepositoryBackend.WriteListener;
+import com.emerigen.infrastructure.repository.RepositoryException;
+
+/**
+ * An embedded knowledge repository backend for edge nodes, tests and
+ * benchmarks that need the full learning loop without a server.
+ *
+ * Documents are appended to a memory-mapped, append-only log file made of
+ * fixed size segments. Each record holds the key and the document (or a
+ * tombstone for removals). Documents are stored as JSON text; with the COMPACT
+ * document format, transitions and sensor events are stored in the binary
+ * format of the CompactDocumentCodec instead. Either format can be read from
+ * any log. In-memory indexes map each key to the offset of its
+ * latest record, each firstSensorEventKey to its transition ids, and each
+ * (type, sensorType, sensorLocation) to a document count. The indexes are
+ * rebuilt by replaying the log when the repository is opened.
+ *
+ * Writes are serialized on the repository; reads are lock-free.
+ *
+ * @author Larry
+ *
+ */
+public class EmbeddedRepository implements KnowledgeRepositoryBackend {
+
+	public static final String LOG_FILE_NAME = "knowledge.log";
+
+	private static final int RECORD_HEADER_BYTES = 8;
+	private static final int TOMBSTONE = -1;
+	private static final int END_OF_SEGMENT = -1;
+
+	/**
+	 * Index entry for the latest record of a key
+	 */
+	private static final class DocumentLocation {
+		private final long offset;
+		private final int length;
+		private final String countKey;
+		private final String firstSensorEventKey;
+
+		private DocumentLocation(long offset, int length, String countKey,
+				String firstSensorEventKey) {
+			this.offset = offset;
+			this.length = length;
+			this.countKey = countKey;
+			this.firstSensorEventKey = firstSensorEventKey;
+		}
+	}
+
+	private final Path logFile;
+	private final int segmentSize;
+	private final DocumentFormat documentFormat;
+	private final CompactDocumentCodec codec = new CompactDocumentCodec();
+	private final FileChannel channel;
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+	private final ConcurrentHashMap<String, DocumentLocation> locations = new ConcurrentHashMap<String, DocumentLocation>();
+	private final ConcurrentHashMap<String, Set<String>> transitionIdsPerFirstSensorEventKey = new ConcurrentHashMap<String, Set<String>>();
+	private final ConcurrentHashMap<String, AtomicInteger> documentCounts = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private volatile List<MappedByteBuffer> readableSegments = Collections.emptyList();
+	private long writePosition = 0;
+	private boolean open = true;
+
+	private static final Logger logger = Logger.getLogger(EmbeddedRepository.class);
+
+	/**
+	 * Open (or create) the repository in the given directory and rebuild its
+	 * indexes from the log.
+	 *
+	 * @param directory   the directory that holds the log file
+	 * @param segmentSize the size in bytes of each mapped segment, which is also
+	 *                    the maximum size of a single record
+	 */
+	public EmbeddedRepository(Path directory, int segmentSize) {
+		this(directory, segmentSize, DocumentFormat.JSON);
+	}
+
+	/**
+	 * Open (or create) the repository in the given directory and rebuild its
+	 * indexes from the log.
+	 *
+	 * @param directory      the directory that holds the log file
+	 * @param segmentSize    the size in bytes of each mapped segment, which is
+	 *                       also the maximum size of a single record
+	 * @param documentFormat the format new documents are written in
+	 */
+	public EmbeddedRepository(Path directory, int segmentSize,
+			DocumentFormat documentFormat) {
+		if (directory == null)
+			throw new IllegalArgumentException("directory must not be null");
+		if (segmentSize < 1024)
+			throw new IllegalArgumentException("segmentSize must be at least 1024 bytes");
+		if (documentFormat == null)
+			throw new IllegalArgumentException("documentFormat must not be null");
+
+		this.segmentSize = segmentSize;
+		this.documentFormat = documentFormat;
+		this.logFile = directory.resolve(LOG_FILE_NAME);
+		try {
+			Files.createDirectories(directory);
+			channel = FileChannel.open(logFile, StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			replay();
+		} catch (IOException e) {
+			throw new RepositoryException("IO exception opening " + logFile, e);
+		}
+		logger.info("Opened embedded repository " + logFile + " with "
+				+ locations.size() + " documents");
+	}
+
+	@Override
+	public void log(String key, JsonObject jsonObject, boolean synchronous) {
+		if (key == null || key.isEmpty())
+			throw new IllegalArgumentException("key must not be null or empty");
+		if (jsonObject == null)
+			throw new IllegalArgumentException("jsonObject must not be null");
+
+		synchronized (this) {
+			if (locations.containsKey(key))
+				throw new RepositoryException("document already exists, key: " + key);
+			append(key, jsonObject, synchronous);
+		}
+	}
+
+	@Override
+	public void replace(String key, JsonObject jsonObject, boolean synchronous) {
+		if (key == null || key.isEmpty())
+			throw new IllegalArgumentException("key must not be null or empty");
+		if (jsonObject == null)
+			throw new IllegalArgumentException("jsonObject must not be null");
+
+		synchronized (this) {
+			append(key, jsonObject, synchronous);
+		}
+	}
+
+	@Override
+	public void replace(String key, JsonObject jsonObject, boolean synchronous,
+			WriteListener listener) {
+		if (key == null || key.isEmpty())
+			throw new IllegalArgumentException("key must not be null or empty");
+		if (jsonObject == null)
+			throw new IllegalArgumentException("jsonObject must not be null");
+		if (listener == null)
+			throw new IllegalArgumentException("listener must not be null");
+
+		boolean created;
+		try {
+			synchronized (this) {
+				created = !locations.containsKey(key);
+				append(key, jsonObject, synchronous);
+			}
+		} catch (RepositoryException e) {
+			listener.failed(key, e);
+			return;
+		}
+		listener.written(key, created);
+	}
+
+	@Override
+	public JsonObject get(String key) {
+		DocumentLocation location = locations.get(key);
+		if (location == null)
+			return null;
+		return toJsonObject(readDocument(location));
+	}
+
+	@Override
+	public boolean exists(String key) {
+		return locations.containsKey(key);
+	}
+
+	@Override
+	public void increment(String key, JsonObject initialDocument,
+			Map<String, Long> deltas) {
+		if (key == null || key.isEmpty())
+			throw new IllegalArgumentException("key must not be null or empty");
+		if (initialDocument == null || deltas == null)
+			throw new IllegalArgumentException(
+					"initialDocument and deltas must not be null");
+
+		synchronized (this) {
+			JsonObject document = get(key);
+			if (document == null)
+				document = JsonObject.from(initialDocument.toMap());
+			for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+				Object value = document.get(delta.getKey());
+				long current = value instanceof Number ? ((Number) value).longValue() : 0;
+				document.put(delta.getKey(), current + delta.getValue());
+			}
+			append(key, document, false);
+		}
+	}
+
+	@Override
+	public void remove(String key) {
+		if (key == null || key.isEmpty())
+			throw new IllegalArgumentException("key must not be null or empty");
+
+		synchronized (this) {
+			if (!locations.containsKey(key))
+				throw new RepositoryException("document not found, key: " + key);
+			append(key, null, false);
+		}
+	}
+
+	@Override
+	public synchronized void removeAllDocuments() {
+		checkOpen();
+		for (MappedByteBuffer segment : segments) {
+			for (int i = 0; i < segmentSize; i++)
+				segment.put(i, (byte) 0);
+			segment.force();
+		}
+		writePosition = 0;
+		codec.clear();
+		locations.clear();
+		transitionIdsPerFirstSensorEventKey.clear();
+		documentCounts.clear();
+	}
+
+	@Override
+	public Map<String, JsonObject> getTransitionsForFirstSensorEventKey(
+			String firstSensorEventKey) {
+		Map<String, JsonObject> transitions = new HashMap<String, JsonObject>();
+		Set<String> transitionIds = transitionIdsPerFirstSensorEventKey
+				.get(firstSensorEventKey);
+		if (transitionIds == null)
+			return transitions;
+
+		for (String transitionId : transitionIds) {
+			JsonObject transition = get(transitionId);
+			if (transition != null)
+				transitions.put(transitionId, transition);
+		}
+		return transitions;
+	}
+
+	@Override
+	public int getDocumentCount(String type, int sensorType, int sensorLocation) {
+		AtomicInteger count = documentCounts
+				.get(countKey(type, sensorType, sensorLocation));
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * Writes are applied to the mapped log before returning, so there is never
+	 * anything to wait for.
+	 */
+	@Override
+	public boolean flush(long timeoutMillis) {
+		return true;
+	}
+
+	@Override
+	public synchronized void disconnect() {
+		if (!open)
+			return;
+		open = false;
+		try {
+			for (MappedByteBuffer segment : segments)
+				segment.force();
+			channel.close();
+		} catch (IOException e) {
+			throw new RepositoryException("IO exception closing " + logFile, e);
+		}
+	}
+
+	/**
+	 * @return the number of live documents
+	 */
+	public int size() {
+		return locations.size();
+	}
+
+	/**
+	 * @return the format new documents are written in
+	 */
+	public DocumentFormat getDocumentFormat() {
+		return documentFormat;
+	}
+
+	/**
+	 * @return the number of bytes appended to the log
+	 */
+	public synchronized long getWritePosition() {
+		return writePosition;
+	}
+
+	/**
+	 * Append a record for the key. A null document appends a tombstone.
+	 */
+	private void append(String key, JsonObject jsonObject, boolean synchronous) {
+		checkOpen();
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		byte[] documentBytes = null;
+		if (jsonObject != null && documentFormat == DocumentFormat.COMPACT)
+			documentBytes = codec.encode(jsonObject,
+					segmentSize - RECORD_HEADER_BYTES - keyBytes.length);
+		if (jsonObject != null && documentBytes == null)
+			documentBytes = jsonObject.toString().getBytes(StandardCharsets.UTF_8);
+		int documentLength = documentBytes == null ? 0 : documentBytes.length;
+		int recordLength = RECORD_HEADER_BYTES + keyBytes.length + documentLength;
+		if (recordLength > segmentSize)
+			throw new RepositoryException("document too large for segment, key: " + key
+					+ ", bytes: " + recordLength);
+
+		// Records never span segments
+		int positionInSegment = (int) (writePosition % segmentSize);
+		if (positionInSegment + recordLength > segmentSize) {
+			if (segmentSize - positionInSegment >= 4)
+				segment(writePosition).putInt(positionInSegment, END_OF_SEGMENT);
+			writePosition += segmentSize - positionInSegment;
+			positionInSegment = 0;
+		}
+
+		MappedByteBuffer segment = segment(writePosition);
+		ByteBuffer record = segment.duplicate();
+		record.position(positionInSegment);
+		record.putInt(keyBytes.length);
+		record.putInt(documentBytes == null ? TOMBSTONE : documentLength);
+		record.put(keyBytes);
+		if (documentBytes != null)
+			record.put(documentBytes);
+		if (synchronous)
+			segment.force();
+
+		index(key, jsonObject, writePosition + RECORD_HEADER_BYTES + keyBytes.length,
+				documentLength);
+		writePosition += recordLength;
+	}
+
+	private void index(String key, JsonObject jsonObject, long documentOffset,
+			int documentLength) {
+		DocumentLocation previous;
+		if (jsonObject == null) {
+			previous = locations.remove(key);
+		} else {
+			String type = jsonObject.getString("type");
+			String countKey = countKey(type, intValue(jsonObject, "sensorType"),
+					intValue(jsonObject, "sensorLocation"));
+			String firstSensorEventKey = "transition".equals(type)
+					? jsonObject.getString("firstSensorEventKey")
+					: null;
+			previous = locations.put(key, new DocumentLocation(documentOffset,
+					documentLength, countKey, firstSensorEventKey));
+
+			documentCounts.computeIfAbsent(countKey, k -> new AtomicInteger())
+					.incrementAndGet();
+			if (firstSensorEventKey != null)
+				transitionIdsPerFirstSensorEventKey
+						.computeIfAbsent(firstSensorEventKey,
+								k -> ConcurrentHashMap.newKeySet())
+						.add(key);
+		}
+
+		// Undo the index entries of the record being superseded
+		if (previous != null) {
+			documentCounts.get(previous.countKey).decrementAndGet();
+			if (previous.firstSensorEventKey != null && (jsonObject == null
+					|| !previous.firstSensorEventKey
+							.equals(locations.get(key).firstSensorEventKey)))
+				transitionIdsPerFirstSensorEventKey.get(previous.firstSensorEventKey)
+						.remove(key);
+		}
+	}
+
+	private void replay() throws IOException {
+		long fileSize = channel.size();
+		long position = 0;
+		while (position < fileSize) {
+			int positionInSegment = (int) (position % segmentSize);
+			MappedByteBuffer segment = segment(position);
+			if (segmentSize - positionInSegment < RECORD_HEADER_BYTES) {
+				position += segmentSize - positionInSegment;
+				continue;
+			}
+
+			int keyLength = segment.getInt(positionInSegment);
+			if (keyLength == 0)
+				break;
+			if (keyLength == END_OF_SEGMENT) {
+				position += segmentSize - positionInSegment;
+				continue;
+			}
+			int documentLength = segment.getInt(positionInSegment + 4);
+
+			ByteBuffer record = segment.duplicate();
+			record.position(positionInSegment + RECORD_HEADER_BYTES);
+			byte[] keyBytes = new byte[keyLength];
+			record.get(keyBytes);
+			String key = new String(keyBytes, StandardCharsets.UTF_8);
+
+			long documentOffset = position + RECORD_HEADER_BYTES + keyLength;
+			if (documentLength == TOMBSTONE) {
+				index(key, null, documentOffset, 0);
+				documentLength = 0;
+			} else {
+				byte[] documentBytes = new byte[documentLength];
+				record.get(documentBytes);
+				index(key, toJsonObject(documentBytes), documentOffset, documentLength);
+			}
+			position += RECORD_HEADER_BYTES + keyLength + documentLength;
+		}
+		writePosition = position;
+	}
+
+	private JsonObject toJsonObject(byte[] documentBytes) {
+		if (CompactDocumentCodec.isCompact(documentBytes))
+			return codec.decode(documentBytes);
+		return JsonObject.fromJson(new String(documentBytes, StandardCharsets.UTF_8));
+	}
+
+	private byte[] readDocument(DocumentLocation location) {
+		List<MappedByteBuffer> mapped = readableSegments;
+		ByteBuffer record = mapped.get((int) (location.offset / segmentSize))
+				.duplicate();
+		record.position((int) (location.offset % segmentSize));
+		byte[] documentBytes = new byte[location.length];
+		record.get(documentBytes);
+		return documentBytes;
+	}
+
+	/**
+	 * @return the mapped segment containing the position, mapping new segments
+	 *         as the log grows
+	 */
+	private MappedByteBuffer segment(long position) {
+		int segmentIndex = (int) (position / segmentSize);
+		try {
+			while (segments.size() <= segmentIndex) {
+				segments.add(channel.map(FileChannel.MapMode.READ_WRITE,
+						(long) segments.size() * segmentSize, segmentSize));
+				readableSegments = Collections
+						.unmodifiableList(new ArrayList<MappedByteBuffer>(segments));
+			}
+		} catch (IOException e) {
+			throw new RepositoryException("IO exception mapping " + logFile, e);
+		}
+		return segments.get(segmentIndex);
+	}
+
+	private void checkOpen() {
+		if (!open)
+			throw new RepositoryException("embedded repository is closed: " + logFile);
+	}
+
+	private static int intValue(JsonObject jsonObject, String name) {
+		Object value = jsonObject.get(name);
+		return value instanceof Number ? ((Number) value).intValue() : 0;
+	}
+
+	private static String countKey(String type, int sensorType, int sensorLocation) {
+		return type + ":" + sensorType + ":" + sensorLocation;
+	}
+}
@@ -37,7 +37,7 @@ public class CustomSensorEventDeserializer extends StdDeserializer<SensorEvent>
 		// Temporary fields for Sensor object
 		int sensorType;
 		int sensorLocation;
-		int minimumDelayBetweenReadings;
+		long minimumDelayBetweenReadings;
 		int reportingMode;
 		boolean wakeUpSensor;
 
@@ -91,15 +91,12 @@ public class CustomSensorEventDeserializer extends StdDeserializer<SensorEvent>
 			sensorEvent.setValues(values);
 			logger.info("SensorEvent values without sensor: " + sensorEvent);
 
-			// Retrieve the Sensor attributes and create a new sensor
-			minimumDelayBetweenReadings = node.get("minimumDelayBetweenReadings").asInt();
+			// Retrieve the Sensor attributes and look up the shared sensor
+			minimumDelayBetweenReadings = node.get("minimumDelayBetweenReadings").asLong();
 			reportingMode = node.get("reportingMode").asInt();
 			wakeUpSensor = node.get("wakeUpSensor").asBoolean();
-			sensor = SensorManager.getInstance().getDefaultSensorForLocation(sensorType,
-					sensorLocation);
-			sensor.setMinimumDelayBetweenReadings(minimumDelayBetweenReadings);
-			sensor.setWakeUpSensor(wakeUpSensor);
-			sensor.setReportingMode(reportingMode);
+			sensor = SensorRegistry.getInstance().intern(sensorType, sensorLocation,
+					reportingMode, minimumDelayBetweenReadings, wakeUpSensor);
 
 			sensorEvent.setSensor(sensor);
 			logger.info("Sensor created: " + sensor + ", sensorEvent complete: "
@@ -91,7 +91,7 @@ public class CustomTransitionDeserializer extends StdDeserializer<Transition> {
 	private SensorEvent extractSensorEvent(JsonNode node) {
 		int sensorType;
 		int sensorLocation;
-		int minimumDelayBetweenReadings;
+		long minimumDelayBetweenReadings;
 		int reportingMode;
 		boolean wakeUpSensor;
 		SensorEvent sensorEvent = new SensorEvent();
@@ -108,15 +108,12 @@ public class CustomTransitionDeserializer extends StdDeserializer<Transition> {
 		sensorEvent.setValues(getSensorEventValues(node));
 		logger.info("SensorEvent with values, without sensor: " + sensorEvent);
 
-		// Retrieve the Sensor attributes, create and set event sensor
-		minimumDelayBetweenReadings = node.get("minimumDelayBetweenReadings").asInt();
+		// Retrieve the Sensor attributes, look up and set the shared sensor
+		minimumDelayBetweenReadings = node.get("minimumDelayBetweenReadings").asLong();
 		reportingMode = node.get("reportingMode").asInt();
 		wakeUpSensor = node.get("wakeUpSensor").asBoolean();
-		sensor = SensorManager.getInstance().getDefaultSensorForLocation(sensorType,
-				sensorLocation);
-		sensor.setMinimumDelayBetweenReadings(minimumDelayBetweenReadings);
-		sensor.setWakeUpSensor(wakeUpSensor);
-		sensor.setReportingMode(reportingMode);
+		sensor = SensorRegistry.getInstance().intern(sensorType, sensorLocation,
+				reportingMode, minimumDelayBetweenReadings, wakeUpSensor);
 		sensorEvent.setSensor(sensor);
 		logger.info(
 				"Sensor created: " + sensor + ", sensorEvent complete: " + sensorEvent);
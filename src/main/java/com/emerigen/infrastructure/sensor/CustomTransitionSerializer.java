@@ -49,8 +49,7 @@ public class CustomTransitionSerializer extends StdSerializer<Transition> {
 					transition.getFirstSensorEventKey());
 
 			// Create predictedSensorEvent fields
-			jsonGenerator.writeStartObject("predictedSensorEvent");
-			jsonGenerator.writeStartObject();
+			jsonGenerator.writeObjectFieldStart("predictedSensorEvent");
 			writeTransitionNodeSensorEvent(jsonGenerator,
 					transition.getPredictedSensorEvent());
 			jsonGenerator.writeEndObject();
@@ -0,0 +1,37 @@
+package com.emerigen.infrastructure.sensor;
+
+/**
+ * Controls how the EmerigenSensorEventListener invokes the pattern recognizers
+ * registered for a sensor.
+ * 
+ * @author Larry
+ *
+ */
+public enum DispatchMode {
+
+	/**
+	 * Invoke the recognizers one after another on the calling thread
+	 */
+	SEQUENTIAL,
+
+	/**
+	 * Invoke the recognizers concurrently on the dispatch executor and merge
+	 * their predictions as they complete, up to a per-event deadline
+	 */
+	PARALLEL;
+
+	/**
+	 * @param name the case-insensitive name of the mode
+	 * @return the matching mode
+	 */
+	public static DispatchMode fromString(String name) {
+		if (name == null || name.isEmpty())
+			throw new IllegalArgumentException("dispatch mode must not be null or empty");
+		try {
+			return DispatchMode.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(
+					"dispatch mode must be sequential or parallel, but was (" + name + ")");
+		}
+	}
+}
@@ -4,16 +4,48 @@
 package com.emerigen.infrastructure.sensor;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
 import com.emerigen.infrastructure.learning.Prediction;
 import com.emerigen.infrastructure.repository.KnowledgeRepository;
+import com.emerigen.infrastructure.utils.EmerigenProperties;
 
 /**
+ * Dispatches each sensor event to every listener registered for its sensor and
+ * merges their predictions.
+ *
+ * In SEQUENTIAL mode the listeners are invoked one after another on the calling
+ * thread. In PARALLEL mode they are invoked concurrently on a bounded, shared
+ * dispatch executor and their predictions are merged as they complete; any
+ * listener that has not completed by the per-event deadline is dropped from
+ * this event's predictions, so the latency of an event is that of its slowest
+ * listener (bounded by the deadline) rather than the sum of all of them. A
+ * listener still queued at the deadline is removed from the executor and never
+ * runs, and a listener that does not fit in the executor's queue is dropped
+ * rather than run on the dispatching thread.
+ *
+ * In either mode a listener that fails is logged and skipped without affecting
+ * the others or the logging of the event. A listener keeps its own state, so in
+ * PARALLEL mode it is never invoked for two events at once: a listener still
+ * running for an earlier event, ie one that missed its deadline, is dropped
+ * from this event rather than queued behind itself.
+ *
  * @author Larry
  *
  */
@@ -25,34 +57,104 @@ public class EmerigenSensorEventListener implements SensorEventListener {
 
 	private SensorEvent previousSensorEvent;
 
+	private final DispatchMode dispatchMode;
+	private final long deadlineMillis;
+	private final AtomicLong droppedListenerResults = new AtomicLong();
+
 	private static final Logger logger = Logger
 			.getLogger(EmerigenSensorEventListener.class);
 
+	/**
+	 * The executor shared by all listeners in PARALLEL mode, created on first use.
+	 * When its queue is full further listeners are rejected.
+	 */
+	private static class DispatchExecutorHolder {
+		private static final ThreadPoolExecutor executor = createExecutor();
+
+		private static ThreadPoolExecutor createExecutor() {
+			EmerigenProperties properties = EmerigenProperties.getInstance();
+			int threads = Integer.parseInt(
+					properties.getValue("sensor.listener.dispatch.threads"));
+			int queueCapacity = Integer.parseInt(
+					properties.getValue("sensor.listener.dispatch.queue.capacity"));
+			AtomicInteger threadNumber = new AtomicInteger();
+
+			return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(queueCapacity), runnable -> {
+						Thread thread = new Thread(runnable,
+								"sensor-dispatch-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}, new ThreadPoolExecutor.AbortPolicy());
+		}
+	}
+
+	/**
+	 * The listeners being invoked in PARALLEL mode, by identity since listeners
+	 * may be equal to each other
+	 */
+	private static final Set<SensorEventListener> runningListeners = Collections
+			.newSetFromMap(Collections.synchronizedMap(
+					new IdentityHashMap<SensorEventListener, Boolean>()));
+
+	/**
+	 * A listener invocation that adds itself to its event's completion queue when
+	 * it completes or is cancelled. The listener has been marked running when the
+	 * task is created, and is released once the task has run, or been removed
+	 * from the executor without running.
+	 */
+	private static class DispatchTask extends FutureTask<List<Prediction>> {
+		private final SensorEventListener sensorEventListener;
+		private final BlockingQueue<DispatchTask> completionQueue;
+
+		DispatchTask(SensorEventListener sensorEventListener, SensorEvent sensorEvent,
+				BlockingQueue<DispatchTask> completionQueue) {
+			super(() -> sensorEventListener.onSensorChanged(sensorEvent));
+			this.sensorEventListener = sensorEventListener;
+			this.completionQueue = completionQueue;
+		}
+
+		@Override
+		public void run() {
+			try {
+				super.run();
+			} finally {
+				runningListeners.remove(sensorEventListener);
+			}
+		}
+
+		@Override
+		protected void done() {
+			completionQueue.add(this);
+		}
+	}
+
 	public EmerigenSensorEventListener() {
+		this(DispatchMode.fromString(EmerigenProperties.getInstance()
+				.getValue("sensor.listener.dispatch.mode")),
+				Long.parseLong(EmerigenProperties.getInstance()
+						.getValue("sensor.listener.dispatch.deadline.millis")));
+	}
+
+	public EmerigenSensorEventListener(DispatchMode dispatchMode, long deadlineMillis) {
+		if (dispatchMode == null)
+			throw new IllegalArgumentException("dispatchMode must not be null");
+		if (deadlineMillis <= 0)
+			throw new IllegalArgumentException("deadlineMillis must be positive");
+
+		this.dispatchMode = dispatchMode;
+		this.deadlineMillis = deadlineMillis;
 	}
 
 	@Override
 	public List<Prediction> onSensorChanged(SensorEvent sensorEvent) {
 
-		List<Prediction> predictions = new ArrayList<Prediction>();
-
 		/**
 		 * Send the event to each registered Listener for processing and accumulate the
 		 * predictions.
 		 */
-		Set<Prediction> distinctPredictions = new HashSet<Prediction>();
-		List<SensorEventListener> listeners = SensorManager.getInstance()
-				.getRegistrationsForSensor(sensorEvent.getSensor());
-		for (SensorEventListener sensorEventListener : listeners) {
-			if (!(sensorEventListener instanceof EmerigenSensorEventListener)) {
-				List<Prediction> newPredictions = sensorEventListener
-						.onSensorChanged(sensorEvent);
-				if (newPredictions != null)
-					distinctPredictions.addAll(newPredictions);
-//				distinctPredictions.addAll(sensorEventListener.onSensorChanged(sensorEvent));
-			}
-		}
-		predictions.addAll(distinctPredictions);
+		List<Prediction> predictions = dispatch(sensorEvent, SensorManager.getInstance()
+				.getRegistrationsForSensor(sensorEvent.getSensor()));
 		previousSensorEvent = sensorEvent;
 
 		// Always log the new event
@@ -61,6 +163,140 @@ public class EmerigenSensorEventListener implements SensorEventListener {
 		return predictions;
 	}
 
+	/**
+	 * Invoke the given listeners for the event according to the dispatch mode
+	 *
+	 * @return the distinct predictions of all listeners that completed in time
+	 */
+	List<Prediction> dispatch(SensorEvent sensorEvent,
+			List<SensorEventListener> registeredListeners) {
+		Set<Prediction> distinctPredictions = new HashSet<Prediction>();
+		List<SensorEventListener> recognizers = new ArrayList<SensorEventListener>(
+				registeredListeners.size());
+		for (SensorEventListener sensorEventListener : registeredListeners) {
+			if (!(sensorEventListener instanceof EmerigenSensorEventListener))
+				recognizers.add(sensorEventListener);
+		}
+
+		if (dispatchMode == DispatchMode.PARALLEL && recognizers.size() > 1) {
+			dispatchInParallel(sensorEvent, recognizers, distinctPredictions);
+		} else {
+			boolean exclusive = dispatchMode == DispatchMode.PARALLEL;
+			for (SensorEventListener sensorEventListener : recognizers) {
+				if (exclusive && !runningListeners.add(sensorEventListener)) {
+					dropStillRunning(1, sensorEvent);
+					continue;
+				}
+				try {
+					List<Prediction> newPredictions = sensorEventListener
+							.onSensorChanged(sensorEvent);
+					if (newPredictions != null)
+						distinctPredictions.addAll(newPredictions);
+				} catch (RuntimeException e) {
+					logFailure(sensorEventListener, sensorEvent, e);
+				} finally {
+					if (exclusive)
+						runningListeners.remove(sensorEventListener);
+				}
+			}
+		}
+		return new ArrayList<Prediction>(distinctPredictions);
+	}
+
+	private void dispatchInParallel(SensorEvent sensorEvent,
+			List<SensorEventListener> recognizers, Set<Prediction> distinctPredictions) {
+		ThreadPoolExecutor executor = DispatchExecutorHolder.executor;
+		BlockingQueue<DispatchTask> completionQueue = new LinkedBlockingQueue<DispatchTask>();
+		List<DispatchTask> tasks = new ArrayList<DispatchTask>(recognizers.size());
+		int rejected = 0;
+		int stillRunning = 0;
+		for (SensorEventListener sensorEventListener : recognizers) {
+			if (!runningListeners.add(sensorEventListener)) {
+				stillRunning++;
+				continue;
+			}
+			DispatchTask task = new DispatchTask(sensorEventListener, sensorEvent,
+					completionQueue);
+			try {
+				executor.execute(task);
+				tasks.add(task);
+			} catch (RejectedExecutionException e) {
+				runningListeners.remove(sensorEventListener);
+				rejected++;
+			}
+		}
+		if (stillRunning > 0)
+			dropStillRunning(stillRunning, sensorEvent);
+		if (rejected > 0) {
+			droppedListenerResults.addAndGet(rejected);
+			logger.warn(rejected + " listeners were rejected by the full dispatch queue"
+					+ " for sensor event " + sensorEvent.getKey());
+		}
+
+		// Merge predictions as they complete, until all are done or time is up
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+		int completed = 0;
+		try {
+			while (completed < tasks.size()) {
+				DispatchTask task = completionQueue.poll(deadline - System.nanoTime(),
+						TimeUnit.NANOSECONDS);
+				if (task == null)
+					break;
+				completed++;
+				try {
+					List<Prediction> newPredictions = task.get();
+					if (newPredictions != null)
+						distinctPredictions.addAll(newPredictions);
+				} catch (ExecutionException e) {
+					logFailure(task.sensorEventListener, sensorEvent, e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		// Drop late listeners. Queued ones never run; running ones are left to
+		// finish their own work.
+		if (completed < tasks.size()) {
+			int dropped = tasks.size() - completed;
+			droppedListenerResults.addAndGet(dropped);
+			for (DispatchTask task : tasks) {
+				if (task.cancel(false) && executor.remove(task))
+					runningListeners.remove(task.sensorEventListener);
+			}
+			logger.warn(dropped + " listeners missed the " + deadlineMillis
+					+ " millisecond deadline for sensor event " + sensorEvent.getKey());
+		}
+	}
+
+	private void dropStillRunning(int stillRunning, SensorEvent sensorEvent) {
+		droppedListenerResults.addAndGet(stillRunning);
+		logger.warn(stillRunning + " listeners were still running for an earlier event"
+				+ " and were skipped for sensor event " + sensorEvent.getKey());
+	}
+
+	private static void logFailure(SensorEventListener sensorEventListener,
+			SensorEvent sensorEvent, Throwable cause) {
+		logger.warn("Listener " + sensorEventListener + " failed for sensor event "
+				+ sensorEvent.getKey() + ", skipping it", cause);
+	}
+
+	/**
+	 * @return the dispatchMode
+	 */
+	public DispatchMode getDispatchMode() {
+		return dispatchMode;
+	}
+
+	/**
+	 * @return the number of listener results dropped because they missed the
+	 *         deadline, did not fit in the dispatch queue or were still running
+	 *         for an earlier event
+	 */
+	public long getDroppedListenerResults() {
+		return droppedListenerResults.get();
+	}
+
 	@Override
 	public void onPause() {
 
@@ -0,0 +1,43 @@
+package com.emerigen.infrastructure.sensor;
+
+/**
+ * Controls what the SensorEventIngestionEngine does with a sensor event whose
+ * shard queue is full.
+ * 
+ * @author Larry
+ *
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * Block the submitting thread until the shard has room for the event
+	 */
+	BLOCK,
+
+	/**
+	 * Reject the submitted event, keeping the events already queued
+	 */
+	DROP_NEWEST,
+
+	/**
+	 * Discard the oldest queued event of the shard to make room for the
+	 * submitted event
+	 */
+	DROP_OLDEST;
+
+	/**
+	 * @param name the case-insensitive name of the policy
+	 * @return the matching policy
+	 */
+	public static OverflowPolicy fromString(String name) {
+		if (name == null || name.isEmpty())
+			throw new IllegalArgumentException("overflow policy must not be null or empty");
+		try {
+			return OverflowPolicy.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(
+					"overflow policy must be block, drop_newest or drop_oldest, but was ("
+							+ name + ")");
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.emerigen.infrastructure.sensor;
+
+import java.nio.file.Path;
+
+import com.emerigen.infrastructure.utils.Histogram;
+
+/**
+ * The outcome of replaying one recorded stream through a SensorEventListener
+ *
+ * @author Larry
+ *
+ */
+public class ReplayReport {
+
+	private final Path path;
+	private final long replayedEvents;
+	private final long skippedRecords;
+	private final long failedEvents;
+	private final long elapsedNanos;
+	private final Histogram latencyNanos;
+	private final Histogram throughputPerSecond;
+
+	public ReplayReport(Path path, long replayedEvents, long skippedRecords,
+			long failedEvents, long elapsedNanos, Histogram latencyNanos,
+			Histogram throughputPerSecond) {
+		this.path = path;
+		this.replayedEvents = replayedEvents;
+		this.skippedRecords = skippedRecords;
+		this.failedEvents = failedEvents;
+		this.elapsedNanos = elapsedNanos;
+		this.latencyNanos = latencyNanos;
+		this.throughputPerSecond = throughputPerSecond;
+	}
+
+	/**
+	 * @return the replayed file
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the number of events delivered to the listener
+	 */
+	public long getReplayedEvents() {
+		return replayedEvents;
+	}
+
+	/**
+	 * @return the number of non-blank records that were not numeric, ie headers
+	 */
+	public long getSkippedRecords() {
+		return skippedRecords;
+	}
+
+	/**
+	 * @return the number of events the listener threw an exception for
+	 */
+	public long getFailedEvents() {
+		return failedEvents;
+	}
+
+	/**
+	 * @return the wall clock time the replay took
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return the mean number of events replayed per second
+	 */
+	public double getEventsPerSecond() {
+		return elapsedNanos == 0 ? 0.0 : replayedEvents * 1.0e9 / elapsedNanos;
+	}
+
+	/**
+	 * @return the time from when each event was due until the listener returned
+	 */
+	public Histogram getLatencyNanos() {
+		return latencyNanos;
+	}
+
+	/**
+	 * @return the number of events replayed in each second of the replay
+	 */
+	public Histogram getThroughputPerSecond() {
+		return throughputPerSecond;
+	}
+
+	@Override
+	public String toString() {
+		return "ReplayReport [path=" + path + ", replayedEvents=" + replayedEvents
+				+ ", skippedRecords=" + skippedRecords + ", failedEvents=" + failedEvents
+				+ ", elapsedNanos=" + elapsedNanos + ", eventsPerSecond="
+				+ String.format("%.1f", getEventsPerSecond()) + ", latencyNanos="
+				+ latencyNanos + ", throughputPerSecond=" + throughputPerSecond + "]";
+	}
+
+}
@@ -74,6 +74,8 @@ public class Sensor {
 	private String locationName;
 	@JsonIgnore
 	private String typeName;
+	@JsonIgnore
+	private boolean frozen = false;
 
 	private static final Logger logger = Logger.getLogger(Sensor.class);
 
@@ -175,6 +177,7 @@ public class Sensor {
 	 */
 	public boolean activate() {
 		// TODO figure what should happen for sensor activation
+		checkNotFrozen();
 		this.activated = true;
 		return true;
 	}
@@ -185,6 +188,7 @@ public class Sensor {
 	 */
 	public boolean deactivate() {
 		// TODO figure what should happen for sensor deactivation
+		checkNotFrozen();
 		this.activated = false;
 		return true;
 	}
@@ -248,6 +252,22 @@ public class Sensor {
 		return sensorLocation;
 	}
 
+	/**
+	 * @return a stable id made of the sensor type and location. Unlike hashCode()
+	 *         it does not change when the sensor is reconfigured.
+	 */
+	@JsonIgnore
+	public int getSensorId() {
+		return sensorId(sensorType, sensorLocation);
+	}
+
+	/**
+	 * @return the sensor id for the given sensor type and location
+	 */
+	public static int sensorId(int sensorType, int sensorLocation) {
+		return (sensorType << 16) | (sensorLocation & 0xFFFF);
+	}
+
 	/**
 	 * @return the minimumDelayBetweenReadings
 	 */
@@ -338,6 +358,7 @@ public class Sensor {
 	 * @param reportingMode the reportingMode to set
 	 */
 	public void setReportingMode(int reportingMode) {
+		checkNotFrozen();
 		this.reportingMode = reportingMode;
 	}
 
@@ -345,6 +366,7 @@ public class Sensor {
 	 * @param wakeUpSensor the wakeUpSensor to set
 	 */
 	public void setWakeUpSensor(boolean wakeUpSensor) {
+		checkNotFrozen();
 		this.wakeUpSensor = wakeUpSensor;
 	}
 
@@ -352,6 +374,7 @@ public class Sensor {
 	 * @param locationName the locationName to set
 	 */
 	public void setLocationName(String locationName) {
+		checkNotFrozen();
 		this.locationName = locationName;
 	}
 
@@ -366,6 +389,7 @@ public class Sensor {
 	 * @param type the type to set
 	 */
 	public void setType(String type) {
+		checkNotFrozen();
 		this.type = type;
 	}
 
@@ -373,6 +397,7 @@ public class Sensor {
 	 * @param minimumDelayBetweenReadings the minimumDelayBetweenReadings to set
 	 */
 	public void setMinimumDelayBetweenReadings(long minimumDelayBetweenReadings) {
+		checkNotFrozen();
 		this.minimumDelayBetweenReadings = minimumDelayBetweenReadings;
 	}
 
@@ -380,6 +405,7 @@ public class Sensor {
 	 * @param activated the activated to set
 	 */
 	public void setActivated(boolean activated) {
+		checkNotFrozen();
 		this.activated = activated;
 	}
 
@@ -387,6 +413,7 @@ public class Sensor {
 	 * @param sensorType the sensorType to set
 	 */
 	public void setSensorType(int sensorType) {
+		checkNotFrozen();
 		this.sensorType = sensorType;
 	}
 
@@ -394,6 +421,29 @@ public class Sensor {
 	 * @param sensorLocation the sensorLocation to set
 	 */
 	public void setSensorLocation(int sensorLocation) {
+		checkNotFrozen();
 		this.sensorLocation = sensorLocation;
 	}
+
+	/**
+	 * Make this sensor immutable. Interned sensors are frozen before they are
+	 * shared, see SensorRegistry.
+	 */
+	void freeze() {
+		this.frozen = true;
+	}
+
+	/**
+	 * @return true if this sensor is shared and may no longer be modified
+	 */
+	@JsonIgnore
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	private void checkNotFrozen() {
+		if (frozen)
+			throw new IllegalStateException(
+					"Sensor " + getSensorId() + " is shared and must not be modified");
+	}
 }
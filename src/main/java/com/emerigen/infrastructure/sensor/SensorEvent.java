@@ -66,6 +66,20 @@ public class SensorEvent {
 	 */
 	private float[] values = null;
 
+	/**
+	 * Marks the SensorEventKey as not yet computed. A key that happens to equal
+	 * it is simply recomputed on every use.
+	 */
+	private static final long NO_SENSOR_EVENT_KEY = -1L;
+
+	/**
+	 * The packed SensorEventKey, computed on first use and reset whenever the
+	 * sensor or values change. A single field checked against a sentinel, so a
+	 * thread sees either the sentinel or a complete key (racy single-check); it
+	 * is volatile since writes of a long are not otherwise atomic.
+	 */
+	private volatile long sensorEventKey = NO_SENSOR_EVENT_KEY;
+
 	private long defaultDataPointDurationNano = Long.parseLong(EmerigenProperties
 			.getInstance().getValue("cycle.default.data.point.duration.nano"));
 
@@ -86,9 +100,27 @@ public class SensorEvent {
 		this.dataPointDurationNano = defaultDataPointDurationNano;
 	}
 
+	/**
+	 * @return the String form of the key, for use as a document id or
+	 *         firstSensorEventKey
+	 */
 	@JsonIgnore
 	public String getKey() {
-		return "" + sensor.getSensorType() + sensor.getSensorLocation() + getValuesHashCode();
+		return SensorEventKey.toString(getSensorEventKey());
+	}
+
+	/**
+	 * @return the packed SensorEventKey of this event
+	 */
+	@JsonIgnore
+	public long getSensorEventKey() {
+		long key = sensorEventKey;
+		if (key == NO_SENSOR_EVENT_KEY) {
+			key = SensorEventKey.of(sensor.getSensorType(), sensor.getSensorLocation(),
+					values);
+			sensorEventKey = key;
+		}
+		return key;
 	}
 
 	public float[] getValues() {
@@ -134,13 +166,6 @@ public class SensorEvent {
 		return result;
 	}
 
-	private long getValuesHashCode() {
-		final int prime = 31;
-		long result = 1;
-		result = prime * result + Arrays.hashCode(values);
-		return result;
-	}
-
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj)
@@ -188,6 +213,7 @@ public class SensorEvent {
 	 */
 	public void setSensor(Sensor sensor) {
 		this.sensor = sensor;
+		this.sensorEventKey = NO_SENSOR_EVENT_KEY;
 	}
 
 	/**
@@ -209,6 +235,7 @@ public class SensorEvent {
 	 */
 	public void setValues(float[] values) {
 		this.values = values;
+		this.sensorEventKey = NO_SENSOR_EVENT_KEY;
 	}
 
 	/**
@@ -0,0 +1,266 @@
+package com.emerigen.infrastructure.sensor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.emerigen.infrastructure.utils.EmerigenProperties;
+
+/**
+ * Accepts sensor events from any number of threads and processes them on a fixed
+ * set of single-threaded shards.
+ *
+ * Every event of a sensor, identified by its sensor type and location, is routed
+ * to the same shard and processed in submission order by that shard's thread.
+ * The recognizers registered for a sensor therefore only ever see that sensor's
+ * events one at a time and in order, while events of different sensors are
+ * processed concurrently across the shards.
+ *
+ * Each shard has a bounded queue. When it is full the OverflowPolicy decides
+ * whether the submitting thread blocks, the new event is dropped, or the oldest
+ * queued event is dropped to make room.
+ *
+ * On shutdown the shards stop only once no submit is still in progress and
+ * their queues are empty, so every event accepted is processed.
+ *
+ * @author Larry
+ *
+ */
+public class SensorEventIngestionEngine {
+
+	private static final Logger logger = Logger.getLogger(SensorEventIngestionEngine.class);
+	private static final long POLL_INTERVAL_MILLIS = 100;
+
+	private final SensorEventListener sensorEventListener;
+	private final OverflowPolicy overflowPolicy;
+	private final Shard[] shards;
+	private volatile boolean shutdown = false;
+
+	// Submits that passed the shutdown check and may not have queued their event yet
+	private final AtomicInteger submitsInProgress = new AtomicInteger();
+
+	/**
+	 * A single-threaded lane with its own queue and counters
+	 */
+	private class Shard implements Runnable {
+		private final int shardIndex;
+		private final BlockingQueue<SensorEvent> queue;
+		private final Thread thread;
+		private final AtomicLong acceptedEvents = new AtomicLong();
+		private final AtomicLong processedEvents = new AtomicLong();
+		private final AtomicLong droppedEvents = new AtomicLong();
+		private final AtomicLong failedEvents = new AtomicLong();
+		private final AtomicLong totalProcessingNanos = new AtomicLong();
+
+		Shard(int shardIndex, int queueCapacity) {
+			this.shardIndex = shardIndex;
+			this.queue = new ArrayBlockingQueue<SensorEvent>(queueCapacity);
+			this.thread = new Thread(this, "sensor-ingestion-" + shardIndex);
+			this.thread.setDaemon(true);
+		}
+
+		boolean offer(SensorEvent sensorEvent) {
+			switch (overflowPolicy) {
+			case BLOCK:
+				try {
+					queue.put(sensorEvent);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					droppedEvents.incrementAndGet();
+					return false;
+				}
+				break;
+			case DROP_NEWEST:
+				if (!queue.offer(sensorEvent)) {
+					droppedEvents.incrementAndGet();
+					return false;
+				}
+				break;
+			case DROP_OLDEST:
+				while (!queue.offer(sensorEvent)) {
+					if (queue.poll() != null)
+						droppedEvents.incrementAndGet();
+				}
+				break;
+			}
+			acceptedEvents.incrementAndGet();
+			return true;
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				SensorEvent sensorEvent;
+				try {
+					sensorEvent = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				if (sensorEvent == null) {
+					if (shutdown && submitsInProgress.get() == 0 && queue.isEmpty())
+						return;
+					continue;
+				}
+				process(sensorEvent);
+			}
+		}
+
+		private void process(SensorEvent sensorEvent) {
+			long start = System.nanoTime();
+			try {
+				sensorEventListener.onSensorChanged(sensorEvent);
+			} catch (RuntimeException e) {
+				failedEvents.incrementAndGet();
+				logger.error("Shard " + shardIndex + " failed to process sensor event "
+						+ sensorEvent, e);
+			} finally {
+				totalProcessingNanos.addAndGet(System.nanoTime() - start);
+				processedEvents.incrementAndGet();
+			}
+		}
+
+		ShardMetrics getMetrics() {
+			return new ShardMetrics(shardIndex, acceptedEvents.get(),
+					processedEvents.get(), droppedEvents.get(), failedEvents.get(),
+					queue.size(), totalProcessingNanos.get());
+		}
+	}
+
+	/**
+	 * Create an engine that delivers events to a new EmerigenSensorEventListener,
+	 * configured from the sensor.ingestion properties. A shard count of zero uses
+	 * one shard per available processor.
+	 */
+	public SensorEventIngestionEngine() {
+		this(new EmerigenSensorEventListener(),
+				Integer.parseInt(EmerigenProperties.getInstance()
+						.getValue("sensor.ingestion.shards")),
+				Integer.parseInt(EmerigenProperties.getInstance()
+						.getValue("sensor.ingestion.queue.capacity")),
+				OverflowPolicy.fromString(EmerigenProperties.getInstance()
+						.getValue("sensor.ingestion.overflow.policy")));
+	}
+
+	/**
+	 * @param sensorEventListener the listener each shard delivers its events to
+	 * @param shardCount          the number of shards, or zero for one per
+	 *                            available processor
+	 * @param queueCapacity       the maximum number of events queued per shard
+	 * @param overflowPolicy      what to do with an event whose shard is full
+	 */
+	public SensorEventIngestionEngine(SensorEventListener sensorEventListener,
+			int shardCount, int queueCapacity, OverflowPolicy overflowPolicy) {
+		if (sensorEventListener == null)
+			throw new IllegalArgumentException("sensorEventListener must not be null");
+		if (shardCount < 0)
+			throw new IllegalArgumentException("shardCount must not be negative");
+		if (queueCapacity <= 0)
+			throw new IllegalArgumentException("queueCapacity must be positive");
+		if (overflowPolicy == null)
+			throw new IllegalArgumentException("overflowPolicy must not be null");
+
+		this.sensorEventListener = sensorEventListener;
+		this.overflowPolicy = overflowPolicy;
+		if (shardCount == 0)
+			shardCount = Runtime.getRuntime().availableProcessors();
+
+		shards = new Shard[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new Shard(i, queueCapacity);
+			shards[i].thread.start();
+		}
+		logger.info("Started " + shardCount + " ingestion shards with queue capacity "
+				+ queueCapacity + " and overflow policy " + overflowPolicy);
+	}
+
+	/**
+	 * Queue the event on its sensor's shard
+	 *
+	 * @return true if the event was queued, false if the overflow policy dropped
+	 *         it
+	 */
+	public boolean submit(SensorEvent sensorEvent) {
+		if (sensorEvent == null)
+			throw new IllegalArgumentException("sensorEvent must not be null");
+		if (sensorEvent.getSensor() == null)
+			throw new IllegalArgumentException("sensorEvent sensor must not be null");
+
+		// Announce the submit before checking for shutdown, so a shard that sees no
+		// submit in progress after shutdown knows no more events can arrive
+		submitsInProgress.incrementAndGet();
+		try {
+			if (shutdown)
+				throw new IllegalStateException("The ingestion engine has been shut down");
+			return shards[getShardIndex(sensorEvent.getSensor())].offer(sensorEvent);
+		} finally {
+			submitsInProgress.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the index of the shard that processes the sensor's events
+	 */
+	public int getShardIndex(Sensor sensor) {
+		int h = sensor.getSensorId();
+		h ^= (h >>> 16);
+		return (h & 0x7fffffff) % shards.length;
+	}
+
+	/**
+	 * Stop accepting events and wait for the shards to process the events already
+	 * queued.
+	 *
+	 * @return true if every shard finished within the timeout
+	 */
+	public boolean shutdown(long timeoutMillis) throws InterruptedException {
+		shutdown = true;
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		for (Shard shard : shards) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining > 0)
+				shard.thread.join(remaining);
+			if (shard.thread.isAlive())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return a snapshot of the counters of each shard
+	 */
+	public List<ShardMetrics> getShardMetrics() {
+		List<ShardMetrics> metrics = new ArrayList<ShardMetrics>(shards.length);
+		for (Shard shard : shards)
+			metrics.add(shard.getMetrics());
+		return metrics;
+	}
+
+	/**
+	 * @return the number of shards
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * @return the overflowPolicy
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * @return true once shutdown has been requested
+	 */
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.emerigen.infrastructure.sensor;
+
+import java.util.Arrays;
+
+/**
+ * The identity of a sensor event packed into a single long, so it can be used
+ * as a map key in caches and indexes without building a String per event:
+ *
+ * <pre>
+ * bits 63-48  sensor type
+ * bits 47-32  sensor location
+ * bits 31-0   values fingerprint (Arrays.hashCode of the values)
+ * </pre>
+ *
+ * The fingerprint only depends on the float bits of the values, so it is
+ * stable across runs and JVMs. Two events with the same type, location and
+ * values always have the same key.
+ *
+ * The String form, used as document id and firstSensorEventKey at the
+ * persistence boundary, is produced by toString(long) and is identical to the
+ * key previously built by SensorEvent.getKey(), so existing documents are
+ * still found.
+ *
+ * @author Larry
+ *
+ */
+public final class SensorEventKey {
+
+	private static final int MAX_SENSOR_FIELD = 0xFFFF;
+
+	private SensorEventKey() {
+	}
+
+	/**
+	 * @param sensorType     the sensor type, 0 to 65535
+	 * @param sensorLocation the sensor location, 0 to 65535
+	 * @param values         the sensor event values
+	 * @return the packed key
+	 */
+	public static long of(int sensorType, int sensorLocation, float[] values) {
+		if (sensorType < 0 || sensorType > MAX_SENSOR_FIELD)
+			throw new IllegalArgumentException(
+					"sensorType must be between 0 and 65535, but was (" + sensorType + ")");
+		if (sensorLocation < 0 || sensorLocation > MAX_SENSOR_FIELD)
+			throw new IllegalArgumentException(
+					"sensorLocation must be between 0 and 65535, but was ("
+							+ sensorLocation + ")");
+		if (values == null)
+			throw new IllegalArgumentException("values must not be null");
+
+		return ((long) sensorType << 48) | ((long) sensorLocation << 32)
+				| (Arrays.hashCode(values) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param sensorEvent the sensor event
+	 * @return the packed key of the sensor event
+	 */
+	public static long of(SensorEvent sensorEvent) {
+		if (sensorEvent == null)
+			throw new IllegalArgumentException("sensorEvent must not be null");
+		return of(sensorEvent.getSensorType(), sensorEvent.getSensorLocation(),
+				sensorEvent.getValues());
+	}
+
+	/**
+	 * @return the sensor type of the key
+	 */
+	public static int getSensorType(long key) {
+		return (int) (key >>> 48);
+	}
+
+	/**
+	 * @return the sensor location of the key
+	 */
+	public static int getSensorLocation(long key) {
+		return (int) (key >>> 32) & MAX_SENSOR_FIELD;
+	}
+
+	/**
+	 * @return the values fingerprint of the key
+	 */
+	public static int getValuesFingerprint(long key) {
+		return (int) key;
+	}
+
+	/**
+	 * @param key the packed key
+	 * @return the String form of the key used in persisted documents
+	 */
+	public static String toString(long key) {
+		return new StringBuilder(24).append(getSensorType(key))
+				.append(getSensorLocation(key)).append(31L + getValuesFingerprint(key))
+				.toString();
+	}
+}
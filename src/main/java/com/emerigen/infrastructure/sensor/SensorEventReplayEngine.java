@@ -0,0 +1,426 @@
+package com.emerigen.infrastructure.sensor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import com.emerigen.infrastructure.utils.EmerigenProperties;
+import com.emerigen.infrastructure.utils.Histogram;
+
+/**
+ * Replays a recorded stream of sensor events, ie months of history in a CSV
+ * file, through a SensorEventListener. Replaying through an
+ * EmerigenSensorEventListener drives the full recognizer stack, so the
+ * knowledge can be re-learned offline or the stack load tested.
+ *
+ * Each line of the file holds the values of one event of the replayed sensor,
+ * separated by commas, optionally preceded by its timestamp in nanoseconds.
+ * Blank lines and lines starting with # are ignored; other lines that are not
+ * numeric, such as a header, are skipped and counted. Without timestamps the
+ * events are spaced sampleIntervalNano apart from the start of the replay.
+ *
+ * The file is memory mapped chunkSize bytes at a time and the values are
+ * parsed straight from the mapped bytes, so no line is copied into a String.
+ * Recognizers keep references to the events they learn, so a new SensorEvent
+ * is created per record; listeners that do not keep events, such as a load
+ * test sink, can set reuseEvents to deliver one refilled instance instead.
+ *
+ * A timeScale of 0 replays as fast as possible. Otherwise events are delivered
+ * at their recorded pace divided by timeScale (1.0 is real time, 60.0 replays
+ * an hour per minute), and the latency of an event is measured from when it
+ * was due rather than from when it was delivered, so a listener that falls
+ * behind shows up in the latency histogram.
+ *
+ * @author Larry
+ *
+ */
+public class SensorEventReplayEngine {
+
+	private static final int MAX_VALUES = 64;
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6,
+			1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19,
+			1e20, 1e21, 1e22 };
+	private static final Logger logger = Logger.getLogger(SensorEventReplayEngine.class);
+
+	private final SensorEventListener listener;
+	private final Sensor sensor;
+	private final boolean timestamped;
+	private final long sampleIntervalNano;
+	private final double timeScale;
+	private final int chunkSize;
+	private final boolean reuseEvents;
+	private final long defaultDataPointDurationNano = Long.parseLong(EmerigenProperties
+			.getInstance().getValue("cycle.default.data.point.duration.nano"));
+
+	// The state of the replay in progress
+	private final float[] values = new float[MAX_VALUES];
+	private final float[][] reusedValuesPerLength = new float[MAX_VALUES + 1][];
+	private SensorEvent reusedSensorEvent;
+	private Histogram latencyNanos;
+	private Histogram throughputPerSecond;
+	private long replayedEvents;
+	private long skippedRecords;
+	private long failedEvents;
+	private long firstTimestamp;
+	private long replayStartNano;
+	private long windowStartNano;
+	private long windowEvents;
+
+	/**
+	 * Create an engine configured by the sensor.replay properties
+	 *
+	 * @param listener the listener the events are replayed through
+	 * @param sensor   the sensor that recorded the events
+	 */
+	public SensorEventReplayEngine(SensorEventListener listener, Sensor sensor) {
+		this(listener, sensor,
+				Boolean.parseBoolean(
+						EmerigenProperties.getInstance().getValue("sensor.replay.timestamped")),
+				Long.parseLong(EmerigenProperties.getInstance()
+						.getValue("sensor.replay.sample.interval.nano")),
+				Double.parseDouble(
+						EmerigenProperties.getInstance().getValue("sensor.replay.time.scale")),
+				Integer.parseInt(EmerigenProperties.getInstance()
+						.getValue("sensor.replay.chunk.size.bytes")),
+				Boolean.parseBoolean(EmerigenProperties.getInstance()
+						.getValue("sensor.replay.reuse.events")));
+	}
+
+	/**
+	 * @param listener           the listener the events are replayed through
+	 * @param sensor             the sensor that recorded the events
+	 * @param timestamped        true if each line starts with the event timestamp
+	 *                           in nanoseconds
+	 * @param sampleIntervalNano the spacing of events without timestamps
+	 * @param timeScale          0 to replay as fast as possible, otherwise the
+	 *                           speed up over the recorded pace
+	 * @param chunkSize          the number of bytes mapped at a time, which must
+	 *                           exceed the longest line
+	 * @param reuseEvents        true to deliver one refilled SensorEvent instance
+	 */
+	public SensorEventReplayEngine(SensorEventListener listener, Sensor sensor,
+			boolean timestamped, long sampleIntervalNano, double timeScale,
+			int chunkSize, boolean reuseEvents) {
+		if (listener == null)
+			throw new IllegalArgumentException("listener must not be null");
+		if (sensor == null)
+			throw new IllegalArgumentException("sensor must not be null");
+		if (sampleIntervalNano <= 0)
+			throw new IllegalArgumentException("sampleIntervalNano must be positive");
+		if (timeScale < 0.0 || Double.isNaN(timeScale) || Double.isInfinite(timeScale))
+			throw new IllegalArgumentException(
+					"timeScale must be 0 or positive, but was " + timeScale);
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("chunkSize must be positive");
+
+		this.listener = listener;
+		this.sensor = sensor;
+		this.timestamped = timestamped;
+		this.sampleIntervalNano = sampleIntervalNano;
+		this.timeScale = timeScale;
+		this.chunkSize = chunkSize;
+		this.reuseEvents = reuseEvents;
+	}
+
+	/**
+	 * Replay every event recorded in the file through the listener
+	 *
+	 * @param path the recorded stream
+	 * @return the counts, throughput and latency of the replay
+	 * @throws IOException if the file cannot be read
+	 */
+	public synchronized ReplayReport replay(Path path) throws IOException {
+		if (path == null)
+			throw new IllegalArgumentException("path must not be null");
+
+		latencyNanos = new Histogram();
+		throughputPerSecond = new Histogram();
+		replayedEvents = 0;
+		skippedRecords = 0;
+		failedEvents = 0;
+		firstTimestamp = Long.MIN_VALUE;
+		reusedSensorEvent = null;
+		replayStartNano = System.nanoTime();
+		windowStartNano = replayStartNano;
+		windowEvents = 0;
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long position = 0;
+			while (position < size) {
+				long length = Math.min(chunkSize, size - position);
+				boolean lastChunk = position + length == size;
+				MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY,
+						position, length);
+				int consumed = replayChunk(chunk, lastChunk);
+				if (consumed == 0)
+					throw new IllegalStateException("line at byte " + position + " of "
+							+ path + " is longer than the chunk size (" + chunkSize + ")");
+				position += consumed;
+			}
+		}
+
+		long completedNano = System.nanoTime();
+		long elapsedNanos = completedNano - replayStartNano;
+		if (windowEvents > 0)
+			throughputPerSecond.record(windowEvents * NANOS_PER_SECOND
+					/ Math.max(1, completedNano - windowStartNano));
+		ReplayReport report = new ReplayReport(path, replayedEvents, skippedRecords,
+				failedEvents, elapsedNanos, latencyNanos, throughputPerSecond);
+		logger.info("Replayed " + report);
+		return report;
+	}
+
+	/**
+	 * Replay the complete lines of the chunk
+	 *
+	 * @return the number of bytes consumed, up to the end of the last complete
+	 *         line
+	 */
+	private int replayChunk(MappedByteBuffer chunk, boolean lastChunk) {
+		int limit = chunk.limit();
+		int lineStart = 0;
+		for (int i = 0; i < limit; i++) {
+			if (chunk.get(i) == '\n') {
+				replayLine(chunk, lineStart, i);
+				lineStart = i + 1;
+			}
+		}
+		if (lastChunk && lineStart < limit) {
+			replayLine(chunk, lineStart, limit);
+			lineStart = limit;
+		}
+		return lineStart;
+	}
+
+	private void replayLine(ByteBuffer chunk, int from, int to) {
+		while (from < to && isWhitespace(chunk.get(from)))
+			from++;
+		while (to > from && isWhitespace(chunk.get(to - 1)))
+			to--;
+		if (from == to || chunk.get(from) == '#')
+			return;
+
+		long timestamp = 0;
+		int valueCount = 0;
+		int fieldStart = from;
+		boolean firstField = true;
+		for (int i = from; i <= to; i++) {
+			if (i < to && chunk.get(i) != ',')
+				continue;
+			if (firstField && timestamped) {
+				timestamp = parseWholeNumber(chunk, fieldStart, i);
+				if (timestamp == Long.MIN_VALUE) {
+					skippedRecords++;
+					return;
+				}
+			} else {
+				double value = parseNumber(chunk, fieldStart, i);
+				if (Double.isNaN(value) || valueCount == MAX_VALUES) {
+					skippedRecords++;
+					return;
+				}
+				values[valueCount++] = (float) value;
+			}
+			firstField = false;
+			fieldStart = i + 1;
+		}
+		if (valueCount == 0) {
+			skippedRecords++;
+			return;
+		}
+		if (!timestamped) {
+			if (firstTimestamp == Long.MIN_VALUE)
+				firstTimestamp = System.currentTimeMillis() * 1000000;
+			timestamp = firstTimestamp + (replayedEvents + failedEvents) * sampleIntervalNano;
+		}
+		deliver(valueCount, timestamp);
+	}
+
+	private void deliver(int valueCount, long timestamp) {
+		SensorEvent sensorEvent;
+		if (reuseEvents) {
+			float[] eventValues = reusedValuesPerLength[valueCount];
+			if (eventValues == null) {
+				eventValues = new float[valueCount];
+				reusedValuesPerLength[valueCount] = eventValues;
+			}
+			System.arraycopy(values, 0, eventValues, 0, valueCount);
+			if (reusedSensorEvent == null)
+				reusedSensorEvent = new SensorEvent(sensor, eventValues);
+			else
+				reusedSensorEvent.setValues(eventValues);
+			reusedSensorEvent.setDataPointDurationNano(defaultDataPointDurationNano);
+			sensorEvent = reusedSensorEvent;
+		} else {
+			sensorEvent = new SensorEvent(sensor, Arrays.copyOf(values, valueCount));
+		}
+		sensorEvent.setTimestamp(timestamp);
+
+		// Wait until the event is due at the scaled pace
+		long dueNano;
+		if (timeScale > 0.0) {
+			if (firstTimestamp == Long.MIN_VALUE)
+				firstTimestamp = timestamp;
+			dueNano = replayStartNano + (long) ((timestamp - firstTimestamp) / timeScale);
+			long waitNanos;
+			while ((waitNanos = dueNano - System.nanoTime()) > 0)
+				LockSupport.parkNanos(waitNanos);
+		} else {
+			dueNano = System.nanoTime();
+		}
+
+		try {
+			listener.onSensorChanged(sensorEvent);
+			replayedEvents++;
+		} catch (RuntimeException e) {
+			failedEvents++;
+			logger.debug("Listener failed for replayed event " + sensorEvent, e);
+		}
+		long completedNano = System.nanoTime();
+		latencyNanos.record(Math.max(0, completedNano - dueNano));
+
+		// Close each one second throughput window
+		windowEvents++;
+		if (completedNano - windowStartNano >= NANOS_PER_SECOND) {
+			throughputPerSecond.record(
+					windowEvents * NANOS_PER_SECOND / (completedNano - windowStartNano));
+			windowStartNano = completedNano;
+			windowEvents = 0;
+		}
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+
+	/**
+	 * @return the whole number in the bytes, or Long.MIN_VALUE if they do not
+	 *         hold one
+	 */
+	private static long parseWholeNumber(ByteBuffer chunk, int from, int to) {
+		while (from < to && isWhitespace(chunk.get(from)))
+			from++;
+		while (to > from && isWhitespace(chunk.get(to - 1)))
+			to--;
+		boolean negative = false;
+		if (from < to && (chunk.get(from) == '-' || chunk.get(from) == '+'))
+			negative = chunk.get(from++) == '-';
+		if (from == to)
+			return Long.MIN_VALUE;
+
+		long value = 0;
+		for (int i = from; i < to; i++) {
+			byte b = chunk.get(i);
+			if (b < '0' || b > '9' || value > (Long.MAX_VALUE - (b - '0')) / 10)
+				return Long.MIN_VALUE;
+			value = value * 10 + (b - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * @return the decimal number, with an optional exponent, in the bytes, or NaN
+	 *         if they do not hold one
+	 */
+	private static double parseNumber(ByteBuffer chunk, int from, int to) {
+		while (from < to && isWhitespace(chunk.get(from)))
+			from++;
+		while (to > from && isWhitespace(chunk.get(to - 1)))
+			to--;
+		boolean negative = false;
+		if (from < to && (chunk.get(from) == '-' || chunk.get(from) == '+'))
+			negative = chunk.get(from++) == '-';
+
+		long mantissa = 0;
+		int significantDigits = 0;
+		int exponent = 0;
+		boolean seenDigit = false;
+		boolean seenPoint = false;
+		int i = from;
+		for (; i < to; i++) {
+			byte b = chunk.get(i);
+			if (b >= '0' && b <= '9') {
+				seenDigit = true;
+				if (significantDigits < 18) {
+					mantissa = mantissa * 10 + (b - '0');
+					if (mantissa != 0)
+						significantDigits++;
+					if (seenPoint)
+						exponent--;
+				} else if (!seenPoint) {
+					exponent++;
+				}
+			} else if (b == '.' && !seenPoint) {
+				seenPoint = true;
+			} else {
+				break;
+			}
+		}
+		if (!seenDigit)
+			return Double.NaN;
+
+		if (i < to) {
+			byte b = chunk.get(i++);
+			if (b != 'e' && b != 'E')
+				return Double.NaN;
+			long explicitExponent = parseWholeNumber(chunk, i, to);
+			if (explicitExponent == Long.MIN_VALUE || Math.abs(explicitExponent) > 400)
+				return Double.NaN;
+			exponent += (int) explicitExponent;
+		}
+
+		double value = mantissa;
+		if (exponent > 0)
+			value *= exponent < POWERS_OF_TEN.length ? POWERS_OF_TEN[exponent]
+					: Math.pow(10, exponent);
+		else if (exponent < 0)
+			value /= -exponent < POWERS_OF_TEN.length ? POWERS_OF_TEN[-exponent]
+					: Math.pow(10, -exponent);
+		return negative ? -value : value;
+	}
+
+	/**
+	 * @return the listener
+	 */
+	public SensorEventListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * @return the sensor
+	 */
+	public Sensor getSensor() {
+		return sensor;
+	}
+
+	/**
+	 * @return the timeScale
+	 */
+	public double getTimeScale() {
+		return timeScale;
+	}
+
+	/**
+	 * @return the chunkSize
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @return the reuseEvents
+	 */
+	public boolean isReuseEvents() {
+		return reuseEvents;
+	}
+
+}
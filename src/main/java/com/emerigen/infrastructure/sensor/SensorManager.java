@@ -1,17 +1,23 @@
 package com.emerigen.infrastructure.sensor;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.log4j.Logger;
 
 import com.emerigen.infrastructure.learning.PredictionService;
 import com.emerigen.infrastructure.learning.TransitionPatternRecognizer;
-import com.emerigen.infrastructure.learning.cycle.CyclePatternRecognizer;
+import com.emerigen.infrastructure.learning.cycle.Cycle;
 import com.emerigen.infrastructure.learning.cycle.DailyCycle;
 import com.emerigen.infrastructure.learning.cycle.MonthlyCycle;
+import com.emerigen.infrastructure.learning.cycle.MultiCyclePatternRecognizer;
 import com.emerigen.infrastructure.learning.cycle.WeeklyCycle;
 import com.emerigen.infrastructure.learning.cycle.YearlyCycle;
 import com.emerigen.infrastructure.repository.KnowledgeRepository;
@@ -23,15 +29,24 @@ public class SensorManager {
 			.parseInt(EmerigenProperties.getInstance()
 					.getValue("sensor.default.minimum.delay.between.readings.millis"));
 	private static Logger logger = Logger.getLogger(SensorManager.class);
-	private List<Sensor> allSensors = new ArrayList<Sensor>();
+	private List<Sensor> allSensors = new CopyOnWriteArrayList<Sensor>();
+	private final ConcurrentHashMap<Integer, Sensor> sensorsById = new ConcurrentHashMap<Integer, Sensor>();
+
+	// Sensors whose recognizers are being created, only used while holding the lock
+	private final Map<Integer, Sensor> sensorsBeingCreated = new HashMap<Integer, Sensor>();
 	private PredictionService predictionService = new PredictionService();
 
-	// Enable retrieving all event listeners for a sensor
-	private HashMap<Sensor, List<SensorEventListener>> eventListenersPerSensor = new HashMap<Sensor, List<SensorEventListener>>();
-	private HashMap<Sensor, List<SensorEventListener>> disabledEventListeners;
+	/**
+	 * The event listeners for each sensor, keyed by sensor id. Each list is an
+	 * immutable snapshot that registration replaces rather than modifies, so
+	 * dispatch reads the current snapshot without locking while other threads
+	 * register or unregister listeners.
+	 */
+	private volatile ConcurrentHashMap<Integer, List<SensorEventListener>> eventListenersPerSensor = new ConcurrentHashMap<Integer, List<SensorEventListener>>();
+	private volatile ConcurrentHashMap<Integer, List<SensorEventListener>> disabledEventListeners;
 
 	// Singleton infrastructure
-	private static SensorManager instance;
+	private static volatile SensorManager instance;
 
 	public static SensorManager getInstance() {
 		if (instance == null) {
@@ -55,9 +70,9 @@ public class SensorManager {
 			throw new IllegalArgumentException("predictionService must not be null");
 
 		this.predictionService = new PredictionService();
-		eventListenersPerSensor = new HashMap<Sensor, List<SensorEventListener>>();
+		eventListenersPerSensor = new ConcurrentHashMap<Integer, List<SensorEventListener>>();
 		disabledEventListeners = null;
-		allSensors = new ArrayList<Sensor>();
+		allSensors = new CopyOnWriteArrayList<Sensor>();
 	}
 
 	public SensorManager() {
@@ -78,26 +93,26 @@ public class SensorManager {
 		if (sensor == null)
 			throw new IllegalArgumentException("sensor must not be null");
 
-		List<SensorEventListener> eventListeners = eventListenersPerSensor.get(sensor);
-		if (eventListeners == null) {
+		eventListenersPerSensor.compute(sensor.getSensorId(), (sensorId, eventListeners) -> {
+			if (eventListeners == null) {
 
-			// The listener is not registered to this sensor. Add them
-			eventListeners = new ArrayList<SensorEventListener>();
-			eventListeners.add(listener);
-			eventListenersPerSensor.put(sensor, eventListeners);
-			return true;
-		} else if (!eventListeners.contains(listener)) {
+				// The listener is not registered to this sensor. Add them
+				return Collections.singletonList(listener);
+			} else if (!eventListeners.contains(listener)) {
 
-			// Listener has registration but not for this sensor. Add it
-			eventListeners.add(listener);
-			eventListenersPerSensor.put(sensor, eventListeners);
-			return true;
-		} else {
+				// Listener has registration but not for this sensor. Add it
+				List<SensorEventListener> newEventListeners = new ArrayList<SensorEventListener>(
+						eventListeners.size() + 1);
+				newEventListeners.addAll(eventListeners);
+				newEventListeners.add(listener);
+				return Collections.unmodifiableList(newEventListeners);
+			} else {
 
-			// Registration already exists
-			return true;
-		}
-//		return true;
+				// Registration already exists
+				return eventListeners;
+			}
+		});
+		return true;
 	}
 
 	/**
@@ -114,18 +129,22 @@ public class SensorManager {
 		if (listener == null)
 			throw new IllegalArgumentException("listener must not be null");
 
-		List<SensorEventListener> eventListeners = eventListenersPerSensor.get(sensor);
-		if (!eventListeners.contains(listener)) {
-
-			// Listener was not registered to the given sensor
-			return true;
-		} else {
-
-			// Remove registration for given sensor
-			eventListeners.remove(listener);
-			eventListenersPerSensor.put(sensor, eventListeners);
-			return true;
-		}
+		eventListenersPerSensor.computeIfPresent(sensor.getSensorId(),
+				(sensorId, eventListeners) -> {
+					if (!eventListeners.contains(listener)) {
+
+						// Listener was not registered to the given sensor
+						return eventListeners;
+					} else {
+
+						// Remove registration for given sensor
+						List<SensorEventListener> newEventListeners = new ArrayList<SensorEventListener>(
+								eventListeners);
+						newEventListeners.remove(listener);
+						return Collections.unmodifiableList(newEventListeners);
+					}
+				});
+		return true;
 	}
 
 	/**
@@ -138,36 +157,29 @@ public class SensorManager {
 		if (sensor == null)
 			throw new IllegalArgumentException("sensor must not be null");
 
-		List<SensorEventListener> patternRecognizers = KnowledgeRepository.getInstance()
-				.getPatternRecognizersForSensor(sensor);
+		List<SensorEventListener> patternRecognizers = new ArrayList<SensorEventListener>();
 
 		/**
-		 * Add all cycle pattern recognizer types for each sensor
+		 * Recognize every cycle type for each sensor with a single recognizer, using
+		 * the learned cycles where they exist and new cycles otherwise
 		 */
-		// Daily
-		DailyCycle dailyCycle = new DailyCycle(sensor.getSensorType(), sensor.getSensorLocation());
-		CyclePatternRecognizer cpr = new CyclePatternRecognizer(dailyCycle, sensor,
-				new PredictionService(sensor));
-		patternRecognizers.add(cpr);
-
-		// Weekly
-		WeeklyCycle weeklyCycle = new WeeklyCycle(sensor.getSensorType(), sensor.getSensorLocation());
-		cpr = new CyclePatternRecognizer(weeklyCycle, sensor,
-				new PredictionService(sensor));
-		patternRecognizers.add(cpr);
-
-		// Monthly
-		MonthlyCycle monthlyCycle = new MonthlyCycle(sensor.getSensorType(),
-				sensor.getSensorLocation());
-		cpr = new CyclePatternRecognizer(monthlyCycle, sensor,
-				new PredictionService(sensor));
-		patternRecognizers.add(cpr);
-
-		// Yearly
-		YearlyCycle yearlyCycle = new YearlyCycle(sensor.getSensorType(), sensor.getSensorLocation());
-		cpr = new CyclePatternRecognizer(yearlyCycle, sensor,
-				new PredictionService(sensor));
-		patternRecognizers.add(cpr);
+		List<Cycle> cycles = new ArrayList<Cycle>(
+				KnowledgeRepository.getInstance().getCyclesForSensor(sensor));
+		Set<String> learnedCycleTypes = new HashSet<String>();
+		for (Cycle cycle : cycles)
+			learnedCycleTypes.add(cycle.getCycleType());
+
+		if (!learnedCycleTypes.contains("Daily"))
+			cycles.add(new DailyCycle(sensor.getSensorType(), sensor.getSensorLocation()));
+		if (!learnedCycleTypes.contains("Weekly"))
+			cycles.add(new WeeklyCycle(sensor.getSensorType(), sensor.getSensorLocation()));
+		if (!learnedCycleTypes.contains("Monthly"))
+			cycles.add(
+					new MonthlyCycle(sensor.getSensorType(), sensor.getSensorLocation()));
+		if (!learnedCycleTypes.contains("Yearly"))
+			cycles.add(new YearlyCycle(sensor.getSensorType(), sensor.getSensorLocation()));
+		patternRecognizers.add(new MultiCyclePatternRecognizer(cycles, sensor,
+				new PredictionService(sensor)));
 
 		// Add a Transition pattern recognizer to the list for this sensor
 		patternRecognizers.add(
@@ -187,7 +199,8 @@ public class SensorManager {
 			throw new IllegalArgumentException("Sensor must not be null");
 
 		// Return false if the listener is not registered to any sensor.
-		List<SensorEventListener> listeners = eventListenersPerSensor.get(sensor);
+		List<SensorEventListener> listeners = eventListenersPerSensor
+				.get(sensor.getSensorId());
 		if (listeners == null) {
 
 			// Listener is not registered for any sensor
@@ -214,93 +227,102 @@ public class SensorManager {
 	 */
 	public Sensor getDefaultSensorForLocation(int sensorType, int sensorLocation) {
 
-		Sensor sensor;
 		if (sensorType <= 0)
 			throw new IllegalArgumentException("sensorType must be positive");
 		if (sensorLocation <= 0)
 			throw new IllegalArgumentException("sensorLocataion must be positive");
 
-		List<SensorEventListener> listeners;
+		// Return the existing sensor matching type and location
+		Sensor sensor = sensorsById.get(Sensor.sensorId(sensorType, sensorLocation));
+		if (sensor != null)
+			return sensor;
 
-		// Retrieve existing sensors matching type and location
-		List<Sensor> sensors = allSensors.stream().filter(
-				(s) -> (s.getSensorType() == sensorType) && (s.getSensorLocation() == sensorLocation))
-				.collect(Collectors.toList());
+		return createDefaultSensorForLocation(sensorType, sensorLocation);
+	}
 
-		// Return the first located sensor
-		if (!sensors.isEmpty()) {
-			logger.info("Returning existing sensor: " + sensors.get(0));
-			return sensors.get(0);
-		}
+	/**
+	 * Create the default sensor and its pattern recognizers. Creation is
+	 * serialized so that concurrent callers share a single sensor. The sensor is
+	 * published only once its pattern recognizers are registered, so no other
+	 * thread can dispatch its events before they are. Loading the recognizers may
+	 * look the sensor up again; the creating thread holds the lock and finds it
+	 * among the sensors being created.
+	 */
+	private synchronized Sensor createDefaultSensorForLocation(int sensorType,
+			int sensorLocation) {
+
+		int sensorId = Sensor.sensorId(sensorType, sensorLocation);
+		Sensor sensor = sensorsById.get(sensorId);
+		if (sensor == null)
+			sensor = sensorsBeingCreated.get(sensorId);
+		if (sensor != null)
+			return sensor;
+
+		String description;
 
 		switch (sensorType) {
 
 		case Sensor.TYPE_HEART_RATE:
 			sensor = new HeartRateSensor(sensorLocation, Sensor.REPORTING_MODE_CONTINUOUS,
 					false);
-			allSensors.add(sensor);
-			listeners = createPatternRecognizersForSensor(sensor);
-			registerEventListenersForSensor(listeners, sensor);
-			logger.info("Created new Heart Rate sensor");
-			return sensor;
+			description = "Created new Heart Rate sensor";
+			break;
 
 		case Sensor.TYPE_ACCELEROMETER:
 			sensor = new AccelerometerSensor(sensorLocation,
 					Sensor.REPORTING_MODE_CONTINUOUS, SENSOR_DELAY_NORMAL, false);
-			allSensors.add(sensor);
-			listeners = createPatternRecognizersForSensor(sensor);
-			registerEventListenersForSensor(listeners, sensor);
-			logger.info("Creating Accelerometer sensor");
-			return sensor;
+			description = "Creating Accelerometer sensor";
+			break;
 
 		case Sensor.TYPE_SLEEP:
 			sensor = new SleepSensor(sensorLocation, Sensor.REPORTING_MODE_CONTINUOUS,
 					SENSOR_DELAY_NORMAL, false);
-			allSensors.add(sensor);
-			listeners = createPatternRecognizersForSensor(sensor);
-			registerEventListenersForSensor(listeners, sensor);
-			logger.info("Creating Sleep monitoring sensor");
-			return sensor;
+			description = "Creating Sleep monitoring sensor";
+			break;
 
 		case Sensor.TYPE_BLOOD_PRESSURE:
 			sensor = new BloodPressureSensor(sensorLocation,
 					Sensor.REPORTING_MODE_CONTINUOUS, SENSOR_DELAY_NORMAL, false);
-			allSensors.add(sensor);
-			listeners = createPatternRecognizersForSensor(sensor);
-			registerEventListenersForSensor(listeners, sensor);
-			logger.info("Creating blood pressure monitoring sensor");
-			return sensor;
+			description = "Creating blood pressure monitoring sensor";
+			break;
 
 		case Sensor.TYPE_GLUCOSE:
 			sensor = new GlucoseSensor(sensorLocation, Sensor.REPORTING_MODE_CONTINUOUS,
 					SENSOR_DELAY_NORMAL, false);
-			allSensors.add(sensor);
-			listeners = createPatternRecognizersForSensor(sensor);
-			registerEventListenersForSensor(listeners, sensor);
-			logger.info("Creating glucose monitoring sensor");
-			return sensor;
+			description = "Creating glucose monitoring sensor";
+			break;
 
 		case Sensor.TYPE_TEMPERATURE:
 			sensor = new TemperatureSensor(sensorLocation,
 					Sensor.REPORTING_MODE_CONTINUOUS, SENSOR_DELAY_NORMAL, false);
-			allSensors.add(sensor);
-			listeners = createPatternRecognizersForSensor(sensor);
-			registerEventListenersForSensor(listeners, sensor);
-			logger.info("Creating Temperature sensor");
-			return sensor;
+			description = "Creating Temperature sensor";
+			break;
 
 		case Sensor.TYPE_GPS:
 			sensor = new GpsSensor(sensorLocation, Sensor.REPORTING_MODE_CONTINUOUS,
 					SENSOR_DELAY_NORMAL, false);
-			allSensors.add(sensor);
-			listeners = createPatternRecognizersForSensor(sensor);
-			registerEventListenersForSensor(listeners, sensor);
-			logger.info("Creating GPS sensor");
-			return sensor;
+			description = "Creating GPS sensor";
+			break;
 		default:
 			throw new IllegalArgumentException(
 					"Sensor type must be equal to one of the defined constants");
 		}
+
+		sensorsBeingCreated.put(sensorId, sensor);
+		try {
+			registerEventListenersForSensor(createPatternRecognizersForSensor(sensor),
+					sensor);
+		} finally {
+			sensorsBeingCreated.remove(sensorId);
+		}
+		addSensor(sensor);
+		logger.info(description);
+		return sensor;
+	}
+
+	private void addSensor(Sensor sensor) {
+		sensorsById.put(sensor.getSensorId(), sensor);
+		allSensors.add(sensor);
 	}
 
 	private void registerEventListenersForSensor(List<SensorEventListener> listeners,
@@ -316,26 +338,30 @@ public class SensorManager {
 	}
 
 	/**
-	 * @return the eventListenersPerSensor
+	 * @return an immutable snapshot of the listeners registered for the sensor
 	 */
 	public final List<SensorEventListener> getRegistrationsForSensor(Sensor sensor) {
 		if (sensor == null)
 			throw new IllegalArgumentException("sensor must not be null");
 
-		List<SensorEventListener> listeners = eventListenersPerSensor.get(sensor);
+		List<SensorEventListener> listeners = eventListenersPerSensor
+				.get(sensor.getSensorId());
 		if (listeners != null)
 			return listeners;
 		else
-			return new ArrayList<SensorEventListener>();
+			return Collections.emptyList();
 	}
 
-	public void disableListenerRegistrations() {
+	public synchronized void disableListenerRegistrations() {
 		disabledEventListeners = eventListenersPerSensor;
-		eventListenersPerSensor = new HashMap<Sensor, List<SensorEventListener>>();
+		eventListenersPerSensor = new ConcurrentHashMap<Integer, List<SensorEventListener>>();
 	}
 
-	public void enableListenerRegistrations() {
-		eventListenersPerSensor = disabledEventListeners;
+	public synchronized void enableListenerRegistrations() {
+		if (disabledEventListeners != null) {
+			eventListenersPerSensor = disabledEventListeners;
+			disabledEventListeners = null;
+		}
 	}
 
 	/**
@@ -356,16 +382,16 @@ public class SensorManager {
 	}
 
 	/**
-	 * @return the eventListenersPerSensor
+	 * @return the eventListenersPerSensor, keyed by sensor id
 	 */
-	public HashMap<Sensor, List<SensorEventListener>> getEventListenersPerSensor() {
-		return eventListenersPerSensor;
+	public Map<Integer, List<SensorEventListener>> getEventListenersPerSensor() {
+		return Collections.unmodifiableMap(eventListenersPerSensor);
 	}
 
 	/**
-	 * @return the disabledEventListeners
+	 * @return the disabledEventListeners, keyed by sensor id
 	 */
-	HashMap<Sensor, List<SensorEventListener>> getDisabledEventListeners() {
+	Map<Integer, List<SensorEventListener>> getDisabledEventListeners() {
 		return disabledEventListeners;
 	}
 
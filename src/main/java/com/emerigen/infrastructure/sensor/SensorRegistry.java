@@ -0,0 +1,167 @@
+package com.emerigen.infrastructure.sensor;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Interns the immutable sensors attached to deserialized sensor events.
+ *
+ * Every event read from the repository carries a copy of its sensor's type,
+ * location and configuration. Rather than allocating a Sensor for each row, or
+ * reconfiguring the live sensor owned by the SensorManager, the decoders ask
+ * the registry for the shared sensor with that type, location and
+ * configuration. The first request creates the sensor subclass for the type
+ * and freezes it; every later request returns the same instance from a
+ * ConcurrentHashMap lookup. Frozen sensors reject modification, so a sensor
+ * shared between events and threads cannot be changed underneath them.
+ *
+ * The registry is unrelated to the SensorManager's sensors, which remain
+ * mutable and are the ones listeners are registered against.
+ *
+ * @author Larry
+ *
+ */
+public class SensorRegistry {
+
+	private static final Logger logger = Logger.getLogger(SensorRegistry.class);
+
+	private final ConcurrentHashMap<SensorKey, Sensor> sensors = new ConcurrentHashMap<SensorKey, Sensor>();
+
+	// Singleton infrastructure
+	private static volatile SensorRegistry instance;
+
+	public static SensorRegistry getInstance() {
+		if (instance == null) {
+			synchronized (SensorRegistry.class) {
+				if (instance == null) {
+					instance = new SensorRegistry();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * The identity of an interned sensor: its type, location and configuration
+	 */
+	private static final class SensorKey {
+		private final int sensorType;
+		private final int sensorLocation;
+		private final int reportingMode;
+		private final long minimumDelayBetweenReadings;
+		private final boolean wakeUpSensor;
+		private final int hashCode;
+
+		SensorKey(int sensorType, int sensorLocation, int reportingMode,
+				long minimumDelayBetweenReadings, boolean wakeUpSensor) {
+			this.sensorType = sensorType;
+			this.sensorLocation = sensorLocation;
+			this.reportingMode = reportingMode;
+			this.minimumDelayBetweenReadings = minimumDelayBetweenReadings;
+			this.wakeUpSensor = wakeUpSensor;
+
+			int result = Sensor.sensorId(sensorType, sensorLocation);
+			result = 31 * result + reportingMode;
+			result = 31 * result + Long.hashCode(minimumDelayBetweenReadings);
+			this.hashCode = 31 * result + (wakeUpSensor ? 1231 : 1237);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof SensorKey))
+				return false;
+			SensorKey other = (SensorKey) obj;
+			return sensorType == other.sensorType && sensorLocation == other.sensorLocation
+					&& reportingMode == other.reportingMode
+					&& minimumDelayBetweenReadings == other.minimumDelayBetweenReadings
+					&& wakeUpSensor == other.wakeUpSensor;
+		}
+	}
+
+	/**
+	 * @return the shared, frozen sensor with the given type, location and
+	 *         configuration
+	 */
+	public Sensor intern(int sensorType, int sensorLocation, int reportingMode,
+			long minimumDelayBetweenReadings, boolean wakeUpSensor) {
+		SensorKey key = new SensorKey(sensorType, sensorLocation, reportingMode,
+				minimumDelayBetweenReadings, wakeUpSensor);
+		Sensor sensor = sensors.get(key);
+		if (sensor != null)
+			return sensor;
+
+		return sensors.computeIfAbsent(key, k -> createSensor(k));
+	}
+
+	/**
+	 * @return the number of distinct sensors interned so far
+	 */
+	public int size() {
+		return sensors.size();
+	}
+
+	/**
+	 * Forget the interned sensors. Sensors already handed out remain frozen.
+	 */
+	public void clear() {
+		sensors.clear();
+	}
+
+	/**
+	 * Create the sensor subclass for a known type, so that significant change
+	 * and difference calculations match the sensor that recorded the event.
+	 * Documents with an unknown type, location or reporting mode are kept as a
+	 * plain Sensor carrying the recorded values, as they were before interning.
+	 */
+	private static Sensor createSensor(SensorKey key) {
+		Sensor sensor = null;
+		if (key.sensorLocation > 0
+				&& (key.reportingMode == Sensor.REPORTING_MODE_CONTINUOUS
+						|| key.reportingMode == Sensor.REPORTING_MODE_ON_CHANGE))
+			sensor = createSensorForType(key.sensorType, key.sensorLocation,
+					key.reportingMode, key.wakeUpSensor);
+
+		if (sensor == null) {
+			sensor = new Sensor();
+			sensor.setSensorType(key.sensorType);
+			sensor.setSensorLocation(key.sensorLocation);
+			sensor.setReportingMode(key.reportingMode);
+			sensor.setWakeUpSensor(key.wakeUpSensor);
+		}
+		sensor.setMinimumDelayBetweenReadings(key.minimumDelayBetweenReadings);
+		sensor.freeze();
+		logger.debug("Interned sensor: " + sensor);
+		return sensor;
+	}
+
+	private static Sensor createSensorForType(int sensorType, int sensorLocation,
+			int reportingMode, boolean wakeUpSensor) {
+		switch (sensorType) {
+		case Sensor.TYPE_HEART_RATE:
+			return new HeartRateSensor(sensorLocation, reportingMode, wakeUpSensor);
+		case Sensor.TYPE_ACCELEROMETER:
+			return new AccelerometerSensor(sensorLocation, reportingMode, 0, wakeUpSensor);
+		case Sensor.TYPE_SLEEP:
+			return new SleepSensor(sensorLocation, reportingMode, 0, wakeUpSensor);
+		case Sensor.TYPE_BLOOD_PRESSURE:
+			return new BloodPressureSensor(sensorLocation, reportingMode, 0, wakeUpSensor);
+		case Sensor.TYPE_GLUCOSE:
+			return new GlucoseSensor(sensorLocation, reportingMode, 0, wakeUpSensor);
+		case Sensor.TYPE_TEMPERATURE:
+			return new TemperatureSensor(sensorLocation, reportingMode, 0, wakeUpSensor);
+		case Sensor.TYPE_GPS:
+			return new GpsSensor(sensorLocation, reportingMode, 0, wakeUpSensor);
+		default:
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.emerigen.infrastructure.sensor;
+
+/**
+ * A point-in-time snapshot of the counters of one SensorEventIngestionEngine
+ * shard.
+ * 
+ * @author Larry
+ *
+ */
+public class ShardMetrics {
+
+	private final int shardIndex;
+	private final long acceptedEvents;
+	private final long processedEvents;
+	private final long droppedEvents;
+	private final long failedEvents;
+	private final int queueDepth;
+	private final long totalProcessingNanos;
+
+	public ShardMetrics(int shardIndex, long acceptedEvents, long processedEvents,
+			long droppedEvents, long failedEvents, int queueDepth,
+			long totalProcessingNanos) {
+		this.shardIndex = shardIndex;
+		this.acceptedEvents = acceptedEvents;
+		this.processedEvents = processedEvents;
+		this.droppedEvents = droppedEvents;
+		this.failedEvents = failedEvents;
+		this.queueDepth = queueDepth;
+		this.totalProcessingNanos = totalProcessingNanos;
+	}
+
+	/**
+	 * @return the shardIndex
+	 */
+	public int getShardIndex() {
+		return shardIndex;
+	}
+
+	/**
+	 * @return the number of events queued on the shard
+	 */
+	public long getAcceptedEvents() {
+		return acceptedEvents;
+	}
+
+	/**
+	 * @return the number of events delivered to the listener, including failures
+	 */
+	public long getProcessedEvents() {
+		return processedEvents;
+	}
+
+	/**
+	 * @return the number of events discarded by the overflow policy
+	 */
+	public long getDroppedEvents() {
+		return droppedEvents;
+	}
+
+	/**
+	 * @return the number of events whose listener threw an exception
+	 */
+	public long getFailedEvents() {
+		return failedEvents;
+	}
+
+	/**
+	 * @return the number of events waiting on the shard
+	 */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * @return the total time the listener spent processing the shard's events
+	 */
+	public long getTotalProcessingNanos() {
+		return totalProcessingNanos;
+	}
+
+	/**
+	 * @return the mean time the listener spent processing an event, or zero
+	 */
+	public double getMeanProcessingNanos() {
+		return processedEvents == 0 ? 0.0 : (double) totalProcessingNanos / processedEvents;
+	}
+
+	@Override
+	public String toString() {
+		return "ShardMetrics [shardIndex=" + shardIndex + ", acceptedEvents="
+				+ acceptedEvents + ", processedEvents=" + processedEvents
+				+ ", droppedEvents=" + droppedEvents + ", failedEvents=" + failedEvents
+				+ ", queueDepth=" + queueDepth + ", totalProcessingNanos="
+				+ totalProcessingNanos + "]";
+	}
+
+}
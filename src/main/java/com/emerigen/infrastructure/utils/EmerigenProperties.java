@@ -65,6 +65,7 @@ public class EmerigenProperties {
 				is = classLoader.getResourceAsStream(filename);
 			}
 			// System.out.println("loaded from classpath, 'is' = " + is);
+			props.load(is);
 		} catch (Exception e) {
 			// Not found on classpath
 			throw new RuntimeException(
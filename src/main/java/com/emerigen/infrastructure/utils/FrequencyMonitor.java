@@ -0,0 +1,262 @@
+package com.emerigen.infrastructure.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.reflections.Reflections;
+import org.reflections.scanners.MethodAnnotationsScanner;
+
+/**
+ * Measures the frequency of named events with LeakyBuckets driven by a single
+ * hashed-wheel timer.
+ *
+ * Any number of buckets share the monitor's timer thread, which only wakes a
+ * bucket when its low frequency handler may be due, and the threshold handlers
+ * run on the monitor's executor rather than on the thread recording the event.
+ *
+ * Methods annotated with @HighEventFrequencyHandler or
+ * {@literal @}LowEventFrequencyHandler are registered by
+ * registerAnnotatedHandlers(), each with a bucket of its own threshold per one
+ * timeUnit, and run when the frequency of their frequencyEventName crosses it.
+ * Occurrences are recorded with record(), which the FrequencyMeasurementAspect
+ * calls on every execution of a method annotated with @FrequencyMeasurement.
+ *
+ * @author Larry
+ *
+ */
+public class FrequencyMonitor {
+
+	private static final Logger logger = Logger.getLogger(FrequencyMonitor.class);
+
+	private final HashedWheelTimer timer;
+	private final Executor handlerExecutor;
+	private final ConcurrentHashMap<String, List<LeakyBucket>> bucketsByEvent = new ConcurrentHashMap<String, List<LeakyBucket>>();
+
+	// Singleton infrastructure
+	private static volatile FrequencyMonitor instance;
+
+	public static FrequencyMonitor getInstance() {
+		if (instance == null) {
+			synchronized (FrequencyMonitor.class) {
+				if (instance == null) {
+					EmerigenProperties properties = EmerigenProperties.getInstance();
+					HashedWheelTimer timer = new HashedWheelTimer("frequency-monitor-timer",
+							Long.parseLong(properties.getValue("frequency.timer.tick.millis")),
+							TimeUnit.MILLISECONDS, Integer.parseInt(
+									properties.getValue("frequency.timer.ticks.per.wheel")));
+					FrequencyMonitor monitor = new FrequencyMonitor(timer,
+							newHandlerExecutor(Integer.parseInt(
+									properties.getValue("frequency.handler.thread.count"))));
+					monitor.registerAnnotatedHandlers(
+							properties.getValue("frequency.handlers.package"));
+					instance = monitor;
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * @param timer           the timer that drives the monitor's buckets
+	 * @param handlerExecutor runs the threshold handlers
+	 */
+	public FrequencyMonitor(HashedWheelTimer timer, Executor handlerExecutor) {
+		if (timer == null)
+			throw new IllegalArgumentException("timer must not be null");
+		if (handlerExecutor == null)
+			throw new IllegalArgumentException("handlerExecutor must not be null");
+
+		this.timer = timer;
+		this.handlerExecutor = handlerExecutor;
+	}
+
+	private static Executor newHandlerExecutor(int threadCount) {
+		if (threadCount <= 0)
+			throw new IllegalArgumentException("threadCount must be positive");
+		AtomicInteger threadNumber = new AtomicInteger();
+		return Executors.newFixedThreadPool(threadCount, runnable -> {
+			Thread thread = new Thread(runnable,
+					"frequency-handler-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Measure the frequency of the named event with a new bucket driven by this
+	 * monitor. See LeakyBucket for the meaning of the parameters.
+	 *
+	 * @return the bucket, filled by every later record() of the event
+	 */
+	public LeakyBucket monitor(String eventName, int numOccurances, Duration interval,
+			long minOccurancesAtEmpty, long minOccurancesAtFull,
+			Runnable frequencyAboveThresholdHandler,
+			Runnable frequencyBelowThresholdHandler) {
+		if (eventName == null || eventName.isEmpty())
+			throw new IllegalArgumentException("eventName must not be null or empty");
+
+		LeakyBucket bucket = new LeakyBucket(this, numOccurances, interval,
+				minOccurancesAtEmpty, minOccurancesAtFull, frequencyAboveThresholdHandler,
+				frequencyBelowThresholdHandler);
+		bucketsByEvent.computeIfAbsent(eventName, k -> new CopyOnWriteArrayList<LeakyBucket>())
+				.add(bucket);
+		return bucket;
+	}
+
+	/**
+	 * Record an occurrence of the named event in each of its buckets. Events
+	 * without a bucket are ignored.
+	 */
+	public void record(String eventName) {
+		if (eventName == null)
+			throw new IllegalArgumentException("eventName must not be null");
+
+		List<LeakyBucket> buckets = bucketsByEvent.get(eventName);
+		if (buckets == null)
+			return;
+		for (LeakyBucket bucket : buckets)
+			bucket.fill();
+	}
+
+	/**
+	 * @return the buckets measuring the named event
+	 */
+	public List<LeakyBucket> getBuckets(String eventName) {
+		List<LeakyBucket> buckets = bucketsByEvent.get(eventName);
+		if (buckets == null)
+			return Collections.emptyList();
+		return Collections.unmodifiableList(buckets);
+	}
+
+	/**
+	 * Stop measuring the named event and close its buckets
+	 */
+	public void remove(String eventName) {
+		List<LeakyBucket> buckets = bucketsByEvent.remove(eventName);
+		if (buckets != null)
+			for (LeakyBucket bucket : buckets)
+				bucket.close();
+	}
+
+	/**
+	 * Create a bucket for every method in the given packages annotated with
+	 * {@literal @}HighEventFrequencyHandler or @LowEventFrequencyHandler. Instance
+	 * methods run against one instance of their declaring class, created with its
+	 * no-arg constructor.
+	 *
+	 * @return the number of handlers registered
+	 */
+	public int registerAnnotatedHandlers(String packagesToScan) {
+		if (packagesToScan == null || packagesToScan.isEmpty())
+			throw new IllegalArgumentException("packagesToScan must not be null or empty");
+
+		Reflections reflections = new Reflections(packagesToScan,
+				new MethodAnnotationsScanner());
+		Map<Class<?>, Object> targets = new HashMap<Class<?>, Object>();
+		int registered = 0;
+
+		Set<Method> highHandlers = reflections
+				.getMethodsAnnotatedWith(HighEventFrequencyHandler.class);
+		for (Method method : highHandlers) {
+			HighEventFrequencyHandler handler = method
+					.getAnnotation(HighEventFrequencyHandler.class);
+			Runnable runnable = handlerFor(method, targets);
+			if (runnable == null)
+				continue;
+			monitor(handler.frequencyEventName(), handler.threshold(),
+					Duration.ofNanos(handler.timeUnit().toNanos(1)), 1,
+					handler.minimumTimeAboveThreshold(), runnable, null);
+			registered++;
+		}
+
+		Set<Method> lowHandlers = reflections
+				.getMethodsAnnotatedWith(LowEventFrequencyHandler.class);
+		for (Method method : lowHandlers) {
+			LowEventFrequencyHandler handler = method
+					.getAnnotation(LowEventFrequencyHandler.class);
+			Runnable runnable = handlerFor(method, targets);
+			if (runnable == null)
+				continue;
+			monitor(handler.frequencyEventName(), handler.threshold(),
+					Duration.ofNanos(handler.timeUnit().toNanos(1)),
+					handler.minimumTimeBelowThreshold(), 1, null, runnable);
+			registered++;
+		}
+		logger.info("Registered " + registered + " event frequency handlers in "
+				+ packagesToScan);
+		return registered;
+	}
+
+	/**
+	 * @return the handler method bound to its target as a Runnable, or null if it
+	 *         cannot be run
+	 */
+	private static Runnable handlerFor(Method method, Map<Class<?>, Object> targets) {
+		try {
+			method.setAccessible(true);
+			MethodHandle methodHandle = MethodHandles.lookup().unreflect(method);
+			if (!Modifier.isStatic(method.getModifiers())) {
+				Object target = targets.get(method.getDeclaringClass());
+				if (target == null) {
+					Constructor<?> constructor = method.getDeclaringClass()
+							.getDeclaredConstructor();
+					constructor.setAccessible(true);
+					target = constructor.newInstance();
+					targets.put(method.getDeclaringClass(), target);
+				}
+				methodHandle = methodHandle.bindTo(target);
+			}
+			MethodHandle invoker = methodHandle.asType(MethodType.methodType(void.class));
+			return () -> {
+				try {
+					invoker.invokeExact();
+				} catch (Throwable e) {
+					logger.error("Event frequency handler " + method + " failed", e);
+				}
+			};
+		} catch (ReflectiveOperationException | IllegalArgumentException e) {
+			logger.error("Event frequency handler " + method + " cannot be registered", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Run the task on the monitor's timer thread after the given delay
+	 */
+	HashedWheelTimer.Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		return timer.newTimeout(task, delay, unit);
+	}
+
+	/**
+	 * Run the threshold handler on the monitor's executor
+	 */
+	void execute(Runnable handler) {
+		handlerExecutor.execute(handler);
+	}
+
+	/**
+	 * Stop the monitor's timer. Buckets still record occurrences, but low
+	 * frequency handlers no longer run.
+	 */
+	public void shutdown() {
+		timer.stop();
+	}
+
+}
@@ -0,0 +1,189 @@
+package com.emerigen.infrastructure.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs any number of one-shot timeouts from a single thread.
+ *
+ * Time is divided into ticks, and the ticks are laid out around a wheel of
+ * slots. A timeout is placed in the slot its deadline falls in, with the number
+ * of turns of the wheel still to go before it expires. Once per tick the timer
+ * thread expires the timeouts of the current slot whose turns have run out, so
+ * scheduling and cancelling cost O(1) whatever the number of timeouts, and a
+ * timeout expires up to one tick late.
+ *
+ * Timeouts are handed to the timer thread through a lock-free queue and run on
+ * it, so they must be short; anything slow should be passed on to an executor.
+ *
+ * @author Larry
+ *
+ */
+public class HashedWheelTimer {
+
+	private static final Logger logger = Logger.getLogger(HashedWheelTimer.class);
+
+	private final long tickNanos;
+	private final int mask;
+	private final List<Queue<Timeout>> wheel;
+	private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final Thread worker;
+	private final long startTime;
+	private volatile boolean stopped = false;
+
+	/**
+	 * A task scheduled to run once its deadline has passed
+	 */
+	public static final class Timeout {
+		private final Runnable task;
+		private final long deadline;
+		private long remainingRounds;
+		private volatile boolean cancelled = false;
+
+		Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Stop the task from running if it has not already run
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		/**
+		 * @return true if the timeout was cancelled
+		 */
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	/**
+	 * @param name         the name of the timer thread
+	 * @param tick         the duration of a tick, in the given unit
+	 * @param unit         the unit of the tick duration
+	 * @param ticksPerWheel the number of slots in the wheel, rounded up to a power
+	 *                     of two
+	 */
+	@SuppressWarnings("unchecked")
+	public HashedWheelTimer(String name, long tick, TimeUnit unit, int ticksPerWheel) {
+		if (name == null || name.isEmpty())
+			throw new IllegalArgumentException("name must not be null or empty");
+		if (tick <= 0)
+			throw new IllegalArgumentException("tick must be positive");
+		if (unit == null)
+			throw new IllegalArgumentException("unit must not be null");
+		if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30))
+			throw new IllegalArgumentException(
+					"ticksPerWheel must be positive and at most 2^30");
+
+		int wheelSize = Integer.highestOneBit(ticksPerWheel);
+		if (wheelSize < ticksPerWheel)
+			wheelSize <<= 1;
+		this.mask = wheelSize - 1;
+		this.wheel = new ArrayList<Queue<Timeout>>(wheelSize);
+		for (int i = 0; i < wheelSize; i++)
+			wheel.add(new ArrayDeque<Timeout>());
+		this.tickNanos = unit.toNanos(tick);
+
+		this.startTime = System.nanoTime();
+		this.worker = new Thread(this::run, name);
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Schedule the task to run once, on the timer thread, after the given delay
+	 *
+	 * @return the timeout, which may be used to cancel the task
+	 */
+	public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+		if (task == null)
+			throw new IllegalArgumentException("task must not be null");
+		if (unit == null)
+			throw new IllegalArgumentException("unit must not be null");
+		if (stopped)
+			throw new IllegalStateException("timer has been stopped");
+
+		long deadline = System.nanoTime() + Math.max(0, unit.toNanos(delay)) - startTime;
+		Timeout timeout = new Timeout(task, deadline);
+		pendingTimeouts.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Stop the timer thread. Timeouts that have not expired never run.
+	 */
+	public void stop() {
+		stopped = true;
+		LockSupport.unpark(worker);
+	}
+
+	/**
+	 * @return true if the timer has been stopped
+	 */
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	private void run() {
+		long tick = 0;
+		while (!stopped) {
+			waitForNextTick(tick);
+			if (stopped)
+				break;
+			transferPendingTimeouts(tick);
+			expireTimeouts(wheel.get((int) (tick & mask)));
+			tick++;
+		}
+		logger.debug(worker.getName() + " stopped");
+	}
+
+	private void waitForNextTick(long tick) {
+		long deadline = tickNanos * (tick + 1);
+		long sleepNanos;
+		while (!stopped && (sleepNanos = deadline - (System.nanoTime() - startTime)) > 0)
+			LockSupport.parkNanos(this, sleepNanos);
+	}
+
+	private void transferPendingTimeouts(long tick) {
+		Timeout timeout;
+		while ((timeout = pendingTimeouts.poll()) != null) {
+			if (timeout.cancelled)
+				continue;
+			long expiryTick = Math.max(timeout.deadline / tickNanos, tick);
+			timeout.remainingRounds = (expiryTick - tick) / wheel.size();
+			wheel.get((int) (expiryTick & mask)).add(timeout);
+		}
+	}
+
+	private void expireTimeouts(Queue<Timeout> slot) {
+		Iterator<Timeout> timeouts = slot.iterator();
+		while (timeouts.hasNext()) {
+			Timeout timeout = timeouts.next();
+			if (timeout.cancelled) {
+				timeouts.remove();
+			} else if (timeout.remainingRounds <= 0) {
+				timeouts.remove();
+				try {
+					timeout.task.run();
+				} catch (RuntimeException e) {
+					logger.error("Timeout task failed", e);
+				}
+			} else {
+				timeout.remainingRounds--;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,139 @@
+package com.emerigen.infrastructure.utils;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of non-negative long values, ie latencies in nanoseconds or
+ * throughputs in events per second, with a fixed memory footprint.
+ *
+ * Values below 32 are counted exactly. Larger values are counted in
+ * logarithmic buckets, each split into 16 linear sub-buckets, so a percentile
+ * is reported within about 6% of the recorded value whatever its magnitude.
+ * Recording is a few shifts and an array increment with no allocation.
+ *
+ * A histogram is not thread safe; record into one histogram per thread.
+ *
+ * @author Larry
+ *
+ */
+public class Histogram {
+
+	private static final int LINEAR_BUCKETS = 32;
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = LINEAR_BUCKETS
+			+ (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final long[] counts = new long[BUCKET_COUNT];
+	private long count;
+	private long min = Long.MAX_VALUE;
+	private long max;
+	private double sum;
+
+	private static int bucketIndex(long value) {
+		if (value < LINEAR_BUCKETS)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS
+				+ (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * @return the largest value counted in the bucket
+	 */
+	private static long bucketUpperBound(int index) {
+		if (index < LINEAR_BUCKETS)
+			return index;
+		int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+		long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * Count one occurrence of the value
+	 */
+	public void record(long value) {
+		if (value < 0)
+			throw new IllegalArgumentException(
+					"value must not be negative, but was " + value);
+
+		counts[bucketIndex(value)]++;
+		count++;
+		sum += value;
+		if (value < min)
+			min = value;
+		if (value > max)
+			max = value;
+	}
+
+	/**
+	 * @param percentile the percentile, from 0.0 through 100.0
+	 * @return the value at or below which the given percentage of the recorded
+	 *         values fall, or 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (percentile < 0.0 || percentile > 100.0)
+			throw new IllegalArgumentException(
+					"percentile must be from 0.0 through 100.0, but was " + percentile);
+		if (count == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.max(min, Math.min(max, bucketUpperBound(i)));
+		}
+		return max;
+	}
+
+	/**
+	 * Forget all recorded values
+	 */
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+		sum = 0.0;
+	}
+
+	/**
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the smallest recorded value, or 0 if nothing was recorded
+	 */
+	public long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	/**
+	 * @return the largest recorded value
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * @return the mean of the recorded values, or 0.0 if nothing was recorded
+	 */
+	public double getMean() {
+		return count == 0 ? 0.0 : sum / count;
+	}
+
+	@Override
+	public String toString() {
+		return "Histogram [count=" + count + ", min=" + getMin() + ", mean="
+				+ String.format("%.1f", getMean()) + ", p50=" + getValueAtPercentile(50.0)
+				+ ", p90=" + getValueAtPercentile(90.0) + ", p99="
+				+ getValueAtPercentile(99.0) + ", p99.9=" + getValueAtPercentile(99.9)
+				+ ", max=" + max + "]";
+	}
+
+}
@@ -1,53 +1,95 @@
 package com.emerigen.infrastructure.utils;
 
 import java.time.Duration;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.log4j.Logger;
 
+/**
+ * Measures the frequency of an event against a threshold of numOccurances per
+ * interval.
+ *
+ * Every occurrence fills the bucket by one and the bucket leaks at the threshold
+ * rate, one occurrence every interval / numOccurances. The level is never
+ * decremented by a timer: the bucket keeps the time at which it will be empty
+ * and derives its level from the clock whenever it is accessed, updating it with
+ * compare-and-set, so filling is lock-free and costs nothing between
+ * occurrences.
+ *
+ * An occurrence that finds the bucket full counts towards the high frequency
+ * handler, which runs once minOccurancesAtFull such occurrences have been seen.
+ * When the bucket has been empty for minOccurancesAtEmpty leak periods the low
+ * frequency handler runs, and runs again every minOccurancesAtEmpty periods the
+ * bucket stays empty. The FrequencyMonitor's shared timer wakes the bucket at
+ * the earliest time that can happen, and the handlers run on the monitor's
+ * executor.
+ *
+ * @author Larry
+ *
+ */
 public class LeakyBucket {
 
-	private static int leakInterval = Integer.parseInt(
-			EmerigenProperties.getInstance().getValue("leakybucket.leak.interval"));
-	private static int leakDelayInterval = Integer.parseInt(
-			EmerigenProperties.getInstance().getValue("leakybucket.leak.delay.interval"));
-	private Timer timer;
 	private static Logger logger = Logger.getLogger(LeakyBucket.class);
 
-	private int EMPTY = 0;
-	private int FULL;
-	private long bucketCounter = 0;
-	private long numOccurances, numOccurancesAtEmpty, numOccurancesAtFull;
-	private Duration interval;
-	private Runnable frequencyAboveThresholdHandler;
-	private Runnable frequencyBelowThresholdHandler;
+	private final FrequencyMonitor monitor;
+	private final long numOccurances;
+	private final Duration interval;
+	private final long leakNanos;
+	private final long capacityNanos;
+	private final Runnable frequencyAboveThresholdHandler;
+	private final Runnable frequencyBelowThresholdHandler;
+
+	// The System.nanoTime() at which the bucket will have leaked empty
+	private final AtomicLong emptyAt;
+
+	// When the low frequency handler was last run, or the bucket was created
+	private final AtomicLong belowThresholdNotifiedAt;
+
+	private final AtomicLong occurancesAtFull = new AtomicLong();
+	private final LongAdder occurances = new LongAdder();
+	private volatile HashedWheelTimer.Timeout timeout;
+	private volatile boolean closed = false;
 
 	/**
 	 * This counter controls how long to wait before notifying the handler that the
 	 * frequency has been exceeded (i.e. the bucket has been full) for at least this
 	 * number of event occurances.
 	 */
-	long minOccurancesAtFull = 0;
+	final long minOccurancesAtFull;
 
 	/**
 	 * This counter controls how long to wait before notifying the handler that the
 	 * frequency has been below the low threshold (i.e. the bucket has been empty)
-	 * for at least this number of event occurances.
+	 * for at least this number of leak periods.
 	 */
-	long minOccurancesAtEmpty = 0;
+	final long minOccurancesAtEmpty;
 
 	/**
 	 * This CTOR sets the occurance frequency to the number of occurances per time
 	 * interval. A frequency of 60 per minute would set as numOccurances = 60 and
-	 * interval = 60 seconds (or 1 every second).
-	 * 
+	 * interval = 60 seconds (or 1 every second). The bucket is driven by the
+	 * shared FrequencyMonitor.
+	 *
 	 * @param numOccurances is the number of occurances per interval
 	 * @param interval      is the time required to fill the bucket
 	 */
 	public LeakyBucket(int numOccurances, Duration interval, long minOccurancesAtEmpty,
 			long minOccurancesAtFull, Runnable frequencyAboveThresholdHandler,
 			Runnable frequencyBelowThresholdHandler) {
+		this(null, numOccurances, interval, minOccurancesAtEmpty, minOccurancesAtFull,
+				frequencyAboveThresholdHandler, frequencyBelowThresholdHandler);
+	}
+
+	/**
+	 * @param monitor the monitor driving the bucket, or null for the shared
+	 *                FrequencyMonitor
+	 */
+	LeakyBucket(FrequencyMonitor monitor, int numOccurances, Duration interval,
+			long minOccurancesAtEmpty, long minOccurancesAtFull,
+			Runnable frequencyAboveThresholdHandler,
+			Runnable frequencyBelowThresholdHandler) {
 
 		if (minOccurancesAtEmpty <= 0)
 			throw new IllegalArgumentException("minOccurancesAtEmpty must be positive.");
@@ -55,7 +97,7 @@ public class LeakyBucket {
 			throw new IllegalArgumentException("minOccurancesAtFull must be positive.");
 		if (numOccurances <= 0)
 			throw new IllegalArgumentException("numOccurances must be positive.");
-		if (interval == null || interval.isZero())
+		if (interval == null || interval.isZero() || interval.isNegative())
 			throw new IllegalArgumentException(
 					"interval must not be null and must be positive.");
 		if (frequencyAboveThresholdHandler == null
@@ -63,105 +105,155 @@ public class LeakyBucket {
 			throw new IllegalArgumentException(
 					"Either or both of 'exceded' and 'below' threshold handlers must be specified.");
 
+		this.monitor = monitor != null ? monitor : FrequencyMonitor.getInstance();
 		this.numOccurances = numOccurances;
-		FULL = numOccurances;
 		this.interval = interval;
-		bucketCounter = numOccurances * interval.toSeconds();
+		this.leakNanos = Math.max(1, interval.toNanos() / numOccurances);
+		this.capacityNanos = leakNanos * numOccurances;
 		this.minOccurancesAtEmpty = minOccurancesAtEmpty;
 		this.minOccurancesAtFull = minOccurancesAtFull;
 		this.frequencyAboveThresholdHandler = frequencyAboveThresholdHandler;
 		this.frequencyBelowThresholdHandler = frequencyBelowThresholdHandler;
 
-		// Start the timer
-		initializeTimer();
+		// The bucket starts full
+		long now = System.nanoTime();
+		this.emptyAt = new AtomicLong(now + capacityNanos);
+		this.belowThresholdNotifiedAt = new AtomicLong(now);
+
+		if (frequencyBelowThresholdHandler != null)
+			scheduleBelowThresholdCheck();
 	}
 
 	/**
-	 * Create, and start, a timer to periodically "leak()" the bucket.
+	 * Record an occurance of the event, filling the bucket by one.
+	 *
+	 * @return true if the bucket had room for the occurance, false if it was full
 	 */
+	public boolean fill() {
+		occurances.increment();
+		long now = System.nanoTime();
+		while (true) {
+			long current = emptyAt.get();
+			long base = Math.max(current, now);
 
-	private void initializeTimer() {
-		timer = new Timer();
-		timer.scheduleAtFixedRate(new TimerTask() {
-			@Override
-			public void run() {
-				logger.info("In timer loop. About to invoke leak()");
-				leak();
+			if (base + leakNanos - now > capacityNanos) {
+				recordOccuranceAtFull();
+				return false;
+			}
+			if (emptyAt.compareAndSet(current, base + leakNanos)) {
+				if (current <= now)
+					occurancesAtFull.set(0);
+				return true;
 			}
-		}, leakDelayInterval, interval.toMillis() / numOccurances);
-	}
-
-	private void invokeLowFrequencyHandler() {
-
-		if (frequencyBelowThresholdHandler != null) {
-			logger.info("Invoking low Frequency handler...");
-			frequencyBelowThresholdHandler.run();
 		}
 	}
 
-	private void invokeHighFrequencyHandler() {
-		if (frequencyAboveThresholdHandler != null) {
-			logger.info("Invoking high Frequency handler...");
-			frequencyAboveThresholdHandler.run();
+	/**
+	 * Remove one occurance from the bucket ahead of its leak rate.
+	 *
+	 * @return true if this bucket's level was successfully reduced
+	 */
+	public boolean leak() {
+		long now = System.nanoTime();
+		while (true) {
+			long current = emptyAt.get();
+			if (current <= now)
+				return false;
+			if (emptyAt.compareAndSet(current, Math.max(current - leakNanos, now)))
+				return true;
 		}
 	}
 
 	/**
-	 * Driven by a time set in the constructor based on the number of occurances
-	 * during an interval.
-	 * 
-	 * @return true if this bucket's level was successfully reduced
+	 * @return the number of occurances in the bucket now
 	 */
-	public boolean leak() {
-		logger.info("Leaking...bucketCounter= " + bucketCounter);
+	public long getLevel() {
+		long remainingNanos = emptyAt.get() - System.nanoTime();
+		if (remainingNanos <= 0)
+			return 0;
+		return (remainingNanos + leakNanos - 1) / leakNanos;
+	}
 
-		if (isEmpty()) {
-			numOccurancesAtEmpty++;
-			logger.info("Empty...numOccurancesAtEmpty: " + numOccurancesAtEmpty);
-			if (numOccurancesAtEmpty >= minOccurancesAtEmpty) {
+	public boolean isFull() {
+		return getLevel() >= numOccurances;
+	}
 
-				// Invoke the low frequency exceeded handler
-				logger.info("Empty, minOccurances greater...invoking low freq handler");
-				invokeLowFrequencyHandler();
-				numOccurancesAtEmpty = 0;
-			}
-			return false;
-		}
-		if (--bucketCounter == EMPTY) {
-			numOccurancesAtEmpty = 0;
-			return true;
-		}
-		bucketCounter--;
-		return true;
+	public boolean isEmpty() {
+		return emptyAt.get() - System.nanoTime() <= 0;
 	}
 
-	public boolean fill() {
-		logger.info("Filling...bucketCounter= " + bucketCounter);
-		if (isFull()) {
-			numOccurancesAtFull++;
-			logger.info("Full...numOccurancesAtFull: " + numOccurancesAtFull);
-			if (numOccurancesAtFull >= minOccurancesAtFull) {
-
-				// Invoke the high frequency exceeded handler
-				invokeHighFrequencyHandler();
-				numOccurancesAtFull = 0;
-			}
-			return false;
+	/**
+	 * Stop the bucket's low frequency checks. Occurances may still be recorded.
+	 */
+	public void close() {
+		closed = true;
+		HashedWheelTimer.Timeout scheduled = timeout;
+		if (scheduled != null)
+			scheduled.cancel();
+	}
+
+	private void recordOccuranceAtFull() {
+		long count = occurancesAtFull.incrementAndGet();
+		if (count >= minOccurancesAtFull && occurancesAtFull.compareAndSet(count, 0)
+				&& frequencyAboveThresholdHandler != null) {
+			logger.debug("Frequency above " + this + ", invoking high frequency handler");
+			monitor.execute(frequencyAboveThresholdHandler);
 		}
-		if (++bucketCounter == FULL) {
-			numOccurancesAtFull = 0;
-			return true;
+	}
+
+	/**
+	 * Run by the monitor's timer when the bucket may have been empty for long
+	 * enough. Occurances since the check was scheduled move the time out, so the
+	 * next check is always rescheduled from the current state.
+	 */
+	void checkBelowThreshold() {
+		if (closed)
+			return;
+		long now = System.nanoTime();
+		long notifiedAt = belowThresholdNotifiedAt.get();
+		long emptySince = Math.max(emptyAt.get(), notifiedAt);
+
+		if (now - emptySince >= minOccurancesAtEmpty * leakNanos
+				&& belowThresholdNotifiedAt.compareAndSet(notifiedAt, now)) {
+			logger.debug("Frequency below " + this + ", invoking low frequency handler");
+			monitor.execute(frequencyBelowThresholdHandler);
 		}
-		bucketCounter++;
-		return true;
+		scheduleBelowThresholdCheck();
 	}
 
-	public boolean isFull() {
-		return bucketCounter >= numOccurances;
+	private void scheduleBelowThresholdCheck() {
+		if (closed)
+			return;
+		long emptySince = Math.max(emptyAt.get(), belowThresholdNotifiedAt.get());
+		long delay = emptySince + minOccurancesAtEmpty * leakNanos - System.nanoTime();
+		timeout = monitor.schedule(this::checkBelowThreshold, delay, TimeUnit.NANOSECONDS);
 	}
 
-	public boolean isEmpty() {
-		return bucketCounter <= 0;
+	/**
+	 * @return the number of occurances recorded
+	 */
+	public long getOccurances() {
+		return occurances.sum();
+	}
+
+	/**
+	 * @return the number of occurances per interval
+	 */
+	public long getNumOccurances() {
+		return numOccurances;
+	}
+
+	/**
+	 * @return the interval
+	 */
+	public Duration getInterval() {
+		return interval;
+	}
+
+	@Override
+	public String toString() {
+		return "LeakyBucket [numOccurances=" + numOccurances + ", interval=" + interval
+				+ ", level=" + getLevel() + "]";
 	}
 
 }
@@ -0,0 +1,176 @@
+package com.emerigen.infrastructure.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Executes the @ScheduledMethod tasks of each step on a persistent pool of
+ * threads.
+ *
+ * The tasks of a step run in priority tiers, highest priority first. The tasks
+ * within a tier run in parallel, and each tier is a barrier: the next tier, and
+ * the next step, start only when every task of the tier has returned. A lower
+ * priority task therefore always sees the effects of the higher priority tasks
+ * of its step, whatever the number of threads. Tasks are never abandoned; a
+ * tier that runs longer than steps.thread.wait.time per task is logged as slow.
+ *
+ * @author Larry
+ *
+ */
+public class StepScheduler {
+
+	private static final Logger logger = Logger.getLogger(StepScheduler.class);
+
+	private final ForkJoinPool pool;
+	private final long slowTierNanos;
+	private final Histogram stepNanos = new Histogram();
+	private long stepCount = 0;
+
+	// Singleton infrastructure
+	private static volatile StepScheduler instance;
+
+	public static StepScheduler getInstance() {
+		if (instance == null) {
+			synchronized (StepScheduler.class) {
+				if (instance == null) {
+					EmerigenProperties properties = EmerigenProperties.getInstance();
+					instance = new StepScheduler(
+							Integer.parseInt(properties.getValue("steps.thread.count")),
+							Long.parseLong(properties.getValue("steps.thread.wait.time")));
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * @param threadCount         the number of threads running the tasks of a tier
+	 * @param taskWaitTimeInMillis the time a task may take before its tier is
+	 *                            logged as slow
+	 */
+	public StepScheduler(int threadCount, long taskWaitTimeInMillis) {
+		if (threadCount <= 0)
+			throw new IllegalArgumentException("threadCount must be positive");
+		if (taskWaitTimeInMillis <= 0)
+			throw new IllegalArgumentException("taskWaitTimeInMillis must be positive");
+
+		this.slowTierNanos = taskWaitTimeInMillis * 1000000;
+		this.pool = new ForkJoinPool(threadCount, pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+					.newThread(pool);
+			thread.setName("step-scheduler-" + thread.getPoolIndex());
+			return thread;
+		}, null, false);
+	}
+
+	/**
+	 * Execute the given number of steps, starting at step 1. Each step runs the
+	 * tasks whose start and interval select it.
+	 */
+	public synchronized void executeSteps(List<ScheduledMethodTask> scheduledMethodTasks,
+			int numberOfStepsToExecute) {
+		if (scheduledMethodTasks == null)
+			throw new IllegalArgumentException("scheduledMethodTasks must not be null");
+
+		List<ScheduledMethodTask> tasksToExecuteInThisStep = new ArrayList<ScheduledMethodTask>(
+				scheduledMethodTasks.size());
+		for (int step = 1; step <= numberOfStepsToExecute; step++) {
+
+			// Determine which tasks should be executed in this step
+			tasksToExecuteInThisStep.clear();
+			for (ScheduledMethodTask task : scheduledMethodTasks) {
+				if (task.shouldExecute(step))
+					tasksToExecuteInThisStep.add(task);
+			}
+			executeStep(tasksToExecuteInThisStep);
+		}
+	}
+
+	/**
+	 * Execute every given task once, in priority tiers, returning when all have
+	 * completed.
+	 */
+	public synchronized void executeStep(List<ScheduledMethodTask> scheduledMethodTasks) {
+		if (scheduledMethodTasks == null)
+			throw new IllegalArgumentException("scheduledMethodTasks must not be null");
+
+		long stepStart = System.nanoTime();
+		ExecutionPriority[] priorities = ExecutionPriority.values();
+		List<ScheduledMethodTask> tier = new ArrayList<ScheduledMethodTask>(
+				scheduledMethodTasks.size());
+
+		for (int p = priorities.length - 1; p >= 0; p--) {
+			tier.clear();
+			for (ScheduledMethodTask task : scheduledMethodTasks) {
+				if (task.getPriority() == priorities[p])
+					tier.add(task);
+			}
+			if (!tier.isEmpty())
+				executeTier(priorities[p], tier);
+		}
+		stepCount++;
+		stepNanos.record(System.nanoTime() - stepStart);
+	}
+
+	private void executeTier(ExecutionPriority priority, List<ScheduledMethodTask> tier) {
+		long tierStart = System.nanoTime();
+		if (tier.size() == 1)
+			tier.get(0).run();
+		else
+			pool.invoke(new TierAction(tier));
+
+		long elapsedNanos = System.nanoTime() - tierStart;
+		if (elapsedNanos > slowTierNanos * tier.size())
+			logger.warn(priority + " tier of " + tier.size() + " tasks took "
+					+ elapsedNanos / 1000000 + " ms");
+	}
+
+	/**
+	 * Runs the tasks of a tier in parallel and completes when they all have
+	 */
+	private static class TierAction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<ScheduledMethodTask> tier;
+
+		TierAction(List<ScheduledMethodTask> tier) {
+			this.tier = tier;
+		}
+
+		@Override
+		protected void compute() {
+			List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(tier.size());
+			for (ScheduledMethodTask task : tier)
+				tasks.add(ForkJoinTask.adapt(task));
+			invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * @return the number of steps executed
+	 */
+	public synchronized long getStepCount() {
+		return stepCount;
+	}
+
+	/**
+	 * @return the time each step took
+	 */
+	public synchronized Histogram getStepNanos() {
+		return stepNanos;
+	}
+
+	/**
+	 * Stop the scheduler's threads
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+}
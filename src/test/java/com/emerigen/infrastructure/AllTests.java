@@ -9,6 +9,7 @@ import org.junit.runners.Suite.SuiteClasses;
 		com.emerigen.infrastructure.evaporation.AllTests.class,
 		com.emerigen.infrastructure.repository.AllTests.class,
 		com.emerigen.infrastructure.repository.couchbase.AllTests.class,
+		com.emerigen.infrastructure.repository.embedded.AllTests.class,
 		com.emerigen.infrastructure.utils.AllTests.class,
 		com.emerigen.infrastructure.sensor.AllTests.class,
 		com.emerigen.infrastructure.learning.cycle.AllTests.class,
@@ -5,12 +5,14 @@ import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.assertj.core.api.BDDAssertions.then;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.assertj.core.api.SoftAssertions;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.emerigen.infrastructure.utils.EmerigenProperties;
 import com.emerigen.infrastructure.utils.Utils;
 
 public class AgentTest {
@@ -45,6 +47,73 @@ public class AgentTest {
 
 	}
 
+	@Test
+	public final void givenMoreMessagesThanRemembered_whenReceived_thenOnlyTheNewestArePriorContent() {
+
+		// Given an agent and more messages than it remembers
+		Agent agent = new Agent();
+		int remembered = Integer.parseInt(
+				EmerigenProperties.getInstance().getValue("spreading.seen.messages.max"));
+
+		// When they are all received
+		for (int i = 0; i <= remembered; i++)
+			agent.receiveMessage(new MessageToSpread("m" + i, 1, 2,
+					(obj1, obj2) -> (String) obj1 + (String) obj2));
+
+		// Then the oldest is forgotten
+		List<MessageToSpread> priorContent = agent.getPriorContent();
+		then(priorContent.size()).isEqualTo(remembered);
+		then(priorContent.get(0).getMessage()).isEqualTo("m1");
+		then(priorContent.get(remembered - 1).getMessage()).isEqualTo("m" + remembered);
+	}
+
+	@Test
+	public final void givenPriorContentSet_whenOneOfItsMessagesReceived_thenItIsNotAppliedAgain() {
+
+		// Given an agent seeded with a message it has already applied
+		Agent agent = new Agent();
+		MessageToSpread message = new MessageToSpread("xxx", 1, 2,
+				(obj1, obj2) -> (String) obj1 + (String) obj2);
+		agent.setPriorContent(Arrays.asList(message));
+
+		// When the message is received
+		boolean applied = agent.receiveMessage(message);
+
+		// Then it is recognized as seen
+		then(applied).isFalse();
+		then(agent.getContent()).isEqualTo("");
+		then(agent.getPriorContent()).containsExactly(message);
+	}
+
+	@Test
+	public final void givenAgentReceivingMessages_whenHashedAndCompared_thenNoConcurrentModificationOccurs()
+			throws Exception {
+
+		// Given an agent receiving messages on another thread
+		Agent agent = new Agent();
+		Thread receiver = new Thread(() -> {
+			for (int i = 0; i < 20000; i++)
+				agent.receiveMessage(new MessageToSpread("m" + i, 1, 2,
+						(obj1, obj2) -> (String) obj1 + (String) obj2));
+		});
+		receiver.start();
+
+		// When it is hashed and compared meanwhile
+		Throwable failure = null;
+		try {
+			while (receiver.isAlive()) {
+				agent.hashCode();
+				agent.equals(new Agent());
+			}
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+		receiver.join();
+
+		// Then its prior content is always read consistently
+		then(failure).isNull();
+	}
+
 	@Test
 	public final void givenMultipleAgentsCreated_whenAgentReceivesSpreadMessageAndHopsNotExceeded_thenBroadcastContinuesWithHopsIncremented() {
 
@@ -6,7 +6,7 @@ import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
 @SuiteClasses({ AgentTest.class, EnvironmentTest.class, MessageSpreadingTest.class,
-		NeighborhoodTest.class })
+		NeighborhoodTest.class, MessageSpreadingEngineTest.class })
 public class AllTests {
 
 }
@@ -0,0 +1,126 @@
+package com.emerigen.infrastructure.environment;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class MessageSpreadingEngineTest {
+
+	private final NeighborhoodImpl neighborhood = new NeighborhoodImpl(10);
+	private final MessageSpreadingEngine engine = new MessageSpreadingEngine(
+			() -> neighborhood, 4, 1);
+
+	private static MessageToSpread concatenating(String message, int maxHops) {
+		return new MessageToSpread(message, 1, maxHops, (obj1, obj2) -> {
+			return (String) obj1 + (String) obj2;
+		});
+	}
+
+	private Agent[] createRow(int length) {
+		Agent[] agents = new Agent[length];
+		for (int i = 0; i < length; i++) {
+			agents[i] = new Agent();
+			neighborhood.moveAgentToLocation(agents[i], new Location(i, 4));
+		}
+		return agents;
+	}
+
+	@After
+	public void tearDown() {
+		engine.shutdown();
+	}
+
+	@Test
+	public void givenRowOfAgents_whenMessageSpread_thenItStopsWhenHopsAreExceeded()
+			throws Exception {
+
+		// Given a row of agents, each neighboring the next
+		Agent[] agents = createRow(6);
+
+		// When a message allowed 3 hops is spread from the first
+		SpreadingReport report = engine.spread(agents[0], concatenating("xxx", 3))
+				.get(10, TimeUnit.SECONDS);
+
+		// Then the agents within 2 hops of the origin are updated
+		then(agents[0].getContent()).isEqualTo("xxx");
+		then(agents[1].getContent()).isEqualTo("xxx");
+		then(agents[2].getContent()).isEqualTo("xxx");
+		then(agents[3].getContent()).isEqualTo("");
+		then(report.getUpdatedAgents()).isEqualTo(3);
+		then(report.getWaves()).extracting(SpreadingWave::getMessageHops)
+				.containsExactly(1, 2, 3, 4);
+	}
+
+	@Test
+	public void givenCrowdedNeighborhood_whenMessageSpread_thenEveryAgentIsUpdatedOnce()
+			throws Exception {
+
+		// Given every cell occupied
+		Agent origin = null;
+		for (int x = 0; x < 10; x++)
+			for (int y = 0; y < 10; y++) {
+				Agent agent = new Agent();
+				neighborhood.moveAgentToLocation(agent, new Location(x, y));
+				if (origin == null)
+					origin = agent;
+			}
+		AtomicInteger updates = new AtomicInteger();
+		MessageToSpread message = new MessageToSpread("xxx", 1, 10, (obj1, obj2) -> {
+			updates.incrementAndGet();
+			return obj2;
+		});
+
+		// When a message is spread, reaching most agents from several neighbors
+		SpreadingReport report = engine.spread(origin, message).get(10,
+				TimeUnit.SECONDS);
+
+		// Then each agent applies it exactly once
+		then(updates.get()).isEqualTo(100);
+		then(report.getUpdatedAgents()).isEqualTo(100);
+		then(report.getDeliveries()).isGreaterThan(100);
+		then(neighborhood.getAllAgents()).allMatch(agent -> "xxx".equals(agent.getContent()));
+	}
+
+	@Test
+	public void givenMessageAlreadySeen_whenSpreadAgain_thenNoAgentIsUpdated()
+			throws Exception {
+		Agent[] agents = createRow(3);
+		engine.spread(agents[0], concatenating("xxx", 5)).get(10, TimeUnit.SECONDS);
+
+		SpreadingReport report = engine.spread(agents[2], concatenating("xxx", 5))
+				.get(10, TimeUnit.SECONDS);
+
+		then(report.getUpdatedAgents()).isEqualTo(0);
+		then(report.getWaves()).hasSize(1);
+		then(agents[1].getContent()).isEqualTo("xxx");
+	}
+
+	@Test
+	public void givenRecipients_whenMessageBroadcast_thenItSpreadsOnFromThem()
+			throws Exception {
+		Agent[] agents = createRow(4);
+
+		SpreadingReport report = engine
+				.broadcast(concatenating("xxx", 5), Arrays.asList(agents[3]))
+				.get(10, TimeUnit.SECONDS);
+
+		then(report.getUpdatedAgents()).isEqualTo(4);
+		then(agents[0].getContent()).isEqualTo("xxx");
+	}
+
+	@Test
+	public void givenNonPositiveThreadCount_whenEngineCreated_thenIllegalArgumentExceptionIsThrown() {
+
+		final Throwable throwable = catchThrowable(
+				() -> new MessageSpreadingEngine(() -> neighborhood, 0, 1));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+}
@@ -303,6 +303,154 @@ public class NeighborhoodTest {
 		then(neighbors.size()).isEqualTo(3);
 	}
 
+	@Test
+	public final void givenAgentsSharingACellWithEqualHashCodes_whenNeighborsRequested_thenBothAreReturned() {
+
+		// Given two equal agents in the same neighboring cell
+		Neighborhood neighborhood = new NeighborhoodImpl(10);
+		Agent a1 = new Agent();
+		Agent a2 = new Agent();
+		Agent a3 = new Agent();
+		neighborhood.moveAgentToLocation(a1, new Location(4, 4));
+		neighborhood.moveAgentToLocation(a2, new Location(5, 5));
+		neighborhood.moveAgentToLocation(a3, new Location(5, 5));
+
+		// When neighbors requested
+		List<Agent> neighbors = neighborhood.getNeighborsOfAgent(a1);
+
+		// Then neither is dropped
+		then(a2.hashCode()).isEqualTo(a3.hashCode());
+		then(neighbors.size()).isEqualTo(2);
+	}
+
+	@Test
+	public final void givenAgentMovedAway_whenNeighborsRequested_thenItIsNoLongerANeighbor() {
+
+		// Given a neighbor that moves away
+		Neighborhood neighborhood = new NeighborhoodImpl(10);
+		Agent a1 = new Agent();
+		Agent a2 = new Agent();
+		neighborhood.moveAgentToLocation(a1, new Location(4, 4));
+		neighborhood.moveAgentToLocation(a2, new Location(3, 4));
+		neighborhood.moveAgentToLocation(a2, new Location(8, 8));
+
+		// When neighbors requested
+		List<Agent> neighbors = neighborhood.getNeighborsOfAgent(a1);
+
+		// Then it is only found at its new location
+		then(neighbors).isEmpty();
+		then(neighborhood.locationIsOccupied(new Location(3, 4))).isFalse();
+		then(neighborhood.getAllAgents()).containsOnly(a1, a2);
+	}
+
+	@Test
+	public final void givenVonNeumannNeighborhood_whenNeighborsRequested_thenDiagonalsAreExcluded() {
+
+		// Given agents on every side and corner of a1
+		Neighborhood neighborhood = new NeighborhoodImpl(10);
+		Agent a1 = new Agent();
+		neighborhood.moveAgentToLocation(a1, new Location(4, 4));
+		for (int x = 3; x <= 5; x++)
+			for (int y = 3; y <= 5; y++)
+				if (x != 4 || y != 4)
+					neighborhood.moveAgentToLocation(new Agent(), new Location(x, y));
+
+		// When von Neumann and Moore neighbors requested
+		List<Agent> vonNeumann = neighborhood.getNeighborsOfAgent(a1, 1,
+				NeighborhoodType.VON_NEUMANN);
+		List<Agent> moore = neighborhood.getNeighborsOfAgent(a1, 1, NeighborhoodType.MOORE);
+
+		// Then only the adjacent cells are von Neumann neighbors
+		then(vonNeumann.size()).isEqualTo(4);
+		then(vonNeumann).allMatch(agent -> neighborhood.getDistance(a1.getLocation(),
+				agent.getLocation()) == 1);
+		then(moore.size()).isEqualTo(8);
+	}
+
+	@Test
+	public final void givenRadiusLargerThanTheGrid_whenNeighborsRequested_thenEachAgentIsReturnedOnce() {
+		Neighborhood neighborhood = new NeighborhoodImpl(5);
+		Agent a1 = new Agent();
+		neighborhood.moveAgentToLocation(a1, new Location(0, 0));
+		for (int i = 1; i < 5; i++)
+			neighborhood.moveAgentToLocation(new Agent(), new Location(i, i));
+
+		List<Agent> neighbors = neighborhood.getNeighborsOfAgent(a1, 10,
+				NeighborhoodType.MOORE);
+
+		then(neighbors.size()).isEqualTo(4);
+		then(neighbors).doesNotHaveDuplicates();
+	}
+
+	@Test
+	public final void givenNonToroidalNeighborhood_whenAgentOnEdge_thenNeighborsDoNotWrap() {
+		Neighborhood neighborhood = new NeighborhoodImpl(10, 1, NeighborhoodType.MOORE,
+				false);
+		Agent a1 = new Agent();
+		Agent a2 = new Agent();
+		Agent a3 = new Agent();
+		neighborhood.moveAgentToLocation(a1, new Location(0, 4));
+		neighborhood.moveAgentToLocation(a2, new Location(9, 4));
+		neighborhood.moveAgentToLocation(a3, new Location(1, 5));
+
+		List<Agent> neighbors = neighborhood.getNeighborsOfAgent(a1);
+
+		then(neighbors).containsExactly(a3);
+	}
+
+	@Test
+	public final void givenScatteredAgents_whenNearestNeighborsRequested_thenClosestAreReturnedInOrder() {
+
+		// Given agents at increasing distances from a1, one across the wrapped edge
+		Neighborhood neighborhood = new NeighborhoodImpl(20);
+		Agent a1 = new Agent();
+		Agent near = new Agent();
+		Agent wrapped = new Agent();
+		Agent far = new Agent();
+		neighborhood.moveAgentToLocation(a1, new Location(1, 10));
+		neighborhood.moveAgentToLocation(far, new Location(7, 10));
+		neighborhood.moveAgentToLocation(near, new Location(2, 11));
+		neighborhood.moveAgentToLocation(wrapped, new Location(18, 10));
+
+		// When the two nearest are requested
+		Agent[] nearest = new Agent[2];
+		long[] squaredDistances = new long[2];
+		int found = neighborhood.getNearestNeighborsOfAgent(a1, 10, nearest,
+				squaredDistances);
+
+		// Then they are returned closest first
+		then(found).isEqualTo(2);
+		then(nearest).containsExactly(near, wrapped);
+		then(squaredDistances).containsExactly(2L, 9L);
+	}
+
+	@Test
+	public final void givenMaxRadius_whenNearestNeighborsRequested_thenFurtherAgentsAreIgnored() {
+		Neighborhood neighborhood = new NeighborhoodImpl(20);
+		Agent a1 = new Agent();
+		neighborhood.moveAgentToLocation(a1, new Location(10, 10));
+		neighborhood.moveAgentToLocation(new Agent(), new Location(15, 10));
+
+		int found = neighborhood.getNearestNeighborsOfAgent(a1, 4, new Agent[3],
+				new long[3]);
+
+		then(found).isEqualTo(0);
+	}
+
+	@Test
+	public final void givenRemovedAgent_whenNeighborsRequested_thenItIsNotReturned() {
+		Neighborhood neighborhood = new NeighborhoodImpl(10);
+		Agent a1 = new Agent();
+		Agent a2 = new Agent();
+		neighborhood.moveAgentToLocation(a1, new Location(4, 4));
+		neighborhood.moveAgentToLocation(a2, new Location(4, 5));
+
+		then(neighborhood.removeAgent(a2)).isTrue();
+
+		then(neighborhood.getNeighborsOfAgent(a1)).isEmpty();
+		then(neighborhood.removeAgent(a2)).isFalse();
+	}
+
 	@Test
 	public final void givenAgentWithNoNeighbors_whenNeighborsRequested_thenEmptyListReturned() {
 
@@ -379,6 +527,57 @@ public class NeighborhoodTest {
 
 	}
 
+	@Test
+	public final void givenNegativeCoordinate_whenAgentMoved_thenIllegalArgumentException() {
+
+		// Given a location reporting a negative x coordinate
+		Neighborhood neighborhood = new NeighborhoodImpl(10);
+		Location negativeLocation = new Location(0, 1) {
+			@Override
+			public int getxCoordinate() {
+				return -1;
+			}
+		};
+
+		// When an agent is moved there
+		final Throwable throwable = catchThrowable(
+				() -> neighborhood.moveAgentToLocation(new Agent(), negativeLocation));
+
+		then(throwable).as("A negative coordinate should throw a IllegalArgumentException")
+				.isInstanceOf(IllegalArgumentException.class);
+		then(neighborhood.locationIsOccupied(negativeLocation)).isFalse();
+	}
+
+	@Test
+	public final void givenMovesHeldOff_whenAgentMovedFromAnotherThread_thenMoveWaitsUntilReleased()
+			throws Exception {
+
+		// Given an agent in a neighborhood
+		Neighborhood neighborhood = new NeighborhoodImpl(10);
+		Agent agent = new Agent();
+		neighborhood.moveAgentToLocation(agent, new Location(1, 1));
+
+		// When another thread moves it while moves are held off
+		Location seen = neighborhood.holdingMovesOff(() -> {
+			Thread mover = new Thread(
+					() -> neighborhood.moveAgentToLocation(agent, new Location(5, 5)));
+			mover.start();
+			try {
+				mover.join(200);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return agent.getLocation();
+		});
+
+		// Then the move only happens once they are released
+		then(seen).isEqualTo(new Location(1, 1));
+		for (int i = 0; i < 100 && !neighborhood.locationIsOccupied(new Location(5, 5)); i++)
+			Thread.sleep(10);
+		then(neighborhood.locationIsOccupied(new Location(5, 5))).isTrue();
+		then(neighborhood.locationIsOccupied(new Location(1, 1))).isFalse();
+	}
+
 	@Test
 	public final void givenSizeIsZero_whenCreated_thenIllegalArgumentException() {
 
@@ -7,7 +7,7 @@ import org.junit.runners.Suite.SuiteClasses;
 import com.emerigen.infrastructure.environment.EnvironmentTest;
 
 @RunWith(Suite.class)
-@SuiteClasses({ EnvironmentTest.class, EvaporationTest.class })
+@SuiteClasses({ EnvironmentTest.class, EvaporationTest.class, EvaporationStoreTest.class })
 public class AllTests {
 
 }
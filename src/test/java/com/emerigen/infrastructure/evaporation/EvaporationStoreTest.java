@@ -0,0 +1,142 @@
+package com.emerigen.infrastructure.evaporation;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.within;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class EvaporationStoreTest {
+
+	@Test
+	public void givenInformationSet_whenTimePasses_thenRelevanceEvaporatesWithoutASweep()
+			throws Exception {
+		// Given relevance that falls by 6 a minute, ie 0.1 a second
+		EvaporationStore store = new EvaporationStore(6.0, 1.0, 0.15, 0.02, 2);
+		store.setInformationWithRelevance("key", "info");
+
+		// When 200 ms pass
+		Thread.sleep(200);
+
+		// Then about 0.02 has evaporated
+		RelevantInformation relevantInformation = store.getRelevantInformation("key");
+		then(relevantInformation.getInformation()).isEqualTo("info");
+		then(relevantInformation.getRelevance()).isLessThan(0.98).isGreaterThan(0.9);
+		then(store.getInformationWithMinimumRelevance("key", 0.99)).isNull();
+		then(store.getInformationWithMinimumRelevance("key", 0.5)).isEqualTo("info");
+	}
+
+	@Test
+	public void givenInformationSet_whenRetrieved_thenRelevanceIncreasesEachTime() {
+		EvaporationStore store = new EvaporationStore(0.0, 1.0, 0.15, 0.02, 2);
+		store.setInformationWithRelevance("key", "info");
+
+		for (int i = 0; i < 10; i++)
+			then(store.getInformationWithRelevance("key")).isEqualTo("info");
+
+		then(store.getRelevantInformation("key").getRelevance()).isCloseTo(1.2,
+				within(0.0001));
+	}
+
+	@Test
+	public void givenInformationSetAgain_whenRetrieved_thenRelevanceIsMaximum() {
+		EvaporationStore store = new EvaporationStore(0.0, 1.0, 0.15, 0.02, 2);
+		store.setInformationWithRelevance("key", "info");
+		store.getInformationWithRelevance("key");
+
+		store.setInformationWithRelevance("key", "newInfo");
+
+		then(store.getRelevantInformation("key").getRelevance()).isEqualTo(1.0);
+		then(store.getInformationWithRelevance("key")).isEqualTo("newInfo");
+	}
+
+	@Test
+	public void givenInformationBelowLowerThreshold_whenUpdatesOccur_thenItIsEvicted()
+			throws Exception {
+		// Given information that falls below the threshold in about 40 ms
+		EvaporationStore store = new EvaporationStore(1200.0, 1.0, 0.15, 0.02, 2);
+		store.setInformationWithRelevance("first", "info");
+		store.setInformationWithRelevance("second", "info");
+		Thread.sleep(100);
+
+		// When another key is updated
+		store.setInformationWithRelevance("third", "info");
+
+		// Then the evaporated keys have been evicted from the store
+		then(store.size()).isEqualTo(1);
+		then(store.getInformationWithRelevance("first")).isNull();
+		then(store.getInformationWithMinimumRelevance("second", 0.0)).isNull();
+		then(store.getInformationWithRelevance("third")).isEqualTo("info");
+	}
+
+	@Test
+	public void givenRetrievedInformation_whenOlderInformationEvaporates_thenOnlyItIsEvicted()
+			throws Exception {
+		// Given information that falls below the threshold in about 40 ms
+		EvaporationStore store = new EvaporationStore(1200.0, 1.0, 0.15, 1.0, 2);
+		store.setInformationWithRelevance("stale", "info");
+		store.setInformationWithRelevance("retrieved", "info");
+
+		// Retrieving doubles the relevance, and more than doubles the time left
+		store.getInformationWithRelevance("retrieved");
+		Thread.sleep(60);
+
+		then(store.evictExpired()).isEqualTo(1);
+		then(store.getInformationWithRelevance("retrieved")).isEqualTo("info");
+		then(store.getRelevantInformation("stale")).isNull();
+	}
+
+	@Test
+	public void givenManyKeysSetOverTime_whenTheyEvaporate_thenSizeStaysBounded()
+			throws Exception {
+		// Given information that evaporates in about 10 ms
+		EvaporationStore store = new EvaporationStore(6000.0, 1.0, 0.15, 0.02, 2);
+
+		// When a million keys are set over a longer time
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000000; i++)
+			store.setInformationWithRelevance("key" + i, "info");
+		long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+		// Then only the keys set within the last few ms remain
+		if (elapsedMillis > 100)
+			then(store.size()).isLessThan(1000000);
+		Thread.sleep(20);
+		store.evictExpired();
+		then(store.size()).isEqualTo(0);
+	}
+
+	@Test
+	public void givenConcurrentRetrievals_whenComplete_thenNoIncreaseIsLost()
+			throws Exception {
+		EvaporationStore store = new EvaporationStore(0.0, 1.0, 0.15, 0.001, 2);
+		store.setInformationWithRelevance("key", "info");
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		for (int t = 0; t < 4; t++)
+			executor.execute(() -> {
+				for (int i = 0; i < 1000; i++)
+					store.getInformationWithRelevance("key");
+			});
+		executor.shutdown();
+		then(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+		then(store.getRelevantInformation("key").getRelevance()).isCloseTo(5.0,
+				within(0.0001));
+	}
+
+	@Test
+	public void givenEmptyKey_whenSet_thenIllegalArgumentExceptionIsThrown() {
+		EvaporationStore store = new EvaporationStore(6.0, 1.0, 0.15, 0.02, 2);
+
+		final Throwable throwable = catchThrowable(
+				() -> store.setInformationWithRelevance("", "info"));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+}
@@ -20,7 +20,7 @@ import com.emerigen.infrastructure.learning.cycle.CycleTest;
 		TransitionPredictionTest.class, CPR_ConstraintsTest.class,
 		CPR_InsertionsTest.class, CPR_LearningTest.class, CPR_PredictionTest.class,
 		TransitionTest.class, CycleTest.class, Transition_MetadataTest.class,
-		CPR_RolloverTest.class })
+		CPR_RolloverTest.class, TransitionIndexTest.class, SensorValueIndexTest.class })
 public class AllTests {
 
 }
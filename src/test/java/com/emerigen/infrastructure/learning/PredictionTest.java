@@ -3,12 +3,16 @@ package com.emerigen.infrastructure.learning;
 import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.assertj.core.api.BDDAssertions.then;
 
+import java.util.Arrays;
+
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.emerigen.infrastructure.sensor.HeartRateSensor;
+import com.emerigen.infrastructure.sensor.Sensor;
 import com.emerigen.infrastructure.sensor.SensorEvent;
 
 public class PredictionTest {
@@ -33,6 +37,20 @@ public class PredictionTest {
 				.isInstanceOf(IllegalArgumentException.class);
 	}
 
+	@Test
+	public final void givenCurrentPredictions_whenPredictedSensorEventArrives_thenItIsPredicted() {
+		Sensor sensor = new HeartRateSensor(Sensor.LOCATION_PHONE,
+				Sensor.REPORTING_MODE_ON_CHANGE, false);
+		PredictionService predictionService = new PredictionService(sensor);
+		predictionService.setCurrentPredictions(Arrays.asList(
+				new Prediction(new SensorEvent(sensor, new float[] { 80.0f }))));
+
+		then(predictionService
+				.isPredicted(new SensorEvent(sensor, new float[] { 80.0f }))).isTrue();
+		then(predictionService
+				.isPredicted(new SensorEvent(sensor, new float[] { 95.0f }))).isFalse();
+	}
+
 	@BeforeClass
 	public static void setUpBeforeClass() throws Exception {
 	}
@@ -0,0 +1,142 @@
+package com.emerigen.infrastructure.learning;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import org.junit.Test;
+
+import com.emerigen.infrastructure.sensor.AccelerometerSensor;
+import com.emerigen.infrastructure.sensor.Sensor;
+import com.emerigen.infrastructure.sensor.SensorEvent;
+import com.emerigen.infrastructure.sensor.TemperatureSensor;
+
+public class SensorValueIndexTest {
+
+	private final Sensor sensor = new TemperatureSensor(Sensor.TYPE_TEMPERATURE,
+			Sensor.LOCATION_PHONE, Sensor.REPORTING_MODE_ON_CHANGE, 1, false);
+	private final SensorValueIndex index = new SensorValueIndex(0.01);
+
+	private SensorEvent sensorEvent(float... values) {
+		return new SensorEvent(sensor, values);
+	}
+
+	@Test
+	public void givenValuesWithinToleranceInAdjacentBuckets_whenMatchingKeysRequested_thenTheyMatch() {
+
+		// Given a registered value on one side of a bucket boundary
+		SensorEvent registered = sensorEvent(99.5f);
+		index.register(registered.getSensorEventKey(), registered.getValues());
+		SensorEvent nearby = sensorEvent(100.4f);
+		then(index.getBucket(99.5f)).isNotEqualTo(index.getBucket(100.4f));
+
+		// When a value within 1% on the other side is looked up
+		// Then the registered key is found
+		then(index.getMatchingKeys(nearby))
+				.containsExactly(registered.getSensorEventKey());
+	}
+
+	@Test
+	public void givenValueBeyondTolerance_whenMatchingKeysRequested_thenNothingMatches() {
+		SensorEvent registered = sensorEvent(100.0f);
+		index.register(registered.getSensorEventKey(), registered.getValues());
+
+		then(index.getMatchingKeys(sensorEvent(102.0f))).isEmpty();
+		then(index.getMatchingKeys(sensorEvent(-100.0f))).isEmpty();
+	}
+
+	@Test
+	public void givenNearIdenticalReadings_whenCanonicalKeysRequested_thenTheFirstKeyIsReused() {
+
+		// Given a reading that became canonical
+		SensorEvent first = sensorEvent(36.60f);
+		long canonicalKey = index.getCanonicalKey(first);
+		then(canonicalKey).isEqualTo(first.getSensorEventKey());
+
+		// When near-identical and distinct readings are canonicalized
+		long nearKey = index.getCanonicalKey(sensorEvent(36.65f));
+		long distinctKey = index.getCanonicalKey(sensorEvent(38.0f));
+
+		// Then only the near-identical reading maps onto the first key
+		then(nearKey).isEqualTo(canonicalKey);
+		then(distinctKey).isNotEqualTo(canonicalKey);
+		then(index.size()).isEqualTo(2);
+	}
+
+	@Test
+	public void givenZeroAndTinyValues_whenMatched_thenTheyAreTreatedAsEqual() {
+		then(index.matches(new float[] { 0.0f }, new float[] { 1.0e-9f })).isTrue();
+		then(index.matches(new float[] { 0.0f }, new float[] { 0.5f })).isFalse();
+		then(index.matches(new float[] { 1.0f }, new float[] { 1.0f, 2.0f })).isFalse();
+	}
+
+	@Test
+	public void givenMultiDimensionalValues_whenOneDimensionDiffers_thenTheyDoNotMatch() {
+		Sensor accelerometer = new AccelerometerSensor(Sensor.LOCATION_PHONE,
+				Sensor.REPORTING_MODE_CONTINUOUS, 1, false);
+		SensorEvent registered = new SensorEvent(accelerometer,
+				new float[] { 1.0f, -9.8f, 0.2f });
+		index.register(registered.getSensorEventKey(), registered.getValues());
+
+		then(index.getMatchingKeys(
+				new SensorEvent(accelerometer, new float[] { 1.005f, -9.79f, 0.2f })))
+						.containsExactly(registered.getSensorEventKey());
+		then(index.getMatchingKeys(
+				new SensorEvent(accelerometer, new float[] { 1.0f, -9.8f, 0.3f })))
+						.isEmpty();
+	}
+
+	@Test
+	public void givenSameValuesFromAnotherSensorType_whenMatchingKeysRequested_thenNothingMatches() {
+		SensorEvent registered = sensorEvent(1.0f, -9.8f, 0.2f);
+		index.register(registered.getSensorEventKey(), registered.getValues());
+		Sensor accelerometer = new AccelerometerSensor(Sensor.LOCATION_PHONE,
+				Sensor.REPORTING_MODE_CONTINUOUS, 1, false);
+
+		then(index.getMatchingKeys(
+				new SensorEvent(accelerometer, new float[] { 1.0f, -9.8f, 0.2f })))
+						.isEmpty();
+	}
+
+	@Test
+	public void givenToleranceOutOfRange_whenIndexCreated_thenIllegalArgumentExceptionIsThrown() {
+
+		final Throwable throwable = catchThrowable(() -> new SensorValueIndex(1.5));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	public void givenFullIndex_whenEventRegistered_thenUnreferencedEventIsEvicted() {
+		SensorValueIndex bounded = new SensorValueIndex(0.01, 2);
+
+		// Given a full index where one event was referenced since the clock last
+		// passed it
+		SensorEvent first = sensorEvent(10.0f);
+		SensorEvent second = sensorEvent(20.0f);
+		SensorEvent third = sensorEvent(30.0f);
+		bounded.register(first.getSensorEventKey(), first.getValues());
+		bounded.register(second.getSensorEventKey(), second.getValues());
+		bounded.register(third.getSensorEventKey(), third.getValues());
+		then(bounded.size()).isEqualTo(2);
+		then(bounded.getMatchingKeys(third)).containsExactly(third.getSensorEventKey());
+
+		// When another event is registered
+		SensorEvent fourth = sensorEvent(40.0f);
+		bounded.register(fourth.getSensorEventKey(), fourth.getValues());
+
+		// Then the index stays bounded and keeps the referenced and newest events
+		then(bounded.size()).isEqualTo(2);
+		then(bounded.getMatchingKeys(third)).containsExactly(third.getSensorEventKey());
+		then(bounded.getMatchingKeys(fourth)).containsExactly(fourth.getSensorEventKey());
+		then(bounded.getMatchingKeys(first)).isEmpty();
+		then(bounded.getMatchingKeys(second)).isEmpty();
+	}
+
+	@Test
+	public void givenNonPositiveMaximumEntries_whenIndexCreated_thenIllegalArgumentExceptionIsThrown() {
+		Throwable thrown = catchThrowable(() -> new SensorValueIndex(0.01, 0));
+
+		then(thrown).isInstanceOf(IllegalArgumentException.class);
+	}
+
+}
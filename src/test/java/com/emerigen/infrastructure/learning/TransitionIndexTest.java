@@ -0,0 +1,169 @@
+package com.emerigen.infrastructure.learning;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.emerigen.infrastructure.sensor.HeartRateSensor;
+import com.emerigen.infrastructure.sensor.Sensor;
+import com.emerigen.infrastructure.sensor.SensorEvent;
+
+public class TransitionIndexTest {
+
+	private final Sensor sensor = new HeartRateSensor(Sensor.LOCATION_PHONE,
+			Sensor.REPORTING_MODE_ON_CHANGE, false);
+
+	@Test
+	public void givenColdIndex_whenKeyRequestedTwice_thenLoaderIsOnlyCalledOnce() {
+
+		// Given an index whose loader returns one persisted transition
+		AtomicInteger loads = new AtomicInteger();
+		TransitionIndex index = new TransitionIndex(key -> {
+			loads.incrementAndGet();
+			Map<String, SensorEvent> persisted = new HashMap<String, SensorEvent>();
+			persisted.put("t1", new SensorEvent(sensor, new float[] { 10.0f }));
+			return persisted;
+		});
+
+		// When the same key is requested twice
+		List<SensorEvent> first = index.getPredictedSensorEvents(1L);
+		List<SensorEvent> second = index.getPredictedSensorEvents(1L);
+
+		// Then the repository is only hit on the cold start
+		then(loads.get()).isEqualTo(1);
+		then(first.size()).isEqualTo(1);
+		then(second.size()).isEqualTo(1);
+		then(index.isResident(1L)).isTrue();
+	}
+
+	@Test
+	public void givenResidentKey_whenTransitionWrittenThrough_thenItIsReturnedWithoutReload() {
+
+		// Given a resident key with no transitions
+		AtomicInteger loads = new AtomicInteger();
+		TransitionIndex index = new TransitionIndex(key -> {
+			loads.incrementAndGet();
+			return new HashMap<String, SensorEvent>();
+		});
+		then(index.getPredictedSensorEvents(1L)).isEmpty();
+
+		// When a transition is written through
+		SensorEvent predicted = new SensorEvent(sensor, new float[] { 20.0f });
+		index.addTransition("t1", 1L, predicted);
+
+		// Then it is served from memory
+		then(index.getPredictedSensorEvents(1L)).containsExactly(predicted);
+		then(loads.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void givenPersistedTransition_whenSameTransitionWrittenThrough_thenItIsIndexedOnce() {
+
+		// Given a loader that already sees transition t1
+		SensorEvent predicted = new SensorEvent(sensor, new float[] { 20.0f });
+		TransitionIndex index = new TransitionIndex(key -> {
+			Map<String, SensorEvent> persisted = new HashMap<String, SensorEvent>();
+			persisted.put("t1", predicted);
+			return persisted;
+		});
+
+		// When t1 is written through for a non-resident key
+		index.addTransition("t1", 1L, predicted);
+
+		// Then the transition appears exactly once
+		then(index.getPredictedSensorEvents(1L).size()).isEqualTo(1);
+	}
+
+	@Test
+	public void givenNullTransitionId_whenTransitionWrittenThrough_thenIllegalArgumentExceptionIsThrown() {
+		TransitionIndex index = new TransitionIndex(key -> null);
+		SensorEvent predicted = new SensorEvent(sensor, new float[] { 20.0f });
+
+		final Throwable throwable = catchThrowable(
+				() -> index.addTransition(null, 1L, predicted));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	public void givenResidentTransitions_whenTransitionIdFound_thenOnlyAMatchingTransitionIsReturned() {
+		TransitionIndex index = new TransitionIndex(
+				key -> new HashMap<String, SensorEvent>());
+		index.addTransition("t1", 1L, new SensorEvent(sensor, new float[] { 20.0f }));
+		index.addTransition("t2", 1L, new SensorEvent(sensor, new float[] { 30.0f }));
+
+		then(index.findTransitionId(1L, event -> event.getValues()[0] == 30.0f))
+				.isEqualTo("t2");
+		then(index.findTransitionId(1L, event -> event.getValues()[0] == 40.0f))
+				.isNull();
+	}
+
+	@Test
+	public void givenNonResidentKey_whenTransitionWrittenThrough_thenRepositoryIsNotQueriedUntilRead() {
+
+		// Given a loader that already sees transition t1
+		AtomicInteger loads = new AtomicInteger();
+		SensorEvent persisted = new SensorEvent(sensor, new float[] { 20.0f });
+		TransitionIndex index = new TransitionIndex(key -> {
+			loads.incrementAndGet();
+			Map<String, SensorEvent> transitions = new HashMap<String, SensorEvent>();
+			transitions.put("t1", persisted);
+			return transitions;
+		});
+
+		// When t2 is written through for a non-resident key
+		SensorEvent written = new SensorEvent(sensor, new float[] { 30.0f });
+		index.addTransition("t2", 1L, written);
+
+		// Then the write does not query the repository
+		then(loads.get()).isEqualTo(0);
+		then(index.isResident(1L)).isFalse();
+
+		// And the first read merges the persisted transitions with the written one
+		then(index.getPredictedSensorEvents(1L)).containsOnly(persisted, written);
+		then(index.getPredictedSensorEvents(1L).size()).isEqualTo(2);
+		then(loads.get()).isEqualTo(1);
+		then(index.isResident(1L)).isTrue();
+	}
+
+	@Test
+	public void givenFullIndex_whenNewKeyRead_thenLeastRecentlyReferencedKeyIsEvicted() {
+
+		// Given an index holding at most two keys
+		AtomicInteger loads = new AtomicInteger();
+		TransitionIndex index = new TransitionIndex(key -> {
+			loads.incrementAndGet();
+			return new HashMap<String, SensorEvent>();
+		}, 2);
+		index.getPredictedSensorEvents(1L);
+		index.getPredictedSensorEvents(2L);
+
+		// When a third key is read
+		index.getPredictedSensorEvents(3L);
+
+		// Then the index stays bounded and keeps the key just read
+		then(index.size()).isEqualTo(2);
+		then(index.isResident(3L)).isTrue();
+
+		// And an evicted key is reloaded on its next read
+		long evicted = index.isResident(1L) ? 2L : 1L;
+		index.getPredictedSensorEvents(evicted);
+		then(loads.get()).isEqualTo(4);
+		then(index.size()).isEqualTo(2);
+	}
+
+	@Test
+	public void givenNonPositiveMaximumKeys_whenIndexCreated_thenIllegalArgumentExceptionIsThrown() {
+		final Throwable throwable = catchThrowable(
+				() -> new TransitionIndex(key -> null, 0));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+}
@@ -8,7 +8,8 @@ import org.junit.runners.Suite.SuiteClasses;
 @SuiteClasses({ CircularListTest.class, CPR_ConstraintsTest.class, CPR_GeoFenceTest.class,
 		CPR_InsertionsTest.class, CPR_LearningTest.class, CPR_PredictionTest.class,
 		CPR_RolloverTest.class, CycleConstraintsTest.class,
-		CyclePatternRecognizerTest.class, CycleTest.class })
+		CyclePatternRecognizerTest.class, CycleTest.class, CycleCalendarTest.class,
+		MultiCyclePatternRecognizerTest.class })
 public class AllTests {
 
 }
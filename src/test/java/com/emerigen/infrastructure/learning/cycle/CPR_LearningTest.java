@@ -66,7 +66,8 @@ public class CPR_LearningTest {
 		CyclePatternRecognizer cpr = new CyclePatternRecognizer(gpsCycle, gpsSensor,
 				new PredictionService());
 
-		assertThat(sm.getRegistrationsForSensor(gpsSensor).size()).isEqualTo(5);
+		// One multi-cycle recognizer and one transition recognizer
+		assertThat(sm.getRegistrationsForSensor(gpsSensor).size()).isEqualTo(2);
 	}
 
 	@BeforeClass
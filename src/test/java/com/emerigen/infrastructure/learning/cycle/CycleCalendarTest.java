@@ -0,0 +1,113 @@
+package com.emerigen.infrastructure.learning.cycle;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import org.junit.Test;
+
+import com.emerigen.infrastructure.learning.cycle.CycleCalendar.Period;
+
+public class CycleCalendarTest {
+
+	private static final long NANOS_PER_HOUR = 3600L * 1000000000L;
+	private static final long NANOS_PER_DAY = 24 * NANOS_PER_HOUR;
+	private final ZoneId newYork = ZoneId.of("America/New_York");
+	private final CycleCalendar calendar = new CycleCalendar(newYork, 2019, 2021,
+			DayOfWeek.SUNDAY);
+
+	private long nano(LocalDateTime dateTime) {
+		return dateTime.atZone(newYork).toEpochSecond() * 1000000000L;
+	}
+
+	private long startOfDayNano(LocalDate date) {
+		return date.atStartOfDay(newYork).toEpochSecond() * 1000000000L;
+	}
+
+	@Test
+	public void givenDaylightSavingsStartDay_whenDailyDurationResolved_thenItIs23Hours() {
+
+		// Given a time on the day clocks spring forward
+		long timestamp = nano(LocalDateTime.of(2020, 3, 8, 15, 30));
+
+		// When the daily cycle is resolved
+		long start = calendar.getCycleStartNano(Period.DAY, timestamp);
+		long duration = calendar.getCycleDurationNano(Period.DAY, timestamp);
+
+		// Then it starts at local midnight and is one hour short
+		then(start).isEqualTo(startOfDayNano(LocalDate.of(2020, 3, 8)));
+		then(duration).isEqualTo(23 * NANOS_PER_HOUR);
+	}
+
+	@Test
+	public void givenLeapYearFebruary_whenMonthlyCycleResolved_thenItIsExactly29Days() {
+		long timestamp = nano(LocalDateTime.of(2020, 2, 17, 8, 0));
+
+		then(calendar.getCycleStartNano(Period.MONTH, timestamp))
+				.isEqualTo(startOfDayNano(LocalDate.of(2020, 2, 1)));
+		then(calendar.getCycleDurationNano(Period.MONTH, timestamp))
+				.isEqualTo(29 * NANOS_PER_DAY);
+	}
+
+	@Test
+	public void givenLeapYear_whenYearlyCycleResolved_thenItIsExactly366Days() {
+		long timestamp = nano(LocalDateTime.of(2020, 7, 4, 12, 0));
+
+		then(calendar.getCycleStartNano(Period.YEAR, timestamp))
+				.isEqualTo(startOfDayNano(LocalDate.of(2020, 1, 1)));
+		then(calendar.getCycleDurationNano(Period.YEAR, timestamp))
+				.isEqualTo(366 * NANOS_PER_DAY);
+	}
+
+	@Test
+	public void givenSundayWeekStart_whenWeeklyCycleResolvedOnASunday_thenItStartsThatSunday() {
+
+		// Given a time on Sunday, January 5th 2020
+		long timestamp = nano(LocalDateTime.of(2020, 1, 5, 9, 0));
+
+		// When the weekly cycle is resolved
+		long start = calendar.getCycleStartNano(Period.WEEK, timestamp);
+
+		// Then the week starts that same Sunday, not the one before
+		then(start).isEqualTo(startOfDayNano(LocalDate.of(2020, 1, 5)));
+		then(calendar.getCycleOffsetNano(Period.WEEK, timestamp))
+				.isEqualTo(9 * NANOS_PER_HOUR);
+	}
+
+	@Test
+	public void givenTimestampOutsideWindow_whenCycleResolved_thenItMatchesTheComputedBoundaries() {
+
+		// Given a time years after the precomputed window
+		long timestamp = nano(LocalDateTime.of(2030, 3, 10, 12, 0));
+		then(calendar.covers(timestamp)).isFalse();
+
+		// When the cycle is resolved, then it is computed on demand
+		then(calendar.getCycleStartNano(Period.MONTH, timestamp))
+				.isEqualTo(startOfDayNano(LocalDate.of(2030, 3, 1)));
+		then(calendar.getCycleDurationNano(Period.DAY, timestamp))
+				.isEqualTo(23 * NANOS_PER_HOUR);
+	}
+
+	@Test
+	public void givenCalendarCycleType_whenPeriodResolved_thenMatchingPeriodIsReturned() {
+		then(Period.fromCycleType("Daily")).isEqualTo(Period.DAY);
+		then(Period.fromCycleType("Weekly")).isEqualTo(Period.WEEK);
+		then(Period.fromCycleType("Monthly")).isEqualTo(Period.MONTH);
+		then(Period.fromCycleType("Yearly")).isEqualTo(Period.YEAR);
+		then(Period.fromCycleType("Hourly")).isNull();
+	}
+
+	@Test
+	public void givenFirstYearAfterLastYear_whenCalendarCreated_thenIllegalArgumentExceptionIsThrown() {
+
+		final Throwable throwable = catchThrowable(
+				() -> new CycleCalendar(newYork, 2021, 2019, DayOfWeek.MONDAY));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+}
@@ -0,0 +1,110 @@
+package com.emerigen.infrastructure.learning.cycle;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.emerigen.infrastructure.learning.PredictionService;
+import com.emerigen.infrastructure.sensor.Sensor;
+import com.emerigen.infrastructure.sensor.SensorEvent;
+import com.emerigen.infrastructure.sensor.TemperatureSensor;
+
+public class MultiCyclePatternRecognizerTest {
+
+	private static final long NANOS_PER_MINUTE = 60L * 1000000000L;
+
+	private final Sensor sensor = new TemperatureSensor(Sensor.TYPE_TEMPERATURE,
+			Sensor.LOCATION_PHONE, Sensor.REPORTING_MODE_ON_CHANGE, 1, false);
+	private PredictionService predictionService;
+	private MultiCyclePatternRecognizer recognizer;
+	private long noonToday;
+
+	@Before
+	public void setUp() {
+		predictionService = mock(PredictionService.class);
+		List<Cycle> cycles = Arrays.asList(
+				new DailyCycle(sensor.getSensorType(), sensor.getSensorLocation()),
+				new WeeklyCycle(sensor.getSensorType(), sensor.getSensorLocation()),
+				new MonthlyCycle(sensor.getSensorType(), sensor.getSensorLocation()),
+				new YearlyCycle(sensor.getSensorType(), sensor.getSensorLocation()));
+		recognizer = new MultiCyclePatternRecognizer(cycles, sensor, predictionService);
+		noonToday = cycles.get(0).getCycleStartTimeNano() + 12 * 60 * NANOS_PER_MINUTE;
+	}
+
+	private SensorEvent sensorEvent(float value, long timestamp) {
+		SensorEvent sensorEvent = new SensorEvent(sensor, new float[] { value });
+		sensorEvent.setTimestamp(timestamp);
+		return sensorEvent;
+	}
+
+	@Test
+	public void givenFourCycles_whenNewEventFollowsPreviousEvent_thenTransitionIsCreatedOnce() {
+
+		// Given an event learned by all four cycles
+		SensorEvent first = sensorEvent(20.0f, noonToday);
+		recognizer.onSensorChanged(first);
+
+		// When a different, later event arrives
+		SensorEvent second = sensorEvent(-5.0f, noonToday + NANOS_PER_MINUTE);
+		recognizer.onSensorChanged(second);
+
+		// Then the shared transition is created once and predictions looked up once
+		// per event
+		verify(predictionService, times(1)).createPredictionFromSensorEvents(first,
+				second);
+		verify(predictionService, times(2)).getPredictionsForSensorEvents(anyList());
+		for (Cycle cycle : recognizer.getCycles())
+			then(recognizer.getPreviousSensorEvent(cycle)).isSameAs(second);
+	}
+
+	@Test
+	public void givenFourCycles_whenEqualEventArrives_thenItIsMergedIntoThePreviousEventOnce() {
+
+		// Given an event learned by all four cycles
+		SensorEvent first = sensorEvent(20.0f, noonToday);
+		long duration = first.getDataPointDurationNano();
+		recognizer.onSensorChanged(first);
+
+		// When an equal event arrives
+		SensorEvent second = sensorEvent(20.0f, noonToday + NANOS_PER_MINUTE);
+		recognizer.onSensorChanged(second);
+
+		// Then its duration is added to the previous event exactly once
+		then(first.getDataPointDurationNano())
+				.isEqualTo(duration + second.getDataPointDurationNano());
+		verify(predictionService, times(0)).createPredictionFromSensorEvents(any(),
+				any());
+	}
+
+	@Test
+	public void givenEventOfAnotherSensorLocation_whenOnSensorChanged_thenIllegalArgumentExceptionIsThrown() {
+		Sensor watchSensor = new TemperatureSensor(Sensor.TYPE_TEMPERATURE,
+				Sensor.LOCATION_WATCH, Sensor.REPORTING_MODE_ON_CHANGE, 1, false);
+
+		final Throwable throwable = catchThrowable(() -> recognizer
+				.onSensorChanged(new SensorEvent(watchSensor, new float[] { 20.0f })));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	public void givenNoCycles_whenRecognizerCreated_thenIllegalArgumentExceptionIsThrown() {
+
+		final Throwable throwable = catchThrowable(() -> new MultiCyclePatternRecognizer(
+				new ArrayList<Cycle>(), sensor, predictionService));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+}
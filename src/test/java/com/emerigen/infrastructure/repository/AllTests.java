@@ -7,7 +7,9 @@ import org.junit.runners.Suite.SuiteClasses;
 @RunWith(Suite.class)
 @SuiteClasses({
 		// KnowledgeRepositoryLoadTest.class,
-		KnowledgeRepositoryTest.class })
+		KnowledgeRepositoryTest.class, JsonSchemaRegistryTest.class,
+		DocumentDecoderTest.class, CompactDocumentCodecTest.class,
+		KnowledgeCountersTest.class, KnowledgeRepositoryDocumentTest.class })
 public class AllTests {
 
 }
@@ -0,0 +1,104 @@
+package com.emerigen.infrastructure.repository;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.couchbase.client.java.json.JsonArray;
+import com.couchbase.client.java.json.JsonObject;
+import com.emerigen.infrastructure.sensor.Sensor;
+
+public class CompactDocumentCodecTest {
+
+	private final CompactDocumentCodec codec = new CompactDocumentCodec();
+
+	/**
+	 * A transition document as logged by the PredictionService
+	 */
+	private JsonObject transition(String firstSensorEventKey, float predictedValue) {
+		JsonObject sensor = JsonObject.create().put("sensorType", Sensor.TYPE_HEART_RATE)
+				.put("sensorLocation", Sensor.LOCATION_WATCH).put("wakeUpSensor", false)
+				.put("minimumDelayBetweenReadings", 100000000L)
+				.put("reportingMode", Sensor.REPORTING_MODE_ON_CHANGE).put("type", "sensor");
+		JsonObject predictedSensorEvent = JsonObject.create()
+				.put("sensorType", Sensor.TYPE_HEART_RATE)
+				.put("sensorLocation", Sensor.LOCATION_WATCH).put("type", "sensor-event")
+				.put("timestamp", 1580000000000000000L)
+				.put("values", JsonArray.create().add(predictedValue)).put("sensor", sensor);
+		return JsonObject.create().put("cashOnHand", 100.0).put("probability", 0.5)
+				.put("timestamp", 1580000000123456789L).put("type", "transition")
+				.put("dataPointDurationNano", 100L)
+				.put("lastSuccessfulPredictionTimestamp", 1580000000123456789L)
+				.put("numberOfPredictionAttempts", 0).put("numberOfSuccessfulPredictions", 0)
+				.put("firstSensorEventKey", firstSensorEventKey)
+				.put("predictedSensorEvent", predictedSensorEvent);
+	}
+
+	private static JsonObject jsonRoundTrip(JsonObject document) {
+		return JsonObject.fromJson(document.toString());
+	}
+
+	@Test
+	public void givenTransitionDocument_whenEncodedAndDecoded_thenItEqualsTheJsonRoundTrip() {
+		JsonObject transition = transition("2231", 72.3f);
+
+		byte[] encoded = codec.encode(transition);
+		JsonObject decoded = codec.decode(encoded);
+
+		then(CompactDocumentCodec.isCompact(encoded)).isTrue();
+		then(decoded).isEqualTo(jsonRoundTrip(transition));
+	}
+
+	@Test
+	public void givenSensorAlreadyDefined_whenTransitionEncoded_thenSensorIsReferencedById() {
+
+		// Given a codec that has encoded a transition of the sensor
+		byte[] first = codec.encode(transition("2231", 72.0f));
+
+		// When a second transition of the same sensor is encoded
+		JsonObject transition = transition("2231", 80.0f);
+		byte[] second = codec.encode(transition);
+
+		// Then it is smaller, a fraction of the JSON size, and still decodes exactly
+		then(second.length).isLessThan(first.length);
+		then(second.length * 3)
+				.isLessThan(transition.toString().getBytes(StandardCharsets.UTF_8).length);
+		then(codec.getSensorDefinitionCount()).isEqualTo(1);
+		then(codec.decode(second)).isEqualTo(jsonRoundTrip(transition));
+	}
+
+	@Test
+	public void givenDocumentsOutsideTheCompactLayout_whenEncoded_thenNullIsReturned() {
+		JsonObject cycle = JsonObject.create().put("type", "cycle").put("cycleType",
+				"Daily");
+		JsonObject unknownField = transition("2231", 72.0f).put("comment", "note");
+		JsonObject integerValues = JsonObject.create().put("type", "sensor-event")
+				.put("values", JsonArray.from(72));
+
+		then(codec.encode(cycle)).isNull();
+		then(codec.encode(unknownField)).isNull();
+		then(codec.encode(integerValues)).isNull();
+	}
+
+	@Test
+	public void givenDocumentLongerThanMaximum_whenEncoded_thenNullIsReturnedAndNoSensorIsDefined() {
+
+		then(codec.encode(transition("2231", 72.0f), 16)).isNull();
+		then(codec.getSensorDefinitionCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void givenReferenceToUndefinedSensor_whenDecodedByAnotherCodec_thenRepositoryExceptionIsThrown() {
+		codec.encode(transition("2231", 72.0f));
+		byte[] reference = codec.encode(transition("2231", 80.0f));
+
+		final Throwable throwable = catchThrowable(
+				() -> new CompactDocumentCodec().decode(reference));
+
+		then(throwable).isInstanceOf(RepositoryException.class);
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.emerigen.infrastructure.repository;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import org.junit.Test;
+
+import com.couchbase.client.java.json.JsonArray;
+import com.couchbase.client.java.json.JsonObject;
+import com.emerigen.infrastructure.learning.Transition;
+import com.emerigen.infrastructure.sensor.Sensor;
+import com.emerigen.infrastructure.sensor.SensorEvent;
+
+public class DocumentDecoderTest {
+
+	private JsonObject sensorJsonObject() {
+		return JsonObject.create().put("sensorType", Sensor.TYPE_HEART_RATE)
+				.put("sensorLocation", Sensor.LOCATION_WATCH).put("wakeUpSensor", true)
+				.put("minimumDelayBetweenReadings", 250000000L)
+				.put("reportingMode", Sensor.REPORTING_MODE_ON_CHANGE).put("type", "sensor");
+	}
+
+	private JsonObject sensorEventJsonObject(JsonArray values) {
+		return JsonObject.create().put("sensorType", Sensor.TYPE_HEART_RATE)
+				.put("sensorLocation", Sensor.LOCATION_WATCH).put("type", "sensor-event")
+				.put("timestamp", 1234567890L).put("dataPointDurationNano", 100)
+				.put("values", values).put("sensor", sensorJsonObject());
+	}
+
+	@Test
+	public void givenSensorEventDocument_whenDecoded_thenAllFieldsAndSensorAreSet() {
+
+		// Given a sensor event document as logged with a transition
+		JsonObject document = sensorEventJsonObject(JsonArray.create().add(72.5f).add(1.0));
+
+		// When it is decoded
+		SensorEvent sensorEvent = DocumentDecoder.decodeSensorEvent(document);
+
+		// Then the event, its values and its sensor are populated
+		then(sensorEvent.getValues()).containsExactly(72.5f, 1.0f);
+		then(sensorEvent.getTimestamp()).isEqualTo(1234567890L);
+		then(sensorEvent.getDataPointDurationNano()).isEqualTo(100L);
+		then(sensorEvent.getSensorType()).isEqualTo(Sensor.TYPE_HEART_RATE);
+		then(sensorEvent.getSensorLocation()).isEqualTo(Sensor.LOCATION_WATCH);
+		then(sensorEvent.getSensor().isWakeUpSensor()).isTrue();
+		then(sensorEvent.getSensor().getMinimumDelayBetweenReadings())
+				.isEqualTo(250000000L);
+		then(sensorEvent.getSensor().getReportingMode())
+				.isEqualTo(Sensor.REPORTING_MODE_ON_CHANGE);
+	}
+
+	@Test
+	public void givenTransitionDocument_whenDecoded_thenTransitionAndPredictedEventAreSet() {
+		JsonObject document = JsonObject.create().put("cashOnHand", 100.0)
+				.put("probability", 0.5).put("timestamp", 42L).put("type", "transition")
+				.put("dataPointDurationNano", 100L)
+				.put("lastSuccessfulPredictionTimestamp", 43L)
+				.put("numberOfPredictionAttempts", 3).put("numberOfSuccessfulPredictions", 2)
+				.put("firstSensorEventKey", "2231")
+				.put("predictedSensorEvent", sensorEventJsonObject(JsonArray.from(90.0)));
+
+		Transition transition = DocumentDecoder.decodeTransition(document);
+
+		then(transition.getCashOnHand()).isEqualTo(100.0);
+		then(transition.getProbability()).isEqualTo(0.5);
+		then(transition.getTimestamp()).isEqualTo(42L);
+		then(transition.getLastSuccessfulPredictionTimestamp()).isEqualTo(43L);
+		then(transition.getNumberOfPredictionAttempts()).isEqualTo(3L);
+		then(transition.getNumberOfSuccessfulPredictions()).isEqualTo(2L);
+		then(transition.getFirstSensorEventKey()).isEqualTo("2231");
+		then(transition.getPredictedSensorEvent().getValues()).containsExactly(90.0f);
+	}
+
+	@Test
+	public void givenSensorEventDocumentWithoutValues_whenDecoded_thenRepositoryExceptionIsThrown() {
+		JsonObject document = sensorEventJsonObject(JsonArray.create());
+		document.removeKey("values");
+
+		final Throwable throwable = catchThrowable(
+				() -> DocumentDecoder.decodeSensorEvent(document));
+
+		then(throwable).isInstanceOf(RepositoryException.class);
+	}
+
+	@Test
+	public void givenNonNumericValue_whenDecoded_thenRepositoryExceptionIsThrown() {
+		JsonObject document = sensorEventJsonObject(JsonArray.from("seventy"));
+
+		final Throwable throwable = catchThrowable(
+				() -> DocumentDecoder.decodeSensorEvent(document));
+
+		then(throwable).isInstanceOf(RepositoryException.class);
+	}
+
+}
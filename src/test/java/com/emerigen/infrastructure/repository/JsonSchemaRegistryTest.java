@@ -0,0 +1,79 @@
+package com.emerigen.infrastructure.repository;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.io.InputStream;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.After;
+import org.junit.Test;
+
+public class JsonSchemaRegistryTest {
+
+	private final JsonSchemaRegistry registry = JsonSchemaRegistry.getInstance();
+
+	@After
+	public void restoreValidationMode() {
+		registry.setValidationMode(ValidationMode.ALWAYS);
+		registry.setSampleRate(0.01);
+	}
+
+	@Test
+	public void givenSchemaAlreadyLoaded_whenRequestedAgain_thenSameCompiledSchemaIsReturned() {
+		then(registry.getSchema(JsonSchemaRegistry.SENSOR_EVENT_SCHEMA))
+				.isSameAs(registry.getSchema(JsonSchemaRegistry.SENSOR_EVENT_SCHEMA));
+	}
+
+	@Test
+	public void givenValidSensorEvent_whenValidatingAlways_thenItIsValidated() {
+		registry.setValidationMode(ValidationMode.ALWAYS);
+		JSONObject valid = load("test/sensor-event-valid.json");
+
+		then(registry.validate(valid, JsonSchemaRegistry.SENSOR_EVENT_SCHEMA)).isTrue();
+	}
+
+	@Test
+	public void givenValidationOff_whenValidatingInvalidDocument_thenItIsSkipped() {
+		registry.setValidationMode(ValidationMode.OFF);
+		JSONObject invalid = load("test/sensor-event-invalid-no-sensor-type.json");
+
+		then(registry.validate(invalid, JsonSchemaRegistry.SENSOR_EVENT_SCHEMA))
+				.isFalse();
+	}
+
+	@Test
+	public void givenSampledModeWithFullRate_whenValidating_thenEveryDocumentIsValidated() {
+		registry.setValidationMode(ValidationMode.SAMPLED);
+		registry.setSampleRate(1.0);
+
+		then(registry.shouldValidate()).isTrue();
+		registry.setSampleRate(0.0);
+		then(registry.shouldValidate()).isFalse();
+	}
+
+	@Test
+	public void givenUnknownMode_whenParsing_thenIllegalArgumentExceptionIsThrown() {
+		then(ValidationMode.fromString("Sampled")).isEqualTo(ValidationMode.SAMPLED);
+
+		final Throwable throwable = catchThrowable(
+				() -> ValidationMode.fromString("sometimes"));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	public void givenMissingSchema_whenRequested_thenRepositoryExceptionIsThrown() {
+		final Throwable throwable = catchThrowable(
+				() -> registry.getSchema("no-such-schema.json"));
+
+		then(throwable).isInstanceOf(RepositoryException.class);
+	}
+
+	private JSONObject load(String resource) {
+		InputStream inputStream = getClass().getClassLoader()
+				.getResourceAsStream(resource);
+		return new JSONObject(new JSONTokener(inputStream));
+	}
+}
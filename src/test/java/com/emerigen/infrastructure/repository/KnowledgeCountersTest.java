@@ -0,0 +1,170 @@
+package com.emerigen.infrastructure.repository;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.couchbase.client.java.json.JsonArray;
+import com.couchbase.client.java.json.JsonObject;
+import com.emerigen.infrastructure.repository.KnowledgeCounters.Counter;
+import com.emerigen.infrastructure.repository.embedded.EmbeddedRepository;
+
+public class KnowledgeCountersTest {
+
+	private static final int SEGMENT_SIZE = 4096;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path directory;
+	private EmbeddedRepository repository;
+
+	@Before
+	public void openRepository() throws Exception {
+		directory = folder.newFolder("knowledge").toPath();
+		repository = new EmbeddedRepository(directory, SEGMENT_SIZE);
+	}
+
+	@After
+	public void closeRepository() {
+		repository.disconnect();
+	}
+
+	private JsonObject sensorEvent(int sensorType, int sensorLocation) {
+		return JsonObject.create().put("type", "sensor-event")
+				.put("sensorType", sensorType).put("sensorLocation", sensorLocation)
+				.put("timestamp", 1L).put("values", JsonArray.create().add(72.0));
+	}
+
+	@Test
+	public void givenExistingDocuments_whenCountersFirstUsed_thenTheyAreSeededFromDocumentCounts() {
+
+		// Given sensor events logged before the counters existed
+		repository.log("e1", sensorEvent(1, 2), false);
+		repository.log("e2", sensorEvent(1, 2), false);
+		repository.log("e3", sensorEvent(1, 4), false);
+
+		// When the counters are first read
+		KnowledgeCounters counters = new KnowledgeCounters(() -> repository);
+
+		// Then they reflect the stored documents
+		then(counters.get(Counter.SENSOR_EVENTS, 1, 2)).isEqualTo(2);
+		then(counters.get(Counter.SENSOR_EVENTS, 1, 4)).isEqualTo(1);
+		then(counters.get(Counter.TRANSITIONS, 1, 2)).isEqualTo(0);
+	}
+
+	@Test
+	public void givenSeededCounters_whenIncremented_thenNoFurtherScanIsNeeded() {
+		KnowledgeCounters counters = new KnowledgeCounters(() -> repository);
+		then(counters.get(Counter.SENSOR_EVENTS, 1, 2)).isEqualTo(0);
+
+		// Documents written behind the counters' back are not recounted
+		repository.log("e1", sensorEvent(1, 2), false);
+		counters.increment(Counter.TRANSITIONS, 1, 2);
+		counters.increment(Counter.TRANSITIONS, 1, 2);
+
+		then(counters.get(Counter.SENSOR_EVENTS, 1, 2)).isEqualTo(0);
+		then(counters.get(Counter.TRANSITIONS, 1, 2)).isEqualTo(2);
+	}
+
+	@Test
+	public void givenSensorEventReplacedTwice_whenCountedFromWrites_thenItIsCountedOnce() {
+		KnowledgeCounters counters = new KnowledgeCounters(() -> repository);
+
+		// When the same sensor event is written twice by replace
+		repository.replace("e1", sensorEvent(1, 2), false,
+				counters.countCreated(Counter.SENSOR_EVENTS, 1, 2));
+		repository.replace("e1", sensorEvent(1, 2), false,
+				counters.countCreated(Counter.SENSOR_EVENTS, 1, 2));
+
+		// Then only the write that created it is counted
+		then(counters.get(Counter.SENSOR_EVENTS, 1, 2)).isEqualTo(1);
+	}
+
+	@Test
+	public void givenTransitionCountedBeforeWrite_whenWriteFails_thenCountIsTakenBack() {
+		KnowledgeCounters counters = new KnowledgeCounters(() -> repository);
+		repository.log("t1", sensorEvent(1, 2), false);
+
+		// When a second log of the same key fails
+		repository.log("t1", sensorEvent(1, 2), false,
+				counters.uncountFailed(Counter.TRANSITIONS, 1, 2));
+		repository.log("t2", sensorEvent(1, 2), false,
+				counters.uncountFailed(Counter.TRANSITIONS, 1, 2));
+
+		// Then only the successful log is counted
+		then(counters.get(Counter.TRANSITIONS, 1, 2)).isEqualTo(1);
+	}
+
+	@Test
+	public void givenPredictionOutcomes_whenAccuracyRead_thenItIsTheSuccessRatio() {
+		KnowledgeCounters counters = new KnowledgeCounters(() -> repository);
+		then(counters.getPredictionAccuracy(1, 2)).isEqualTo(0.0);
+
+		counters.recordPrediction(1, 2, true);
+		counters.recordPrediction(1, 2, false);
+		counters.recordPrediction(1, 2, true);
+		counters.recordPrediction(1, 2, true);
+
+		then(counters.getPredictionAccuracy(1, 2)).isEqualTo(0.75);
+		then(counters.get(Counter.PREDICTION_ATTEMPTS, 1, 2)).isEqualTo(4);
+	}
+
+	@Test
+	public void givenPersistedCounters_whenReseeded_thenCountsAreReadFromTheCountersDocument() {
+
+		// Given counts that were persisted
+		KnowledgeCounters counters = new KnowledgeCounters(() -> repository);
+		counters.increment(Counter.TRANSITIONS, 1, 2);
+		counters.recordPrediction(1, 2, true);
+		then(counters.persist()).isEqualTo(1);
+		then(counters.persist()).isEqualTo(0);
+
+		// When new counters are seeded after more documents were stored
+		repository.log("e1", sensorEvent(1, 2), false);
+		KnowledgeCounters reseeded = new KnowledgeCounters(() -> repository);
+
+		// Then the counters document is used rather than the documents
+		then(repository.get(KnowledgeCounters.getCountersKey(1, 2)).getString("type"))
+				.isEqualTo(KnowledgeCounters.COUNTERS);
+		then(reseeded.get(Counter.TRANSITIONS, 1, 2)).isEqualTo(1);
+		then(reseeded.get(Counter.SENSOR_EVENTS, 1, 2)).isEqualTo(0);
+		then(reseeded.getPredictionAccuracy(1, 2)).isEqualTo(1.0);
+	}
+
+	@Test
+	public void givenNonPositivePeriod_whenPersistingStarted_thenIllegalArgumentExceptionIsThrown() {
+		KnowledgeCounters counters = new KnowledgeCounters(() -> repository);
+
+		final Throwable throwable = catchThrowable(() -> counters.startPersisting(0));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	public void givenTwoCountersSharingABackend_whenBothPersist_thenTheirChangesAreAdded() {
+
+		// Given two processes' counters seeded from the same backend
+		KnowledgeCounters first = new KnowledgeCounters(() -> repository);
+		KnowledgeCounters second = new KnowledgeCounters(() -> repository);
+		first.increment(Counter.TRANSITIONS, 1, 2);
+		second.increment(Counter.TRANSITIONS, 1, 2);
+		second.increment(Counter.TRANSITIONS, 1, 2);
+
+		// When both persist, one after the other
+		then(first.persist()).isEqualTo(1);
+		then(second.persist()).isEqualTo(1);
+
+		// Then neither overwrote the other's changes
+		then(repository.get(KnowledgeCounters.getCountersKey(1, 2))
+				.getLong(Counter.TRANSITIONS.getFieldName())).isEqualTo(3);
+	}
+
+}
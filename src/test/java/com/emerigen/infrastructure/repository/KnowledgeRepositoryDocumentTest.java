@@ -0,0 +1,178 @@
+package com.emerigen.infrastructure.repository;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.couchbase.client.java.json.JsonObject;
+import com.emerigen.infrastructure.learning.Transition;
+import com.emerigen.infrastructure.learning.cycle.Cycle;
+import com.emerigen.infrastructure.learning.cycle.DailyCycle;
+import com.emerigen.infrastructure.repository.embedded.EmbeddedRepository;
+import com.emerigen.infrastructure.sensor.HeartRateSensor;
+import com.emerigen.infrastructure.sensor.Sensor;
+import com.emerigen.infrastructure.sensor.SensorEvent;
+
+/**
+ * Sends real knowledge objects through the KnowledgeRepository, backed by an
+ * embedded store, so no Couchbase server is needed.
+ * 
+ * @author Larry
+ *
+ */
+public class KnowledgeRepositoryDocumentTest {
+
+	private static final int SEGMENT_SIZE = 64 * 1024;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Sensor sensor = new HeartRateSensor(Sensor.LOCATION_PHONE,
+			Sensor.REPORTING_MODE_ON_CHANGE, false);
+	private final JsonSchemaRegistry schemaRegistry = JsonSchemaRegistry.getInstance();
+	private EmbeddedRepository backend;
+	private KnowledgeRepository repository;
+
+	@Before
+	public void openRepository() throws Exception {
+		schemaRegistry.setValidationMode(ValidationMode.ALWAYS);
+		backend = new EmbeddedRepository(folder.newFolder("knowledge").toPath(),
+				SEGMENT_SIZE);
+		repository = new KnowledgeRepository(backend);
+	}
+
+	@After
+	public void closeRepository() {
+		backend.disconnect();
+	}
+
+	@Test
+	public void givenRealSensorEvent_whenValidated_thenFloatValuesAreHeldAsDoubles() {
+
+		// Given a sensor event whose values are floats
+		SensorEvent sensorEvent = new SensorEvent(sensor, new float[] { 72.5f, 1.2f });
+
+		// When it is validated against its schema
+		JsonObject jsonObject = repository.validateJson(sensorEvent,
+				JsonSchemaRegistry.SENSOR_EVENT_SCHEMA);
+
+		// Then the document holds the decimal values of the floats
+		then(jsonObject.getInt("sensorType")).isEqualTo(sensor.getSensorType());
+		then(jsonObject.getArray("values").getDouble(0)).isEqualTo(72.5);
+		then(jsonObject.getArray("values").getDouble(1)).isEqualTo(1.2);
+	}
+
+	@Test
+	public void givenRealTransition_whenValidated_thenPredictedSensorEventIsNested() {
+
+		// Given a transition between two sensor events
+		SensorEvent firstSensorEvent = new SensorEvent(sensor, new float[] { 72.5f });
+		SensorEvent predictedSensorEvent = new SensorEvent(sensor,
+				new float[] { 80.25f });
+		Transition transition = new Transition(firstSensorEvent, predictedSensorEvent);
+		transition.setFirstSensorEventKey(firstSensorEvent.getKey());
+
+		// When it is validated against its schema
+		JsonObject jsonObject = repository.validateJson(transition,
+				JsonSchemaRegistry.TRANSITION_SCHEMA);
+
+		// Then the predicted sensor event is an object of its own
+		then(jsonObject.getString("firstSensorEventKey"))
+				.isEqualTo(firstSensorEvent.getKey());
+		then(jsonObject.getObject("predictedSensorEvent").getArray("values")
+				.getDouble(0)).isEqualTo(80.25);
+	}
+
+	@Test
+	public void givenStoredSensorEvents_whenRetrievedTogether_thenOnlyStoredOnesAreReturnedInOrder() {
+
+		// Given two stored sensor events
+		SensorEvent first = new SensorEvent(sensor, new float[] { 72.5f });
+		SensorEvent second = new SensorEvent(sensor, new float[] { 80.25f });
+		store(first.getKey(), first, JsonSchemaRegistry.SENSOR_EVENT_SCHEMA);
+		store(second.getKey(), second, JsonSchemaRegistry.SENSOR_EVENT_SCHEMA);
+
+		// When they are retrieved together with a missing key
+		Map<String, SensorEvent> sensorEvents = repository
+				.getSensorEvents(Arrays.asList(second.getKey(), "missing", first.getKey()));
+
+		// Then the stored sensor events are returned in the order requested
+		then(sensorEvents.keySet()).containsExactly(second.getKey(), first.getKey());
+		then(sensorEvents.get(first.getKey()).getValues()).containsExactly(72.5f);
+		then(sensorEvents.get(second.getKey()).getValues()).containsExactly(80.25f);
+	}
+
+	@Test
+	public void givenStoredTransitions_whenRetrievedTogether_thenOnlyStoredOnesAreReturned() {
+
+		// Given two stored transitions
+		SensorEvent firstSensorEvent = new SensorEvent(sensor, new float[] { 72.5f });
+		Transition toEighty = new Transition(firstSensorEvent,
+				new SensorEvent(sensor, new float[] { 80.25f }));
+		Transition toNinety = new Transition(firstSensorEvent,
+				new SensorEvent(sensor, new float[] { 90.5f }));
+		toEighty.setFirstSensorEventKey(firstSensorEvent.getKey());
+		toNinety.setFirstSensorEventKey(firstSensorEvent.getKey());
+		store("t1", toEighty, JsonSchemaRegistry.TRANSITION_SCHEMA);
+		store("t2", toNinety, JsonSchemaRegistry.TRANSITION_SCHEMA);
+
+		// When they are retrieved together with a missing key
+		Map<String, Transition> transitions = repository
+				.getTransitions(Arrays.asList("t1", "missing", "t2"));
+
+		// Then the stored transitions are decoded
+		then(transitions.keySet()).containsExactly("t1", "t2");
+		then(transitions.get("t1").getPredictedSensorEvent().getValues())
+				.containsExactly(80.25f);
+		then(transitions.get("t2").getPredictedSensorEvent().getValues())
+				.containsExactly(90.5f);
+		then(transitions.get("t2").getFirstSensorEventKey())
+				.isEqualTo(firstSensorEvent.getKey());
+	}
+
+	@Test
+	public void givenStoredCycle_whenRetrievedTogether_thenOnlyStoredOnesAreReturned() {
+
+		// Given a stored daily cycle
+		Cycle cycle = new DailyCycle(sensor.getSensorType(), sensor.getSensorLocation());
+		String cycleKey = "" + sensor.getSensorType() + sensor.getSensorLocation()
+				+ "Daily";
+		store(cycleKey, cycle, JsonSchemaRegistry.CYCLE_SCHEMA);
+
+		// When it is retrieved together with a missing key
+		Map<String, Cycle> cycles = repository
+				.getCycles(Arrays.asList(cycleKey, "missing"));
+
+		// Then only the stored cycle is returned
+		then(cycles.keySet()).containsExactly(cycleKey);
+		then(cycles.get(cycleKey).getCycleType()).isEqualTo("Daily");
+		then(cycles.get(cycleKey).getSensorType()).isEqualTo(sensor.getSensorType());
+	}
+
+	@Test
+	public void givenNullKeys_whenRetrievedTogether_thenIllegalArgumentExceptionIsThrown() {
+		then(catchThrowable(() -> repository.getCycles(null)))
+				.isInstanceOf(IllegalArgumentException.class);
+		then(catchThrowable(() -> repository.getTransitions(null)))
+				.isInstanceOf(IllegalArgumentException.class);
+		then(catchThrowable(() -> repository.getSensorEvents(null)))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	/**
+	 * Store the validated document straight in the backend, leaving the
+	 * knowledge counters alone
+	 */
+	private void store(String key, Object knowledge, String schema) {
+		backend.log(key, repository.validateJson(knowledge, schema), true);
+	}
+
+}
@@ -7,7 +7,8 @@ import org.junit.runners.Suite.SuiteClasses;
 @RunWith(Suite.class)
 @SuiteClasses({ CouchbaseSensorEventRepositoryTest.class,
 		CouchbaseRepositoryLifecycleTest.class, CouchbaseCycleRepositoryTest.class,
-		CouchbaseRepositoryQueryTest.class })
+		CouchbaseRepositoryQueryTest.class, PreparedStatementCacheTest.class,
+		WriteBehindPipelineTest.class, CouchbaseConfigurationTest.class })
 public class AllTests {
 
 }
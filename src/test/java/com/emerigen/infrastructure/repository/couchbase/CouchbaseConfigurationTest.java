@@ -0,0 +1,113 @@
+package com.emerigen.infrastructure.repository.couchbase;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.couchbase.client.core.env.IoConfig;
+import com.couchbase.client.core.env.TimeoutConfig;
+import com.couchbase.client.java.env.ClusterEnvironment;
+import com.emerigen.infrastructure.utils.EmerigenProperties;
+
+public class CouchbaseConfigurationTest {
+
+	private Map<String, String> defaultProperties() {
+		Map<String, String> properties = new HashMap<String, String>();
+		String[] keys = { "couchbase.server.number.key.value.services",
+				"couchbase.server.max.http.connections",
+				"couchbase.server.idle.http.connection.timeout",
+				"couchbase.server.tcp.keep.alive.enabled",
+				"couchbase.server.keep.alive.timeout", "couchbase.server.kv.timeout",
+				"couchbase.server.query.timeout", "couchbase.server.connect.timeout",
+				"couchbase.server.disconnect.timeout",
+				"couchbase.server.compression.enabled",
+				"couchbase.server.compression.min.size",
+				"couchbase.server.compression.min.ratio",
+				"couchbase.server.circuit.breaker.enabled",
+				"couchbase.server.circuit.breaker.volume.threshold",
+				"couchbase.server.circuit.breaker.error.threshold.percentage",
+				"couchbase.server.circuit.breaker.sleep.window",
+				"couchbase.server.circuit.breaker.rolling.window" };
+		for (String key : keys)
+			properties.put(key, EmerigenProperties.getInstance().getValue(key));
+		return properties;
+	}
+
+	@Test
+	public void givenEmerigenProperties_whenConfigurationCreated_thenExistingServerPropertiesAreUsed() {
+		EmerigenProperties properties = EmerigenProperties.getInstance();
+
+		CouchbaseConfiguration configuration = CouchbaseConfiguration.fromProperties();
+
+		then(configuration.getNumKvConnections()).isEqualTo(Integer.parseInt(
+				properties.getValue("couchbase.server.number.key.value.services")));
+		then(configuration.getKvTimeout()).isEqualTo(Duration.ofMillis(
+				Long.parseLong(properties.getValue("couchbase.server.kv.timeout"))));
+		then(configuration.getConnectTimeout()).isEqualTo(Duration.ofMillis(
+				Long.parseLong(properties.getValue("couchbase.server.connect.timeout"))));
+		then(configuration.getTcpKeepAliveTime()).isEqualTo(Duration.ofMillis(Long
+				.parseLong(properties.getValue("couchbase.server.keep.alive.timeout"))));
+		then(configuration.getMaxHttpConnections()).isGreaterThan(2);
+	}
+
+	@Test
+	public void givenConfiguration_whenEnvironmentCreated_thenSettingsAreAppliedToIt() {
+
+		// Given a configuration with a distinctive pool size and timeouts
+		Map<String, String> properties = defaultProperties();
+		properties.put("couchbase.server.number.key.value.services", "3");
+		properties.put("couchbase.server.max.http.connections", "24");
+		properties.put("couchbase.server.query.timeout", "12000");
+		properties.put("couchbase.server.circuit.breaker.enabled", "true");
+		properties.put("couchbase.server.circuit.breaker.volume.threshold", "7");
+		CouchbaseConfiguration configuration = new CouchbaseConfiguration(
+				properties::get);
+
+		// When the cluster environment is created
+		ClusterEnvironment env = configuration.createEnvironment();
+
+		// Then it reflects every setting
+		try {
+			IoConfig ioConfig = env.ioConfig();
+			then(ioConfig.numKvConnections()).isEqualTo(3);
+			then(ioConfig.maxHttpConnections()).isEqualTo(24);
+			then(ioConfig.queryCircuitBreakerConfig().enabled()).isTrue();
+			then(ioConfig.kvCircuitBreakerConfig().volumeThreshold()).isEqualTo(7);
+			TimeoutConfig timeoutConfig = env.timeoutConfig();
+			then(timeoutConfig.queryTimeout()).isEqualTo(Duration.ofSeconds(12));
+			then(timeoutConfig.kvTimeout()).isEqualTo(configuration.getKvTimeout());
+			then(env.compressionConfig().enabled())
+					.isEqualTo(configuration.isCompressionEnabled());
+		} finally {
+			env.shutdown();
+		}
+	}
+
+	@Test
+	public void givenNonPositiveHttpConnections_whenConfigurationCreated_thenIllegalArgumentExceptionIsThrown() {
+		Map<String, String> properties = defaultProperties();
+		properties.put("couchbase.server.max.http.connections", "0");
+
+		final Throwable throwable = catchThrowable(
+				() -> new CouchbaseConfiguration(properties::get));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	public void givenMissingProperty_whenConfigurationCreated_thenIllegalArgumentExceptionIsThrown() {
+		Map<String, String> properties = defaultProperties();
+		properties.remove("couchbase.server.query.timeout");
+
+		final Throwable throwable = catchThrowable(
+				() -> new CouchbaseConfiguration(properties::get));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+}
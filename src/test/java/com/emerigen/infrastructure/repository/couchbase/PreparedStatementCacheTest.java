@@ -0,0 +1,47 @@
+package com.emerigen.infrastructure.repository.couchbase;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import org.junit.Test;
+
+import com.couchbase.client.java.json.JsonObject;
+
+public class PreparedStatementCacheTest {
+
+	private static final String TEMPLATE = "SELECT * FROM `knowledge` WHERE firstSensorEventKey = $firstSensorEventKey";
+
+	@Test
+	public void givenNewTemplate_whenPreparedThreeTimes_thenOneMissAndTwoHitsAreRecorded() {
+
+		// Given an empty cache
+		PreparedStatementCache cache = new PreparedStatementCache();
+
+		// When the same template is prepared with different parameter values
+		cache.prepare(TEMPLATE, JsonObject.create().put("firstSensorEventKey", "a"));
+		cache.prepare(TEMPLATE, JsonObject.create().put("firstSensorEventKey", "b"));
+		cache.prepare(TEMPLATE, JsonObject.create().put("firstSensorEventKey", "c"));
+
+		// Then the template is planned once and reused twice
+		then(cache.size()).isEqualTo(1);
+		then(cache.getMisses()).isEqualTo(1);
+		then(cache.getHits()).isEqualTo(2);
+		then(cache.getHitRate()).isEqualTo(2.0 / 3.0);
+		then(cache.getExecutionsPerTemplate().get(TEMPLATE)).isEqualTo(3L);
+	}
+
+	@Test
+	public void givenEmptyCache_whenHitRateRequested_thenItIsZero() {
+		then(new PreparedStatementCache().getHitRate()).isEqualTo(0.0);
+	}
+
+	@Test
+	public void givenNullParameters_whenPreparing_thenIllegalArgumentExceptionIsThrown() {
+		PreparedStatementCache cache = new PreparedStatementCache();
+
+		final Throwable throwable = catchThrowable(() -> cache.prepare(TEMPLATE, null));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+}
@@ -0,0 +1,202 @@
+package com.emerigen.infrastructure.repository.couchbase;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.couchbase.client.java.json.JsonObject;
+import com.emerigen.infrastructure.repository.KnowledgeRepositoryBackend.WriteListener;
+import com.emerigen.infrastructure.repository.RepositoryException;
+import com.emerigen.infrastructure.repository.couchbase.WriteBehindPipeline.PendingWrite;
+
+public class WriteBehindPipelineTest {
+
+	@Test
+	public void givenRepeatedUpsertsOfSameKey_whenFlushed_thenOnlyLatestDocumentIsWritten()
+			throws Exception {
+
+		// Given a writer that is blocked until released
+		CountDownLatch release = new CountDownLatch(1);
+		List<PendingWrite> writes = new CopyOnWriteArrayList<PendingWrite>();
+		WriteBehindPipeline pipeline = new WriteBehindPipeline(pendingWrite -> {
+			writes.add(pendingWrite);
+			return CompletableFuture.runAsync(() -> {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}, 100, 10, 0);
+
+		// And one write in flight so that later writes stay queued
+		pipeline.submit("blocker", JsonObject.create(), false);
+		Thread.sleep(50);
+
+		// When the same key is upserted three times
+		pipeline.submit("k1", JsonObject.create().put("value", 1), false);
+		pipeline.submit("k1", JsonObject.create().put("value", 2), false);
+		pipeline.submit("k1", JsonObject.create().put("value", 3), false);
+		then(pipeline.getPending("k1").getInt("value")).isEqualTo(3);
+		release.countDown();
+
+		// Then the writes collapse into a single write of the latest document
+		then(pipeline.flush(5000)).isTrue();
+		then(writes.size()).isEqualTo(2);
+		then(writes.get(1).getJsonObject().getInt("value")).isEqualTo(3);
+		then(pipeline.getCoalesced()).isEqualTo(2);
+		then(pipeline.getWritten()).isEqualTo(2);
+		pipeline.shutdown(1000);
+	}
+
+	@Test
+	public void givenFullQueue_whenSubmitting_thenSubmitterBlocksUntilFlusherCatchesUp()
+			throws Exception {
+
+		// Given a writer that is blocked and a queue of one
+		CountDownLatch release = new CountDownLatch(1);
+		WriteBehindPipeline pipeline = new WriteBehindPipeline(
+				pendingWrite -> CompletableFuture.runAsync(() -> {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}), 1, 1, 0);
+		pipeline.submit("k1", JsonObject.create(), true);
+		Thread.sleep(50);
+		pipeline.submit("k2", JsonObject.create(), true);
+
+		// When another distinct key is submitted
+		CountDownLatch submitted = new CountDownLatch(1);
+		new Thread(() -> {
+			pipeline.submit("k3", JsonObject.create(), true);
+			submitted.countDown();
+		}).start();
+
+		// Then the submitter is held back until the writer is released
+		then(submitted.await(100, TimeUnit.MILLISECONDS)).isFalse();
+		release.countDown();
+		then(submitted.await(5, TimeUnit.SECONDS)).isTrue();
+		then(pipeline.flush(5000)).isTrue();
+		pipeline.shutdown(1000);
+	}
+
+	@Test
+	public void givenQueuedWrites_whenShutdown_thenAllWritesAreFlushed() {
+
+		// Given several queued writes with a long linger time
+		List<PendingWrite> writes = new CopyOnWriteArrayList<PendingWrite>();
+		WriteBehindPipeline pipeline = new WriteBehindPipeline(pendingWrite -> {
+			writes.add(pendingWrite);
+			return CompletableFuture.completedFuture(null);
+		}, 100, 100, 200);
+		for (int i = 0; i < 10; i++)
+			pipeline.submit("k" + i, JsonObject.create(), true);
+
+		// When the pipeline is shut down
+		pipeline.shutdown(5000);
+
+		// Then every write has been issued and no more are accepted
+		then(writes.size()).isEqualTo(10);
+		then(pipeline.getOutstanding()).isEqualTo(0);
+		final Throwable throwable = catchThrowable(
+				() -> pipeline.submit("k11", JsonObject.create(), true));
+		then(throwable).isInstanceOf(RepositoryException.class);
+	}
+
+	@Test
+	public void givenFailingWriter_whenFlushed_thenFailureIsCountedAndPipelineContinues() {
+		WriteBehindPipeline pipeline = new WriteBehindPipeline(pendingWrite -> {
+			CompletableFuture<Object> failure = new CompletableFuture<Object>();
+			failure.completeExceptionally(new RuntimeException("down"));
+			return failure;
+		}, 100, 10, 0);
+
+		pipeline.submit("k1", JsonObject.create(), true);
+
+		then(pipeline.flush(5000)).isTrue();
+		then(pipeline.getFailed()).isEqualTo(1);
+		pipeline.shutdown(1000);
+	}
+
+	@Test
+	public void givenFailingWriter_whenWriteHasListener_thenListenerIsToldOfFailure()
+			throws Exception {
+		WriteBehindPipeline pipeline = new WriteBehindPipeline(pendingWrite -> {
+			CompletableFuture<Object> failure = new CompletableFuture<Object>();
+			failure.completeExceptionally(new IllegalStateException("down"));
+			return failure;
+		}, 100, 10, 0);
+
+		// When a write with a listener fails
+		CountDownLatch failed = new CountDownLatch(1);
+		List<Throwable> causes = new CopyOnWriteArrayList<Throwable>();
+		pipeline.submit("k1", JsonObject.create(), true, new WriteListener() {
+			@Override
+			public void written(String key, boolean created) {
+			}
+
+			@Override
+			public void failed(String key, Throwable cause) {
+				causes.add(cause);
+				failed.countDown();
+			}
+		});
+
+		// Then the listener is told why
+		then(failed.await(5, TimeUnit.SECONDS)).isTrue();
+		then(causes.get(0)).isInstanceOf(IllegalStateException.class);
+		pipeline.shutdown(1000);
+	}
+
+	@Test
+	public void givenQueuedInsert_whenSameKeyUpserted_thenBothWritesAreIssuedInOrder()
+			throws Exception {
+
+		// Given a writer that is blocked until released
+		CountDownLatch release = new CountDownLatch(1);
+		List<PendingWrite> writes = new CopyOnWriteArrayList<PendingWrite>();
+		WriteBehindPipeline pipeline = new WriteBehindPipeline(pendingWrite -> {
+			writes.add(pendingWrite);
+			return CompletableFuture.runAsync(() -> {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}, 100, 10, 0);
+		pipeline.submit("blocker", JsonObject.create(), false);
+		Thread.sleep(50);
+
+		// When an insert is queued and the same key is then upserted
+		pipeline.submit("k1", JsonObject.create().put("value", 1), true);
+		CountDownLatch upserted = new CountDownLatch(1);
+		new Thread(() -> {
+			pipeline.submit("k1", JsonObject.create().put("value", 2), false);
+			upserted.countDown();
+		}).start();
+
+		// Then the upsert waits for the insert rather than replacing it
+		then(upserted.await(100, TimeUnit.MILLISECONDS)).isFalse();
+		release.countDown();
+		then(upserted.await(5, TimeUnit.SECONDS)).isTrue();
+		then(pipeline.flush(5000)).isTrue();
+		then(writes.size()).isEqualTo(3);
+		then(writes.get(1).isInsert()).isTrue();
+		then(writes.get(1).getJsonObject().getInt("value")).isEqualTo(1);
+		then(writes.get(2).isInsert()).isFalse();
+		then(writes.get(2).getJsonObject().getInt("value")).isEqualTo(2);
+		then(pipeline.getCoalesced()).isEqualTo(0);
+		pipeline.shutdown(1000);
+	}
+
+}
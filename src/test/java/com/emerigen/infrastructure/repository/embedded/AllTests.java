@@ -0,0 +1,11 @@
+package com.emerigen.infrastructure.repository.embedded;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+@RunWith(Suite.class)
+@SuiteClasses({ EmbeddedRepositoryTest.class })
+public class AllTests {
+
+}
@@ -0,0 +1,217 @@
+package com.emerigen.infrastructure.repository.embedded;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.couchbase.client.java.json.JsonArray;
+import com.couchbase.client.java.json.JsonObject;
+import com.emerigen.infrastructure.repository.DocumentFormat;
+import com.emerigen.infrastructure.repository.KnowledgeRepositoryBackend.WriteListener;
+import com.emerigen.infrastructure.repository.RepositoryException;
+
+public class EmbeddedRepositoryTest {
+
+	private static final int SEGMENT_SIZE = 4096;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path directory;
+	private EmbeddedRepository repository;
+
+	@Before
+	public void openRepository() throws Exception {
+		directory = folder.newFolder("knowledge").toPath();
+		repository = new EmbeddedRepository(directory, SEGMENT_SIZE);
+	}
+
+	@After
+	public void closeRepository() {
+		repository.disconnect();
+	}
+
+	@Test
+	public void givenLoggedDocument_whenRetrieved_thenSameDocumentIsReturned() {
+		JsonObject sensorEvent = sensorEvent(1, 2, 72.0);
+
+		repository.log("e1", sensorEvent, true);
+
+		then(repository.get("e1")).isEqualTo(sensorEvent);
+		then(repository.get("missing")).isNull();
+	}
+
+	@Test
+	public void givenExistingKey_whenLoggedAgain_thenRepositoryExceptionIsThrown() {
+		repository.log("e1", sensorEvent(1, 2, 72.0), false);
+
+		final Throwable throwable = catchThrowable(
+				() -> repository.log("e1", sensorEvent(1, 2, 73.0), false));
+
+		then(throwable).isInstanceOf(RepositoryException.class);
+	}
+
+	@Test
+	public void givenReplacedAndRemovedDocuments_whenCounting_thenOnlyLiveDocumentsAreCounted() {
+		repository.replace("e1", sensorEvent(1, 2, 72.0), false);
+		repository.replace("e1", sensorEvent(1, 2, 74.0), false);
+		repository.replace("e2", sensorEvent(1, 2, 80.0), false);
+		repository.replace("e3", sensorEvent(1, 4, 80.0), false);
+		repository.remove("e2");
+
+		then(repository.getDocumentCount("sensor-event", 1, 2)).isEqualTo(1);
+		then(repository.getDocumentCount("sensor-event", 1, 4)).isEqualTo(1);
+		then(repository.get("e1").getArray("values").getDouble(0))
+				.isEqualTo(74.0);
+		then(repository.get("e2")).isNull();
+	}
+
+	@Test
+	public void givenTransitions_whenRetrievedByFirstSensorEventKey_thenOnlyMatchingTransitionsAreReturned() {
+		repository.log("t1", transition("k1", 80.0), false);
+		repository.log("t2", transition("k1", 90.0), false);
+		repository.log("t3", transition("k2", 100.0), false);
+
+		then(repository.getTransitionsForFirstSensorEventKey("k1")).containsOnlyKeys("t1",
+				"t2");
+		then(repository.getTransitionsForFirstSensorEventKey("k2")).containsOnlyKeys("t3");
+		then(repository.getTransitionsForFirstSensorEventKey("k3")).isEmpty();
+	}
+
+	@Test
+	public void givenDocumentsSpanningSegments_whenReopened_thenIndexesAreRebuiltFromTheLog() {
+
+		// Given enough documents to fill several segments
+		for (int i = 0; i < 100; i++)
+			repository.log("t" + i, transition("k" + (i % 3), i), false);
+		repository.remove("t0");
+		then(repository.getWritePosition()).isGreaterThan(SEGMENT_SIZE * 2);
+
+		// When the repository is reopened
+		repository.disconnect();
+		repository = new EmbeddedRepository(directory, SEGMENT_SIZE);
+
+		// Then every live document and index entry is restored
+		then(repository.size()).isEqualTo(99);
+		then(repository.get("t0")).isNull();
+		then(repository.get("t99").getString("firstSensorEventKey")).isEqualTo("k0");
+		then(repository.getTransitionsForFirstSensorEventKey("k0").size()).isEqualTo(33);
+		then(repository.getDocumentCount("transition", 1, 2)).isEqualTo(99);
+	}
+
+	@Test
+	public void givenDocuments_whenAllRemovedAndReopened_thenRepositoryIsEmpty() {
+		repository.log("e1", sensorEvent(1, 2, 72.0), false);
+		repository.removeAllDocuments();
+		repository.log("e2", sensorEvent(1, 2, 73.0), false);
+
+		repository.disconnect();
+		repository = new EmbeddedRepository(directory, SEGMENT_SIZE);
+
+		then(repository.size()).isEqualTo(1);
+		then(repository.get("e2")).isNotNull();
+	}
+
+	@Test
+	public void givenSomeExistingKeys_whenRetrievedInBulk_thenOnlyExistingDocumentsAreReturnedInKeyOrder() {
+		repository.log("e1", sensorEvent(1, 2, 72.0), false);
+		repository.log("e2", sensorEvent(1, 2, 73.0), false);
+
+		Map<String, JsonObject> documents = repository
+				.getAll(Arrays.asList("e2", "missing", "e1"));
+
+		then(documents).containsOnlyKeys("e2", "e1");
+		then(documents.keySet()).containsExactly("e2", "e1");
+		then(documents.get("e1")).isEqualTo(sensorEvent(1, 2, 72.0));
+	}
+
+	@Test
+	public void givenCompactFormat_whenDocumentsReopened_thenTheyAreDecodedFromTheLog() {
+
+		// Given a compact repository holding transitions that share a sensor
+		repository.disconnect();
+		repository = new EmbeddedRepository(directory, SEGMENT_SIZE,
+				DocumentFormat.COMPACT);
+		JsonObject sensor = JsonObject.create().put("type", "sensor")
+				.put("sensorType", 1).put("sensorLocation", 2);
+		for (int i = 0; i < 3; i++)
+			repository.log("t" + i, transition("k1", i).put("predictedSensorEvent",
+					sensorEvent(1, 2, i).put("sensor", sensor)), false);
+		repository.log("c1", JsonObject.create().put("type", "cycle"), false);
+
+		// When the repository is reopened
+		repository.disconnect();
+		repository = new EmbeddedRepository(directory, SEGMENT_SIZE,
+				DocumentFormat.COMPACT);
+
+		// Then compact and JSON documents are restored with their indexes
+		then(repository.getTransitionsForFirstSensorEventKey("k1")).containsOnlyKeys("t0",
+				"t1", "t2");
+		then(repository.get("t2").getObject("predictedSensorEvent").getObject("sensor"))
+				.isEqualTo(sensor);
+		then(repository.get("c1").getString("type")).isEqualTo("cycle");
+	}
+
+	@Test
+	public void givenMissingDocument_whenIncremented_thenItIsCreatedAndThenAddedTo() {
+		JsonObject initialDocument = JsonObject.create().put("type", "counters")
+				.put("transitions", 5L);
+		Map<String, Long> deltas = new HashMap<String, Long>();
+		deltas.put("transitions", 2L);
+		deltas.put("sensorEvents", 1L);
+
+		then(repository.exists("c1")).isFalse();
+		repository.increment("c1", initialDocument, deltas);
+		repository.increment("c1", initialDocument, deltas);
+
+		then(repository.exists("c1")).isTrue();
+		then(repository.get("c1").getLong("transitions")).isEqualTo(9);
+		then(repository.get("c1").getLong("sensorEvents")).isEqualTo(2);
+		then(initialDocument.getLong("transitions")).isEqualTo(5);
+	}
+
+	@Test
+	public void givenListener_whenDocumentReplacedTwice_thenOnlyTheFirstWriteCreatedIt() {
+		List<Boolean> created = new ArrayList<Boolean>();
+		WriteListener listener = new WriteListener() {
+			@Override
+			public void written(String key, boolean documentCreated) {
+				created.add(documentCreated);
+			}
+
+			@Override
+			public void failed(String key, Throwable cause) {
+				throw new AssertionError(cause);
+			}
+		};
+
+		repository.replace("e1", sensorEvent(1, 2, 72.0), false, listener);
+		repository.replace("e1", sensorEvent(1, 2, 73.0), false, listener);
+
+		then(created).containsExactly(true, false);
+	}
+
+	private JsonObject sensorEvent(int sensorType, int sensorLocation, double value) {
+		return JsonObject.create().put("type", "sensor-event")
+				.put("sensorType", sensorType).put("sensorLocation", sensorLocation)
+				.put("values", JsonArray.from(value));
+	}
+
+	private JsonObject transition(String firstSensorEventKey, double predictedValue) {
+		return JsonObject.create().put("type", "transition").put("sensorType", 1)
+				.put("sensorLocation", 2).put("firstSensorEventKey", firstSensorEventKey)
+				.put("predictedSensorEvent", sensorEvent(1, 2, predictedValue));
+	}
+}
@@ -7,7 +7,10 @@ import org.junit.runners.Suite.SuiteClasses;
 @RunWith(Suite.class)
 @SuiteClasses({ SensorEventListenerTest.class, SensorEventTest.class, SensorTest.class,
 		EmerigenSensorEventListenerTest.class, GpsSensorTest.class,
-		SensorManagerTest.class })
+		SensorManagerTest.class, SensorEventKeyTest.class,
+		SensorManagerRegistryTest.class, EmerigenSensorEventListenerDispatchTest.class,
+		SensorEventIngestionEngineTest.class, SensorEventReplayEngineTest.class,
+		SensorRegistryTest.class })
 public class AllTests {
 
 }
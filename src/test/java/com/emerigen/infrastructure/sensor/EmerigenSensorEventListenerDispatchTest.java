@@ -0,0 +1,213 @@
+package com.emerigen.infrastructure.sensor;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.emerigen.infrastructure.learning.Prediction;
+
+public class EmerigenSensorEventListenerDispatchTest {
+
+	private final Sensor sensor = new HeartRateSensor(Sensor.LOCATION_WATCH,
+			Sensor.REPORTING_MODE_ON_CHANGE, false);
+	private final SensorEvent sensorEvent = new SensorEvent(sensor,
+			new float[] { 72.0f });
+
+	/**
+	 * A listener that takes a fixed time and predicts a single value
+	 */
+	private SensorEventListener slowListener(long delayMillis, float predictedValue) {
+		return new SensorEventListener() {
+			@Override
+			public List<Prediction> onSensorChanged(SensorEvent event) {
+				try {
+					Thread.sleep(delayMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				List<Prediction> predictions = new ArrayList<Prediction>();
+				predictions.add(new Prediction(
+						new SensorEvent(sensor, new float[] { predictedValue })));
+				return predictions;
+			}
+		};
+	}
+
+	@Test
+	public void givenParallelMode_whenSlowListenersDispatched_thenLatencyIsThatOfTheSlowest() {
+
+		// Given three listeners that each take 300 millis
+		EmerigenSensorEventListener listener = new EmerigenSensorEventListener(
+				DispatchMode.PARALLEL, 5000);
+		List<SensorEventListener> recognizers = Arrays.asList(slowListener(300, 1.0f),
+				slowListener(300, 2.0f), slowListener(300, 3.0f));
+
+		// When the event is dispatched
+		long start = System.currentTimeMillis();
+		List<Prediction> predictions = listener.dispatch(sensorEvent, recognizers);
+		long elapsed = System.currentTimeMillis() - start;
+
+		// Then all predictions are merged in well under the sequential 900 millis
+		then(predictions.size()).isEqualTo(3);
+		then(elapsed).isLessThan(800);
+		then(listener.getDroppedListenerResults()).isEqualTo(0);
+	}
+
+	@Test
+	public void givenParallelMode_whenListenerMissesDeadline_thenItsPredictionsAreDropped() {
+
+		// Given one listener that is much slower than the deadline
+		EmerigenSensorEventListener listener = new EmerigenSensorEventListener(
+				DispatchMode.PARALLEL, 200);
+		List<SensorEventListener> recognizers = Arrays.asList(slowListener(10, 1.0f),
+				slowListener(2000, 2.0f));
+
+		// When the event is dispatched
+		long start = System.currentTimeMillis();
+		List<Prediction> predictions = listener.dispatch(sensorEvent, recognizers);
+		long elapsed = System.currentTimeMillis() - start;
+
+		// Then only the prediction of the fast listener is returned, at the deadline
+		then(predictions.size()).isEqualTo(1);
+		then(predictions.get(0).getSensorEvent().getValues()[0]).isEqualTo(1.0f);
+		then(elapsed).isLessThan(1500);
+		then(listener.getDroppedListenerResults()).isEqualTo(1);
+	}
+
+	@Test
+	public void givenParallelMode_whenListenerFails_thenOtherListenersPredictionsAreKept() {
+
+		// Given one listener that throws and one that predicts
+		EmerigenSensorEventListener listener = new EmerigenSensorEventListener(
+				DispatchMode.PARALLEL, 5000);
+		SensorEventListener failingListener = new SensorEventListener() {
+			@Override
+			public List<Prediction> onSensorChanged(SensorEvent event) {
+				throw new IllegalStateException("recognizer failed");
+			}
+		};
+		List<SensorEventListener> recognizers = Arrays.asList(failingListener,
+				slowListener(10, 1.0f));
+
+		// When the event is dispatched
+		List<Prediction> predictions = listener.dispatch(sensorEvent, recognizers);
+
+		// Then the failing listener is skipped
+		then(predictions.size()).isEqualTo(1);
+		then(predictions.get(0).getSensorEvent().getValues()[0]).isEqualTo(1.0f);
+	}
+
+	@Test
+	public void givenParallelMode_whenListenersStillQueuedAtDeadline_thenTheyNeverRun()
+			throws InterruptedException {
+
+		// Given more slow listeners than dispatch threads
+		EmerigenSensorEventListener listener = new EmerigenSensorEventListener(
+				DispatchMode.PARALLEL, 100);
+		AtomicInteger invocations = new AtomicInteger();
+		List<SensorEventListener> recognizers = new ArrayList<SensorEventListener>();
+		for (int i = 0; i < 12; i++) {
+			SensorEventListener slowListener = slowListener(500, i);
+			recognizers.add(new SensorEventListener() {
+				@Override
+				public List<Prediction> onSensorChanged(SensorEvent event) {
+					invocations.incrementAndGet();
+					return slowListener.onSensorChanged(event);
+				}
+			});
+		}
+
+		// When the event is dispatched and the running listeners have finished
+		listener.dispatch(sensorEvent, recognizers);
+		int startedByDeadline = invocations.get();
+		Thread.sleep(1200);
+
+		// Then the listeners still queued at the deadline were never invoked
+		then(startedByDeadline).isLessThan(12);
+		then(invocations.get()).isEqualTo(startedByDeadline);
+		then(listener.getDroppedListenerResults()).isEqualTo(12);
+	}
+
+	@Test
+	public void givenSequentialMode_whenListenersDispatched_thenAllPredictionsAreMerged() {
+		EmerigenSensorEventListener listener = new EmerigenSensorEventListener(
+				DispatchMode.SEQUENTIAL, 1);
+		List<SensorEventListener> recognizers = Arrays.asList(slowListener(0, 1.0f),
+				slowListener(0, 2.0f), listener);
+
+		List<Prediction> predictions = listener.dispatch(sensorEvent, recognizers);
+
+		then(predictions.size()).isEqualTo(2);
+	}
+
+	@Test
+	public void givenParallelMode_whenListenerStillRunningForEarlierEvent_thenItIsSkipped()
+			throws InterruptedException {
+
+		// Given a listener that runs well past the deadline
+		EmerigenSensorEventListener listener = new EmerigenSensorEventListener(
+				DispatchMode.PARALLEL, 100);
+		AtomicInteger invocations = new AtomicInteger();
+		SensorEventListener slowListener = slowListener(600, 2.0f);
+		List<SensorEventListener> recognizers = Arrays.asList(slowListener(0, 1.0f),
+				new SensorEventListener() {
+					@Override
+					public List<Prediction> onSensorChanged(SensorEvent event) {
+						invocations.incrementAndGet();
+						return slowListener.onSensorChanged(event);
+					}
+				});
+		listener.dispatch(sensorEvent, recognizers);
+
+		// When the next event is dispatched while it is still running
+		List<Prediction> predictions = listener.dispatch(sensorEvent, recognizers);
+
+		// Then it is skipped rather than queued behind itself
+		then(predictions.size()).isEqualTo(1);
+		then(invocations.get()).isEqualTo(1);
+		then(listener.getDroppedListenerResults()).isEqualTo(2);
+
+		// And it is invoked again once it has finished
+		Thread.sleep(800);
+		listener.dispatch(sensorEvent, recognizers);
+		then(invocations.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void givenSequentialMode_whenListenerFails_thenOtherListenersPredictionsAreKept() {
+
+		// Given one listener that throws and one that predicts
+		EmerigenSensorEventListener listener = new EmerigenSensorEventListener(
+				DispatchMode.SEQUENTIAL, 1);
+		SensorEventListener failingListener = new SensorEventListener() {
+			@Override
+			public List<Prediction> onSensorChanged(SensorEvent event) {
+				throw new IllegalStateException("recognizer failed");
+			}
+		};
+		List<SensorEventListener> recognizers = Arrays.asList(failingListener,
+				slowListener(0, 1.0f));
+
+		// When the event is dispatched
+		List<Prediction> predictions = listener.dispatch(sensorEvent, recognizers);
+
+		// Then the failing listener is skipped as in PARALLEL mode
+		then(predictions.size()).isEqualTo(1);
+		then(predictions.get(0).getSensorEvent().getValues()[0]).isEqualTo(1.0f);
+	}
+
+	@Test
+	public void givenUnknownDispatchMode_whenParsed_thenIllegalArgumentExceptionIsThrown() {
+
+		final Throwable throwable = catchThrowable(() -> DispatchMode.fromString("eager"));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+}
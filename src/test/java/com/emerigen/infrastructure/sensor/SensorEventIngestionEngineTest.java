@@ -0,0 +1,252 @@
+package com.emerigen.infrastructure.sensor;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.emerigen.infrastructure.learning.Prediction;
+
+public class SensorEventIngestionEngineTest {
+
+	private final Sensor heartRateSensor = new HeartRateSensor(Sensor.LOCATION_WATCH,
+			Sensor.REPORTING_MODE_ON_CHANGE, false);
+	private final Sensor glucoseSensor = new GlucoseSensor(Sensor.LOCATION_PHONE,
+			Sensor.REPORTING_MODE_ON_CHANGE, 1, false);
+
+	/**
+	 * Records the first value of each event per sensor, and the thread that
+	 * processed it
+	 */
+	private static class RecordingListener implements SensorEventListener {
+		final Map<Integer, List<Float>> valuesPerSensor = new ConcurrentHashMap<Integer, List<Float>>();
+		final Map<Integer, String> threadPerSensor = new ConcurrentHashMap<Integer, String>();
+
+		@Override
+		public List<Prediction> onSensorChanged(SensorEvent sensorEvent) {
+			int sensorId = sensorEvent.getSensor().getSensorId();
+			valuesPerSensor.computeIfAbsent(sensorId, k -> new ArrayList<Float>())
+					.add(sensorEvent.getValues()[0]);
+			String previousThread = threadPerSensor.putIfAbsent(sensorId,
+					Thread.currentThread().getName());
+			if (previousThread != null
+					&& !previousThread.equals(Thread.currentThread().getName()))
+				throw new IllegalStateException("sensor processed on two threads");
+			return new ArrayList<Prediction>();
+		}
+	}
+
+	@Test
+	public void givenEventsFromManySensors_whenSubmittedConcurrently_thenEachSensorsEventsAreProcessedInOrder()
+			throws Exception {
+
+		// Given an engine with several shards
+		RecordingListener listener = new RecordingListener();
+		SensorEventIngestionEngine engine = new SensorEventIngestionEngine(listener, 4,
+				64, OverflowPolicy.BLOCK);
+		int eventCount = 2000;
+
+		// When each sensor's events are submitted from its own thread
+		Thread heartRateProducer = new Thread(() -> {
+			for (int i = 0; i < eventCount; i++)
+				engine.submit(new SensorEvent(heartRateSensor, new float[] { i }));
+		});
+		Thread glucoseProducer = new Thread(() -> {
+			for (int i = 0; i < eventCount; i++)
+				engine.submit(new SensorEvent(glucoseSensor, new float[] { i }));
+		});
+		heartRateProducer.start();
+		glucoseProducer.start();
+		heartRateProducer.join();
+		glucoseProducer.join();
+		then(engine.shutdown(10000)).isTrue();
+
+		// Then every event was processed, in submission order, on a single thread
+		for (Sensor sensor : new Sensor[] { heartRateSensor, glucoseSensor }) {
+			List<Float> values = listener.valuesPerSensor.get(sensor.getSensorId());
+			then(values.size()).isEqualTo(eventCount);
+			for (int i = 0; i < eventCount; i++)
+				then(values.get(i)).isEqualTo((float) i);
+		}
+		long processed = 0;
+		for (ShardMetrics metrics : engine.getShardMetrics()) {
+			processed += metrics.getProcessedEvents();
+			then(metrics.getFailedEvents()).isEqualTo(0);
+		}
+		then(processed).isEqualTo(2 * eventCount);
+	}
+
+	@Test
+	public void givenFullShard_whenDropNewestPolicy_thenSubmittedEventIsDropped()
+			throws Exception {
+
+		// Given a single shard whose thread is busy and whose queue is full
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<Float> processedValues = new ArrayList<Float>();
+		SensorEventListener blockingListener = new SensorEventListener() {
+			@Override
+			public List<Prediction> onSensorChanged(SensorEvent sensorEvent) {
+				entered.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				processedValues.add(sensorEvent.getValues()[0]);
+				return new ArrayList<Prediction>();
+			}
+		};
+		SensorEventIngestionEngine engine = new SensorEventIngestionEngine(
+				blockingListener, 1, 1, OverflowPolicy.DROP_NEWEST);
+		then(engine.submit(new SensorEvent(heartRateSensor, new float[] { 1.0f })))
+				.isTrue();
+		then(entered.await(5, TimeUnit.SECONDS)).isTrue();
+		then(engine.submit(new SensorEvent(heartRateSensor, new float[] { 2.0f })))
+				.isTrue();
+
+		// When another event is submitted
+		boolean accepted = engine
+				.submit(new SensorEvent(heartRateSensor, new float[] { 3.0f }));
+
+		// Then it is dropped and counted
+		then(accepted).isFalse();
+		then(engine.getShardMetrics().get(0).getDroppedEvents()).isEqualTo(1);
+		release.countDown();
+		then(engine.shutdown(5000)).isTrue();
+		then(processedValues).containsExactly(1.0f, 2.0f);
+	}
+
+	@Test
+	public void givenFullShard_whenDropOldestPolicy_thenOldestQueuedEventIsDropped()
+			throws Exception {
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<Float> processedValues = new ArrayList<Float>();
+		SensorEventListener blockingListener = new SensorEventListener() {
+			@Override
+			public List<Prediction> onSensorChanged(SensorEvent sensorEvent) {
+				entered.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				processedValues.add(sensorEvent.getValues()[0]);
+				return new ArrayList<Prediction>();
+			}
+		};
+		SensorEventIngestionEngine engine = new SensorEventIngestionEngine(
+				blockingListener, 1, 1, OverflowPolicy.DROP_OLDEST);
+		engine.submit(new SensorEvent(heartRateSensor, new float[] { 1.0f }));
+		then(entered.await(5, TimeUnit.SECONDS)).isTrue();
+		engine.submit(new SensorEvent(heartRateSensor, new float[] { 2.0f }));
+
+		boolean accepted = engine
+				.submit(new SensorEvent(heartRateSensor, new float[] { 3.0f }));
+
+		then(accepted).isTrue();
+		then(engine.getShardMetrics().get(0).getDroppedEvents()).isEqualTo(1);
+		release.countDown();
+		then(engine.shutdown(5000)).isTrue();
+		then(processedValues).containsExactly(1.0f, 3.0f);
+	}
+
+	@Test
+	public void givenFailingListener_whenEventsSubmitted_thenShardKeepsProcessing()
+			throws Exception {
+		SensorEventListener failingListener = new SensorEventListener() {
+			@Override
+			public List<Prediction> onSensorChanged(SensorEvent sensorEvent) {
+				throw new IllegalStateException("recognizer failure");
+			}
+		};
+		SensorEventIngestionEngine engine = new SensorEventIngestionEngine(
+				failingListener, 1, 16, OverflowPolicy.BLOCK);
+
+		engine.submit(new SensorEvent(heartRateSensor, new float[] { 1.0f }));
+		engine.submit(new SensorEvent(heartRateSensor, new float[] { 2.0f }));
+		then(engine.shutdown(5000)).isTrue();
+
+		then(engine.getShardMetrics().get(0).getProcessedEvents()).isEqualTo(2);
+		then(engine.getShardMetrics().get(0).getFailedEvents()).isEqualTo(2);
+	}
+
+	@Test
+	public void givenSubmitPastShutdownCheck_whenEngineShutDown_thenItsEventIsStillProcessed()
+			throws Exception {
+
+		// Given a sensor that holds a submit between its shutdown check and its offer
+		CountDownLatch routing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Sensor slowRoutingSensor = new HeartRateSensor(Sensor.LOCATION_WATCH,
+				Sensor.REPORTING_MODE_ON_CHANGE, false) {
+			@Override
+			public int getSensorId() {
+				routing.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.getSensorId();
+			}
+		};
+		RecordingListener listener = new RecordingListener();
+		SensorEventIngestionEngine engine = new SensorEventIngestionEngine(listener, 1,
+				16, OverflowPolicy.BLOCK);
+		Thread producer = new Thread(() -> engine
+				.submit(new SensorEvent(slowRoutingSensor, new float[] { 1.0f })));
+		producer.start();
+		then(routing.await(5, TimeUnit.SECONDS)).isTrue();
+
+		// When the engine is shut down and the submit then completes
+		CountDownLatch shutDown = new CountDownLatch(1);
+		new Thread(() -> {
+			try {
+				if (engine.shutdown(5000))
+					shutDown.countDown();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}).start();
+		Thread.sleep(300);
+		release.countDown();
+		producer.join(5000);
+
+		// Then the shard waited for it and processed its event
+		then(shutDown.await(5, TimeUnit.SECONDS)).isTrue();
+		then(engine.getShardMetrics().get(0).getAcceptedEvents()).isEqualTo(1);
+		then(engine.getShardMetrics().get(0).getProcessedEvents()).isEqualTo(1);
+	}
+
+	@Test
+	public void givenShutdownEngine_whenEventSubmitted_thenIllegalStateExceptionIsThrown()
+			throws Exception {
+		SensorEventIngestionEngine engine = new SensorEventIngestionEngine(
+				new RecordingListener(), 1, 16, OverflowPolicy.BLOCK);
+		engine.shutdown(5000);
+
+		final Throwable throwable = catchThrowable(() -> engine
+				.submit(new SensorEvent(heartRateSensor, new float[] { 1.0f })));
+
+		then(throwable).isInstanceOf(IllegalStateException.class);
+	}
+
+	@Test
+	public void givenNonPositiveQueueCapacity_whenEngineCreated_thenIllegalArgumentExceptionIsThrown() {
+
+		final Throwable throwable = catchThrowable(() -> new SensorEventIngestionEngine(
+				new RecordingListener(), 1, 0, OverflowPolicy.BLOCK));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.emerigen.infrastructure.sensor;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SensorEventKeyTest {
+
+	private final Sensor sensor = new HeartRateSensor(Sensor.LOCATION_WATCH,
+			Sensor.REPORTING_MODE_ON_CHANGE, false);
+
+	@Test
+	public void givenSensorEvent_whenKeyPacked_thenTypeLocationAndFingerprintCanBeUnpacked() {
+
+		// Given a sensor event
+		float[] values = new float[] { 72.5f, -1.0f };
+		SensorEvent sensorEvent = new SensorEvent(sensor, values);
+
+		// When its key is packed
+		long key = sensorEvent.getSensorEventKey();
+
+		// Then every field is recovered
+		then(SensorEventKey.getSensorType(key)).isEqualTo(Sensor.TYPE_HEART_RATE);
+		then(SensorEventKey.getSensorLocation(key)).isEqualTo(Sensor.LOCATION_WATCH);
+		then(SensorEventKey.getValuesFingerprint(key)).isEqualTo(Arrays.hashCode(values));
+	}
+
+	@Test
+	public void givenSensorEvent_whenKeyConvertedToString_thenItMatchesThePersistedKeyFormat() {
+
+		// Given a sensor event whose values hash is negative
+		float[] values = new float[] { -123.456f, 7.0f, 0.5f };
+		SensorEvent sensorEvent = new SensorEvent(sensor, values);
+
+		// When the key is converted to a String
+		String key = SensorEventKey.toString(sensorEvent.getSensorEventKey());
+
+		// Then it has the format of previously persisted firstSensorEventKeys
+		then(key).isEqualTo("" + Sensor.TYPE_HEART_RATE + Sensor.LOCATION_WATCH
+				+ (31L + Arrays.hashCode(values)));
+		then(sensorEvent.getKey()).isEqualTo(key);
+	}
+
+	@Test
+	public void givenEqualSensorEvents_whenKeysPacked_thenKeysAreEqual() {
+		SensorEvent first = new SensorEvent(sensor, new float[] { 60.0f });
+		SensorEvent second = new SensorEvent(sensor, new float[] { 60.0f });
+		SensorEvent third = new SensorEvent(sensor, new float[] { 61.0f });
+
+		then(first.getSensorEventKey()).isEqualTo(second.getSensorEventKey());
+		then(first.getSensorEventKey()).isNotEqualTo(third.getSensorEventKey());
+	}
+
+	@Test
+	public void givenSensorEvent_whenValuesReplaced_thenKeyIsRecomputed() {
+		SensorEvent sensorEvent = new SensorEvent(sensor, new float[] { 60.0f });
+		long before = sensorEvent.getSensorEventKey();
+
+		sensorEvent.setValues(new float[] { 61.0f });
+
+		then(sensorEvent.getSensorEventKey()).isNotEqualTo(before);
+		then(sensorEvent.getSensorEventKey())
+				.isEqualTo(SensorEventKey.of(sensor.getSensorType(),
+						sensor.getSensorLocation(), new float[] { 61.0f }));
+	}
+
+	@Test
+	public void givenSensorTypeOutOfRange_whenKeyPacked_thenIllegalArgumentExceptionIsThrown() {
+
+		final Throwable throwable = catchThrowable(
+				() -> SensorEventKey.of(0x10000, Sensor.LOCATION_WATCH, new float[] { 1.0f }));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+}
@@ -0,0 +1,153 @@
+package com.emerigen.infrastructure.sensor;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.emerigen.infrastructure.learning.Prediction;
+
+public class SensorEventReplayEngineTest {
+
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Sensor accelerometerSensor = new AccelerometerSensor(
+			Sensor.LOCATION_PHONE, Sensor.REPORTING_MODE_ON_CHANGE, 1, false);
+
+	/**
+	 * Records the values, timestamp and instance of each replayed event
+	 */
+	private static class RecordingListener implements SensorEventListener {
+		final List<float[]> values = new ArrayList<float[]>();
+		final List<Long> timestamps = new ArrayList<Long>();
+		final List<SensorEvent> sensorEvents = new ArrayList<SensorEvent>();
+
+		@Override
+		public List<Prediction> onSensorChanged(SensorEvent sensorEvent) {
+			values.add(sensorEvent.getValues().clone());
+			timestamps.add(sensorEvent.getTimestamp());
+			sensorEvents.add(sensorEvent);
+			return new ArrayList<Prediction>();
+		}
+	}
+
+	private Path write(String content) throws Exception {
+		Path path = folder.newFile().toPath();
+		Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+		return path;
+	}
+
+	@Test
+	public void givenCsvWithHeaderAndBlankLines_whenReplayed_thenEveryNumericLineIsDelivered()
+			throws Exception {
+
+		// Given a recording with a header, a comment, a blank line and CRLF endings
+		Path path = write("x,y,z\r\n# recorded on the phone\r\n1.1,2.2,3.3\r\n\r\n"
+				+ "-4.5e1, 5 ,0.006\r\n7,8,9");
+		RecordingListener listener = new RecordingListener();
+		SensorEventReplayEngine engine = new SensorEventReplayEngine(listener,
+				accelerometerSensor, false, 1000, 0.0, 4096, false);
+
+		// When it is replayed
+		ReplayReport report = engine.replay(path);
+
+		// Then every numeric line is delivered, spaced by the sample interval
+		then(report.getReplayedEvents()).isEqualTo(3);
+		then(report.getSkippedRecords()).isEqualTo(1);
+		then(listener.values.get(0)).containsExactly(1.1f, 2.2f, 3.3f);
+		then(listener.values.get(1)).containsExactly(-45.0f, 5.0f, 0.006f);
+		then(listener.values.get(2)).containsExactly(7.0f, 8.0f, 9.0f);
+		then(listener.timestamps.get(2) - listener.timestamps.get(0)).isEqualTo(2000);
+		then(report.getLatencyNanos().getCount()).isEqualTo(3);
+	}
+
+	@Test
+	public void givenChunksSmallerThanTheFile_whenReplayed_thenLinesSpanningChunksAreIntact()
+			throws Exception {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 200; i++)
+			content.append(i).append(',').append(i + 0.5).append(',').append(-i)
+					.append('\n');
+		Path path = write(content.toString());
+		RecordingListener listener = new RecordingListener();
+
+		ReplayReport report = new SensorEventReplayEngine(listener, accelerometerSensor,
+				false, 1000, 0.0, 37, false).replay(path);
+
+		then(report.getReplayedEvents()).isEqualTo(200);
+		for (int i = 0; i < 200; i++)
+			then(listener.values.get(i)).containsExactly(i, i + 0.5f, -i);
+	}
+
+	@Test
+	public void givenTimestampedRecording_whenReplayedInScaledRealTime_thenItsPaceIsKept()
+			throws Exception {
+
+		// Given three events recorded 100 milliseconds apart
+		long start = 1600000000000000000L;
+		Path path = write(start + ",1,1,1\n" + (start + 100 * NANOS_PER_MILLI)
+				+ ",2,2,2\n" + (start + 200 * NANOS_PER_MILLI) + ",3,3,3\n");
+		RecordingListener listener = new RecordingListener();
+
+		// When they are replayed twice as fast as recorded
+		ReplayReport report = new SensorEventReplayEngine(listener, accelerometerSensor,
+				true, 1000, 2.0, 4096, false).replay(path);
+
+		// Then the recorded timestamps are kept and the replay takes 100 millis
+		then(listener.timestamps).containsExactly(start, start + 100 * NANOS_PER_MILLI,
+				start + 200 * NANOS_PER_MILLI);
+		then(report.getElapsedNanos()).isGreaterThanOrEqualTo(100 * NANOS_PER_MILLI);
+	}
+
+	@Test
+	public void givenReuseEvents_whenReplayed_thenOneInstanceIsRefilled() throws Exception {
+		Path path = write("1,2,3\n4,5,6\n");
+		RecordingListener listener = new RecordingListener();
+
+		new SensorEventReplayEngine(listener, accelerometerSensor, false, 1000, 0.0, 4096,
+				true).replay(path);
+
+		then(listener.sensorEvents.get(0)).isSameAs(listener.sensorEvents.get(1));
+		then(listener.values.get(1)).containsExactly(4.0f, 5.0f, 6.0f);
+	}
+
+	@Test
+	public void givenFailingListener_whenReplayed_thenFailuresAreCountedAndReplayContinues()
+			throws Exception {
+		Path path = write("1,2,3\n4,5,6\n");
+		SensorEventListener failingListener = new SensorEventListener() {
+			@Override
+			public List<Prediction> onSensorChanged(SensorEvent sensorEvent) {
+				throw new IllegalStateException("recognizer failure");
+			}
+		};
+
+		ReplayReport report = new SensorEventReplayEngine(failingListener,
+				accelerometerSensor, false, 1000, 0.0, 4096, false).replay(path);
+
+		then(report.getFailedEvents()).isEqualTo(2);
+		then(report.getReplayedEvents()).isEqualTo(0);
+	}
+
+	@Test
+	public void givenNegativeTimeScale_whenEngineCreated_thenIllegalArgumentExceptionIsThrown() {
+
+		final Throwable throwable = catchThrowable(
+				() -> new SensorEventReplayEngine(new RecordingListener(),
+						accelerometerSensor, false, 1000, -1.0, 4096, false));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+}
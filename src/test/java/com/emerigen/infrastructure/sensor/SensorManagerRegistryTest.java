@@ -0,0 +1,168 @@
+package com.emerigen.infrastructure.sensor;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.emerigen.infrastructure.learning.Prediction;
+
+public class SensorManagerRegistryTest {
+
+	private final Sensor sensor = new HeartRateSensor(Sensor.LOCATION_WATCH,
+			Sensor.REPORTING_MODE_ON_CHANGE, false);
+
+	private static SensorEventListener newListener() {
+		return new SensorEventListener() {
+			@Override
+			public List<Prediction> onSensorChanged(SensorEvent sensorEvent) {
+				return new ArrayList<Prediction>();
+			}
+		};
+	}
+
+	@Test
+	public void givenRegisteredListener_whenSensorReconfigured_thenListenerIsStillRegistered() {
+
+		// Given a registered listener
+		SensorManager sensorManager = new SensorManager();
+		SensorEventListener listener = newListener();
+		sensorManager.registerListenerForSensor(listener, sensor);
+
+		// When the sensor is reconfigured, changing its hashCode
+		sensor.setMinimumDelayBetweenReadings(sensor.getMinimumDelayBetweenReadings() + 1);
+
+		// Then the registration is found by sensor id
+		then(sensorManager.listenerIsRegisteredToSensor(listener, sensor)).isTrue();
+		then(sensorManager.getRegistrationsForSensor(sensor)).containsExactly(listener);
+	}
+
+	@Test
+	public void givenRegistrationSnapshot_whenAnotherListenerRegistered_thenSnapshotIsUnchanged() {
+
+		// Given a snapshot of the registrations
+		SensorManager sensorManager = new SensorManager();
+		SensorEventListener first = newListener();
+		sensorManager.registerListenerForSensor(first, sensor);
+		List<SensorEventListener> snapshot = sensorManager.getRegistrationsForSensor(sensor);
+
+		// When another listener is registered
+		sensorManager.registerListenerForSensor(newListener(), sensor);
+
+		// Then the snapshot is unchanged and cannot be modified
+		then(snapshot).containsExactly(first);
+		then(sensorManager.getRegistrationsForSensor(sensor).size()).isEqualTo(2);
+		final Throwable throwable = catchThrowable(() -> snapshot.add(newListener()));
+		then(throwable).isInstanceOf(UnsupportedOperationException.class);
+	}
+
+	@Test
+	public void givenManyThreads_whenListenersRegisteredConcurrently_thenAllAreRegistered()
+			throws Exception {
+
+		// Given many threads registering listeners for the same sensor
+		SensorManager sensorManager = new SensorManager();
+		int threadCount = 8;
+		int listenersPerThread = 250;
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		CountDownLatch start = new CountDownLatch(1);
+
+		// When they all register at once
+		for (int t = 0; t < threadCount; t++) {
+			executor.execute(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				for (int i = 0; i < listenersPerThread; i++)
+					sensorManager.registerListenerForSensor(newListener(), sensor);
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		then(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+		// Then no registration is lost
+		then(sensorManager.getRegistrationsForSensor(sensor).size())
+				.isEqualTo(threadCount * listenersPerThread);
+	}
+
+	@Test
+	public void givenSensorBeingCreated_whenLookedUp_thenItIsPublishedOnlyWithItsRecognizers()
+			throws Exception {
+
+		// Given recognizers whose creation looks the sensor up again, and another
+		// thread that looks it up while they are being created
+		SensorEventListener recognizer = newListener();
+		List<Sensor> reentrantLookups = new ArrayList<Sensor>();
+		List<Thread> lookups = new ArrayList<Thread>();
+		List<List<SensorEventListener>> registrationsSeen = new CopyOnWriteArrayList<List<SensorEventListener>>();
+		SensorManager sensorManager = new SensorManager() {
+			@Override
+			public List<SensorEventListener> createPatternRecognizersForSensor(
+					Sensor sensor) {
+				reentrantLookups.add(getDefaultSensorForLocation(sensor.getSensorType(),
+						sensor.getSensorLocation()));
+				Thread lookup = new Thread(() -> {
+					Sensor found = getDefaultSensorForLocation(sensor.getSensorType(),
+							sensor.getSensorLocation());
+					registrationsSeen.add(getRegistrationsForSensor(found));
+				});
+				lookups.add(lookup);
+				lookup.start();
+				try {
+					lookup.join(200);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				then(getAllSensors()).isEmpty();
+				return Collections.singletonList(recognizer);
+			}
+		};
+
+		// When the sensor is created
+		Sensor sensor = sensorManager.getDefaultSensorForLocation(Sensor.TYPE_HEART_RATE,
+				Sensor.LOCATION_WATCH);
+		lookups.get(0).join(5000);
+
+		// Then the creating thread found it and the other thread waited for its
+		// recognizers
+		then(reentrantLookups).containsExactly(sensor);
+		then(registrationsSeen).containsExactly(Collections.singletonList(recognizer));
+		then(sensorManager.getAllSensors()).containsExactly(sensor);
+	}
+
+	@Test
+	public void givenDisabledRegistrations_whenEnabled_thenOriginalRegistrationsAreRestored() {
+		SensorManager sensorManager = new SensorManager();
+		SensorEventListener listener = newListener();
+		sensorManager.registerListenerForSensor(listener, sensor);
+
+		sensorManager.disableListenerRegistrations();
+		then(sensorManager.getRegistrationsForSensor(sensor)).isEmpty();
+
+		sensorManager.enableListenerRegistrations();
+		then(sensorManager.getRegistrationsForSensor(sensor)).containsExactly(listener);
+	}
+
+	@Test
+	public void givenUnregisteredSensor_whenListenerUnregistered_thenNoExceptionIsThrown() {
+		SensorManager sensorManager = new SensorManager();
+
+		final Throwable throwable = catchThrowable(
+				() -> sensorManager.unregisterListenerFromSensor(newListener(), sensor));
+
+		then(throwable).isNull();
+	}
+
+}
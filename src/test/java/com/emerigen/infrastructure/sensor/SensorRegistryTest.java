@@ -0,0 +1,85 @@
+package com.emerigen.infrastructure.sensor;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import org.junit.Test;
+
+import com.couchbase.client.java.json.JsonObject;
+import com.emerigen.infrastructure.repository.DocumentDecoder;
+
+public class SensorRegistryTest {
+
+	private final SensorRegistry sensorRegistry = new SensorRegistry();
+
+	@Test
+	public void givenSameTypeLocationAndConfiguration_whenInterned_thenSameSensorIsReturned() {
+
+		// Given a sensor interned once
+		Sensor first = sensorRegistry.intern(Sensor.TYPE_HEART_RATE, Sensor.LOCATION_WATCH,
+				Sensor.REPORTING_MODE_ON_CHANGE, 1000, true);
+
+		// When the same type, location and configuration is interned again
+		Sensor second = sensorRegistry.intern(Sensor.TYPE_HEART_RATE,
+				Sensor.LOCATION_WATCH, Sensor.REPORTING_MODE_ON_CHANGE, 1000, true);
+
+		// Then the shared sensor of the matching subclass is returned
+		then(second).isSameAs(first);
+		then(first).isInstanceOf(HeartRateSensor.class);
+		then(first.getMinimumDelayBetweenReadings()).isEqualTo(1000);
+		then(first.isWakeUpSensor()).isTrue();
+		then(sensorRegistry.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void givenDifferentConfiguration_whenInterned_thenDistinctSensorsAreReturned() {
+		Sensor first = sensorRegistry.intern(Sensor.TYPE_HEART_RATE, Sensor.LOCATION_WATCH,
+				Sensor.REPORTING_MODE_ON_CHANGE, 1000, true);
+
+		Sensor second = sensorRegistry.intern(Sensor.TYPE_HEART_RATE,
+				Sensor.LOCATION_WATCH, Sensor.REPORTING_MODE_ON_CHANGE, 2000, true);
+
+		then(second).isNotSameAs(first);
+		then(first.getMinimumDelayBetweenReadings()).isEqualTo(1000);
+		then(second.getMinimumDelayBetweenReadings()).isEqualTo(2000);
+	}
+
+	@Test
+	public void givenInternedSensor_whenModified_thenIllegalStateExceptionIsThrown() {
+		Sensor sensor = sensorRegistry.intern(Sensor.TYPE_ACCELEROMETER,
+				Sensor.LOCATION_PHONE, Sensor.REPORTING_MODE_CONTINUOUS, 1000, false);
+
+		final Throwable throwable = catchThrowable(
+				() -> sensor.setMinimumDelayBetweenReadings(2000));
+
+		then(sensor.isFrozen()).isTrue();
+		then(throwable).isInstanceOf(IllegalStateException.class);
+		then(sensor.getMinimumDelayBetweenReadings()).isEqualTo(1000);
+	}
+
+	@Test
+	public void givenUnknownSensorType_whenInterned_thenPlainSensorWithRecordedValuesIsReturned() {
+		Sensor sensor = sensorRegistry.intern(3, Sensor.LOCATION_PHONE, 0, 1000, false);
+
+		then(sensor.getClass()).isEqualTo(Sensor.class);
+		then(sensor.getSensorType()).isEqualTo(3);
+		then(sensor.isFrozen()).isTrue();
+	}
+
+	@Test
+	public void givenManySensorEventDocuments_whenDecoded_thenTheyShareOneSensor() {
+		JsonObject sensorJsonObject = JsonObject.create()
+				.put("sensorType", Sensor.TYPE_TEMPERATURE)
+				.put("sensorLocation", Sensor.LOCATION_BODY).put("wakeUpSensor", false)
+				.put("minimumDelayBetweenReadings", 5000)
+				.put("reportingMode", Sensor.REPORTING_MODE_CONTINUOUS)
+				.put("type", "sensor");
+
+		Sensor first = DocumentDecoder.decodeSensor(sensorJsonObject);
+		Sensor second = DocumentDecoder.decodeSensor(sensorJsonObject);
+
+		then(second).isSameAs(first);
+		then(first).isInstanceOf(TemperatureSensor.class);
+	}
+
+}
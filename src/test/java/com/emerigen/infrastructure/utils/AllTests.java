@@ -7,7 +7,8 @@ import org.junit.runners.Suite.SuiteClasses;
 @RunWith(Suite.class)
 @SuiteClasses({ KnowledgePropertiesTest.class, ScheduledMethodTaskTest.class,
 		ScheduledMethodAspectTest.class, LeakyBucketTest.class, UtilsTest.class,
-		DynamicLoggingAspectTest.class })
+		DynamicLoggingAspectTest.class, HistogramTest.class, StepSchedulerTest.class,
+		HashedWheelTimerTest.class, FrequencyMonitorTest.class })
 public class AllTests {
 
 }
@@ -0,0 +1,168 @@
+package com.emerigen.infrastructure.utils;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrequencyMonitorTest {
+
+	private HashedWheelTimer timer;
+	private FrequencyMonitor frequencyMonitor;
+	private final AtomicInteger highCount = new AtomicInteger();
+	private final AtomicInteger lowCount = new AtomicInteger();
+	private final Runnable highFrequency = () -> highCount.incrementAndGet();
+	private final Runnable lowFrequency = () -> lowCount.incrementAndGet();
+
+	@FrequencyMeasurement(frequencyEventClassName = "FrequencyMonitorTestEvent")
+	public void measuredMethod() {
+	}
+
+	@Before
+	public void setUp() {
+		timer = new HashedWheelTimer("frequency-monitor-test", 1, TimeUnit.MILLISECONDS, 64);
+
+		// Run the handlers on the recording or timer thread
+		frequencyMonitor = new FrequencyMonitor(timer, Runnable::run);
+	}
+
+	@After
+	public void tearDown() {
+		frequencyMonitor.shutdown();
+	}
+
+	@Test
+	public void givenFullBucket_whenOccurancesOverflowIt_thenHighHandlerRunsAfterMinimum() {
+		// Given a full bucket of 5 per minute requiring 2 occurances at full
+		LeakyBucket bucket = frequencyMonitor.monitor("event", 5, Duration.ofMinutes(1), 1,
+				2, highFrequency, null);
+		then(bucket.isFull()).isTrue();
+
+		// When the event occurs twice more
+		then(bucket.fill()).isFalse();
+		then(highCount.get()).isEqualTo(0);
+		frequencyMonitor.record("event");
+
+		// Then the high frequency handler has run once
+		then(highCount.get()).isEqualTo(1);
+		then(bucket.getOccurances()).isEqualTo(2);
+	}
+
+	@Test
+	public void givenLeakedBucket_whenFilledToCapacity_thenIsFullAndNoHandlerRuns() {
+		LeakyBucket bucket = frequencyMonitor.monitor("event", 5, Duration.ofMinutes(1), 1,
+				1, highFrequency, null);
+		for (int i = 0; i < 5; i++)
+			then(bucket.leak()).isTrue();
+		then(bucket.isEmpty()).isTrue();
+		then(bucket.leak()).isFalse();
+
+		for (int i = 0; i < 5; i++)
+			then(bucket.fill()).isTrue();
+
+		then(bucket.isFull()).isTrue();
+		then(bucket.getLevel()).isEqualTo(5);
+		then(highCount.get()).isEqualTo(0);
+	}
+
+	@Test
+	public void givenBucketWithoutOccurances_whenItLeaksEmpty_thenLowHandlerRuns()
+			throws Exception {
+		// Given a full bucket that leaks empty in 100 ms
+		LeakyBucket bucket = frequencyMonitor.monitor("event", 10, Duration.ofMillis(100),
+				2, 1, null, lowFrequency);
+
+		// When nothing occurs
+		Thread.sleep(50);
+		then(lowCount.get()).isEqualTo(0);
+		Thread.sleep(400);
+
+		// Then the bucket is empty and the low frequency handler has run
+		then(bucket.isEmpty()).isTrue();
+		then(lowCount.get()).isGreaterThan(0);
+	}
+
+	@Test
+	public void givenClosedBucket_whenItLeaksEmpty_thenLowHandlerDoesNotRun()
+			throws Exception {
+		LeakyBucket bucket = frequencyMonitor.monitor("event", 10, Duration.ofMillis(50), 1,
+				1, null, lowFrequency);
+
+		bucket.close();
+		Thread.sleep(200);
+
+		then(lowCount.get()).isEqualTo(0);
+	}
+
+	@Test
+	public void givenUnmonitoredEvent_whenRecorded_thenOtherBucketsAreUnchanged() {
+		LeakyBucket bucket = frequencyMonitor.monitor("event", 5, Duration.ofMinutes(1), 1,
+				1, highFrequency, null);
+
+		frequencyMonitor.record("otherEvent");
+
+		then(bucket.getOccurances()).isEqualTo(0);
+		then(frequencyMonitor.getBuckets("otherEvent")).isEmpty();
+		then(frequencyMonitor.getBuckets("event")).containsExactly(bucket);
+	}
+
+	@Test
+	public void givenAnnotatedHandlers_whenEventFrequencyExceeded_thenHighHandlerMethodRuns() {
+		FrequencyAnnotationExample.highExceptionFrequencyHandlerCount = 0;
+
+		// Given the handlers of FrequencyAnnotationExample, 3 exceptions per ms
+		int registered = frequencyMonitor
+				.registerAnnotatedHandlers("com.emerigen.infrastructure.utils");
+		then(registered).isEqualTo(2);
+		then(frequencyMonitor.getBuckets("Exception")).hasSize(2);
+
+		// When exceptions occur far more often
+		for (int i = 0; i < 1000; i++)
+			frequencyMonitor.record("Exception");
+
+		// Then the high frequency handler has run
+		then(FrequencyAnnotationExample.highExceptionFrequencyHandlerCount)
+				.isGreaterThan(0);
+		frequencyMonitor.remove("Exception");
+	}
+
+	@Test
+	public void givenFrequencyMeasurementAnnotation_whenMethodExecuted_thenOccuranceIsRecorded() {
+		LeakyBucket bucket = FrequencyMonitor.getInstance().monitor(
+				"FrequencyMonitorTestEvent", 5, Duration.ofMinutes(1), 1, 1, highFrequency,
+				null);
+
+		for (int i = 0; i < 3; i++)
+			measuredMethod();
+
+		then(bucket.getOccurances()).isEqualTo(3);
+		FrequencyMonitor.getInstance().remove("FrequencyMonitorTestEvent");
+	}
+
+	@Test
+	public void givenManyBuckets_whenCreated_thenTheyShareOneTimerThread() {
+		for (int i = 0; i < 10000; i++)
+			frequencyMonitor.monitor("event" + i, 10, Duration.ofSeconds(1), 1, 1, null,
+					lowFrequency);
+
+		long timerThreads = Thread.getAllStackTraces().keySet().stream()
+				.filter(thread -> thread.getName().equals("frequency-monitor-test")).count();
+		then(timerThreads).isEqualTo(1);
+	}
+
+	@Test
+	public void givenEmptyEventName_whenMonitored_thenIllegalArgumentExceptionIsThrown() {
+
+		final Throwable throwable = catchThrowable(() -> frequencyMonitor.monitor("", 5,
+				Duration.ofMinutes(1), 1, 1, highFrequency, null));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+}
@@ -0,0 +1,85 @@
+package com.emerigen.infrastructure.utils;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class HashedWheelTimerTest {
+
+	private HashedWheelTimer timer = new HashedWheelTimer("hashed-wheel-timer-test", 1,
+			TimeUnit.MILLISECONDS, 8);
+
+	@After
+	public void tearDown() {
+		timer.stop();
+	}
+
+	@Test
+	public void givenTimeoutsBeyondOneTurnOfTheWheel_whenScheduled_thenTheyRunInDeadlineOrder()
+			throws Exception {
+		List<Integer> expired = new CopyOnWriteArrayList<Integer>();
+		CountDownLatch latch = new CountDownLatch(3);
+
+		// Given an 8 ms wheel and timeouts due after several turns
+		long start = System.nanoTime();
+		timer.newTimeout(() -> {
+			expired.add(30);
+			latch.countDown();
+		}, 30, TimeUnit.MILLISECONDS);
+		timer.newTimeout(() -> {
+			expired.add(5);
+			latch.countDown();
+		}, 5, TimeUnit.MILLISECONDS);
+		timer.newTimeout(() -> {
+			expired.add(17);
+			latch.countDown();
+		}, 17, TimeUnit.MILLISECONDS);
+
+		// Then they expire in order, no earlier than their deadlines
+		then(latch.await(2, TimeUnit.SECONDS)).isTrue();
+		then(expired).containsExactly(5, 17, 30);
+		then(System.nanoTime() - start).isGreaterThanOrEqualTo(30000000L);
+	}
+
+	@Test
+	public void givenCancelledTimeout_whenDeadlinePasses_thenTaskDoesNotRun()
+			throws Exception {
+		List<String> expired = new CopyOnWriteArrayList<String>();
+		HashedWheelTimer.Timeout timeout = timer.newTimeout(() -> expired.add("cancelled"),
+				10, TimeUnit.MILLISECONDS);
+
+		timeout.cancel();
+		Thread.sleep(50);
+
+		then(timeout.isCancelled()).isTrue();
+		then(expired).isEmpty();
+	}
+
+	@Test
+	public void givenStoppedTimer_whenTimeoutScheduled_thenIllegalStateExceptionIsThrown() {
+		timer.stop();
+
+		final Throwable throwable = catchThrowable(
+				() -> timer.newTimeout(() -> {
+				}, 1, TimeUnit.MILLISECONDS));
+
+		then(throwable).isInstanceOf(IllegalStateException.class);
+	}
+
+	@Test
+	public void givenNonPositiveTick_whenCreated_thenIllegalArgumentExceptionIsThrown() {
+
+		final Throwable throwable = catchThrowable(
+				() -> new HashedWheelTimer("invalid", 0, TimeUnit.MILLISECONDS, 8));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+}
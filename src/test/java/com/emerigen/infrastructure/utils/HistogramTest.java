@@ -0,0 +1,60 @@
+package com.emerigen.infrastructure.utils;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import org.assertj.core.data.Percentage;
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void givenUniformValues_whenPercentilesRead_thenTheyAreWithinTheBucketPrecision() {
+
+		// Given the values 1 through 100000
+		Histogram histogram = new Histogram();
+		for (long value = 1; value <= 100000; value++)
+			histogram.record(value);
+
+		// Then the percentiles are within the relative precision of the buckets
+		then(histogram.getCount()).isEqualTo(100000);
+		then(histogram.getMin()).isEqualTo(1);
+		then(histogram.getMax()).isEqualTo(100000);
+		then(histogram.getMean()).isEqualTo(50000.5);
+		then(histogram.getValueAtPercentile(50.0)).isCloseTo(50000L,
+				Percentage.withPercentage(6.25));
+		then(histogram.getValueAtPercentile(99.0)).isCloseTo(99000L,
+				Percentage.withPercentage(6.25));
+		then(histogram.getValueAtPercentile(100.0)).isEqualTo(100000);
+	}
+
+	@Test
+	public void givenSmallValues_whenPercentilesRead_thenTheyAreExact() {
+		Histogram histogram = new Histogram();
+		for (long value : new long[] { 3, 3, 7, 20 })
+			histogram.record(value);
+
+		then(histogram.getValueAtPercentile(50.0)).isEqualTo(3);
+		then(histogram.getValueAtPercentile(75.0)).isEqualTo(7);
+		then(histogram.getValueAtPercentile(100.0)).isEqualTo(20);
+	}
+
+	@Test
+	public void givenLargestValue_whenRecorded_thenItIsReportedAsTheMaximum() {
+		Histogram histogram = new Histogram();
+
+		histogram.record(Long.MAX_VALUE);
+
+		then(histogram.getValueAtPercentile(99.9)).isEqualTo(Long.MAX_VALUE);
+	}
+
+	@Test
+	public void givenNegativeValue_whenRecorded_thenIllegalArgumentExceptionIsThrown() {
+		Histogram histogram = new Histogram();
+
+		final Throwable throwable = catchThrowable(() -> histogram.record(-1));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+}
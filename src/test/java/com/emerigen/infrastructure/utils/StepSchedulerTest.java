@@ -0,0 +1,150 @@
+package com.emerigen.infrastructure.utils;
+
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StepSchedulerTest {
+
+	private StepScheduler stepScheduler = new StepScheduler(4, 100);
+
+	/**
+	 * Records the order its methods run in and how many instances were created
+	 */
+	public static class Steps {
+		static final List<String> executions = new CopyOnWriteArrayList<String>();
+		static final AtomicInteger instances = new AtomicInteger();
+		private int runs = 0;
+
+		public Steps() {
+			instances.incrementAndGet();
+		}
+
+		public void high() {
+			sleep();
+			executions.add("high");
+		}
+
+		public void medium() {
+			executions.add("medium");
+		}
+
+		public int countRuns() {
+			executions.add("runs=" + ++runs);
+			return runs;
+		}
+
+		public void fail() {
+			throw new IllegalStateException("step failure");
+		}
+
+		public static void staticStep() {
+			executions.add("static");
+		}
+
+		private static void sleep() {
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static ScheduledMethodTask task(String methodName, int start, int interval,
+			ExecutionPriority priority) throws Exception {
+		return new ScheduledMethodTask(Steps.class.getMethod(methodName), start, interval,
+				priority, "test step");
+	}
+
+	@Before
+	public void setUp() {
+		Steps.executions.clear();
+		Steps.instances.set(0);
+	}
+
+	@After
+	public void tearDown() {
+		stepScheduler.shutdown();
+	}
+
+	@Test
+	public void givenTasksOfSeveralPriorities_whenStepExecuted_thenHigherTiersCompleteFirst()
+			throws Exception {
+
+		// Given slow high priority tasks and a low priority task
+		List<ScheduledMethodTask> tasks = new ArrayList<ScheduledMethodTask>();
+		tasks.add(task("medium", 1, 1, ExecutionPriority.LOW));
+		tasks.add(task("high", 1, 1, ExecutionPriority.HIGH));
+		tasks.add(task("high", 1, 1, ExecutionPriority.HIGH));
+		tasks.add(task("staticStep", 1, 1, ExecutionPriority.MEDIUM));
+
+		// When the step is executed
+		stepScheduler.executeStep(tasks);
+
+		// Then each tier waits for the one above it
+		then(Steps.executions).containsExactly("high", "high", "static", "medium");
+	}
+
+	@Test
+	public void givenInstanceMethod_whenExecutedOverManySteps_thenOneTargetInstanceIsReused()
+			throws Exception {
+		ScheduledMethodTask task = task("countRuns", 1, 2, ExecutionPriority.MEDIUM);
+
+		stepScheduler.executeSteps(Collections.singletonList(task), 5);
+
+		then(Steps.instances.get()).isEqualTo(1);
+		then(Steps.executions).containsExactly("runs=1", "runs=2", "runs=3");
+		then(task.getExecutionCount()).isEqualTo(3);
+		then(task.getExecutionNanos().getCount()).isEqualTo(3);
+		then(stepScheduler.getStepCount()).isEqualTo(5);
+	}
+
+	@Test
+	public void givenFailingTask_whenStepExecuted_thenFailureIsCountedAndOtherTasksRun()
+			throws Exception {
+		ScheduledMethodTask failing = task("fail", 1, 1, ExecutionPriority.HIGH);
+		List<ScheduledMethodTask> tasks = Arrays.asList(failing,
+				task("medium", 1, 1, ExecutionPriority.HIGH));
+
+		stepScheduler.executeStep(tasks);
+
+		then(failing.getFailureCount()).isEqualTo(1);
+		then(Steps.executions).containsExactly("medium");
+	}
+
+	@Test
+	public void givenManySteps_whenExecuted_thenThousandsOfStepsRunPerSecond()
+			throws Exception {
+		List<ScheduledMethodTask> tasks = Arrays.asList(
+				task("staticStep", 1, 1, ExecutionPriority.HIGH),
+				task("staticStep", 1, 1, ExecutionPriority.HIGH),
+				task("countRuns", 1, 1, ExecutionPriority.LOW));
+
+		long start = System.nanoTime();
+		stepScheduler.executeSteps(tasks, 5000);
+		long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+		then(Steps.executions).hasSize(15000);
+		then(elapsedMillis).isLessThan(5000);
+	}
+
+	@Test
+	public void givenNonPositiveThreadCount_whenCreated_thenIllegalArgumentExceptionIsThrown() {
+
+		final Throwable throwable = catchThrowable(() -> new StepScheduler(0, 100));
+
+		then(throwable).isInstanceOf(IllegalArgumentException.class);
+	}
+
+}